@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.securityandsafetythings.examples.tflitedetector.utilities.ResourceHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Helpers for the {@link com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType#AUTO} probe,
+ * which times every candidate acceleration type on a synthetic frame and keeps the one with the lowest p95 latency.
+ * <p>
+ * The result of a probe only holds for the same models on the same device and system image, so it is persisted
+ * under a key made of a hash of the models and the build fingerprint of the device, see {@link #createKey}.
+ */
+final class AccelerationProbe {
+    private static final String LOGTAG = AccelerationProbe.class.getSimpleName();
+    // Runs discarded before measuring, the first runs of a delegate include compiling the model
+    @SuppressWarnings("MagicNumber")
+    private static final int WARM_UP_RUNS = 3;
+    @SuppressWarnings("MagicNumber")
+    private static final int MEASURED_RUNS = 20;
+    @SuppressWarnings("MagicNumber")
+    private static final double PERCENTILE = 0.95;
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    // Spreads the synthetic pixel values, so that the frame is not uniform
+    @SuppressWarnings("MagicNumber")
+    private static final int PIXEL_STEP = 31;
+    private static final String KEY_SEPARATOR = "|";
+
+    private AccelerationProbe() {
+        throw new UnsupportedOperationException("Helper class cannot be instantiated");
+    }
+
+    /**
+     * Creates the key the result of a probe is persisted under.
+     *
+     * @param assets         The asset manager the models are loaded from.
+     * @param configuration  The detector settings that influence the result, for example the number of threads.
+     * @param modelFileNames The names of the model files. Null names, of models that are not loaded, are skipped.
+     * @return The key, or null if the models could not be hashed. In that case the result must not be persisted.
+     */
+    static String createKey(final AssetManager assets, final String configuration, final String... modelFileNames) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String modelFileName : modelFileNames) {
+                if (modelFileName != null) {
+                    digest.update(ResourceHelper.loadModelFile(assets, modelFileName));
+                }
+            }
+            final StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format(Locale.ROOT, "%02x", b & BYTE_MASK));
+            }
+            return key.append(KEY_SEPARATOR).append(android.os.Build.FINGERPRINT)
+                    .append(KEY_SEPARATOR).append(configuration).toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            Log.e(LOGTAG, "Could not hash the models, the probe result will not be persisted", e);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a synthetic frame in the input format of the detector.
+     *
+     * @param inputSize   The size of the frame, denoted by inputSize x inputSize.
+     * @param isQuantized Whether the detector expects quantized input.
+     * @return A direct buffer holding a non-uniform frame.
+     */
+    static ByteBuffer createSyntheticFrame(final int inputSize, final boolean isQuantized) {
+        final int values = inputSize * inputSize * ObjectDetector.CHANNELS;
+        final ByteBuffer frame = ByteBuffer.allocateDirect(values * (isQuantized ? 1 : Float.SIZE / Byte.SIZE))
+                .order(ByteOrder.nativeOrder());
+        if (isQuantized) {
+            for (int i = 0; i < values; i++) {
+                frame.put((byte) (i * PIXEL_STEP));
+            }
+        } else {
+            final FloatBuffer floats = frame.asFloatBuffer();
+            for (int i = 0; i < values; i++) {
+                floats.put((((i * PIXEL_STEP) & BYTE_MASK) - InputPreprocessor.IMAGE_MED) / InputPreprocessor.IMAGE_MED);
+            }
+        }
+        frame.rewind();
+        return frame;
+    }
+
+    /**
+     * Measures the p95 latency of an inference.
+     *
+     * @param inference Runs the inference once.
+     * @return The p95 latency, in nanoseconds.
+     */
+    static long measureP95(final Runnable inference) {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            inference.run();
+        }
+        final long[] runs = new long[MEASURED_RUNS];
+        for (int i = 0; i < runs.length; i++) {
+            final long startTime = System.nanoTime();
+            inference.run();
+            runs[i] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(runs);
+        return runs[(int) Math.ceil(PERCENTILE * runs.length) - 1];
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the raw outputs of an SSD model exported without the {@code TFLite_Detection_PostProcess} operator, i.e. a
+ * model with two outputs:
+ * <ol>
+ *   <li> box encodings of shape [1, anchors, 4], in [ty, tx, th, tw] order relative to the anchors. </li>
+ *   <li> class logits of shape [1, anchors, classes + 1], where class 0 is the background. </li>
+ * </ol>
+ * Like the fast mode of {@code TFLite_Detection_PostProcess}, only the best class of every anchor becomes a candidate.
+ * The score threshold is compared against the raw outputs, in logit space and, for quantized models, in the quantized
+ * domain, so that the sigmoid and the box decoding are only computed for the anchors that pass it. Suppression is left
+ * to the {@link PostProcessor}.
+ */
+final class AnchorDecoder {
+    // Scales of the box coder the SSD models of the TensorFlow Object Detection API are trained with
+    @SuppressWarnings("MagicNumber")
+    private static final float Y_SCALE = 10.0f;
+    @SuppressWarnings("MagicNumber")
+    private static final float X_SCALE = 10.0f;
+    @SuppressWarnings("MagicNumber")
+    private static final float H_SCALE = 5.0f;
+    @SuppressWarnings("MagicNumber")
+    private static final float W_SCALE = 5.0f;
+    // Default anchor generator of SSD MobileNet: 6 layers with scales from 0.2 to 0.95
+    @SuppressWarnings("MagicNumber")
+    private static final int NUM_LAYERS = 6;
+    @SuppressWarnings("MagicNumber")
+    private static final float MIN_SCALE = 0.2f;
+    @SuppressWarnings("MagicNumber")
+    private static final float MAX_SCALE = 0.95f;
+    @SuppressWarnings("MagicNumber")
+    private static final float[] ASPECT_RATIOS = {1.0f, 2.0f, 0.5f, 3.0f, 1.0f / 3.0f};
+    @SuppressWarnings("MagicNumber")
+    private static final float[] LOWEST_LAYER_ASPECT_RATIOS = {1.0f, 2.0f, 0.5f};
+    @SuppressWarnings("MagicNumber")
+    private static final float LOWEST_LAYER_SCALE = 0.1f;
+    // The first feature map has a stride of 16 pixels, every following one halves it
+    @SuppressWarnings("MagicNumber")
+    private static final int FIRST_LAYER_STRIDE = 16;
+    // Values stored per anchor: [yCenter, xCenter, height, width]
+    @SuppressWarnings("MagicNumber")
+    private static final int ANCHOR_STRIDE = 4;
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    private static final int FLOAT_BYTES = Float.SIZE / Byte.SIZE;
+    private final float[] mAnchors;
+    private final int mNumAnchors;
+    private final int mNumClasses;
+    private final ByteBuffer mBoxEncodings;
+    private final ByteBuffer mClassLogits;
+    // Dequantization parameters of the outputs, a scale of 0 denotes a float output
+    private final float mBoxScale;
+    private final int mBoxZeroPoint;
+    private final float mClassScale;
+    private final int mClassZeroPoint;
+    private final Object[] mInputArray = new Object[1];
+    private final Map<Integer, Object> mOutputMap = new HashMap<>();
+
+    /**
+     * Constructs an {@code AnchorDecoder} for raw outputs of a given layout and allocates them.
+     *
+     * @param anchors        The anchors, as created by {@link #createSsdAnchors(int)}.
+     * @param numClasses     The number of classes of the class logits, including the background.
+     * @param boxScale       The dequantization scale of the box encodings, or 0 for float box encodings.
+     * @param boxZeroPoint   The zero point of quantized box encodings.
+     * @param classScale     The dequantization scale of the class logits, or 0 for float class logits.
+     * @param classZeroPoint The zero point of quantized class logits.
+     */
+    AnchorDecoder(final float[] anchors, final int numClasses, final float boxScale, final int boxZeroPoint,
+                  final float classScale, final int classZeroPoint) {
+        mAnchors = anchors;
+        mNumAnchors = anchors.length / ANCHOR_STRIDE;
+        mNumClasses = numClasses;
+        mBoxScale = boxScale;
+        mBoxZeroPoint = boxZeroPoint;
+        mClassScale = classScale;
+        mClassZeroPoint = classZeroPoint;
+        final int boxBytes = mNumAnchors * ANCHOR_STRIDE * (boxScale != 0.0f ? 1 : FLOAT_BYTES);
+        final int classBytes = mNumAnchors * numClasses * (classScale != 0.0f ? 1 : FLOAT_BYTES);
+        mBoxEncodings = ByteBuffer.allocateDirect(boxBytes).order(ByteOrder.nativeOrder());
+        mClassLogits = ByteBuffer.allocateDirect(classBytes).order(ByteOrder.nativeOrder());
+        mOutputMap.put(0, mBoxEncodings);
+        mOutputMap.put(1, mClassLogits);
+    }
+
+    /**
+     * Creates an {@code AnchorDecoder} for the outputs of a model.
+     *
+     * @param model   The interpreter of the raw SSD model.
+     * @param anchors The anchors, as created by {@link #createSsdAnchors(int)}.
+     * @return The decoder.
+     * @throws IllegalArgumentException If the outputs of the model do not match the anchors.
+     */
+    static AnchorDecoder create(final Interpreter model, final float[] anchors) {
+        final int numAnchors = anchors.length / ANCHOR_STRIDE;
+        final Tensor boxTensor = model.getOutputTensor(0);
+        final Tensor classTensor = model.getOutputTensor(1);
+        final int[] classShape = classTensor.shape();
+        if (boxTensor.shape()[1] != numAnchors || classShape[1] != numAnchors) {
+            throw new IllegalArgumentException("Model outputs " + boxTensor.shape()[1] + " boxes, but "
+                    + numAnchors + " anchors were generated");
+        }
+        final boolean isBoxQuantized = boxTensor.dataType() == DataType.UINT8;
+        final boolean isClassQuantized = classTensor.dataType() == DataType.UINT8;
+        return new AnchorDecoder(anchors, classShape[2],
+                isBoxQuantized ? boxTensor.quantizationParams().getScale() : 0.0f,
+                isBoxQuantized ? boxTensor.quantizationParams().getZeroPoint() : 0,
+                isClassQuantized ? classTensor.quantizationParams().getScale() : 0.0f,
+                isClassQuantized ? classTensor.quantizationParams().getZeroPoint() : 0);
+    }
+
+    /**
+     * Checks whether a model outputs raw box encodings and class logits rather than post-processed detections.
+     *
+     * @param model The interpreter of the model.
+     * @return True if the model needs an {@code AnchorDecoder}, false otherwise.
+     */
+    static boolean isRawModel(final Interpreter model) {
+        return model.getOutputTensorCount() == 2;
+    }
+
+    /**
+     * Generates the anchors of the default SSD MobileNet anchor generator for a square input. For an input of 300
+     * pixels, these are the 1917 anchors of feature maps 19, 10, 5, 3, 2 and 1.
+     *
+     * @param inputSize The size of the model input, denoted by inputSize x inputSize.
+     * @return The anchors as [yCenter, xCenter, height, width], relative to the input.
+     */
+    static float[] createSsdAnchors(final int inputSize) {
+        final int[] featureMapSizes = new int[NUM_LAYERS];
+        int anchorCount = 0;
+        for (int layer = 0; layer < NUM_LAYERS; layer++) {
+            featureMapSizes[layer] = layer == 0
+                    ? (inputSize + FIRST_LAYER_STRIDE - 1) / FIRST_LAYER_STRIDE
+                    : (featureMapSizes[layer - 1] + 1) / 2;
+            final int boxesPerCell = layer == 0 ? LOWEST_LAYER_ASPECT_RATIOS.length : ASPECT_RATIOS.length + 1;
+            anchorCount += featureMapSizes[layer] * featureMapSizes[layer] * boxesPerCell;
+        }
+        final float[] anchors = new float[anchorCount * ANCHOR_STRIDE];
+        int offset = 0;
+        for (int layer = 0; layer < NUM_LAYERS; layer++) {
+            final float scale = scale(layer);
+            final float nextScale = layer + 1 < NUM_LAYERS ? scale(layer + 1) : 1.0f;
+            final int size = featureMapSizes[layer];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    final float yCenter = (y + 0.5f) / size;
+                    final float xCenter = (x + 0.5f) / size;
+                    if (layer == 0) {
+                        for (float aspectRatio : LOWEST_LAYER_ASPECT_RATIOS) {
+                            // Only the square box of the lowest layer is reduced, the others keep the layer scale
+                            offset = putAnchor(anchors, offset, yCenter, xCenter,
+                                    aspectRatio == 1.0f ? LOWEST_LAYER_SCALE : scale, aspectRatio);
+                        }
+                    } else {
+                        for (float aspectRatio : ASPECT_RATIOS) {
+                            offset = putAnchor(anchors, offset, yCenter, xCenter, scale, aspectRatio);
+                        }
+                        // One more square box between the scales of this and the next layer
+                        offset = putAnchor(anchors, offset, yCenter, xCenter, (float) Math.sqrt(scale * nextScale),
+                                1.0f);
+                    }
+                }
+            }
+        }
+        return anchors;
+    }
+
+    private static float scale(final int layer) {
+        return MIN_SCALE + (MAX_SCALE - MIN_SCALE) * layer / (NUM_LAYERS - 1);
+    }
+
+    private static int putAnchor(final float[] anchors, final int offset, final float yCenter, final float xCenter,
+                                 final float scale, final float aspectRatio) {
+        final float ratio = (float) Math.sqrt(aspectRatio);
+        anchors[offset] = yCenter;
+        anchors[offset + 1] = xCenter;
+        anchors[offset + 2] = scale / ratio;
+        anchors[offset + 3] = scale * ratio;
+        return offset + ANCHOR_STRIDE;
+    }
+
+    /**
+     * Gets the buffer the model writes the box encodings to, of shape [1, anchors, 4].
+     *
+     * @return The box encodings.
+     */
+    ByteBuffer getBoxEncodings() {
+        return mBoxEncodings;
+    }
+
+    /**
+     * Gets the buffer the model writes the class logits to, of shape [1, anchors, classes + 1].
+     *
+     * @return The class logits.
+     */
+    ByteBuffer getClassLogits() {
+        return mClassLogits;
+    }
+
+    /**
+     * Gets the number of anchors, i.e. the maximum number of candidates per frame.
+     *
+     * @return The number of anchors.
+     */
+    int getNumAnchors() {
+        return mNumAnchors;
+    }
+
+    /**
+     * Runs the model and populates the raw output tensors.
+     *
+     * @param model   The interpreter of the raw SSD model.
+     * @param imgData The input tensor.
+     */
+    void run(final Interpreter model, final ByteBuffer imgData) {
+        mInputArray[0] = imgData;
+        model.runForMultipleInputsOutputs(mInputArray, mOutputMap);
+    }
+
+    /**
+     * Adds the best class of every anchor that passes the score threshold of the post processor as a candidate.
+     *
+     * @param postProcessor The post processor receiving the candidates.
+     */
+    @SuppressWarnings("MagicNumber")
+    void decodeInto(final PostProcessor postProcessor) {
+        final boolean isQuantized = mClassScale != 0.0f;
+        // The sigmoid is monotonic, so the threshold can be compared against the raw logits
+        final float threshold = postProcessor.getScoreThreshold();
+        final float logitThreshold = threshold <= 0.0f ? Float.NEGATIVE_INFINITY
+                : threshold >= 1.0f ? Float.POSITIVE_INFINITY : (float) Math.log(threshold / (1.0f - threshold));
+        // Quantized logits range from 0 to 255, so a threshold of 256 rejects every anchor
+        final int quantizedThreshold = isQuantized
+                ? (int) Math.max(0, Math.min(BYTE_MASK + 1, Math.ceil(logitThreshold / mClassScale + mClassZeroPoint)))
+                : 0;
+        for (int anchor = 0; anchor < mNumAnchors; anchor++) {
+            final int row = anchor * mNumClasses;
+            int bestClass = -1;
+            float bestLogit;
+            if (isQuantized) {
+                int bestValue = quantizedThreshold - 1;
+                // Class 0 is the background
+                for (int c = 1; c < mNumClasses; c++) {
+                    final int value = mClassLogits.get(row + c) & BYTE_MASK;
+                    if (value > bestValue) {
+                        bestValue = value;
+                        bestClass = c;
+                    }
+                }
+                bestLogit = (bestValue - mClassZeroPoint) * mClassScale;
+            } else {
+                bestLogit = logitThreshold;
+                for (int c = 1; c < mNumClasses; c++) {
+                    final float value = mClassLogits.getFloat((row + c) * FLOAT_BYTES);
+                    if (value >= bestLogit) {
+                        bestLogit = value;
+                        bestClass = c;
+                    }
+                }
+            }
+            if (bestClass < 0) {
+                continue;
+            }
+            final float score = (float) (1.0 / (1.0 + Math.exp(-bestLogit)));
+            final int box = anchor * ANCHOR_STRIDE;
+            final float yCenter = readBox(box) / Y_SCALE * mAnchors[box + 2] + mAnchors[box];
+            final float xCenter = readBox(box + 1) / X_SCALE * mAnchors[box + 3] + mAnchors[box + 1];
+            final float halfHeight = (float) Math.exp(readBox(box + 2) / H_SCALE) * mAnchors[box + 2] / 2;
+            final float halfWidth = (float) Math.exp(readBox(box + 3) / W_SCALE) * mAnchors[box + 3] / 2;
+            // The background column is not part of the label file
+            postProcessor.add(xCenter - halfWidth, yCenter - halfHeight, xCenter + halfWidth, yCenter + halfHeight,
+                    score, bestClass - 1);
+        }
+    }
+
+    private float readBox(final int index) {
+        if (mBoxScale != 0.0f) {
+            return ((mBoxEncodings.get(index) & BYTE_MASK) - mBoxZeroPoint) * mBoxScale;
+        }
+        return mBoxEncodings.getFloat(index * FLOAT_BYTES);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * A reference-counted detector, so that a detector can be swapped out while frames are still running on it. The
+ * detector is destroyed when the last reference is released.
+ * <p>
+ * The lease starts with one reference, held by whoever publishes it. Every frame acquires its own reference for the
+ * time it runs on the detector.
+ *
+ * @param <D> The type of the detector, an {@link ObjectDetector} in the app.
+ */
+final class DetectorLease<D> {
+    private final D mDetector;
+    private final Consumer<D> mDestroyer;
+    private final AtomicInteger mReferences = new AtomicInteger(1);
+
+    /**
+     * Constructs a {@code DetectorLease} holding one reference.
+     *
+     * @param detector  The detector, fully initialized.
+     * @param destroyer Destroys the detector once the last reference is released.
+     */
+    DetectorLease(final D detector, final Consumer<D> destroyer) {
+        mDetector = detector;
+        mDestroyer = destroyer;
+    }
+
+    /**
+     * Acquires a reference to the lease currently published in a reference. A lease that is swapped out and released
+     * between reading and acquiring it cannot be used, so the reference is read again until the acquired lease is
+     * still alive.
+     *
+     * @param published The reference the current lease is published in.
+     * @param <D>       The type of the detector.
+     * @return The acquired lease, or null if no lease is published.
+     */
+    static <D> DetectorLease<D> acquire(final AtomicReference<DetectorLease<D>> published) {
+        DetectorLease<D> lease;
+        do {
+            lease = published.get();
+        } while (lease != null && !lease.acquire());
+        return lease;
+    }
+
+    /**
+     * Gets the detector. Must only be called while holding a reference.
+     *
+     * @return The detector.
+     */
+    D getDetector() {
+        return mDetector;
+    }
+
+    /**
+     * Acquires a reference, unless the detector was already destroyed.
+     *
+     * @return True if a reference was acquired, false if the detector was destroyed.
+     */
+    boolean acquire() {
+        int references;
+        do {
+            references = mReferences.get();
+            if (references == 0) {
+                return false;
+            }
+        } while (!mReferences.compareAndSet(references, references + 1));
+        return true;
+    }
+
+    /**
+     * Releases a reference. Releasing the last reference destroys the detector on the calling thread.
+     */
+    void release() {
+        if (mReferences.decrementAndGet() == 0) {
+            mDestroyer.accept(mDetector);
+        }
+    }
+}
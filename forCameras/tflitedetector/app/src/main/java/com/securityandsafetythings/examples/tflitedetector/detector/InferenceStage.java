@@ -0,0 +1,493 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+
+import com.securityandsafetythings.examples.tflitedetector.R;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Bird;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
+import com.securityandsafetythings.examples.tflitedetector.events.OnDetectorConfiguredEvent;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.Frame;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.FrameGeometry;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.MotionStatistics;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.PipelineStage;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.TileLayout;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.TileScheduler;
+import com.securityandsafetythings.examples.tflitedetector.utilities.EasySharedPreference;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pipeline stage responsible for configuring the detector and running inference on the cropped frames.
+ * <p>
+ * The models of the detector are run by a {@link ModelScheduler}: the object detector runs on every frame, while the
+ * bird classifier only runs when the detector reports a bird, and at most once per {@link #BIRD_MIN_INTERVAL_MILLIS}.
+ * The detections are fed to an {@link ObjectTracker}, which replaces their ids with track ids that stay the same while
+ * an object is in view. On the frames the detector is skipped on, the tracked boxes are extrapolated to the capture
+ * time instead, or kept still if the scene did not change.
+ * <p>
+ * In tiled mode, the detector covers the whole captured image instead of the center crop. The image is split into
+ * square tiles overlapping by {@link #TILE_OVERLAP}, at most {@link #MAX_TILES} of them, which run through the detector
+ * in one batch, see {@link ObjectDetector#detectTiles}. The layouts range from the center crop alone to the finest
+ * grid whose tiles are not smaller than the detector input, and the {@link TileScheduler} picks one per frame.
+ * <p>
+ * A new detector is built and warmed up on a separate builder thread while the current one keeps serving frames. It
+ * is then swapped in between two frames; the old detector is destroyed once the frame running on it, if any, has
+ * finished. Some delegates (for example the GPU delegate) may only be used from the thread that created them. The
+ * builder thread of a detector that ends up on the GPU is therefore handed over to the detector, and the stage moves to
+ * that thread while the detector serves frames, with the scheduler running all the models on it too. A new builder
+ * thread takes over the following configurations.
+ */
+public class InferenceStage extends PipelineStage {
+
+    private static final String NAME = "inference";
+    private static final String LOGTAG = InferenceStage.class.getSimpleName();
+    private static final String BUILDER_THREAD_NAME = "detector-builder";
+    // Label of the detector class that triggers the bird classifier
+    private static final String BIRD_LABEL = "bird";
+    // Bird labels change slowly, so the classifier does not need to run on every frame showing a bird
+    @SuppressWarnings("MagicNumber")
+    private static final long BIRD_MIN_INTERVAL_MILLIS = 1000;
+    // The detection and bird models run in different phases, so one worker is enough to run a model concurrently
+    private static final int MODEL_WORKER_THREADS = 1;
+    // The most tiles a frame is split into in tiled mode, which is also the batch size of the detector
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_TILES = 8;
+    // The minimum share of a tile that overlaps its neighbour, so that objects on a border are seen whole by one tile
+    @SuppressWarnings("MagicNumber")
+    private static final float TILE_OVERLAP = 0.2f;
+    // The most objects tracked at once, well above the number of detections the detector reports per frame
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_TRACKS = 64;
+    private final Size mCaptureSize;
+    private final MotionStatistics mMotionStatistics;
+    private final TileScheduler mTileScheduler;
+    private final Consumer<FrameGeometry> mOnConfigured;
+    // Tracks the detections of the frames the models ran on, only used by the stage's thread
+    private final ObjectTracker mTracker = new ObjectTracker(MAX_TRACKS);
+    // The pooled detections of the current frame and the tracked objects reported from them, with their track ids
+    private final DetectionResult mDetections = new DetectionResult(MAX_TRACKS);
+    private final DetectionResult mTracked = new DetectionResult(MAX_TRACKS);
+    private final long[] mTrackIds = new long[MAX_TRACKS];
+    // The geometry, labels and capture time of the last frame the models ran on
+    private FrameGeometry mTrackerGeometry;
+    private List<String> mTrackerLabels = Collections.emptyList();
+    private long mTrackerTime;
+    // Number of the most recently requested configuration, and whether it has not been started yet, guarded by this
+    private int mRequestedConfiguration;
+    private boolean mIsConfigurePending;
+    private final ModelScheduler mScheduler = new ModelScheduler(MODEL_WORKER_THREADS);
+    // The detector serving new frames, replaced atomically when a new detector is ready
+    private final AtomicReference<DetectorLease<ObjectDetector>> mDetector = new AtomicReference<>();
+    private final Runnable mConfigureDetector = this::handleConfigureDetector;
+    // The thread new detectors are built on, replaced when a detector takes it over, guarded by this
+    private HandlerThread mBuilderThread;
+    private Handler mBuilderHandler;
+    // The detector the current frame runs on, only set while the frame is processed
+    private ObjectDetector mFrameDetector;
+    // Guarded by this, so that a detector that finishes building during shutdown is not published
+    private boolean mIsDestroyed;
+
+    /**
+     * Constructs an {@code InferenceStage}.
+     *
+     * @param queueCapacity The number of frames that can wait in front of the stage.
+     * @param captureSize      The size of the image as requested from the VideoPipeline.
+     * @param motionStatistics The counters of the motion gate, which are told about the work saved on frames without
+     *                         motion.
+     * @param tileScheduler    The scheduler choosing the tiles of the frames, which is told the detector latencies.
+     * @param onConfigured     Called with the new frame geometry whenever a new detector was swapped in.
+     */
+    public InferenceStage(final int queueCapacity, final Size captureSize, final MotionStatistics motionStatistics,
+                          final TileScheduler tileScheduler, final Consumer<FrameGeometry> onConfigured) {
+        super(NAME, queueCapacity);
+        mCaptureSize = captureSize;
+        mMotionStatistics = motionStatistics;
+        mTileScheduler = tileScheduler;
+        mOnConfigured = onConfigured;
+        startBuilderThread();
+        // Run object detection on the frame input.
+        mScheduler.register(ObjectDetector.MODEL_DETECT, ModelScheduler.Schedule.everyNthFrame(1),
+                this::detectObjectsInFrame);
+        // Processing for birds, only when the detector found one
+        mScheduler.register(ObjectDetector.MODEL_BIRD,
+                ModelScheduler.Schedule.onTrigger(this::isBirdDetected, BIRD_MIN_INTERVAL_MILLIS),
+                frame -> frame.setBirdLabel(getBird(frame.getClassifierInputBuffer()).getLabel()));
+    }
+
+    /**
+     * Gets the run and skip counters of every model, in registration order.
+     *
+     * @return An unmodifiable list of the statistics.
+     */
+    public List<ModelStatistics> getModelStatistics() {
+        return mScheduler.getStatistics();
+    }
+
+    /**
+     * Schedules a new detector to be built with the most recently chosen preferences. The current detector keeps
+     * serving frames until the new one is ready.
+     * It is redundant to configure the detector multiple times, so requests are merged while one is pending.
+     * An {@link OnDetectorConfiguredEvent} with the returned number is broadcast once the detector is swapped in.
+     *
+     * @return The number of the configuration that includes the most recently chosen preferences. Requests that are
+     * merged get the same number.
+     */
+    public synchronized int configureDetector() {
+        if (!mIsConfigurePending) {
+            mIsConfigurePending = true;
+            ++mRequestedConfiguration;
+            mBuilderHandler.post(mConfigureDetector);
+        }
+        return mRequestedConfiguration;
+    }
+
+    /**
+     * Destroys the detector. The stage must not process any frames afterwards.
+     */
+    public void destroyDetector() {
+        final DetectorLease<ObjectDetector> lease;
+        synchronized (this) {
+            mIsDestroyed = true;
+            lease = mDetector.getAndSet(null);
+            mBuilderThread.quitSafely();
+        }
+        post(() -> {
+            mScheduler.shutdown();
+            if (lease != null) {
+                lease.release();
+            }
+        });
+    }
+
+    /**
+     * Given the width and height of a region, provides a cropped width and height that matches a target aspect ratio
+     * <p>
+     * This is simply an application of the formula:
+     * Ratio = width / height
+     * We are given Ratio, then we hold either width or height constant and solve for the other to produce the cropped
+     * value resulting in the desired ratio.
+     *
+     * @param width             Input region width
+     * @param height            Input region height
+     * @param targetAspectRatio The aspect ratio floating point representation i.e) 1:1 = 1.0, 16:9  = 1.7778, etc.
+     * @return new width and height paired in a {@link Size} object that matches the target aspect ratio
+     */
+    private Size getCropArea(final int width, final int height, final float targetAspectRatio) {
+        final Size res;
+        final int targetH = Math.round(width / targetAspectRatio);
+        if (targetH <= height) {
+            /* either full size or height is cropped */
+            res = new Size(width, targetH);
+        } else {
+            /* width is cropped */
+            res = new Size(Math.round(height * targetAspectRatio), height);
+        }
+        return res;
+    }
+
+    private FrameGeometry prepareForInference(final Size detectorInputSize, final Size classifierInputSize,
+                                              final boolean isQuantized, final boolean isTiled) {
+        // Crop to center region
+        final float targetAspectRatio = detectorInputSize.getWidth() / (float) detectorInputSize.getHeight();
+        final Size cropSize = getCropArea(mCaptureSize.getWidth(), mCaptureSize.getHeight(), targetAspectRatio);
+        /*
+         * Calculate image margins
+         * ">> 1" performs a bitshift division by 2 which computes the offset to the middle of the image
+         */
+        final int marginLeft = (mCaptureSize.getWidth() - cropSize.getWidth()) >> 1;
+        final int marginTop = (mCaptureSize.getHeight() - cropSize.getHeight()) >> 1;
+        final Rect centerCrop = new Rect(marginLeft, marginTop, marginLeft + cropSize.getWidth(),
+                marginTop + cropSize.getHeight());
+        if (!isTiled) {
+            return new FrameGeometry(mCaptureSize, cropSize, marginLeft, marginTop, detectorInputSize,
+                    classifierInputSize, isQuantized,
+                    Collections.singletonList(new TileLayout(Collections.singletonList(centerCrop), centerCrop)));
+        }
+        // In tiled mode the detections are reported relative to the whole image, which all but the first layout cover
+        final Rect image = new Rect(0, 0, mCaptureSize.getWidth(), mCaptureSize.getHeight());
+        final List<TileLayout> layouts = new ArrayList<>();
+        layouts.add(new TileLayout(Collections.singletonList(centerCrop), image));
+        // Tiles smaller than the detector input would only be scaled up, which does not reveal any smaller objects
+        for (int rows = 1; TileLayout.getGridTileSize(mCaptureSize, rows, TILE_OVERLAP) >= detectorInputSize.getWidth();
+                rows++) {
+            final List<Rect> tiles = TileLayout.createGrid(mCaptureSize, rows, TILE_OVERLAP);
+            if (tiles.size() > MAX_TILES) {
+                break;
+            }
+            if (tiles.size() > layouts.get(layouts.size() - 1).size()) {
+                layouts.add(new TileLayout(tiles, image));
+            }
+        }
+        return new FrameGeometry(mCaptureSize, mCaptureSize, 0, 0, detectorInputSize, classifierInputSize,
+                isQuantized, layouts);
+    }
+
+    private synchronized void startBuilderThread() {
+        mBuilderThread = new HandlerThread(BUILDER_THREAD_NAME);
+        mBuilderThread.start();
+        mBuilderHandler = new Handler(mBuilderThread.getLooper());
+    }
+
+    /**
+     * Builds and warms up a new detector on the builder thread, then swaps it in.
+     */
+    private void handleConfigureDetector() {
+        final int configuration;
+        synchronized (this) {
+            // Requests from now on need another configuration, as the preferences are read below
+            mIsConfigurePending = false;
+            configuration = mRequestedConfiguration;
+        }
+        final boolean isTiled = EasySharedPreference.getInstance().isTiledDetection();
+        final ObjectDetector detector = buildDetector(isTiled);
+        if (detector.getInitializedAccelerationType() == null) {
+            // The detector reported the failure itself, and the current detector keeps serving frames
+            Log.w(LOGTAG, "Keeping the current detector, the new one failed to initialize");
+            detector.destroy();
+            new OnDetectorConfiguredEvent(configuration).broadcastEvent();
+            return;
+        }
+        // Warming up on this thread keeps the stage serving frames on the current detector meanwhile
+        detector.warmUp();
+        if (detector.getInitializedAccelerationType() != AccelerationType.GPU) {
+            swapDetector(detector, null, ObjectDetector::destroy, isTiled, configuration);
+            return;
+        }
+        // The GPU delegate is bound to this thread, so the detector keeps it and is destroyed on it
+        final HandlerThread detectorThread = takeOverBuilderThread();
+        final Handler detectorHandler = new Handler(detectorThread.getLooper());
+        swapDetector(detector, detectorThread.getLooper(), d -> detectorHandler.post(() -> {
+            d.destroy();
+            detectorThread.quitSafely();
+        }), isTiled, configuration);
+    }
+
+    /**
+     * Hands the current builder thread over to the detector built on it, and starts a new one for the following
+     * configurations, including one that was requested while the detector was built.
+     *
+     * @return The thread the detector was built on.
+     */
+    private synchronized HandlerThread takeOverBuilderThread() {
+        final HandlerThread thread = mBuilderThread;
+        if (mIsDestroyed) {
+            // No more detectors are built, and the publish task destroys this one
+            return thread;
+        }
+        final Handler handler = mBuilderHandler;
+        startBuilderThread();
+        if (mIsConfigurePending) {
+            handler.removeCallbacks(mConfigureDetector);
+            mBuilderHandler.post(mConfigureDetector);
+        }
+        return thread;
+    }
+
+    @SuppressWarnings("MagicNumber")
+    private ObjectDetector buildDetector(final boolean isTiled) {
+        // Configure the detector with the selected acceleration type
+        return new ObjectDetectorBuilder()
+                /*
+                 * Filename of the model stored in the assets folder of the app. Nothing runs the mobile model, so it is
+                 * not loaded and does not take threads from the other models.
+                 */
+                .setModelFileName("detect.tflite", null, "bird.tflite")
+                /*
+                 * Resource id of the label file that the model uses.
+                 * The labels file is kept in the resources folder('/res/raw/') of the app.
+                 */
+                .setLabelFileResourceId(R.raw.labelmap, R.raw.labels_mobile, R.raw.labelsbirds)
+                // The model input size. It is denoted by inputSize x inputSize.
+                .setInputSize(300)
+                // The bird classifier input size. It is denoted by inputSize x inputSize.
+                .setClassifierInputSize(224)
+                /*
+                 * The type of acceleration the user prefers to use
+                 * for running inference on images.
+                 */
+                .setAccelerationType(EasySharedPreference.getInstance().getRequestedAccelerationType())
+                /*
+                 * Defines whether the input model is quantized (lossy compressed) or not.
+                 * Set to true for quantized models, otherwise set to false.
+                 */
+                .setIsQuantized(true)
+                // In tiled mode, the tiles of a frame run through the detector in a single batch.
+                .setBatchSize(isTiled ? MAX_TILES : 1)
+                /*
+                 * Configures the detector to use 16 bit floating point numbers rather than 32 bit.
+                 * This will optimize memory at the cost of accuracy.
+                 */
+                .allowFp16PrecisionForFp32().build();
+    }
+
+    /**
+     * Publishes a new detector between two frames, moving the stage to the thread the detector must run on. Frames that
+     * already run on the old detector finish on it, and the old detector is destroyed by whichever thread releases it
+     * last.
+     *
+     * @param detector      The detector, initialized and warmed up.
+     * @param looper        The looper of the thread the detector must run on, or null if it runs on any thread.
+     * @param destroyer     Destroys the detector once it is released.
+     * @param isTiled       Whether the frames are split into tiles for the detector.
+     * @param configuration The number of the configuration the detector was built for.
+     */
+    private void swapDetector(final ObjectDetector detector, final Looper looper,
+                              final Consumer<ObjectDetector> destroyer, final boolean isTiled,
+                              final int configuration) {
+        post(() -> {
+            final DetectorLease<ObjectDetector> oldLease;
+            synchronized (this) {
+                if (mIsDestroyed) {
+                    destroyer.accept(detector);
+                    return;
+                }
+                setLooper(looper);
+                oldLease = mDetector.getAndSet(new DetectorLease<>(detector, destroyer));
+            }
+            if (oldLease != null) {
+                oldLease.release();
+            }
+            Log.i(LOGTAG, "Swapped in detector with acceleration mode " + detector.getInitializedAccelerationType());
+            /*
+             * Whenever the detector is re-configured, the detector input size could change and hence the image
+             * manipulation parameters must be re-calculated.
+             */
+            mOnConfigured.accept(prepareForInference(detector.getRequiredImageSize(),
+                    detector.getClassifierImageSize(), detector.isQuantized(), isTiled));
+            new OnDetectorConfiguredEvent(configuration).broadcastEvent();
+        });
+    }
+
+    /**
+     * The example model operates on 300x300 pixel images. You may or may not recall that the image preview used in
+     * Helloworld is full HD 1920x1080. We would not want to use just a small 300x300 crop of our preview image. Instead what
+     * we can do is crop the full resolution image to the same aspect ratio as our model (1:1) and then rescale the cropped
+     * image to the size our detector accepts. The crop, resize and color conversion are fused into a single pass by the
+     * {@link YuvInputConverter} when the frame is submitted, so this stage only runs the models that are due.
+     */
+    @Override
+    protected boolean process(final Frame frame) {
+        if (frame.isDetectorSkipped()) {
+            // The tracks still apply, unless they were made on another crop area
+            if (frame.getGeometry() == mTrackerGeometry) {
+                // Objects in a scene that did not change stay where they were last detected
+                addTracked(frame, frame.hasMotion() ? frame.getCaptureTime() : mTrackerTime);
+            }
+            if (frame.isDetectorDue()) {
+                mMotionStatistics.onInferenceSkipped();
+            }
+            return true;
+        }
+        final DetectorLease<ObjectDetector> lease = DetectorLease.acquire(mDetector);
+        if (lease == null) {
+            return false;
+        }
+        try {
+            final ObjectDetector detector = lease.getDetector();
+            // Frames converted for a previous detector with a different input size cannot run on this one
+            if (!detector.getRequiredImageSize().equals(frame.getGeometry().getInputSize())) {
+                return false;
+            }
+            mFrameDetector = detector;
+            // Detections below the minimum confidence are never rendered, so they are dropped before objects exist
+            detector.setScoreThreshold(EasySharedPreference.getInstance().getMinConfidenceLevel());
+            // The GPU delegate is bound to the stage's thread, so the models must not be run by the worker pool.
+            mScheduler.setThreadConfined(detector.getInitializedAccelerationType() == AccelerationType.GPU);
+            if (frame.getGeometry() != mTrackerGeometry) {
+                mTracker.clear();
+                mTrackerGeometry = frame.getGeometry();
+                mTrackerLabels = detector.getLabels();
+            }
+            mTrackerTime = frame.getCaptureTime();
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            mScheduler.run(frame);
+            mMotionStatistics.onInferred(SystemClock.elapsedRealtimeNanos() - startTime);
+            return true;
+        } finally {
+            mFrameDetector = null;
+            lease.release();
+        }
+    }
+
+    private boolean isBirdDetected(final Frame frame) {
+        final float minConfidence = EasySharedPreference.getInstance().getMinConfidenceLevel();
+        for (Recognition recognition : frame.getRecognitions()) {
+            if (BIRD_LABEL.equals(recognition.getLabel()) && recognition.getConfidence() >= minConfidence) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void detectObjectsInFrame(final Frame frame) {
+        // Perform object detection using the detector, on the crop area or on every tile
+        final TileLayout layout = frame.getTileLayout();
+        final long inferenceStartTime = SystemClock.elapsedRealtimeNanos();
+        if (layout.isDetectionArea()) {
+            mFrameDetector.detect(frame.getInputBuffer(), mDetections);
+        } else {
+            mFrameDetector.detectTiles(frame.getInputBuffers(), layout, mDetections);
+        }
+        final long latency = SystemClock.elapsedRealtimeNanos() - inferenceStartTime;
+        frame.setInferenceTime(TimeUnit.NANOSECONDS.toMillis(latency));
+        mTileScheduler.onDetected(frame.getGeometry(), layout, latency, SystemClock.elapsedRealtime());
+        mTracker.update(mDetections, frame.getCaptureTime());
+        addTracked(frame, frame.getCaptureTime());
+    }
+
+    /**
+     * Adds the tracked objects, predicted at a time, to the recognitions of a frame. Their ids are the track ids.
+     * <p>
+     * Tracking works on pooled results and does not allocate. The objects handed on to the later stages are not
+     * pooled: every tracked object gets a new {@code Recognition}, with its track id formatted as a string, because
+     * the frame keeps them after it has left this stage.
+     */
+    private void addTracked(final Frame frame, final long time) {
+        mTracker.report(time, mTracked, mTrackIds);
+        for (int i = 0; i < mTracked.getCount(); ++i) {
+            frame.getRecognitions().add(new Recognition(String.valueOf(mTrackIds[i]),
+                    mTrackerLabels.get(mTracked.getClassId(i)), mTracked.getScore(i),
+                    new RectF(mTracked.getLeft(i), mTracked.getTop(i), mTracked.getRight(i), mTracked.getBottom(i))));
+        }
+    }
+
+    private Bird getBird(final ByteBuffer input){
+        try{
+            return mFrameDetector.recognizeImageBird(input);
+        } catch (Exception e){
+            return  new Bird("", "Error al obtener información", 0.0F, new RectF());
+        }
+
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fills the model input tensor from a frame {@code Bitmap}.
+ * <p>
+ * All models registered in the {@link ObjectDetector} consume the same input, so the frame is only normalized once.
+ * The resulting buffer is shared with every model and must be treated as read-only by its consumers.
+ */
+final class InputPreprocessor {
+    // Gets byte associated with red channel
+    @SuppressWarnings("MagicNumber")
+    private static final int SHIFT_RED = 16;
+    // Gets byte associated with green channel
+    @SuppressWarnings("MagicNumber")
+    private static final int SHIFT_GREEN = 8;
+    // Median value of 0 - 255 used to normalize inputs for non quantized models
+    @SuppressWarnings("MagicNumber")
+    static final float IMAGE_MED = 128.0f;
+    // Used to select individual bytes from RGB channels of the image
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    // nxn size of the image the model expects as input
+    private final int mInputSize;
+    // Whether the model is quantized or not. This affects how input images are processed
+    private final boolean mIsQuantized;
+    // Holds the int pixel values for each image
+    private final int[] mPixelValues;
+    // Buffer for the image data that will contain bytes in RGB ordering
+    private final ByteBuffer mImgData;
+    // The frame currently held in mImgData, used to skip re-processing the same frame for every model.
+    private Bitmap mProcessedBitmap;
+    private int mProcessedGenerationId;
+
+    /**
+     * Constructs an {@code InputPreprocessor}.
+     *
+     * @param inputSize   The size of the input the model expects, denoted by inputSize x inputSize.
+     * @param isQuantized Whether the input must be written as quantized bytes or as normalized floats.
+     */
+    @SuppressWarnings("MagicNumber")
+    InputPreprocessor(final int inputSize, final boolean isQuantized) {
+        mInputSize = inputSize;
+        mIsQuantized = isQuantized;
+        final int numBytesPerChannel = mIsQuantized ? 1 : 4;
+        // Allocate image buffer using height x width x 3 (from RGB channels) x <size of data>
+        mImgData = ByteBuffer.allocateDirect(mInputSize * mInputSize * 3 * numBytesPerChannel);
+        // Use endianness of the hardware for the buffer
+        mImgData.order(ByteOrder.nativeOrder());
+        // Allocate array for image pixel values
+        mPixelValues = new int[mInputSize * mInputSize];
+    }
+
+    /**
+     * Populates the input buffer with the pixels of the given {@code Bitmap} in RGB order, normalizing them if the
+     * model is not quantized. If the same, unmodified {@code Bitmap} was already processed, the previous result is reused.
+     *
+     * @param bitmap The frame, already scaled to inputSize x inputSize.
+     * @return The input buffer, rewound and ready to be passed to an {@code Interpreter}.
+     */
+    ByteBuffer process(final Bitmap bitmap) {
+        if (bitmap == mProcessedBitmap && bitmap.getGenerationId() == mProcessedGenerationId) {
+            mImgData.rewind();
+            return mImgData;
+        }
+        bitmap.getPixels(mPixelValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        fill(mPixelValues);
+        mProcessedBitmap = bitmap;
+        mProcessedGenerationId = bitmap.getGenerationId();
+        return mImgData;
+    }
+
+    /**
+     * Populates the input buffer with pixels in RGB order, normalizing them if the model is not quantized.
+     *
+     * @param pixels The ARGB pixels of the frame, already scaled to inputSize x inputSize, row by row.
+     * @return The input buffer, rewound and ready to be passed to an {@code Interpreter}.
+     */
+    ByteBuffer process(final int[] pixels) {
+        mProcessedBitmap = null;
+        fill(pixels);
+        return mImgData;
+    }
+
+    private void fill(final int[] pixels) {
+        // Preprocess the image data from 0-255 int to normalized value based on the provided parameters.
+        mImgData.rewind();
+        if (mIsQuantized) {
+            for (final int pixelValue : pixels) {
+                mImgData.put((byte) ((pixelValue >> SHIFT_RED) & BYTE_MASK));
+                mImgData.put((byte) ((pixelValue >> SHIFT_GREEN) & BYTE_MASK));
+                mImgData.put((byte) (pixelValue & BYTE_MASK));
+            }
+        } else {
+            for (final int pixelValue : pixels) {
+                mImgData.putFloat((((pixelValue >> SHIFT_RED) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
+                mImgData.putFloat((((pixelValue >> SHIFT_GREEN) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
+                mImgData.putFloat(((pixelValue & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
+            }
+        }
+        mImgData.rewind();
+    }
+
+    /**
+     * Forgets the frame currently held in the input buffer, so that the next call to {@link #process(Bitmap)}
+     * always re-populates it.
+     */
+    void invalidate() {
+        mProcessedBitmap = null;
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.util.Log;
+
+import org.tensorflow.lite.Delegate;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Owns the {@link Interpreter}s of the detector models and gives each of them its own CPU thread budget, so that
+ * models running at the same time (see {@link ModelScheduler}) do not compete for the same cores.
+ * <p>
+ * Every model is registered with a concurrency group, the models that may run at the same time. Models of different
+ * groups never overlap, so every group gets the whole thread budget, and a model that is alone in its group gets all
+ * of it. When a group of models runs on the CPU, the split of its threads is chosen by a micro-benchmark when the pool
+ * is started:
+ * <ol>
+ *   <li> Every model of the group is run on a blank input with every possible number of threads, and its median
+ *   latency is recorded. </li>
+ *   <li> Of all the splits that fit the thread budget, the one with the lowest latency of the slowest model is
+ *   chosen, i.e. the split that finishes soonest when the models of the group run concurrently. </li>
+ * </ol>
+ * When a delegate runs the models, the CPU only runs the operations the delegate does not support, so every model gets
+ * the full budget as before.
+ * <p>
+ * The pool is not thread-safe. It must be started and closed on the thread that configures the detector.
+ */
+final class InterpreterPool {
+    private static final String LOGTAG = InterpreterPool.class.getSimpleName();
+    // Runs discarded before measuring, so that memory allocation and caches do not skew the benchmark
+    @SuppressWarnings("MagicNumber")
+    private static final int WARM_UP_RUNS = 2;
+    @SuppressWarnings("MagicNumber")
+    private static final int BENCHMARK_RUNS = 5;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final Delegate mDelegate;
+    private final int mThreadBudget;
+    private final List<String> mModelNames = new ArrayList<>();
+    private final List<ByteBuffer> mModelFiles = new ArrayList<>();
+    private final List<Integer> mGroups = new ArrayList<>();
+    private final Map<String, Interpreter> mInterpreters = new HashMap<>();
+    private final Map<String, Integer> mThreads = new HashMap<>();
+    private ThreadSplit mThreadSplit;
+    private boolean mUseXnnpack;
+
+    /**
+     * Constructs an {@code InterpreterPool}.
+     *
+     * @param delegate     The delegate added to every interpreter, or null to run the models on the CPU.
+     * @param threadBudget The maximum number of threads the models share. It is capped to the number of CPU cores.
+     */
+    InterpreterPool(final Delegate delegate, final int threadBudget) {
+        mDelegate = delegate;
+        mThreadBudget = Math.max(1, Math.min(threadBudget, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Sets whether the CPU runs the models with the XNNPACK kernels. Must be set before the pool is started.
+     *
+     * @param useXnnpack True to use the XNNPACK kernels, false for the plain CPU kernels.
+     */
+    void setUseXnnpack(final boolean useXnnpack) {
+        mUseXnnpack = useXnnpack;
+    }
+
+    /**
+     * Registers a model. Models must be registered before the pool is started.
+     *
+     * @param name      The name of the model.
+     * @param modelFile The model, as loaded by {@code ResourceHelper#loadModelFile}.
+     * @param group     The concurrency group of the model. Only the models of the same group share the thread budget.
+     */
+    void add(final String name, final ByteBuffer modelFile, final int group) {
+        mModelNames.add(name);
+        mModelFiles.add(modelFile);
+        mGroups.add(group);
+    }
+
+    /**
+     * Chooses the thread split and creates the interpreters of all the registered models.
+     *
+     * @param knownThreads A split chosen by the benchmark on an earlier start, or null to run the benchmark. It is
+     *                     ignored if it does not match the registered models or the thread budget.
+     * @return The chosen thread split.
+     * @throws IllegalArgumentException If a model cannot be loaded with the delegate.
+     */
+    ThreadSplit start(final int[] knownThreads) {
+        final int count = mModelNames.size();
+        final int[] threads = new int[count];
+        final int[] groups = new int[count];
+        for (int i = 0; i < count; i++) {
+            groups[i] = mGroups.get(i);
+        }
+        double[] latencies = null;
+        boolean isBenchmarked = false;
+        final boolean isKnownSplitValid = isValidSplit(knownThreads, groups);
+        for (int i = 0; i < count; i++) {
+            if (threads[i] != 0) {
+                // Already split together with an earlier model of its group
+                continue;
+            }
+            final int[] members = getMembers(groups, groups[i]);
+            if (mDelegate != null || members.length == 1) {
+                fill(threads, members, mThreadBudget);
+            } else if (members.length > mThreadBudget) {
+                // Not enough cores to give every model of the group one of its own
+                fill(threads, members, 1);
+            } else if (isKnownSplitValid) {
+                for (int member : members) {
+                    threads[member] = knownThreads[member];
+                }
+                isBenchmarked = true;
+            } else {
+                if (latencies == null) {
+                    latencies = new double[count];
+                    Arrays.fill(latencies, Double.NaN);
+                }
+                final long[][] groupLatencies = benchmark(members);
+                final int[] groupThreads = chooseSplit(groupLatencies, mThreadBudget);
+                for (int m = 0; m < members.length; m++) {
+                    threads[members[m]] = groupThreads[m];
+                    latencies[members[m]] = groupLatencies[m][groupThreads[m] - 1] / NANOS_PER_MILLI;
+                }
+                isBenchmarked = true;
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            final String name = mModelNames.get(i);
+            mThreads.put(name, threads[i]);
+            mInterpreters.put(name, new Interpreter(mModelFiles.get(i), createOptions(name)));
+        }
+        mThreadSplit = new ThreadSplit(mModelNames, groups, threads, latencies, mThreadBudget, isBenchmarked);
+        Log.i(LOGTAG, "Thread split " + mModelNames + " = " + Arrays.toString(threads) + " of " + mThreadBudget
+                + " threads" + (latencies != null ? ", latencies " + Arrays.toString(latencies) + " ms" : ""));
+        return mThreadSplit;
+    }
+
+    /**
+     * Gets the interpreter of a model.
+     *
+     * @param name The name of the model.
+     * @return The interpreter, or null if the pool was not started or the model is not registered.
+     */
+    Interpreter get(final String name) {
+        return mInterpreters.get(name);
+    }
+
+    /**
+     * Creates the interpreter options of a model, for example to load a second copy of it.
+     *
+     * @param name The name of the model.
+     * @return New options with the thread count and delegate of the model.
+     */
+    Interpreter.Options createOptions(final String name) {
+        final Integer threads = mThreads.get(name);
+        return createOptions(threads != null ? threads : mThreadBudget);
+    }
+
+    /**
+     * Gets the thread split chosen when the pool was started.
+     *
+     * @return The thread split, or null if the pool was not started.
+     */
+    ThreadSplit getThreadSplit() {
+        return mThreadSplit;
+    }
+
+    /**
+     * Closes all the interpreters. The delegate is owned by the caller and is not closed.
+     */
+    void close() {
+        for (Interpreter interpreter : mInterpreters.values()) {
+            interpreter.close();
+        }
+        mInterpreters.clear();
+    }
+
+    private boolean isValidSplit(final int[] threads, final int[] groups) {
+        if (threads == null || threads.length != groups.length) {
+            return false;
+        }
+        for (int group : groups) {
+            int total = 0;
+            for (int member : getMembers(groups, group)) {
+                if (threads[member] < 1) {
+                    return false;
+                }
+                total += threads[member];
+            }
+            if (total > mThreadBudget) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the indices of the models of a concurrency group, in registration order.
+     */
+    private static int[] getMembers(final int[] groups, final int group) {
+        int count = 0;
+        for (int modelGroup : groups) {
+            if (modelGroup == group) {
+                count++;
+            }
+        }
+        final int[] members = new int[count];
+        for (int i = 0, m = 0; i < groups.length; i++) {
+            if (groups[i] == group) {
+                members[m++] = i;
+            }
+        }
+        return members;
+    }
+
+    private static void fill(final int[] threads, final int[] members, final int value) {
+        for (int member : members) {
+            threads[member] = value;
+        }
+    }
+
+    private Interpreter.Options createOptions(final int threads) {
+        final Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(threads);
+        options.setUseXNNPACK(mUseXnnpack);
+        if (mDelegate != null) {
+            options.addDelegate(mDelegate);
+        }
+        return options;
+    }
+
+    /**
+     * Measures the latency of every model of a group with every number of threads it can get, while leaving one thread
+     * for each of the other models of the group.
+     *
+     * @param members The indices of the models of the group.
+     * @return The median latency in nanoseconds, indexed by the position in {@code members} and by number of threads
+     * minus one.
+     */
+    private long[][] benchmark(final int[] members) {
+        final int count = members.length;
+        final int maxThreads = mThreadBudget - (count - 1);
+        final long[][] latencies = new long[count][maxThreads];
+        for (int i = 0; i < count; i++) {
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                final Interpreter interpreter = new Interpreter(mModelFiles.get(members[i]), createOptions(threads));
+                try {
+                    latencies[i][threads - 1] = measure(interpreter);
+                } finally {
+                    interpreter.close();
+                }
+            }
+        }
+        return latencies;
+    }
+
+    private static long measure(final Interpreter interpreter) {
+        final Object[] inputs = new Object[interpreter.getInputTensorCount()];
+        for (int i = 0; i < inputs.length; i++) {
+            inputs[i] = allocate(interpreter.getInputTensor(i));
+        }
+        final Map<Integer, Object> outputs = new HashMap<>();
+        for (int i = 0; i < interpreter.getOutputTensorCount(); i++) {
+            outputs.put(i, allocate(interpreter.getOutputTensor(i)));
+        }
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            interpreter.runForMultipleInputsOutputs(inputs, outputs);
+        }
+        final long[] runs = new long[BENCHMARK_RUNS];
+        for (int i = 0; i < runs.length; i++) {
+            final long startTime = System.nanoTime();
+            interpreter.runForMultipleInputsOutputs(inputs, outputs);
+            runs[i] = System.nanoTime() - startTime;
+        }
+        Arrays.sort(runs);
+        return runs[runs.length / 2];
+    }
+
+    private static ByteBuffer allocate(final Tensor tensor) {
+        return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Finds the split of a thread budget between concurrently running models with the lowest latency of the slowest
+     * model, preferring fewer threads for the models registered first when two splits are equally fast.
+     *
+     * @param latencies    The latency of every model, indexed by model and by number of threads minus one. Every
+     *                     model needs a latency for up to {@code threadBudget} minus the number of other models.
+     * @param threadBudget The number of threads the models share, at least one per model.
+     * @return The number of threads of every model.
+     */
+    static int[] chooseSplit(final long[][] latencies, final int threadBudget) {
+        final int[] threads = new int[latencies.length];
+        final int[] current = new int[latencies.length];
+        final long[] bestLatency = {Long.MAX_VALUE};
+        chooseSplit(latencies, 0, threadBudget, 0, current, threads, bestLatency);
+        return threads;
+    }
+
+    private static void chooseSplit(final long[][] latencies, final int model, final int remainingThreads,
+                                    final long slowestLatency, final int[] current, final int[] best,
+                                    final long[] bestLatency) {
+        if (model == latencies.length) {
+            if (slowestLatency < bestLatency[0]) {
+                bestLatency[0] = slowestLatency;
+                System.arraycopy(current, 0, best, 0, current.length);
+            }
+            return;
+        }
+        // Leave one thread for each of the models that follow
+        final int maxThreads = remainingThreads - (latencies.length - model - 1);
+        for (int threads = 1; threads <= maxThreads; threads++) {
+            current[model] = threads;
+            chooseSplit(latencies, model + 1, remainingThreads - threads,
+                    Math.max(slowestLatency, latencies[model][threads - 1]), current, best, bestLatency);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.securityandsafetythings.examples.tflitedetector.pipeline.Frame;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the models registered with it at independent rates.
+ * <p>
+ * Every model declares a {@link Schedule}: it runs on every n-th frame, at most once per interval, or only when a
+ * trigger fires on the results of the other models for the same frame. Scheduling happens in two phases:
+ * <ol>
+ *   <li> The models without a trigger run concurrently on a shared worker pool. </li>
+ *   <li> The models with a trigger run afterwards, so that their trigger can inspect the results of the first phase. </li>
+ * </ol>
+ * Some delegates (for example the GPU delegate) may only be used from the thread that created them. While the
+ * scheduler is {@link #setThreadConfined(boolean) thread-confined}, all the models run one after another on the calling
+ * thread instead.
+ * <p>
+ * Models must be registered before the first frame is run. {@link #run(Frame)} must always be called from the same
+ * thread.
+ */
+final class ModelScheduler {
+    private static final String LOGTAG = ModelScheduler.class.getSimpleName();
+    private final List<ScheduledModel> mModels = new ArrayList<>();
+    private final List<ScheduledModel> mDueModels = new ArrayList<>();
+    private final List<Future<?>> mPendingRuns = new ArrayList<>();
+    private final ExecutorService mWorkerPool;
+    private volatile boolean mIsThreadConfined;
+
+    /**
+     * A model run on a frame. Implementations store their results in the frame.
+     */
+    interface ModelTask {
+        /**
+         * Runs the model on a frame.
+         *
+         * @param frame The frame to run the model on.
+         */
+        void run(Frame frame);
+    }
+
+    /**
+     * A condition on the results of the other models for the same frame.
+     */
+    interface Trigger {
+        /**
+         * Checks whether the model must run on a frame.
+         *
+         * @param frame The frame, holding the results of the models that ran in the first phase.
+         * @return True if the model must run, false otherwise.
+         */
+        boolean isTriggered(Frame frame);
+    }
+
+    /**
+     * Declares when a model runs.
+     */
+    static final class Schedule {
+        private final int mFrameInterval;
+        private final long mMinIntervalMillis;
+        private final Trigger mTrigger;
+
+        private Schedule(final int frameInterval, final long minIntervalMillis, final Trigger trigger) {
+            if (frameInterval < 1) {
+                throw new IllegalArgumentException("Frame interval must be positive: " + frameInterval);
+            }
+            mFrameInterval = frameInterval;
+            mMinIntervalMillis = minIntervalMillis;
+            mTrigger = trigger;
+        }
+
+        /**
+         * Runs the model on every n-th frame.
+         *
+         * @param n The number of frames between two runs.
+         * @return The schedule.
+         */
+        static Schedule everyNthFrame(final int n) {
+            return new Schedule(n, 0, null);
+        }
+
+        /**
+         * Runs the model on a frame only if it did not run during the given interval.
+         *
+         * @param intervalMillis The minimum time between two runs, in milliseconds.
+         * @return The schedule.
+         */
+        static Schedule atMostEvery(final long intervalMillis) {
+            return new Schedule(1, intervalMillis, null);
+        }
+
+        /**
+         * Runs the model on a frame only if the trigger fires, and at most once per interval.
+         *
+         * @param trigger        The condition on the results of the other models.
+         * @param intervalMillis The minimum time between two runs, in milliseconds.
+         * @return The schedule.
+         */
+        static Schedule onTrigger(final Trigger trigger, final long intervalMillis) {
+            return new Schedule(1, intervalMillis, trigger);
+        }
+    }
+
+    /**
+     * A model registered in the scheduler, together with its scheduling state.
+     */
+    private static final class ScheduledModel {
+        private final Schedule mSchedule;
+        private final ModelTask mTask;
+        private final ModelStatistics mStatistics;
+        private final LatencyHistogram mLatency;
+        private long mFrameCount;
+        // Only -1 before the first run, so that the first frame is never skipped because of the interval
+        private long mLastRunTime = -1;
+
+        ScheduledModel(final String name, final Schedule schedule, final ModelTask task) {
+            mSchedule = schedule;
+            mTask = task;
+            mStatistics = new ModelStatistics(name);
+            mLatency = LatencyHistogram.get("model-" + name);
+        }
+
+        boolean isDue(final Frame frame, final long now) {
+            final boolean isFrameDue = mFrameCount++ % mSchedule.mFrameInterval == 0;
+            final boolean isIntervalDue = mLastRunTime < 0 || now - mLastRunTime >= mSchedule.mMinIntervalMillis;
+            return isFrameDue && isIntervalDue && (mSchedule.mTrigger == null || mSchedule.mTrigger.isTriggered(frame));
+        }
+
+        void run(final Frame frame, final long now) {
+            mLastRunTime = now;
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            try {
+                mTask.run(frame);
+                final long latency = SystemClock.elapsedRealtimeNanos() - startTime;
+                mStatistics.onRun(latency);
+                mLatency.record(latency);
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG, "Model " + mStatistics.getName() + " failed", e);
+                mStatistics.onFailed();
+            }
+        }
+    }
+
+    /**
+     * Constructs a {@code ModelScheduler}.
+     *
+     * @param workerThreads The number of threads of the worker pool.
+     */
+    ModelScheduler(final int workerThreads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mWorkerPool = Executors.newFixedThreadPool(workerThreads,
+                runnable -> new Thread(runnable, LOGTAG + "-" + threadCount.incrementAndGet()));
+    }
+
+    /**
+     * Registers a model.
+     *
+     * @param name     The name of the model, as reported in its statistics.
+     * @param schedule When the model runs.
+     * @param task     Runs the model on a frame.
+     */
+    void register(final String name, final Schedule schedule, final ModelTask task) {
+        mModels.add(new ScheduledModel(name, schedule, task));
+    }
+
+    /**
+     * Sets whether all the models must run on the calling thread, for example because they use the GPU delegate.
+     *
+     * @param isThreadConfined True to run the models on the calling thread, false to use the worker pool.
+     */
+    void setThreadConfined(final boolean isThreadConfined) {
+        mIsThreadConfined = isThreadConfined;
+    }
+
+    /**
+     * Runs the models that are due on a frame and waits until they completed.
+     *
+     * @param frame The frame to run the models on.
+     */
+    void run(final Frame frame) {
+        final long now = SystemClock.elapsedRealtime();
+        // First phase: models scheduled by rate only
+        mDueModels.clear();
+        for (ScheduledModel model : mModels) {
+            if (model.mSchedule.mTrigger == null) {
+                if (model.isDue(frame, now)) {
+                    mDueModels.add(model);
+                } else {
+                    model.mStatistics.onSkipped();
+                }
+            }
+        }
+        runConcurrently(frame, now);
+        // Second phase: models scheduled by a trigger on the results of the first phase
+        mDueModels.clear();
+        for (ScheduledModel model : mModels) {
+            if (model.mSchedule.mTrigger != null) {
+                if (model.isDue(frame, now)) {
+                    mDueModels.add(model);
+                } else {
+                    model.mStatistics.onSkipped();
+                }
+            }
+        }
+        runConcurrently(frame, now);
+    }
+
+    /**
+     * Runs the models in {@code mDueModels}. All but the last one are handed to the worker pool, the last one runs on
+     * the calling thread so that it is not idle while waiting.
+     */
+    private void runConcurrently(final Frame frame, final long now) {
+        final int count = mDueModels.size();
+        if (count == 0) {
+            return;
+        }
+        if (mIsThreadConfined || count == 1) {
+            for (ScheduledModel model : mDueModels) {
+                model.run(frame, now);
+            }
+            return;
+        }
+        mPendingRuns.clear();
+        for (int i = 0; i < count - 1; i++) {
+            final ScheduledModel model = mDueModels.get(i);
+            mPendingRuns.add(mWorkerPool.submit(() -> model.run(frame, now)));
+        }
+        mDueModels.get(count - 1).run(frame, now);
+        // Waiting on the futures also makes the results written by the workers visible to the calling thread
+        for (Future<?> pendingRun : mPendingRuns) {
+            try {
+                pendingRun.get();
+            } catch (ExecutionException e) {
+                Log.e(LOGTAG, "Model run failed", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the statistics of every registered model, in registration order.
+     *
+     * @return An unmodifiable list of the statistics.
+     */
+    List<ModelStatistics> getStatistics() {
+        final List<ModelStatistics> statistics = new ArrayList<>(mModels.size());
+        for (ScheduledModel model : mModels) {
+            statistics.add(model.mStatistics);
+        }
+        return Collections.unmodifiableList(statistics);
+    }
+
+    /**
+     * Stops the worker pool. Runs that are in progress are completed.
+     */
+    void shutdown() {
+        mWorkerPool.shutdown();
+    }
+}
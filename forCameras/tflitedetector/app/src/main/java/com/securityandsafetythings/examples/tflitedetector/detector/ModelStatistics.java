@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Run and skip counters of a single model registered in the {@link ModelScheduler}.
+ * <p>
+ * Counters are written from the thread running the model, but may be read from any thread.
+ */
+public final class ModelStatistics {
+    // Weight of the newest sample in the exponentially weighted average latency
+    @SuppressWarnings("MagicNumber")
+    private static final double AVERAGE_WEIGHT = 0.1;
+    @SuppressWarnings("MagicNumber")
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final String mName;
+    private final AtomicLong mRuns = new AtomicLong();
+    private final AtomicLong mSkips = new AtomicLong();
+    private final AtomicLong mFailures = new AtomicLong();
+    private volatile long mLastLatencyNanos;
+    private volatile double mAverageLatencyNanos;
+
+    /**
+     * Constructs a {@code ModelStatistics}.
+     *
+     * @param name The name of the model.
+     */
+    ModelStatistics(final String name) {
+        mName = name;
+    }
+
+    /**
+     * Records that the model ran on a frame.
+     *
+     * @param latencyNanos The time the model took.
+     */
+    void onRun(final long latencyNanos) {
+        mLastLatencyNanos = latencyNanos;
+        if (mRuns.getAndIncrement() == 0) {
+            mAverageLatencyNanos = latencyNanos;
+        } else {
+            mAverageLatencyNanos += (latencyNanos - mAverageLatencyNanos) * AVERAGE_WEIGHT;
+        }
+    }
+
+    /**
+     * Records that the model was skipped for a frame because of its schedule.
+     */
+    void onSkipped() {
+        mSkips.incrementAndGet();
+    }
+
+    /**
+     * Records that the model threw while running on a frame.
+     */
+    void onFailed() {
+        mFailures.incrementAndGet();
+    }
+
+    /**
+     * Gets the name of the model.
+     *
+     * @return The name of the model.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the number of frames the model ran on.
+     *
+     * @return The number of runs.
+     */
+    public long getRuns() {
+        return mRuns.get();
+    }
+
+    /**
+     * Gets the number of frames the model was skipped for.
+     *
+     * @return The number of skipped frames.
+     */
+    public long getSkips() {
+        return mSkips.get();
+    }
+
+    /**
+     * Gets the number of frames the model failed on.
+     *
+     * @return The number of failed runs.
+     */
+    public long getFailures() {
+        return mFailures.get();
+    }
+
+    /**
+     * Gets the time the model took on the last frame it ran on.
+     *
+     * @return The latency of the last run, in milliseconds.
+     */
+    public double getLastLatencyMillis() {
+        return mLastLatencyNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Gets the exponentially weighted average time the model takes on a frame.
+     *
+     * @return The average latency, in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        return mAverageLatencyNanos / NANOS_PER_MILLI;
+    }
+}
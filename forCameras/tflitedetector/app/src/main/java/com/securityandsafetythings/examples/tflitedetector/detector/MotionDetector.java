@@ -0,0 +1,134 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.graphics.ImageFormat;
+import android.media.Image;
+
+import com.securityandsafetythings.examples.tflitedetector.pipeline.FrameGeometry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects change in the crop area of {@link ImageFormat#YUV_420_888} {@link Image}s from their luma plane, so that the
+ * detector can be skipped on frames of a static scene.
+ * <p>
+ * The crop area is divided into a grid of {@value #GRID_SIZE} x {@value #GRID_SIZE} cells, and the luma of every cell
+ * is averaged over {@value #SAMPLES_PER_AXIS} x {@value #SAMPLES_PER_AXIS} pixels, which is a downscaled luma plane
+ * read straight from the image. Every cell keeps a running average of its luma as a background model, which follows
+ * slow changes such as the daylight. A cell has changed when its luma differs from the background by more than
+ * {@value #CHANGE_THRESHOLD} levels, and a frame has motion when at least {@value #MIN_CHANGED_CELLS} cells changed.
+ * <p>
+ * An instance is not thread-safe and must be used from a single thread.
+ */
+public final class MotionDetector {
+    @SuppressWarnings("MagicNumber")
+    private static final int GRID_SIZE = 32;
+    @SuppressWarnings("MagicNumber")
+    private static final int SAMPLES_PER_AXIS = 4;
+    @SuppressWarnings("MagicNumber")
+    private static final int CHANGE_THRESHOLD = 24;
+    @SuppressWarnings("MagicNumber")
+    private static final int MIN_CHANGED_CELLS = 2;
+    // The background moves 1/2^BACKGROUND_SHIFT of the way to the current luma on every frame
+    @SuppressWarnings("MagicNumber")
+    private static final int BACKGROUND_SHIFT = 4;
+    // The background is kept in fixed point, so that small steps towards the current luma are not rounded away
+    @SuppressWarnings("MagicNumber")
+    private static final int FIXED_POINT_BITS = 8;
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    private final FrameGeometry mGeometry;
+    // Offsets of the sampled pixels, per cell column and row
+    private final int[] mSampleX = new int[GRID_SIZE * SAMPLES_PER_AXIS];
+    private final int[] mSampleY = new int[GRID_SIZE * SAMPLES_PER_AXIS];
+    private final int[] mBackground = new int[GRID_SIZE * GRID_SIZE];
+    private boolean mHasBackground;
+
+    /**
+     * Constructs a {@code MotionDetector}.
+     *
+     * @param geometry The crop area within the captured image.
+     */
+    public MotionDetector(final FrameGeometry geometry) {
+        mGeometry = geometry;
+        computeSamples(geometry.getMarginLeft(), geometry.getCropSize().getWidth(), mSampleX);
+        computeSamples(geometry.getMarginTop(), geometry.getCropSize().getHeight(), mSampleY);
+    }
+
+    /**
+     * Spreads the samples evenly over the cells along one axis.
+     */
+    private static void computeSamples(final int cropStart, final int cropLength, final int[] samples) {
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = cropStart + (int) ((i + 0.5f) * cropLength / samples.length);
+        }
+    }
+
+    /**
+     * Compares an image with the background and updates the background.
+     *
+     * @param image The image as received from the VideoPipeline. It must be at least as large as the captured size.
+     * @return True if the crop area changed, or if this is the first image.
+     */
+    public boolean detect(final Image image) {
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Unsupported image format: " + image.getFormat());
+        }
+        final Image.Plane lumaPlane = image.getPlanes()[0];
+        final ByteBuffer luma = lumaPlane.getBuffer();
+        final int rowStride = lumaPlane.getRowStride();
+        final int pixelStride = lumaPlane.getPixelStride();
+        int changedCells = 0;
+        for (int row = 0; row < GRID_SIZE; row++) {
+            for (int column = 0; column < GRID_SIZE; column++) {
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES_PER_AXIS; sy++) {
+                    final int offset = mSampleY[row * SAMPLES_PER_AXIS + sy] * rowStride;
+                    for (int sx = 0; sx < SAMPLES_PER_AXIS; sx++) {
+                        sum += luma.get(offset + mSampleX[column * SAMPLES_PER_AXIS + sx] * pixelStride) & BYTE_MASK;
+                    }
+                }
+                final int cellLuma = (sum << FIXED_POINT_BITS) / (SAMPLES_PER_AXIS * SAMPLES_PER_AXIS);
+                final int cell = row * GRID_SIZE + column;
+                if (!mHasBackground) {
+                    mBackground[cell] = cellLuma;
+                    continue;
+                }
+                if (Math.abs(cellLuma - mBackground[cell]) > CHANGE_THRESHOLD << FIXED_POINT_BITS) {
+                    ++changedCells;
+                }
+                mBackground[cell] += (cellLuma - mBackground[cell]) >> BACKGROUND_SHIFT;
+            }
+        }
+        if (!mHasBackground) {
+            mHasBackground = true;
+            return true;
+        }
+        return changedCells >= MIN_CHANGED_CELLS;
+    }
+
+    /**
+     * Gets the geometry this detector was built for.
+     *
+     * @return The geometry of the analyzed frames.
+     */
+    public FrameGeometry getGeometry() {
+        return mGeometry;
+    }
+}
@@ -19,6 +19,7 @@ package com.securityandsafetythings.examples.tflitedetector.detector;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.support.annotation.RawRes;
 import android.util.Log;
 import android.util.Size;
@@ -27,15 +28,20 @@ import com.securityandsafetythings.examples.tflitedetector.BuildConfig;
 import com.securityandsafetythings.examples.tflitedetector.R;
 import com.securityandsafetythings.examples.tflitedetector.TfLiteDetectorApplication;
 import com.securityandsafetythings.examples.tflitedetector.detector.model.Bird;
-import com.securityandsafetythings.examples.tflitedetector.detector.model.Mobile;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
 import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
 import com.securityandsafetythings.examples.tflitedetector.events.OnObjectDetectorInitializationFailedEvent;
 import com.securityandsafetythings.examples.tflitedetector.events.OnObjectDetectorInitializedEvent;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.TileLayout;
+import com.securityandsafetythings.examples.tflitedetector.utilities.EasySharedPreference;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
 import com.securityandsafetythings.examples.tflitedetector.utilities.ResourceHelper;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Delegate;
 import org.tensorflow.lite.HexagonDelegate;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.gpu.CompatibilityList;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
@@ -52,63 +58,86 @@ import java.util.*;
  */
 class ObjectDetector {
     private static final String LOGTAG = ObjectDetector.class.getSimpleName();
-    // Gets byte associated with red channel
+    // Latencies of the interpreter run and of decoding and suppressing its output, shared by every configuration
+    private static final LatencyHistogram INTERPRETER_LATENCY = LatencyHistogram.get("interpreter-detect");
+    private static final LatencyHistogram NMS_LATENCY = LatencyHistogram.get("nms");
+    private static final LatencyHistogram TILE_MERGE_LATENCY = LatencyHistogram.get("tile-merge");
+    // Share of the smaller box two detections of the same class from different tiles must overlap to be merged
     @SuppressWarnings("MagicNumber")
-    private static final int SHIFT_RED = 16;
-    // Gets byte associated with green channel
-    @SuppressWarnings("MagicNumber")
-    private static final int SHIFT_GREEN = 8;
-    // Median value of 0 - 255 used to normalize inputs for non quantized models
-    @SuppressWarnings("MagicNumber")
-    private static final float IMAGE_MED = 128.0f;
-    // Used to select individual bytes from RGB channels of the image
-    @SuppressWarnings("MagicNumber")
-    private static final int BYTE_MASK = 0xff;
+    private static final float TILE_MERGE_THRESHOLD = 0.7f;
     // For Auto mode, use this pre-defined list of AccelerationTypes to check the optimal AccelerationType in-order.
     private static final List<AccelerationType> AUTO_ACCELERATION_TYPES;
-    // nxn size of the image the model expects as input
+    // Used to read the quantized scores of the bird classifier as unsigned values
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    // Number of color channels of the input tensor
+    @SuppressWarnings("MagicNumber")
+    static final int CHANNELS = 3;
+    // Names of the models in the InterpreterPool
+    public static final String MODEL_DETECT = "detect";
+    static final String MODEL_MOBILE = "mobile";
+    static final String MODEL_BIRD = "bird";
+    /*
+     * Concurrency groups of the models in the InterpreterPool, matching the phases of the ModelScheduler. The bird
+     * classifier is only triggered by the detections, so it never runs at the same time as the detection models.
+     */
+    private static final int GROUP_DETECTION = 0;
+    private static final int GROUP_TRIGGERED = 1;
+    // nxn size of the image the detection models expect as input
     private final int mInputSize;
+    // nxn size of the image the bird classifier expects as input
+    private final int mClassifierInputSize;
     // Defines the maximum number of objects detected per image
     private final int mMaxDetectionsPerImage;
     // Ordered list mapping from model output to string label
     private List<String> mLabels;
-    private List<String> mLabelsMobile;
     private List<String> mLabelsBird;
-    // TensorFlow lite api
+    // TensorFlow lite api, owned by mInterpreterPool
+    private InterpreterPool mInterpreterPool;
     private Interpreter mModel;
-    private Interpreter mModelMobile;
+    // Runs the detection model, mModel unless the detector was built around a stand-in
+    private ModelRunner mModelRunner;
     private Interpreter mModelBird;
     // Whether the model is quantized or not. This affects how input images are processed
     private final boolean mIsQuantized;
-    // Holds the int pixel values for each image
-    private final int[] mPixelValues;
-    private int labelFileResIdBirdLocal;
 
-    /**
-     * outputLocations: array of shape [Batchsize, mMaxDetectionsPerImage, 4]
-     * contains the location of detected boxes in [top, left, bottom, right] format per detection
-     */
-    private float[][][] mOutputLocations;
-    /**
-     * outputClasses: array of shape [Batchsize, mMaxDetectionsPerImage]
-     * contains the classes of detected boxes
-     */
-    private float[][] mOutputClasses;
-    /**
-     * outputScores: array of shape [Batchsize, mMaxDetectionsPerImage]
-     * contains the scores of detected boxes
-     */
-    private float[][] mOutputScores;
-    /**
-     * numDetections: array of shape [Batchsize]
-     * contains the number of detected boxes
-     */
-    private float[] mDetectionCount;
-    // Buffer for the image data that will contain bytes in RGB ordering
-    private final ByteBuffer mImgData;
-    private final ByteBuffer mResponseBird = null;
+    // Preallocated output tensors of the detection model, reused for every frame
+    private final SsdOutputs mOutputs;
+    // Preallocated output tensor of the bird classifier, sized from the model and reused for every frame
+    private ByteBuffer mOutputBird;
+    private Tensor mOutputTensorBird;
+    private final Map<Integer, Object> mOutputMapBird = new HashMap<>();
+    private final Object[] mInputArrayBird = new Object[1];
+    // Pooled detection result used by recognizeImage
+    private final DetectionResult mDetectionResult;
+    // Thresholds, suppresses and ranks the candidates of the detection model before any objects are created
+    private PostProcessor mPostProcessor;
+    private float mScoreThreshold;
+    // Decodes the outputs of detection models without the TFLite_Detection_PostProcess operator, null otherwise
+    private AnchorDecoder mAnchorDecoder;
+    // Fills the input tensor once per frame and shares it with the detection models
+    private final InputPreprocessor mPreprocessor;
+    // Fills the input tensor of the bird classifier, which expects a different input size
+    private final InputPreprocessor mClassifierPreprocessor;
+    // Batch mode: a copy of the detection model whose input is resized to mBatchSize frames
+    private final int mBatchSize;
+    private final int mFrameInputBytes;
+    private Interpreter mModelBatch;
+    // The number of frames the input of mModelBatch is currently resized to
+    private int mBatchDimension;
+    private ByteBuffer mBatchInput;
+    private SsdOutputs mBatchOutputs;
+    // Tiled mode: the detections of every tile, and the suppression of the duplicates found by overlapping tiles
+    private DetectionResult[] mTileResults = new DetectionResult[0];
+    private PostProcessor mTilePostProcessor;
 
     private AutoCloseable mCloseable;
+    // The AccelerationType the interpreters were successfully initialized with, null if initialization failed
+    private AccelerationType mInitializedAccelerationType;
+    private ThreadSplit mThreadSplit;
+    // Thread split restored from an earlier Auto probe, null to let the InterpreterPool benchmark it
+    private int[] mKnownThreads;
+    private String mInitializationError;
     private final Context mContext;
     private final boolean mIsAuto;
 
@@ -128,14 +157,15 @@ class ObjectDetector {
      * @param labelFileResId            The resource id of the label file stored in '/res/raw/'.
      * @param maxDetectionsPerImage     The maximum number of detections per image as indicated by the model.
      * @param inputSize                 The size of the input the model expects, denoted by inputSize x inputSize.
+     * @param classifierInputSize       The size of the input the bird classifier expects.
      * @param numThreads                The number of threads that TensorFlow should be instructed to use.
      * @param allowFp16PrecisionForFp32 When set, optimizes memory at the cost of accuracy by using 16 bit floating
      *                                  point numbers rather than 32 bit.
      * @param isQuantized               Defines whether the input model is quantized (lossy compressed) or not.
      *                                  This is a property of the model and must be set accordingly.
      * @param accelerationType          The {@code AccelerationType} that will be used to run inference on images.
+     * @param batchSize                 The number of frames processed by {@link #detectBatch} in one inference.
      */
-    @SuppressWarnings("MagicNumber")
     ObjectDetector(final String modelFileName,
                    final String modelFileNameMobile,
                    final String modelFileNameBird,
@@ -144,25 +174,111 @@ class ObjectDetector {
                    final @RawRes int labelFileResIdBird,
                    final int maxDetectionsPerImage,
                    final int inputSize,
+                   final int classifierInputSize,
                    final int numThreads,
                    final boolean allowFp16PrecisionForFp32,
                    final boolean isQuantized,
-                   final AccelerationType accelerationType) {
-        mContext = TfLiteDetectorApplication.getAppContext();
+                   final AccelerationType accelerationType,
+                   final int batchSize) {
+        this(TfLiteDetectorApplication.getAppContext(), maxDetectionsPerImage, inputSize, classifierInputSize,
+                isQuantized, accelerationType == AccelerationType.AUTO, batchSize);
+        // Initializes the Interpreter as per requested by the user. If Auto mode is used, an optimal AccelerationType is used.
+        initializeInterpreter(accelerationType, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32);
+        if (mInitializedAccelerationType != null) {
+            new OnObjectDetectorInitializedEvent(mInitializedAccelerationType, mThreadSplit).broadcastEvent();
+            // Successfully initialized the interpreter.
+            Log.i(LOGTAG, "ObjectDetector configured with acceleration mode " + mInitializedAccelerationType);
+        }
+    }
+
+    /**
+     * Constructs an {@code ObjectDetector} from models and labels that are already loaded, without a {@code Context}.
+     * The models run on the CPU and no events are broadcast, so that the detector can be run on the JVM, for example
+     * by the host benchmarks.
+     *
+     * @param modelFile             The detection model.
+     * @param modelFileMobile       The mobile model, or null to not load it.
+     * @param modelFileBird         The bird classifier.
+     * @param labels                The labels of the detection model.
+     * @param labelsMobile          The labels of the mobile model.
+     * @param labelsBird            The labels of the bird classifier.
+     * @param maxDetectionsPerImage The maximum number of detections per image as indicated by the model.
+     * @param inputSize             The size of the input the detection models expect.
+     * @param classifierInputSize   The size of the input the bird classifier expects.
+     * @param numThreads            The number of threads that TensorFlow should be instructed to use.
+     * @param isQuantized           Defines whether the input models are quantized (lossy compressed) or not.
+     * @param useXnnpack            Whether the CPU runs the models with the XNNPACK kernels.
+     * @param batchSize             The number of frames processed by {@link #detectBatch} in one inference.
+     * @throws IllegalArgumentException If a model cannot be loaded.
+     */
+    ObjectDetector(final ByteBuffer modelFile,
+                   final ByteBuffer modelFileMobile,
+                   final ByteBuffer modelFileBird,
+                   final List<String> labels,
+                   final List<String> labelsMobile,
+                   final List<String> labelsBird,
+                   final int maxDetectionsPerImage,
+                   final int inputSize,
+                   final int classifierInputSize,
+                   final int numThreads,
+                   final boolean isQuantized,
+                   final boolean useXnnpack,
+                   final int batchSize) {
+        this(null, maxDetectionsPerImage, inputSize, classifierInputSize, isQuantized, false, batchSize);
+        mInterpreterPool = new InterpreterPool(null, numThreads);
+        mInterpreterPool.setUseXnnpack(useXnnpack);
+        try {
+            initializeModels(modelFile, modelFileMobile, modelFileBird, labels, labelsMobile, labelsBird);
+        } catch (RuntimeException e) {
+            releaseInterpreter();
+            throw e;
+        }
+        mInitializedAccelerationType = AccelerationType.NONE;
+    }
+
+    /**
+     * Constructs an {@code ObjectDetector} around a stand-in for a detection model with a post-processing operator,
+     * without TensorFlow Lite, so that the tests can run {@link #detect(ByteBuffer, DetectionResult)} on the JVM.
+     *
+     * @param model                 Fills the output tensors of the detection model.
+     * @param labels                The labels of the detection model.
+     * @param maxDetectionsPerImage The number of output slots of the model.
+     * @param inputSize             The size of the input the model expects.
+     * @param isQuantized           Whether the model expects quantized bytes rather than normalized floats.
+     */
+    ObjectDetector(final ModelRunner model,
+                   final List<String> labels,
+                   final int maxDetectionsPerImage,
+                   final int inputSize,
+                   final boolean isQuantized) {
+        this(null, maxDetectionsPerImage, inputSize, inputSize, isQuantized, false, 1);
+        mModelRunner = model;
+        mLabels = labels;
+        mPostProcessor = new PostProcessor(mMaxDetectionsPerImage, mMaxDetectionsPerImage);
+        mPostProcessor.setScoreThreshold(mScoreThreshold);
+        mInitializedAccelerationType = AccelerationType.NONE;
+    }
+
+    @SuppressWarnings("MagicNumber")
+    private ObjectDetector(final Context context,
+                           final int maxDetectionsPerImage,
+                           final int inputSize,
+                           final int classifierInputSize,
+                           final boolean isQuantized,
+                           final boolean isAuto,
+                           final int batchSize) {
+        mContext = context;
         mInputSize = inputSize;
+        mClassifierInputSize = classifierInputSize;
         mMaxDetectionsPerImage = maxDetectionsPerImage;
         mIsQuantized = isQuantized;
-        final int numBytesPerChannel = mIsQuantized ? 1 : 4;
-        // Allocate image buffer using height x width x 3 (from RGB channels) x <size of data>
-        mImgData = ByteBuffer.allocateDirect(mInputSize * mInputSize * 3 * numBytesPerChannel);
-        // Use endianness of the hardware for the buffer
-        mImgData.order(ByteOrder.nativeOrder());
-        // Allocate array for image pixel values
-        mPixelValues = new int[mInputSize * mInputSize];
-        // Check if we are using Auto mode.
-        mIsAuto = accelerationType == AccelerationType.AUTO;
-        // Initializes the Interpreter as per requested by the user. If Auto mode is used, an optimal AccelerationType is used.
-        initializeInterpreter(accelerationType, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32);
+        mBatchSize = batchSize;
+        mFrameInputBytes = mInputSize * mInputSize * CHANNELS * (mIsQuantized ? 1 : Float.SIZE / Byte.SIZE);
+        mPreprocessor = new InputPreprocessor(mInputSize, mIsQuantized);
+        mClassifierPreprocessor = new InputPreprocessor(mClassifierInputSize, mIsQuantized);
+        mOutputs = new SsdOutputs(1, mMaxDetectionsPerImage);
+        mDetectionResult = new DetectionResult(mMaxDetectionsPerImage);
+        mIsAuto = isAuto;
     }
 
     private boolean initializeInterpreter(final AccelerationType accelerationType,
@@ -179,53 +295,51 @@ class ObjectDetector {
             initializeOptimalInterpreter(modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32);
             return true;
         }
-        // Configure TensorFlow interpreter options from parameters
-        final Interpreter.Options options = new Interpreter.Options();
-        options.setNumThreads(numThreads);
-
+        Delegate delegate = null;
         if (accelerationType != AccelerationType.NONE) {
             // Creates a Delegate based on the acceleration type
-            final Delegate delegate = createDelegate(accelerationType, allowFp16PrecisionForFp32);
+            delegate = createDelegate(accelerationType, allowFp16PrecisionForFp32);
             if (delegate == null) {
                 // If the delegate was not instantiated successfully, return false and exit early.
+                mInitializationError = "Could not create a delegate for " + accelerationType;
                 return false;
             }
             mCloseable = (AutoCloseable) delegate;
-            options.addDelegate(delegate);
         }
+        // Outside Auto mode, a split benchmarked on the CPU is stored, so that configuring again does not measure it again
+        final EasySharedPreference preferences = EasySharedPreference.getInstance();
+        final String splitKey = !mIsAuto && delegate == null
+                ? AccelerationProbe.createKey(mContext.getAssets(), "threads=" + numThreads,
+                        modelFileName, modelFileNameMobile, modelFileNameBird)
+                : null;
+        if (splitKey != null) {
+            mKnownThreads = preferences.getThreadSplit(splitKey);
+        }
+        // Every model gets its own share of the threads, so that models running concurrently do not compete for cores
+        mInterpreterPool = new InterpreterPool(delegate, numThreads);
         try {
-            // Load the model
-            mModel = new Interpreter(ResourceHelper.loadModelFile(
-                    mContext.getAssets(), modelFileName), options);
-            // Prepare the labels
-            mLabels = ResourceHelper.loadLabels(mContext, labelFileResId);
-
-            mModelMobile = new Interpreter(ResourceHelper.loadModelFile(
-                    mContext.getAssets(), modelFileNameMobile), options);
-
-            // Prepare the labels
-            mLabelsMobile = ResourceHelper.loadLabels(mContext, labelFileResIdMobile);
-
-
-            mModelBird = new Interpreter(ResourceHelper.loadModelFile(
-                    mContext.getAssets(), modelFileNameBird), options);
-
-            // Prepare the labels
-            mLabelsBird = ResourceHelper.loadLabels(mContext, labelFileResIdBird);
-            labelFileResIdBirdLocal = labelFileResIdBird;
-
-            new OnObjectDetectorInitializedEvent(accelerationType).broadcastEvent();
-            // Successfully initialized the interpreter.
-            Log.i(LOGTAG, "ObjectDetector configured with acceleration mode " + accelerationType);
+            initializeModels(ResourceHelper.loadModelFile(mContext.getAssets(), modelFileName),
+                    modelFileNameMobile != null
+                            ? ResourceHelper.loadModelFile(mContext.getAssets(), modelFileNameMobile) : null,
+                    ResourceHelper.loadModelFile(mContext.getAssets(), modelFileNameBird),
+                    ResourceHelper.loadLabels(mContext, labelFileResId),
+                    ResourceHelper.loadLabels(mContext, labelFileResIdMobile),
+                    ResourceHelper.loadLabels(mContext, labelFileResIdBird));
+            if (splitKey != null && mThreadSplit.isBenchmarked()) {
+                preferences.storeThreadSplit(splitKey, mThreadSplit.getThreads());
+            }
+            mInitializedAccelerationType = accelerationType;
             return true;
         } catch (Exception e) {
             Log.e(LOGTAG, "ObjectDetector failed to initialize with acceleration mode " + accelerationType, e);
+            mInitializationError = e.getMessage();
+            // Release the interpreters that were created before the failure, Auto mode may try another type next
+            releaseInterpreter();
             /*
-             * Bubble up the error from the Interpreter only if either of the following is true:
-             * 1. User did not request {@link AccelerationType#AUTO} mode. (OR)
-             * 2. User requested {@link AccelerationType#AUTO} mode and there are no more {@code AccelerationType}s to try.
+             * Bubble up the error from the Interpreter only if the user did not request {@link AccelerationType#AUTO}
+             * mode. In Auto mode, the error is only reported once there are no more {@code AccelerationType}s to try.
              */
-            if (!mIsAuto || accelerationType == AccelerationType.NONE) {
+            if (!mIsAuto) {
                 new OnObjectDetectorInitializationFailedEvent(accelerationType, e.getMessage()).broadcastEvent();
             }
         }
@@ -233,6 +347,98 @@ class ObjectDetector {
         return false;
     }
 
+    /**
+     * Loads the models into the {@link InterpreterPool}, splitting the threads between them, and prepares their
+     * outputs.
+     *
+     * @throws IllegalArgumentException If a model cannot be loaded.
+     */
+    private void initializeModels(final ByteBuffer modelFile,
+                                  final ByteBuffer modelFileMobile,
+                                  final ByteBuffer modelFileBird,
+                                  final List<String> labels,
+                                  final List<String> labelsMobile,
+                                  final List<String> labelsBird) {
+        // Load the models and choose how to split the threads between them
+        mInterpreterPool.add(MODEL_DETECT, modelFile, GROUP_DETECTION);
+        if (modelFileMobile != null) {
+            mInterpreterPool.add(MODEL_MOBILE, modelFileMobile, GROUP_DETECTION);
+        }
+        mInterpreterPool.add(MODEL_BIRD, modelFileBird, GROUP_TRIGGERED);
+        mThreadSplit = mInterpreterPool.start(mKnownThreads);
+        mModel = mInterpreterPool.get(MODEL_DETECT);
+        mModelRunner = mModel::runForMultipleInputsOutputs;
+        mModelBird = mInterpreterPool.get(MODEL_BIRD);
+        if (AnchorDecoder.isRawModel(mModel)) {
+            // Every anchor of a raw model can become a candidate
+            mAnchorDecoder = AnchorDecoder.create(mModel, AnchorDecoder.createSsdAnchors(mInputSize));
+            mPostProcessor = new PostProcessor(mAnchorDecoder.getNumAnchors(), mMaxDetectionsPerImage);
+        } else {
+            mAnchorDecoder = null;
+            mPostProcessor = new PostProcessor(mMaxDetectionsPerImage, mMaxDetectionsPerImage);
+        }
+        mPostProcessor.setScoreThreshold(mScoreThreshold);
+        // Prepare the labels
+        mLabels = labels;
+        mLabelsBird = labelsBird;
+        // The batch copy relies on the post-processing operator of the model to split the detections per frame
+        if (mBatchSize > 1 && mAnchorDecoder == null) {
+            initializeBatchInterpreter(modelFile, mInterpreterPool.createOptions(MODEL_DETECT));
+        }
+        // The output tensor holds one (possibly quantized) score per label
+        mOutputTensorBird = mModelBird.getOutputTensor(0);
+        mOutputBird = ByteBuffer.allocateDirect(mOutputTensorBird.numBytes()).order(ByteOrder.nativeOrder());
+        mOutputMapBird.put(0, mOutputBird);
+    }
+
+    /**
+     * Loads a second copy of the detection model and resizes its input to {@code mBatchSize} frames. If the model does
+     * not support a batch dimension (for example because of its post-processing operator), batch mode is disabled and
+     * {@link #detectBatch} falls back to running the frames one by one.
+     */
+    private void initializeBatchInterpreter(final ByteBuffer modelFile, final Interpreter.Options options) {
+        // Release the copy left behind by a previous acceleration type that failed to initialize in Auto mode
+        if (mModelBatch != null) {
+            mModelBatch.close();
+            mModelBatch = null;
+        }
+        try {
+            mModelBatch = new Interpreter(modelFile, options);
+            resizeBatch(mBatchSize);
+        } catch (Exception e) {
+            Log.w(LOGTAG, "Batch size " + mBatchSize + " is not supported by the model, frames will run one by one", e);
+            if (mModelBatch != null) {
+                mModelBatch.close();
+                mModelBatch = null;
+            }
+            mBatchInput = null;
+            mBatchOutputs = null;
+        }
+    }
+
+    /**
+     * Resizes the input of the batch copy of the detection model to a number of frames. This reallocates the tensors,
+     * so it should happen rarely.
+     *
+     * @param dimension The number of frames of a batch.
+     */
+    private void resizeBatch(final int dimension) {
+        mModelBatch.resizeInput(0, new int[]{dimension, mInputSize, mInputSize, CHANNELS});
+        mModelBatch.allocateTensors();
+        // The interpreter only accepts input buffers of exactly the size of the input tensor
+        mBatchInput = ByteBuffer.allocateDirect(dimension * mFrameInputBytes).order(ByteOrder.nativeOrder());
+        mBatchOutputs = new SsdOutputs(dimension, mMaxDetectionsPerImage);
+        mBatchDimension = dimension;
+    }
+
+    /**
+     * Finds the {@code AccelerationType} with the lowest p95 latency of the detection model and initializes the
+     * Interpreter with it.
+     * <p>
+     * Every candidate in {@link #AUTO_ACCELERATION_TYPES} that initializes is timed on a synthetic frame. The winner is
+     * persisted together with the thread split the {@link InterpreterPool} chose for it, keyed by a hash of the models
+     * and the device fingerprint, so later starts of the same models on the same device skip the probe.
+     */
     private void initializeOptimalInterpreter(final String modelFileName,
                                               final String modelFileNameMobile,
                                               final String modelFileNameBird,
@@ -241,14 +447,57 @@ class ObjectDetector {
                                               final @RawRes int labelFileResIdBird,
                                               final int numThreads,
                                               final boolean allowFp16PrecisionForFp32) {
-        // Try each AccelerationType in the list until a working one is found, or an exception is thrown.
+        final EasySharedPreference preferences = EasySharedPreference.getInstance();
+        final String probeKey = AccelerationProbe.createKey(mContext.getAssets(),
+                "threads=" + numThreads + ",fp16=" + allowFp16PrecisionForFp32 + ",input=" + mInputSize,
+                modelFileName, modelFileNameMobile, modelFileNameBird);
+        // Reuse the result of an earlier probe of the same models on this device
+        final AccelerationType probedAccelerationType = probeKey != null
+                ? preferences.getProbedAccelerationType(probeKey) : null;
+        if (probedAccelerationType != null) {
+            mKnownThreads = preferences.getProbedThreads(probeKey);
+            if (initializeInterpreter(probedAccelerationType, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32)) {
+                Log.i(LOGTAG, "Reusing the probed acceleration mode " + probedAccelerationType);
+                return;
+            }
+            // The device changed without changing its fingerprint, for example through a driver update, so probe again.
+            mKnownThreads = null;
+        }
+        final ByteBuffer syntheticFrame = AccelerationProbe.createSyntheticFrame(mInputSize, mIsQuantized);
+        AccelerationType bestAccelerationType = null;
+        int[] bestThreads = null;
+        long bestLatency = Long.MAX_VALUE;
+        // Try each AccelerationType in the list and time the ones that initialize.
         for (AccelerationType accelerationTypeToTry : AUTO_ACCELERATION_TYPES) {
-            // Initializes the Interpreter based on the acceleration type
-            if (initializeInterpreter(accelerationTypeToTry, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32)) {
-                // When the Interpreter is initialized successfully, break out of the loop.
-                break;
+            if (!initializeInterpreter(accelerationTypeToTry, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32)) {
+                continue;
+            }
+            try {
+                final long latency = AccelerationProbe.measureP95(() -> detect(syntheticFrame, mDetectionResult));
+                Log.i(LOGTAG, "Acceleration mode " + accelerationTypeToTry + " p95 latency " + latency + " ns");
+                if (latency < bestLatency) {
+                    bestLatency = latency;
+                    bestAccelerationType = accelerationTypeToTry;
+                    bestThreads = mThreadSplit.isBenchmarked() ? mThreadSplit.getThreads() : null;
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOGTAG, "Acceleration mode " + accelerationTypeToTry + " failed to run the probe", e);
+                mInitializationError = e.getMessage();
+            }
+            releaseInterpreter();
+        }
+        if (bestAccelerationType != null) {
+            // Initialize the winner again, reusing its thread split rather than benchmarking it twice
+            mKnownThreads = bestThreads;
+            if (initializeInterpreter(bestAccelerationType, modelFileName, modelFileNameMobile, modelFileNameBird, labelFileResId, labelFileResIdMobile, labelFileResIdBird, numThreads, allowFp16PrecisionForFp32)) {
+                if (probeKey != null) {
+                    preferences.storeProbeResult(probeKey, bestAccelerationType, bestThreads);
+                }
+                return;
             }
         }
+        // There are no more {@code AccelerationType}s to try, bubble up the last error.
+        new OnObjectDetectorInitializationFailedEvent(AccelerationType.NONE, mInitializationError).broadcastEvent();
     }
 
     private Delegate createDelegate(final AccelerationType accelerationType, final boolean allowFp16PrecisionForFp32) {
@@ -322,18 +571,42 @@ class ObjectDetector {
         return delegate;
     }
 
+    /**
+     * Runs the detection model once on a synthetic frame, so that the first real frame does not pay for lazy
+     * initialization in the interpreter and the delegate.
+     */
+    void warmUp() {
+        detect(AccelerationProbe.createSyntheticFrame(mInputSize, mIsQuantized), mDetectionResult);
+    }
+
     /**
      * Destroys the {@code ObjectDetector}, releasing all the internally allocated resources.
      */
     void destroy() {
-        // Close the model.
-        if (mModel != null) {
-            mModel.close();
-        }
+        releaseInterpreter();
         // Clear the labels.
         if (mLabels != null) {
             mLabels.clear();
         }
+    }
+
+    /**
+     * Closes the interpreters and the delegate, so that the detector can be initialized with another
+     * {@code AccelerationType}.
+     */
+    private void releaseInterpreter() {
+        // Close the models.
+        if (mInterpreterPool != null) {
+            mInterpreterPool.close();
+            mInterpreterPool = null;
+        }
+        mModel = null;
+        mModelRunner = null;
+        mModelBird = null;
+        if (mModelBatch != null) {
+            mModelBatch.close();
+            mModelBatch = null;
+        }
         // Close the Delegate.
         if (mCloseable != null) {
             try {
@@ -341,7 +614,9 @@ class ObjectDetector {
             } catch (Exception e) {
                 Log.e(LOGTAG, "Could not close delegate", e);
             }
+            mCloseable = null;
         }
+        mInitializedAccelerationType = null;
     }
 
     /**
@@ -349,6 +624,8 @@ class ObjectDetector {
      * 1. Performs some data preprocessing
      * Populates the `imgData` input array with bytes from the bitmap in RGB order
      * Normalizes data if necessary
+     * The input array is shared by the detection models, so passing the same bitmap to {@link #detect(Bitmap,
+     * DetectionResult)} does not repeat this step.
      * <p>
      * 2. Inference
      * Sets up inputs and outputs for the TensorFlow lite api `runForMultipleInputsOutputs`
@@ -366,248 +643,336 @@ class ObjectDetector {
      * 3. Maps outputs to
      * {@link Recognition} objects
      * for easier use.
+     * <p>
+     * Use {@link #detect(Bitmap, DetectionResult)} instead to avoid allocating objects for every frame.
      *
      * @param bitmap The image {@code Bitmap} to run inference on.
      * @return A {@code List<Recognition>} containing all the recognized objects.
      */
-    @SuppressWarnings("MagicNumber")
     List<Recognition> recognizeImage(final Bitmap bitmap) {
-        // Return the recognitions in an accessible format
-        final List<Recognition> recognitions = new ArrayList<>(mMaxDetectionsPerImage);
-        if (mModel == null) {
-            return recognitions;
-        }
-        // Preprocess the image data from 0-255 int to normalized value based on the provided parameters.
-        bitmap.getPixels(mPixelValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-        mImgData.rewind();
-        for (int i = 0; i < mInputSize; ++i) {
-            for (int j = 0; j < mInputSize; ++j) {
-                // Get the data for the jth pixel in the ith row of the image
-                final int pixelValue = mPixelValues[i * mInputSize + j];
-                if (mIsQuantized) {
-                    // Quantized model
-                    mImgData.put((byte) ((pixelValue >> SHIFT_RED) & BYTE_MASK));
-                    mImgData.put((byte) ((pixelValue >> SHIFT_GREEN) & BYTE_MASK));
-                    mImgData.put((byte) (pixelValue & BYTE_MASK));
-                } else {
-                    // Float model
-                    mImgData.putFloat((((pixelValue >> SHIFT_RED) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                    mImgData.putFloat((((pixelValue >> SHIFT_GREEN) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                    mImgData.putFloat(((pixelValue & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                }
-            }
-        }
+        return recognizeImage(mPreprocessor.process(bitmap));
+    }
 
-        final Object[] inputArray = {mImgData};
+    /**
+     * Runs inference on an already populated input buffer, see {@link #recognizeImage(Bitmap)}.
+     *
+     * @param input The input tensor, as filled by a {@link YuvInputConverter}.
+     * @return A {@code List<Recognition>} containing all the recognized objects.
+     */
+    List<Recognition> recognizeImage(final ByteBuffer input) {
+        if (!detect(input, mDetectionResult)) {
+            return new ArrayList<>();
+        }
+        return toRecognitions(mDetectionResult);
+    }
 
-        // Allocate buffers
-        mOutputLocations = new float[inputArray.length][mMaxDetectionsPerImage][4];
-        mOutputClasses = new float[inputArray.length][mMaxDetectionsPerImage];
-        mOutputScores = new float[inputArray.length][mMaxDetectionsPerImage];
-        mDetectionCount = new float[inputArray.length];
-        final Map<Integer, Object> outputMap = new HashMap<>();
-        /*
-         * Build output map to reflect the tensors trained in the model. This model has the order locations, classes,
-         * scores, and count.
-         */
-        outputMap.put(0, mOutputLocations);
-        outputMap.put(1, mOutputClasses);
-        outputMap.put(2, mOutputScores);
-        outputMap.put(3, mDetectionCount);
+    /**
+     * Runs inference on the tiles of a frame and merges their detections, see
+     * {@link #detectTiles(ByteBuffer[], TileLayout, DetectionResult)}.
+     *
+     * @param inputs The input tensors of the tiles, as filled by a {@link YuvInputConverter} per tile.
+     * @param layout The tiles the frame was split into.
+     * @return A {@code List<Recognition>} containing all the recognized objects, relative to the detection area.
+     */
+    List<Recognition> recognizeTiles(final ByteBuffer[] inputs, final TileLayout layout) {
+        if (!detectTiles(inputs, layout, mDetectionResult)) {
+            return new ArrayList<>();
+        }
+        return toRecognitions(mDetectionResult);
+    }
 
-        /*
-         * Accepts the formatted ByteBuffer as an inputArray, and runs an inference to populate detection data in the
-         * outputMap
-         */
-        mModel.runForMultipleInputsOutputs(inputArray, outputMap);
-
-        for (int i = 0; i < mMaxDetectionsPerImage; ++i) {
-            // Return coordinates relative to the detection area
-            final RectF detection =
-                    new RectF(
-                            mOutputLocations[0][i][1],
-                            mOutputLocations[0][i][0],
-                            mOutputLocations[0][i][3],
-                            mOutputLocations[0][i][2]);
-            /*
-             * SSD Mobilenet V1 Model assumes class 0 is background class
-             * in label file and class labels start from 1 to number_of_classes+1,
-             * while outputClasses correspond to class index from 0 to number_of_classes
-             */
+    /**
+     * Returns the detections of a result in an accessible format.
+     */
+    private List<Recognition> toRecognitions(final DetectionResult result) {
+        final List<Recognition> recognitions = new ArrayList<>(result.getCount());
+        for (int i = 0; i < result.getCount(); ++i) {
             recognitions.add(
                     new Recognition(
                             String.valueOf(i),
-                            mLabels.get((int) mOutputClasses[0][i]),
-                            mOutputScores[0][i],
-                            detection));
+                            getLabel(result.getClassId(i)),
+                            result.getScore(i),
+                            new RectF(result.getLeft(i),
+                                    result.getTop(i),
+                                    result.getRight(i),
+                                    result.getBottom(i))));
         }
         return recognitions;
     }
 
     /**
-     * Function for recognize Bird
+     * Runs the detection model on a bitmap and decodes its output into a pooled {@link DetectionResult}.
+     * <p>
+     * Input and output tensors are preallocated, so once warmed up this method does not allocate. The boxes are
+     * converted from the model's [top, left, bottom, right] format to [left, top, right, bottom].
+     * The candidates are passed through a {@link PostProcessor}: those below the score threshold are dropped, overlapping
+     * boxes of the same class are suppressed and at most {@code maxDetectionsPerImage} remain, in descending score
+     * order. Models without a post-processing operator are decoded from their anchors first.
+     *
+     * @param bitmap The image {@code Bitmap} to run inference on.
+     * @param result The result to fill. Its previous content is discarded.
+     * @return False if the model is not initialized, true otherwise.
      */
-    List<Mobile> recognizeImageMobile(final Bitmap bitmap) {
-        final List<Mobile> mobiles = new ArrayList<>(mMaxDetectionsPerImage);
-        try {
-            if (mModelMobile == null) {
-                return mobiles;
-            }
-            // Preprocess the image data from 0-255 int to normalized value based on the provided parameters.
-            bitmap.getPixels(mPixelValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-            mImgData.rewind();
-            for (int i = 0; i < mInputSize; ++i) {
-                for (int j = 0; j < mInputSize; ++j) {
-                    // Get the data for the jth pixel in the ith row of the image
-                    final int pixelValue = mPixelValues[i * mInputSize + j];
-                    if (mIsQuantized) {
-                        // Quantized model
-                        mImgData.put((byte) ((pixelValue >> SHIFT_RED) & BYTE_MASK));
-                        mImgData.put((byte) ((pixelValue >> SHIFT_GREEN) & BYTE_MASK));
-                        mImgData.put((byte) (pixelValue & BYTE_MASK));
-                    } else {
-                        // Float model
-                        mImgData.putFloat((((pixelValue >> SHIFT_RED) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                        mImgData.putFloat((((pixelValue >> SHIFT_GREEN) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                        mImgData.putFloat(((pixelValue & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                    }
-                }
-            }
-
-            Object[] inputArray = {mImgData};
+    boolean detect(final Bitmap bitmap, final DetectionResult result) {
+        // Populates the shared input buffer, unless this frame was already processed for another model.
+        return detect(mPreprocessor.process(bitmap), result);
+    }
 
-            // Allocate buffers
-            mOutputLocations = new float[inputArray.length][mMaxDetectionsPerImage][4];
-            mOutputClasses = new float[inputArray.length][mMaxDetectionsPerImage];
-            mOutputScores = new float[inputArray.length][mMaxDetectionsPerImage];
-            mDetectionCount = new float[inputArray.length];
-            final Map<Integer, Object> outputMap = new HashMap<>();
+    /**
+     * Runs the detection model on an already populated input buffer, see {@link #detect(Bitmap, DetectionResult)}.
+     *
+     * @param input  The input tensor, as filled by a {@link YuvInputConverter}.
+     * @param result The result to fill. Its previous content is discarded.
+     * @return False if the model is not initialized, true otherwise.
+     */
+    boolean detect(final ByteBuffer input, final DetectionResult result) {
+        result.clear();
+        if (mModelRunner == null) {
+            return false;
+        }
+        input.rewind();
+        mPostProcessor.clear();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        if (mAnchorDecoder != null) {
+            mAnchorDecoder.run(mModel, input);
+        } else {
+            mOutputs.run(mModelRunner, input);
+        }
+        final long runTime = SystemClock.elapsedRealtimeNanos();
+        if (mAnchorDecoder != null) {
+            mAnchorDecoder.decodeInto(mPostProcessor);
+        } else {
+            mOutputs.decodeInto(0, mPostProcessor);
+        }
+        mPostProcessor.process(result);
+        INTERPRETER_LATENCY.record(runTime - startTime);
+        NMS_LATENCY.record(SystemClock.elapsedRealtimeNanos() - runTime);
+        return true;
+    }
 
-            /*
-             * Build output map to reflect the tensors trained in the model. This model has the order locations, classes,
-             * scores, and count.
-             */
-            outputMap.put(0, mOutputLocations);
-            outputMap.put(1, mOutputClasses);
-            outputMap.put(2, mOutputScores);
-            outputMap.put(3, mDetectionCount);
+    /**
+     * Sets the minimum confidence of the detections returned by {@link #recognizeImage} and {@link #detect}.
+     * Candidates below it are dropped before suppression, so that no objects are created for them.
+     *
+     * @param scoreThreshold The minimum confidence (0 - 1).
+     */
+    void setScoreThreshold(final float scoreThreshold) {
+        mScoreThreshold = scoreThreshold;
+        if (mPostProcessor != null) {
+            mPostProcessor.setScoreThreshold(scoreThreshold);
+        }
+        if (mTilePostProcessor != null) {
+            mTilePostProcessor.setScoreThreshold(scoreThreshold);
+        }
+    }
 
-            /*
-             * Accepts the formatted ByteBuffer as an inputArray, and runs an inference to populate detection data in the
-             * outputMap
-             */
+    /**
+     * Runs the detection model on the tiles of a frame and merges their detections into the detection area.
+     * <p>
+     * The tiles are run in batches of at most {@link #getBatchSize()} tiles. The boxes of every tile are moved from the
+     * tile to the detection area, and the detections of all tiles are passed through a second suppression, which
+     * removes the duplicates of objects seen by two overlapping tiles. Its overlap is measured relative to the smaller
+     * box, so that a box cut off by a tile border is merged into the whole box found by the neighbouring tile.
+     *
+     * @param inputs The input tensors of the tiles, as filled by a {@link YuvInputConverter} per tile.
+     * @param layout The tiles the frame was split into.
+     * @param result The result to fill, relative to the detection area. Its previous content is discarded.
+     * @return False if the model is not initialized, true otherwise.
+     */
+    boolean detectTiles(final ByteBuffer[] inputs, final TileLayout layout, final DetectionResult result) {
+        result.clear();
+        if (mModel == null) {
+            return false;
+        }
+        final int count = layout.size();
+        if (mTileResults.length < count) {
+            mTileResults = new DetectionResult[count];
+            for (int i = 0; i < count; ++i) {
+                mTileResults[i] = new DetectionResult(mMaxDetectionsPerImage);
+            }
+            mTilePostProcessor = new PostProcessor(count * mMaxDetectionsPerImage, mMaxDetectionsPerImage);
+            mTilePostProcessor.setOverlapOfSmaller(true);
+            mTilePostProcessor.setIouThreshold(TILE_MERGE_THRESHOLD);
+            mTilePostProcessor.setScoreThreshold(mScoreThreshold);
+        }
+        for (int start = 0; start < count; start += mBatchSize) {
+            if (!detectBatch(inputs, start, Math.min(mBatchSize, count - start), mTileResults)) {
+                return false;
+            }
+        }
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        mTilePostProcessor.clear();
+        for (int tile = 0; tile < count; ++tile) {
+            final RectF area = layout.getNormalizedTile(tile);
+            final DetectionResult tileResult = mTileResults[tile];
+            for (int i = 0; i < tileResult.getCount(); ++i) {
+                mTilePostProcessor.add(area.left + tileResult.getLeft(i) * area.width(),
+                        area.top + tileResult.getTop(i) * area.height(),
+                        area.left + tileResult.getRight(i) * area.width(),
+                        area.top + tileResult.getBottom(i) * area.height(),
+                        tileResult.getScore(i),
+                        tileResult.getClassId(i));
+            }
+        }
+        mTilePostProcessor.process(result);
+        TILE_MERGE_LATENCY.record(SystemClock.elapsedRealtimeNanos() - startTime);
+        return true;
+    }
 
-            mModelMobile.runForMultipleInputsOutputs(inputArray, outputMap);
+    /**
+     * Runs the detection model on several frames with a single inference and splits the results per frame.
+     * <p>
+     * The inputs are copied into the slots of one direct buffer, whose size matches the batch dimension the model was
+     * resized to. If a different number of frames than the last batch is passed, the model is resized to it first,
+     * which reallocates its tensors, so callers should keep the number of frames stable. A single frame and all frames
+     * without batch mode are run one by one.
+     *
+     * @param inputs  The input tensors, as filled by a {@link YuvInputConverter}.
+     * @param count   The number of inputs to process, at most {@link #getBatchSize()}.
+     * @param results The results to fill, one per input. Their previous content is discarded.
+     * @return False if the model is not initialized, true otherwise.
+     */
+    boolean detectBatch(final ByteBuffer[] inputs, final int count, final DetectionResult[] results) {
+        return detectBatch(inputs, 0, count, results);
+    }
 
-            for (int i = 0; i < mMaxDetectionsPerImage; ++i) {
-                // Return coordinates relative to the detection area
-                final RectF detection =
-                        new RectF(
-                                mOutputLocations[0][i][1],
-                                mOutputLocations[0][i][0],
-                                mOutputLocations[0][i][3],
-                                mOutputLocations[0][i][2]);
-                /*
-                 * SSD Mobilenet V1 Model assumes class 0 is background class
-                 * in label file and class labels start from 1 to number_of_classes+1,
-                 * while outputClasses correspond to class index from 0 to number_of_classes
-                 */
-                mobiles.add(
-                        new Mobile(
-                                String.valueOf(i),
-                                mLabelsMobile.get((int) mOutputClasses[0][i]),
-                                mOutputScores[0][i],
-                                detection));
+    /**
+     * Runs the detection model on a range of inputs, see {@link #detectBatch(ByteBuffer[], int, DetectionResult[])}.
+     * The result of an input is written to the same index of {@code results}.
+     */
+    private boolean detectBatch(final ByteBuffer[] inputs, final int offset, final int count,
+                                final DetectionResult[] results) {
+        if (count > mBatchSize) {
+            throw new IllegalArgumentException("Batch of " + count + " frames exceeds the batch size " + mBatchSize);
+        }
+        if (mModelBatch != null && count > 1 && count != mBatchDimension) {
+            try {
+                resizeBatch(count);
+            } catch (Exception e) {
+                Log.w(LOGTAG, "Could not resize the batch to " + count + " frames, frames will run one by one", e);
+                mModelBatch.close();
+                mModelBatch = null;
+                mBatchInput = null;
+                mBatchOutputs = null;
             }
-        } catch (Exception e) {
-            mobiles.clear();
         }
-        return mobiles;
+        if (mModelBatch == null || count == 1) {
+            boolean isDetected = true;
+            for (int i = offset; i < offset + count; ++i) {
+                isDetected &= detect(inputs[i], results[i]);
+            }
+            return isDetected;
+        }
+        mBatchInput.clear();
+        for (int i = 0; i < count; ++i) {
+            final ByteBuffer input = inputs[offset + i];
+            input.rewind();
+            mBatchInput.position(i * mFrameInputBytes);
+            mBatchInput.put(input);
+            input.rewind();
+        }
+        mBatchInput.rewind();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        mBatchOutputs.run(mModelBatch, mBatchInput);
+        final long runTime = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < count; ++i) {
+            mPostProcessor.clear();
+            mBatchOutputs.decodeInto(i, mPostProcessor);
+            mPostProcessor.process(results[offset + i]);
+        }
+        INTERPRETER_LATENCY.record(runTime - startTime);
+        NMS_LATENCY.record(SystemClock.elapsedRealtimeNanos() - runTime);
+        return true;
     }
 
+    /**
+     * Gets the number of frames processed by {@link #detectBatch} in one inference.
+     *
+     * @return The batch size.
+     */
+    int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Gets the human readable labels of the detection model, for example to label detections after the detector was
+     * destroyed.
+     *
+     * @return An unmodifiable copy of the labels, indexed by class id.
+     */
+    List<String> getLabels() {
+        return Collections.unmodifiableList(new ArrayList<>(mLabels));
+    }
+
+    /**
+     * Gets the human readable label of a class.
+     *
+     * @param classId Index of the class as reported by the detection model.
+     * @return The label of the class.
+     */
+    String getLabel(final int classId) {
+        return mLabels.get(classId);
+    }
+
+    /**
+     * Classifies the bird in a bitmap.
+     *
+     * @param bitmap The image {@code Bitmap}, sized as returned by {@link #getClassifierImageSize()}.
+     * @return The most likely bird.
+     */
     Bird recognizeImageBird(final Bitmap bitmap) {
-        //final List<Mobile> mobiles = new ArrayList<>(mMaxDetectionsPerImage);
+        return recognizeImageBird(mClassifierPreprocessor.process(bitmap));
+    }
+
+    /**
+     * Classifies the bird in an already populated input buffer.
+     *
+     * @param input The input tensor of the classifier, as filled by a {@link YuvInputConverter}.
+     * @return The most likely bird.
+     */
+    Bird recognizeImageBird(final ByteBuffer input) {
         Bird bird = new Bird("", "No Bird", 0.0F, new RectF());
         try {
             if (mModelBird == null) {
                 return bird;
             }
-            // Preprocess the image data from 0-255 int to normalized value based on the provided parameters.
-            bitmap.getPixels(mPixelValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-
-            mImgData.rewind();
-            for (int i = 0; i < mInputSize; ++i) {
-                for (int j = 0; j < mInputSize; ++j) {
-                    // Get the data for the jth pixel in the ith row of the image
-                    final int pixelValue = mPixelValues[i * mInputSize + j];
-                    if (mIsQuantized) {
-                        // Quantized model
-                        mImgData.put((byte) ((pixelValue >> SHIFT_RED) & BYTE_MASK));
-                        mImgData.put((byte) ((pixelValue >> SHIFT_GREEN) & BYTE_MASK));
-                        mImgData.put((byte) (pixelValue & BYTE_MASK));
-                    } else {
-                        // Float model
-                        mImgData.putFloat((((pixelValue >> SHIFT_RED) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                        mImgData.putFloat((((pixelValue >> SHIFT_GREEN) & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                        mImgData.putFloat(((pixelValue & BYTE_MASK) - IMAGE_MED) / IMAGE_MED);
-                    }
-                }
-            }
-
-            Object[] inputArray = {mImgData};
-
-            // Allocate buffers
-            mOutputLocations = new float[inputArray.length][mMaxDetectionsPerImage][4];
-            mOutputClasses = new float[inputArray.length][mMaxDetectionsPerImage];
-            mOutputScores = new float[inputArray.length][mMaxDetectionsPerImage];
-            mDetectionCount = new float[inputArray.length];
-            final Map<Integer, Object> outputMap = new HashMap<>();
+            input.rewind();
+            mInputArrayBird[0] = input;
+            mOutputBird.rewind();
 
             /*
-             * Build output map to reflect the tensors trained in the model. This model has the order locations, classes,
-             * scores, and count.
+             * Accepts the formatted ByteBuffer as an inputArray, and runs an inference to populate the class
+             * probabilities in the output buffer
              */
-            int bufferSize = 1000 * java.lang.Float.SIZE / java.lang.Byte.SIZE;
-            ByteBuffer modelOutput = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
-            outputMap.put(0, modelOutput);
+            mModelBird.runForMultipleInputsOutputs(mInputArrayBird, mOutputMapBird);
 
-            /*
-             * Accepts the formatted ByteBuffer as an inputArray, and runs an inference to populate detection data in the
-             * outputMap
-             */
-
-            mModelBird.runForMultipleInputsOutputs(inputArray, outputMap);
+            mOutputBird.rewind();
 
-            modelOutput.rewind();
-
-            FloatBuffer probabilities = modelOutput.asFloatBuffer();
-            Float a = probabilities.get(1);
+            // Pick the label with the highest score
+            final boolean isQuantizedOutput = mOutputTensorBird.dataType() == DataType.UINT8;
+            final int numScores = isQuantizedOutput
+                    ? mOutputBird.capacity()
+                    : mOutputBird.capacity() / (Float.SIZE / Byte.SIZE);
+            final FloatBuffer probabilities = isQuantizedOutput ? null : mOutputBird.asFloatBuffer();
+            int bestIndex = 0;
+            float bestScore = -Float.MAX_VALUE;
+            for (int i = 0; i < numScores; ++i) {
+                final float score = isQuantizedOutput ? mOutputBird.get(i) & BYTE_MASK : probabilities.get(i);
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestIndex = i;
+                }
+            }
+            if (isQuantizedOutput) {
+                final Tensor.QuantizationParams quantization = mOutputTensorBird.quantizationParams();
+                bestScore = (bestScore - quantization.getZeroPoint()) * quantization.getScale();
+            }
 
-            bird = new Bird(String.valueOf(0),
-                    a.toString(),
-                    55.0F,
+            bird = new Bird(String.valueOf(bestIndex),
+                    bestIndex < mLabelsBird.size() ? mLabelsBird.get(bestIndex) : String.valueOf(bestIndex),
+                    bestScore,
                     new RectF()
             );
-
-
-            /*
-            for (int i = 0; i < mMaxDetectionsPerImage; ++i) {
-                // Return coordinates relative to the detection area
-
-                /*
-                 * SSD Mobilenet V1 Model assumes class 0 is background class
-                 * in label file and class labels start from 1 to number_of_classes+1,
-                 * while outputClasses correspond to class index from 0 to number_of_classes
-                mobiles.add(
-                        new Mobile(
-                                String.valueOf(i),
-                                mLabelsMobile.get((int) mOutputClasses[0][i]),
-                                mOutputScores[0][i],
-                                detection));
-            }
-            */
         } catch (Exception ex) {
             bird = new Bird("", ex.getMessage(), 0.0F, new RectF());
         }
@@ -615,6 +980,25 @@ class ObjectDetector {
         return bird;
     }
 
+    /**
+     * Gets the {@code AccelerationType} the models were initialized with. When {@link AccelerationType#AUTO} was
+     * requested, this is the optimal {@code AccelerationType} that was found.
+     *
+     * @return The initialized {@code AccelerationType}, or null if the models failed to initialize.
+     */
+    AccelerationType getInitializedAccelerationType() {
+        return mInitializedAccelerationType;
+    }
+
+    /**
+     * Gets whether the models expect quantized bytes or normalized floats as input.
+     *
+     * @return True if the input is quantized, false otherwise.
+     */
+    boolean isQuantized() {
+        return mIsQuantized;
+    }
+
     /**
      * Gets the size of image as required by the detector.
      *
@@ -623,4 +1007,111 @@ class ObjectDetector {
     Size getRequiredImageSize() {
         return new Size(mInputSize, mInputSize);
     }
+
+    /**
+     * Gets the size of image as required by the bird classifier.
+     *
+     * @return A {@code Size} that defines the expected height and width of the classifier input image.
+     */
+    Size getClassifierImageSize() {
+        return new Size(mClassifierInputSize, mClassifierInputSize);
+    }
+
+    /**
+     * Runs a model on inputs and writes its outputs into preallocated tensors, like
+     * {@link Interpreter#runForMultipleInputsOutputs}. The tests implement it to run the detector without TensorFlow
+     * Lite.
+     */
+    interface ModelRunner {
+        /**
+         * Runs the model.
+         *
+         * @param inputs  The input tensors, in index order.
+         * @param outputs The output tensors to fill, by index.
+         */
+        void run(Object[] inputs, Map<Integer, Object> outputs);
+    }
+
+    /**
+     * Preallocated output tensors of an SSD style model, together with the input array and output map passed to
+     * {@code runForMultipleInputsOutputs}. Reused for every frame so that running the model does not allocate.
+     * The batch dimension holds one slot per frame of a batch.
+     */
+    static final class SsdOutputs {
+        /**
+         * outputLocations: array of shape [Batchsize, mMaxDetectionsPerImage, 4]
+         * contains the location of detected boxes in [top, left, bottom, right] format per detection
+         */
+        private final float[][][] mLocations;
+        /**
+         * outputClasses: array of shape [Batchsize, mMaxDetectionsPerImage]
+         * contains the classes of detected boxes
+         */
+        private final float[][] mClasses;
+        /**
+         * outputScores: array of shape [Batchsize, mMaxDetectionsPerImage]
+         * contains the scores of detected boxes
+         */
+        private final float[][] mScores;
+        /**
+         * numDetections: array of shape [Batchsize]
+         * contains the number of detected boxes
+         */
+        private final float[] mDetectionCount;
+        private final Object[] mInputArray = new Object[1];
+        private final Map<Integer, Object> mOutputMap = new HashMap<>();
+
+        @SuppressWarnings("MagicNumber")
+        SsdOutputs(final int batchSize, final int maxDetectionsPerImage) {
+            mLocations = new float[batchSize][maxDetectionsPerImage][4];
+            mClasses = new float[batchSize][maxDetectionsPerImage];
+            mScores = new float[batchSize][maxDetectionsPerImage];
+            mDetectionCount = new float[batchSize];
+            /*
+             * Build output map to reflect the tensors trained in the model. This model has the order locations, classes,
+             * scores, and count.
+             */
+            mOutputMap.put(0, mLocations);
+            mOutputMap.put(1, mClasses);
+            mOutputMap.put(2, mScores);
+            mOutputMap.put(3, mDetectionCount);
+        }
+
+        /**
+         * Accepts the formatted ByteBuffer as an inputArray, and runs an inference to populate detection data in the
+         * output tensors.
+         */
+        void run(final Interpreter model, final ByteBuffer imgData) {
+            mInputArray[0] = imgData;
+            model.runForMultipleInputsOutputs(mInputArray, mOutputMap);
+        }
+
+        /**
+         * Runs a model, or a stand-in for one, to populate the output tensors, see {@link #run(Interpreter,
+         * ByteBuffer)}.
+         */
+        void run(final ModelRunner model, final ByteBuffer imgData) {
+            mInputArray[0] = imgData;
+            model.run(mInputArray, mOutputMap);
+        }
+
+        /**
+         * Adds the output tensors of one batch slot as candidates to a {@code PostProcessor}, in
+         * [left, top, right, bottom] order.
+         */
+        @SuppressWarnings("MagicNumber")
+        void decodeInto(final int slot, final PostProcessor postProcessor) {
+            final int count = Math.min((int) mDetectionCount[slot], mScores[slot].length);
+            for (int i = 0; i < count; ++i) {
+                final float[] location = mLocations[slot][i];
+                /*
+                 * SSD Mobilenet V1 Model assumes class 0 is background class
+                 * in label file and class labels start from 1 to number_of_classes+1,
+                 * while outputClasses correspond to class index from 0 to number_of_classes
+                 */
+                postProcessor.add(location[1], location[0], location[3], location[2], mScores[slot][i],
+                        (int) mClasses[slot][i]);
+            }
+        }
+    }
 }
@@ -17,8 +17,11 @@
 package com.securityandsafetythings.examples.tflitedetector.detector;
 
 import com.securityandsafetythings.examples.tflitedetector.R;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
 
+import java.nio.ByteBuffer;
+
 /**
  * Configures and builds an {@link ObjectDetector}.
  */
@@ -35,10 +38,13 @@ public class ObjectDetectorBuilder {
     //private int mInputSize = 300;
     private int mInputSize = 224;
     @SuppressWarnings("MagicNumber")
+    private int mClassifierInputSize = 224;
+    @SuppressWarnings("MagicNumber")
     private int mNumThreads = 4;
     private boolean mAllowFp16PrecisionForFp32 = false;
     private boolean mIsQuantized = false;
     private AccelerationType mAccelerationType = AccelerationType.AUTO;
+    private int mBatchSize = 1;
 
     /**
      * Builds an {@code ObjectDetector} with the specified configuration.
@@ -54,17 +60,21 @@ public class ObjectDetectorBuilder {
                 mLabelFileResIdBird,
                 mMaxDetectionsPerImage,
                 mInputSize,
+                mClassifierInputSize,
                 mNumThreads,
                 mAllowFp16PrecisionForFp32,
                 mIsQuantized,
-                mAccelerationType);
+                mAccelerationType,
+                mBatchSize);
     }
 
     /**
      * Sets the name of the file that represents the model.
      * Default value: "detect.tflite"
      *
-     * @param name The name of the file that represents the model.
+     * @param name       The name of the file that represents the model.
+     * @param nameMobile The name of the file of the mobile model, or null to not load it.
+     * @param nameBird   The name of the file of the bird classifier.
      * @return This builder as a convenience for call chaining.
      */
     ObjectDetectorBuilder setModelFileName(final String name, final String nameMobile, final  String nameBird) {
@@ -124,6 +134,18 @@ public class ObjectDetectorBuilder {
         return this;
     }
 
+    /**
+     * Sets input size the bird classifier expects.
+     * Default value: 224
+     *
+     * @param size The classifier's input size n, in nxn.
+     * @return This builder as a convenience for call chaining.
+     */
+    ObjectDetectorBuilder setClassifierInputSize(final int size) {
+        mClassifierInputSize = size;
+        return this;
+    }
+
     /**
      * Sets the number of threads to use.
      * Default value: 4
@@ -158,4 +180,24 @@ public class ObjectDetectorBuilder {
         mIsQuantized = isQuantized;
         return this;
     }
+
+    /**
+     * Sets the number of frames the detection model processes in a single inference, see
+     * {@link ObjectDetector#detectBatch(ByteBuffer[], int, DetectionResult[])}.
+     * Default value: 1
+     * <p>
+     * Only the tiled mode batches, with the tiles of a frame, which are the only inputs that are ready together. The app
+     * has a single live stream and no re-analysis of recorded clips, so there is no batcher holding frames back until
+     * a batch is full or a maximum wait expires, which would only add latency to every frame.
+     *
+     * @param batchSize The number of frames per batch.
+     * @return This builder as a convenience for call chaining.
+     */
+    ObjectDetectorBuilder setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        mBatchSize = batchSize;
+        return this;
+    }
 }
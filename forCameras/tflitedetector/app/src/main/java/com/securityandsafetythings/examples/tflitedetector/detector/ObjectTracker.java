@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import java.util.Arrays;
+
+/**
+ * SORT-style multi-object tracker, which gives detected objects stable ids across frames and extrapolates their boxes
+ * between the frames the detector runs on.
+ * <p>
+ * Every track holds the center and size of its box and their velocities, updated with a fixed-gain (alpha-beta) Kalman
+ * filter: on a detector frame, the box of every track is predicted at the frame time, and the detections are assigned
+ * to the tracks greedily by descending IoU, only between boxes of the same class overlapping by more than
+ * {@value #MIN_IOU}. A matched track moves {@value #POSITION_GAIN} of the way from its prediction to the detection, and
+ * its velocities take {@value #VELOCITY_GAIN} of the residual. Unmatched detections start new tracks, and a track that
+ * is not matched on {@value #MAX_MISSES} consecutive detector frames is dropped.
+ * <p>
+ * Only the tracks matched on the last detector frame are reported. Detections are read from and tracks are reported
+ * into pooled {@link DetectionResult}s, and the state lives in primitive arrays of a fixed capacity, so once the
+ * buffers have grown to the number of detections per frame, tracking does not allocate. Instances are not thread-safe.
+ */
+final class ObjectTracker {
+    @SuppressWarnings("MagicNumber")
+    private static final float MIN_IOU = 0.3f;
+    @SuppressWarnings("MagicNumber")
+    private static final float POSITION_GAIN = 0.6f;
+    @SuppressWarnings("MagicNumber")
+    private static final float VELOCITY_GAIN = 0.2f;
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_MISSES = 2;
+    // Every track stores its center x, center y, width and height, and the velocity of each per millisecond
+    @SuppressWarnings("MagicNumber")
+    private static final int STATE_SIZE = 4;
+    private static final int CENTER_X = 0;
+    private static final int CENTER_Y = 1;
+    @SuppressWarnings("MagicNumber")
+    private static final int WIDTH = 2;
+    @SuppressWarnings("MagicNumber")
+    private static final int HEIGHT = 3;
+    // IoU in the upper bits, track and detection index in the lower bits, so that a primitive sort orders the pairs
+    @SuppressWarnings("MagicNumber")
+    private static final int INDEX_BITS = 16;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final float IOU_SCALE = 1 << INDEX_BITS;
+    private final int mCapacity;
+    private final long[] mIds;
+    private final int[] mClassIds;
+    private final float[] mScores;
+    private final float[] mState;
+    private final float[] mVelocity;
+    // The time the state of a track was last updated, in milliseconds
+    private final long[] mUpdateTimes;
+    private final int[] mMisses;
+    private int mCount;
+    private long mNextId = 1;
+    // Per detector frame: the detections as [centerX, centerY, width, height], the track assigned to every detection,
+    // the predicted state of every track and the candidate pairs
+    private float[] mDetections = new float[0];
+    private int[] mAssignments = new int[0];
+    private final float[] mPredictions;
+    private final boolean[] mIsMatched;
+    private long[] mPairs = new long[0];
+
+    /**
+     * Constructs an empty {@code ObjectTracker}.
+     *
+     * @param capacity The maximum number of tracks. Detections beyond it are not tracked.
+     */
+    ObjectTracker(final int capacity) {
+        mCapacity = capacity;
+        mIds = new long[capacity];
+        mClassIds = new int[capacity];
+        mScores = new float[capacity];
+        mState = new float[capacity * STATE_SIZE];
+        mVelocity = new float[capacity * STATE_SIZE];
+        mUpdateTimes = new long[capacity];
+        mMisses = new int[capacity];
+        mPredictions = new float[capacity * STATE_SIZE];
+        mIsMatched = new boolean[capacity];
+    }
+
+    /**
+     * Drops all tracks, for example because the detections of new frames are relative to another area.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Updates the tracks with the detections of a frame the detector ran on.
+     *
+     * @param detections The detections, with boxes relative to the detection area.
+     * @param time       The time of the frame, in milliseconds.
+     */
+    void update(final DetectionResult detections, final long time) {
+        final int detectionCount = detections.getCount();
+        if (mDetections.length < detectionCount * STATE_SIZE) {
+            mDetections = new float[detectionCount * STATE_SIZE];
+            mAssignments = new int[detectionCount];
+        }
+        if (mPairs.length < detectionCount * mCapacity) {
+            mPairs = new long[detectionCount * mCapacity];
+        }
+        for (int d = 0; d < detectionCount; ++d) {
+            final int offset = d * STATE_SIZE;
+            mDetections[offset + CENTER_X] = (detections.getLeft(d) + detections.getRight(d)) / 2;
+            mDetections[offset + CENTER_Y] = (detections.getTop(d) + detections.getBottom(d)) / 2;
+            mDetections[offset + WIDTH] = detections.getRight(d) - detections.getLeft(d);
+            mDetections[offset + HEIGHT] = detections.getBottom(d) - detections.getTop(d);
+            mAssignments[d] = -1;
+        }
+        // Pair every track with every overlapping detection of the same class
+        int pairCount = 0;
+        for (int t = 0; t < mCount; ++t) {
+            predict(t, time, mPredictions, t * STATE_SIZE);
+            mIsMatched[t] = false;
+            for (int d = 0; d < detectionCount; ++d) {
+                if (mClassIds[t] != detections.getClassId(d)) {
+                    continue;
+                }
+                final float iou = iou(mPredictions, t * STATE_SIZE, mDetections, d * STATE_SIZE);
+                if (iou > MIN_IOU) {
+                    mPairs[pairCount++] = ((long) (iou * IOU_SCALE) << (2 * INDEX_BITS)) | ((long) t << INDEX_BITS) | d;
+                }
+            }
+        }
+        // Assign the pairs greedily, from the highest IoU down
+        Arrays.sort(mPairs, 0, pairCount);
+        for (int i = pairCount - 1; i >= 0; --i) {
+            final int t = (int) ((mPairs[i] >> INDEX_BITS) & INDEX_MASK);
+            final int d = (int) (mPairs[i] & INDEX_MASK);
+            if (!mIsMatched[t] && mAssignments[d] < 0) {
+                mIsMatched[t] = true;
+                mAssignments[d] = t;
+                correct(t, d, time, detections.getScore(d));
+            }
+        }
+        // Age the unmatched tracks, compacting the arrays over the dropped ones
+        int kept = 0;
+        for (int t = 0; t < mCount; ++t) {
+            if (!mIsMatched[t] && ++mMisses[t] >= MAX_MISSES) {
+                continue;
+            }
+            if (kept != t) {
+                move(t, kept);
+                for (int d = 0; d < detectionCount; ++d) {
+                    if (mAssignments[d] == t) {
+                        mAssignments[d] = kept;
+                    }
+                }
+            }
+            ++kept;
+        }
+        mCount = kept;
+        // Unmatched detections start new tracks, as long as there is room
+        for (int d = 0; d < detectionCount && mCount < mCapacity; ++d) {
+            if (mAssignments[d] < 0) {
+                start(mCount++, detections, d, time);
+            }
+        }
+    }
+
+    /**
+     * Reports the tracks that were matched on the last detector frame, with their boxes predicted at a time. On the
+     * frame the detector ran on, this reports its detections with their filtered boxes; on the frames in between, it
+     * extrapolates them.
+     *
+     * @param time     The time of the frame, in milliseconds.
+     * @param tracked  Receives the tracked objects, with boxes relative to the detection area. Its previous content is
+     *                 discarded, and tracks beyond its capacity are not reported.
+     * @param trackIds Receives the track id of every tracked object, at the same index. It must hold at least the
+     *                 capacity of {@code tracked}.
+     */
+    void report(final long time, final DetectionResult tracked, final long[] trackIds) {
+        tracked.clear();
+        for (int t = 0; t < mCount && tracked.getCount() < tracked.getCapacity(); ++t) {
+            if (mMisses[t] > 0) {
+                continue;
+            }
+            predict(t, time, mPredictions, t * STATE_SIZE);
+            final int offset = t * STATE_SIZE;
+            final float halfWidth = mPredictions[offset + WIDTH] / 2;
+            final float halfHeight = mPredictions[offset + HEIGHT] / 2;
+            trackIds[tracked.getCount()] = mIds[t];
+            tracked.add(mPredictions[offset + CENTER_X] - halfWidth, mPredictions[offset + CENTER_Y] - halfHeight,
+                    mPredictions[offset + CENTER_X] + halfWidth, mPredictions[offset + CENTER_Y] + halfHeight,
+                    mScores[t], mClassIds[t]);
+        }
+    }
+
+    /**
+     * Writes the state of a track, moved along its velocities to a time, to {@code output}.
+     */
+    private void predict(final int track, final long time, final float[] output, final int outputOffset) {
+        final int offset = track * STATE_SIZE;
+        final long elapsed = time - mUpdateTimes[track];
+        for (int i = 0; i < STATE_SIZE; ++i) {
+            output[outputOffset + i] = mState[offset + i] + mVelocity[offset + i] * elapsed;
+        }
+        // A shrinking box must not turn inside out when it is extrapolated for long
+        output[outputOffset + WIDTH] = Math.max(0f, output[outputOffset + WIDTH]);
+        output[outputOffset + HEIGHT] = Math.max(0f, output[outputOffset + HEIGHT]);
+    }
+
+    /**
+     * Moves a track from its prediction towards the detection assigned to it.
+     */
+    private void correct(final int track, final int detection, final long time, final float score) {
+        final int offset = track * STATE_SIZE;
+        // Detections of the same frame time, e.g. after a clock hiccup, do not tell anything about the velocity
+        final long elapsed = Math.max(1L, time - mUpdateTimes[track]);
+        for (int i = 0; i < STATE_SIZE; ++i) {
+            final float residual = mDetections[detection * STATE_SIZE + i] - mPredictions[offset + i];
+            mState[offset + i] = mPredictions[offset + i] + POSITION_GAIN * residual;
+            mVelocity[offset + i] += VELOCITY_GAIN * residual / elapsed;
+        }
+        mUpdateTimes[track] = time;
+        mScores[track] = score;
+        mMisses[track] = 0;
+    }
+
+    /**
+     * Starts a track at a detection, at rest.
+     */
+    private void start(final int track, final DetectionResult detections, final int index, final long time) {
+        final int offset = track * STATE_SIZE;
+        System.arraycopy(mDetections, index * STATE_SIZE, mState, offset, STATE_SIZE);
+        Arrays.fill(mVelocity, offset, offset + STATE_SIZE, 0f);
+        mIds[track] = mNextId++;
+        mClassIds[track] = detections.getClassId(index);
+        mScores[track] = detections.getScore(index);
+        mUpdateTimes[track] = time;
+        mMisses[track] = 0;
+    }
+
+    private void move(final int from, final int to) {
+        System.arraycopy(mState, from * STATE_SIZE, mState, to * STATE_SIZE, STATE_SIZE);
+        System.arraycopy(mVelocity, from * STATE_SIZE, mVelocity, to * STATE_SIZE, STATE_SIZE);
+        System.arraycopy(mPredictions, from * STATE_SIZE, mPredictions, to * STATE_SIZE, STATE_SIZE);
+        mIds[to] = mIds[from];
+        mClassIds[to] = mClassIds[from];
+        mScores[to] = mScores[from];
+        mUpdateTimes[to] = mUpdateTimes[from];
+        mMisses[to] = mMisses[from];
+        mIsMatched[to] = mIsMatched[from];
+    }
+
+    /**
+     * Computes the intersection over union of two boxes stored as [centerX, centerY, width, height].
+     */
+    private static float iou(final float[] a, final int offsetA, final float[] b, final int offsetB) {
+        final float width = overlap(a[offsetA + CENTER_X], a[offsetA + WIDTH], b[offsetB + CENTER_X],
+                b[offsetB + WIDTH]);
+        final float height = overlap(a[offsetA + CENTER_Y], a[offsetA + HEIGHT], b[offsetB + CENTER_Y],
+                b[offsetB + HEIGHT]);
+        if (width <= 0 || height <= 0) {
+            return 0f;
+        }
+        final float intersection = width * height;
+        final float union = a[offsetA + WIDTH] * a[offsetA + HEIGHT] + b[offsetB + WIDTH] * b[offsetB + HEIGHT]
+                - intersection;
+        return union > 0 ? intersection / union : 0f;
+    }
+
+    /**
+     * Computes the length of the overlap of two intervals given by their centers and lengths.
+     */
+    private static float overlap(final float centerA, final float lengthA, final float centerB, final float lengthB) {
+        return Math.min(centerA + lengthA / 2, centerB + lengthB / 2) - Math.max(centerA - lengthA / 2,
+                centerB - lengthB / 2);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import java.util.Arrays;
+
+/**
+ * Filters the candidate boxes of a detection model before any objects are created for them:
+ * <ol>
+ *   <li> Score thresholding, applied as candidates are added, so that rejected candidates cost nothing further. </li>
+ *   <li> Class-aware non-maximum suppression: a box is dropped if it overlaps a higher scoring box of the same class
+ *   by more than the IoU threshold. </li>
+ *   <li> Top-K: suppression stops as soon as {@code maxDetections} boxes are kept. </li>
+ * </ol>
+ * Boxes and scores are converted to 16.16 fixed point when they are added, so sorting and suppression only use integer
+ * arithmetic. All the buffers are allocated once, so processing a frame does not allocate.
+ * <p>
+ * Instances are not thread-safe.
+ */
+final class PostProcessor {
+    // Fixed-point scale of the boxes and scores, i.e. 1.0f is stored as 65536
+    private static final float FIXED_ONE = 1 << 16;
+    // The IoU threshold is compared as a fraction with this denominator
+    private static final int IOU_DENOMINATOR = 1 << 10;
+    @SuppressWarnings("MagicNumber")
+    private static final float DEFAULT_IOU_THRESHOLD = 0.5f;
+    @SuppressWarnings("MagicNumber")
+    private static final int INDEX_BITS = 32;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final int LEFT = 0;
+    private static final int TOP = 1;
+    @SuppressWarnings("MagicNumber")
+    private static final int RIGHT = 2;
+    @SuppressWarnings("MagicNumber")
+    private static final int BOTTOM = 3;
+    private final int mMaxDetections;
+    private final int[] mBoxes;
+    private final int[] mScores;
+    private final int[] mClassIds;
+    // Score in the upper and candidate index in the lower 32 bits, so that a primitive sort orders by score
+    private final long[] mOrder;
+    // Indices of the kept candidates, in descending score order
+    private final int[] mKept;
+    private int mScoreThreshold;
+    private float mFloatScoreThreshold;
+    private int mIouThreshold = Math.round(DEFAULT_IOU_THRESHOLD * IOU_DENOMINATOR);
+    private boolean mIsOverlapOfSmaller;
+    private int mCount;
+
+    /**
+     * Constructs a {@code PostProcessor}.
+     *
+     * @param maxCandidates The maximum number of candidates per frame, i.e. the number of boxes the model outputs.
+     * @param maxDetections The maximum number of detections kept per frame.
+     */
+    PostProcessor(final int maxCandidates, final int maxDetections) {
+        mMaxDetections = maxDetections;
+        mBoxes = new int[maxCandidates * DetectionResult.BOX_STRIDE];
+        mScores = new int[maxCandidates];
+        mClassIds = new int[maxCandidates];
+        mOrder = new long[maxCandidates];
+        mKept = new int[maxDetections];
+    }
+
+    /**
+     * Sets the minimum score of a candidate.
+     *
+     * @param scoreThreshold The minimum score (0 - 1).
+     */
+    void setScoreThreshold(final float scoreThreshold) {
+        mFloatScoreThreshold = scoreThreshold;
+        mScoreThreshold = Math.round(scoreThreshold * FIXED_ONE);
+    }
+
+    /**
+     * Gets the minimum score of a candidate.
+     *
+     * @return The minimum score (0 - 1).
+     */
+    float getScoreThreshold() {
+        return mFloatScoreThreshold;
+    }
+
+    /**
+     * Sets the overlap above which the lower scoring of two boxes of the same class is suppressed.
+     *
+     * @param iouThreshold The intersection over union threshold (0 - 1).
+     */
+    void setIouThreshold(final float iouThreshold) {
+        mIouThreshold = Math.round(iouThreshold * IOU_DENOMINATOR);
+    }
+
+    /**
+     * Sets whether the overlap of two boxes is measured relative to the smaller box instead of their union. A box that
+     * was cut off by the border of a tile lies mostly inside the whole box of the same object found in a neighbouring
+     * tile, but their union is much larger than the cut off box, so only this measure suppresses it.
+     *
+     * @param isOverlapOfSmaller True to divide the intersection by the area of the smaller box, false to divide it by
+     *                           the union of the boxes.
+     */
+    void setOverlapOfSmaller(final boolean isOverlapOfSmaller) {
+        mIsOverlapOfSmaller = isOverlapOfSmaller;
+    }
+
+    /**
+     * Removes the candidates of the previous frame.
+     */
+    void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Adds a candidate, unless its score is below the threshold.
+     *
+     * @param left    Left edge of the box, relative to the detection area (0 - 1).
+     * @param top     Top edge of the box.
+     * @param right   Right edge of the box.
+     * @param bottom  Bottom edge of the box.
+     * @param score   Confidence of the candidate (0 - 1).
+     * @param classId Index of the class in the label file.
+     * @return True if the candidate was added, false if it was rejected or there is no room left.
+     */
+    boolean add(final float left, final float top, final float right, final float bottom, final float score,
+                final int classId) {
+        final int fixedScore = Math.round(score * FIXED_ONE);
+        if (fixedScore < mScoreThreshold || fixedScore <= 0 || mCount == mScores.length) {
+            return false;
+        }
+        final int offset = mCount * DetectionResult.BOX_STRIDE;
+        mBoxes[offset + LEFT] = Math.round(left * FIXED_ONE);
+        mBoxes[offset + TOP] = Math.round(top * FIXED_ONE);
+        mBoxes[offset + RIGHT] = Math.round(right * FIXED_ONE);
+        mBoxes[offset + BOTTOM] = Math.round(bottom * FIXED_ONE);
+        mScores[mCount] = fixedScore;
+        mClassIds[mCount] = classId;
+        mOrder[mCount] = ((long) fixedScore << INDEX_BITS) | mCount;
+        ++mCount;
+        return true;
+    }
+
+    /**
+     * Suppresses overlapping candidates and writes the remaining ones to a result, in descending score order.
+     *
+     * @param result The result to fill. Its previous content is discarded.
+     */
+    void process(final DetectionResult result) {
+        result.clear();
+        Arrays.sort(mOrder, 0, mCount);
+        int keptCount = 0;
+        final int limit = Math.min(mMaxDetections, result.getCapacity());
+        // Walk the candidates from the highest score down, until enough boxes are kept
+        for (int i = mCount - 1; i >= 0 && keptCount < limit; --i) {
+            final int candidate = (int) (mOrder[i] & INDEX_MASK);
+            if (!isSuppressed(candidate, keptCount)) {
+                mKept[keptCount++] = candidate;
+                final int offset = candidate * DetectionResult.BOX_STRIDE;
+                result.add(mBoxes[offset + LEFT] / FIXED_ONE, mBoxes[offset + TOP] / FIXED_ONE,
+                        mBoxes[offset + RIGHT] / FIXED_ONE, mBoxes[offset + BOTTOM] / FIXED_ONE,
+                        mScores[candidate] / FIXED_ONE, mClassIds[candidate]);
+            }
+        }
+    }
+
+    private boolean isSuppressed(final int candidate, final int keptCount) {
+        for (int k = 0; k < keptCount; ++k) {
+            final int kept = mKept[k];
+            if (mClassIds[kept] == mClassIds[candidate] && isOverlapping(candidate, kept)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks {@code intersection / union > threshold} as {@code intersection * denominator > threshold * union}, in
+     * 64 bit integers so that the areas of 16.16 fixed-point boxes cannot overflow. The area of the smaller box takes
+     * the place of the union if {@link #setOverlapOfSmaller(boolean)} is set.
+     */
+    private boolean isOverlapping(final int a, final int b) {
+        final int offsetA = a * DetectionResult.BOX_STRIDE;
+        final int offsetB = b * DetectionResult.BOX_STRIDE;
+        final long width = Math.min(mBoxes[offsetA + RIGHT], mBoxes[offsetB + RIGHT])
+                - (long) Math.max(mBoxes[offsetA + LEFT], mBoxes[offsetB + LEFT]);
+        final long height = Math.min(mBoxes[offsetA + BOTTOM], mBoxes[offsetB + BOTTOM])
+                - (long) Math.max(mBoxes[offsetA + TOP], mBoxes[offsetB + TOP]);
+        if (width <= 0 || height <= 0) {
+            return false;
+        }
+        final long intersection = width * height;
+        final long union = mIsOverlapOfSmaller ? Math.min(area(offsetA), area(offsetB))
+                : area(offsetA) + area(offsetB) - intersection;
+        return intersection * IOU_DENOMINATOR > mIouThreshold * union;
+    }
+
+    private long area(final int offset) {
+        final long width = Math.max(0L, (long) mBoxes[offset + RIGHT] - mBoxes[offset + LEFT]);
+        final long height = Math.max(0L, (long) mBoxes[offset + BOTTOM] - mBoxes[offset + TOP]);
+        return width * height;
+    }
+}
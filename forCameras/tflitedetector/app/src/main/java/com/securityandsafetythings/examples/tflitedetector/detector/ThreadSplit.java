@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The number of CPU threads given to every model of the detector, as chosen by the {@link InterpreterPool}.
+ */
+public final class ThreadSplit {
+    private final List<String> mModelNames;
+    private final int[] mGroups;
+    private final int[] mThreads;
+    private final double[] mLatencies;
+    private final int mThreadBudget;
+    private final boolean mIsBenchmarked;
+
+    /**
+     * Constructs a {@code ThreadSplit}.
+     *
+     * @param modelNames    The names of the models.
+     * @param groups        The concurrency group of every model, in the order of {@code modelNames}.
+     * @param threads       The number of threads of every model, in the order of {@code modelNames}.
+     * @param latencies     The measured latency in milliseconds of every model with its number of threads, or null if
+     *                      they were not measured. Models that were not measured have a latency of NaN.
+     * @param threadBudget  The number of threads the models of a concurrency group share.
+     * @param isBenchmarked Whether the split was chosen by the startup benchmark, now or on an earlier start.
+     */
+    ThreadSplit(final List<String> modelNames, final int[] groups, final int[] threads, final double[] latencies,
+                final int threadBudget, final boolean isBenchmarked) {
+        mModelNames = Collections.unmodifiableList(new ArrayList<>(modelNames));
+        mGroups = groups.clone();
+        mThreads = threads.clone();
+        mLatencies = latencies != null ? latencies.clone() : null;
+        mThreadBudget = threadBudget;
+        mIsBenchmarked = isBenchmarked;
+    }
+
+    /**
+     * Gets the names of the models, in the order used by the other getters.
+     *
+     * @return An unmodifiable list of the model names.
+     */
+    public List<String> getModelNames() {
+        return mModelNames;
+    }
+
+    /**
+     * Gets the concurrency group of a model. Only the models of the same group run at the same time.
+     *
+     * @param index The index of the model in {@link #getModelNames()}.
+     * @return The concurrency group.
+     */
+    public int getGroup(final int index) {
+        return mGroups[index];
+    }
+
+    /**
+     * Gets the number of threads of a model.
+     *
+     * @param index The index of the model in {@link #getModelNames()}.
+     * @return The number of threads.
+     */
+    public int getThreads(final int index) {
+        return mThreads[index];
+    }
+
+    /**
+     * Gets the number of threads of every model.
+     *
+     * @return A copy of the number of threads, in the order of {@link #getModelNames()}.
+     */
+    int[] getThreads() {
+        return mThreads.clone();
+    }
+
+    /**
+     * Gets the latency measured for a model with its number of threads, while running on its own.
+     *
+     * @param index The index of the model in {@link #getModelNames()}.
+     * @return The latency in milliseconds, or {@code Double.NaN} if it was not measured on this start.
+     */
+    public double getLatencyMillis(final int index) {
+        return mLatencies != null ? mLatencies[index] : Double.NaN;
+    }
+
+    /**
+     * Gets the number of threads the models of a concurrency group share.
+     *
+     * @return The thread budget.
+     */
+    public int getThreadBudget() {
+        return mThreadBudget;
+    }
+
+    /**
+     * Checks whether the split was chosen by the startup benchmark, now or on an earlier start. Splits are not
+     * benchmarked when a delegate runs the models, since the CPU threads then only run the operations the delegate does
+     * not support, nor when every model is alone in its concurrency group and gets the whole budget.
+     *
+     * @return True if the split was benchmarked, false otherwise.
+     */
+    public boolean isBenchmarked() {
+        return mIsBenchmarked;
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.media.Image;
+import android.util.Size;
+
+import com.securityandsafetythings.examples.tflitedetector.pipeline.FrameGeometry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Fills the model input tensor directly from the planes of a {@link ImageFormat#YUV_420_888} {@link Image}.
+ * <p>
+ * The crop, the resize to the detector input size and the color conversion are fused into a single pass, so
+ * no intermediate ARGB {@code Bitmap} is created for the detector. The output matches the layout written by
+ * {@link InputPreprocessor}: RGB order, either quantized bytes or floats normalized to [-1, 1).
+ * <p>
+ * Luma is sampled bilinearly at the center of every output pixel, like {@code Bitmap.createBitmap} with filtering
+ * enabled. Chroma is sampled at the nearest position, as it is stored at half the resolution anyway. Colors are
+ * converted with the integer BT.601 equations. An instance is not thread-safe and must be used from a single thread.
+ */
+public final class YuvInputConverter {
+    // Fixed point precision of the interpolation weights
+    @SuppressWarnings("MagicNumber")
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+    private static final int WEIGHT_ROUNDING = 1 << (2 * WEIGHT_BITS - 1);
+    // BT.601 conversion coefficients, scaled by 2^COEFFICIENT_BITS
+    @SuppressWarnings("MagicNumber")
+    private static final int COEFFICIENT_BITS = 8;
+    @SuppressWarnings("MagicNumber")
+    private static final int COEFFICIENT_ROUNDING = 128;
+    @SuppressWarnings("MagicNumber")
+    private static final int LUMA_OFFSET = 16;
+    @SuppressWarnings("MagicNumber")
+    private static final int CHROMA_OFFSET = 128;
+    @SuppressWarnings("MagicNumber")
+    private static final int LUMA_SCALE = 298;
+    @SuppressWarnings("MagicNumber")
+    private static final int V_TO_RED = 409;
+    @SuppressWarnings("MagicNumber")
+    private static final int U_TO_GREEN = 100;
+    @SuppressWarnings("MagicNumber")
+    private static final int V_TO_GREEN = 208;
+    @SuppressWarnings("MagicNumber")
+    private static final int U_TO_BLUE = 516;
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_CHANNEL_VALUE = 255;
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTE_MASK = 0xff;
+    @SuppressWarnings("MagicNumber")
+    private static final int CHANNELS = 3;
+    @SuppressWarnings("MagicNumber")
+    private static final int BYTES_PER_FLOAT = 4;
+    private static final int U_PLANE = 1;
+    @SuppressWarnings("MagicNumber")
+    private static final int V_PLANE = 2;
+    private final FrameGeometry mGeometry;
+    private final int mInputSize;
+    private final boolean mIsQuantized;
+    // Per output column: the two luma columns to interpolate, the weight of the second one and the chroma column
+    private final int[] mLumaX0;
+    private final int[] mLumaX1;
+    private final int[] mWeightX;
+    private final int[] mChromaX;
+    // Per output row: the two luma rows to interpolate, the weight of the second one and the chroma row
+    private final int[] mLumaY0;
+    private final int[] mLumaY1;
+    private final int[] mWeightY;
+    private final int[] mChromaY;
+    // Holds one converted row of the quantized input before it is copied to the output buffer
+    private final byte[] mRow;
+
+    /**
+     * Constructs a {@code YuvInputConverter} for the crop area of a geometry.
+     *
+     * @param geometry  The crop area within the captured image and the input format.
+     * @param inputSize The size of the input to produce, for example {@link FrameGeometry#getInputSize()}.
+     */
+    public YuvInputConverter(final FrameGeometry geometry, final Size inputSize) {
+        this(geometry, geometry.getCropArea(), inputSize);
+    }
+
+    /**
+     * Constructs a {@code YuvInputConverter} for a region of the captured image, for example a tile of a
+     * {@link com.securityandsafetythings.examples.tflitedetector.pipeline.TileLayout}.
+     *
+     * @param geometry  The captured image size and the input format.
+     * @param crop      The region to convert, in pixels of the captured image.
+     * @param inputSize The size of the input to produce, for example {@link FrameGeometry#getInputSize()}.
+     */
+    public YuvInputConverter(final FrameGeometry geometry, final Rect crop, final Size inputSize) {
+        this(geometry, crop.left, crop.top, crop.width(), crop.height(), inputSize.getWidth(), geometry.isQuantized());
+    }
+
+    /**
+     * Constructs a {@code YuvInputConverter} for a region of an image.
+     *
+     * @param geometry    The captured image size checked by {@link #convert(Image, ByteBuffer)}, or null if only the
+     *                    planes are converted.
+     * @param cropLeft    The left edge of the region to convert, in pixels.
+     * @param cropTop     The top edge of the region to convert, in pixels.
+     * @param cropWidth   The width of the region to convert, in pixels.
+     * @param cropHeight  The height of the region to convert, in pixels.
+     * @param inputSize   The size of the input to produce, denoted by inputSize x inputSize.
+     * @param isQuantized Whether the input is written as quantized bytes or as normalized floats.
+     */
+    YuvInputConverter(final FrameGeometry geometry, final int cropLeft, final int cropTop, final int cropWidth,
+                      final int cropHeight, final int inputSize, final boolean isQuantized) {
+        mGeometry = geometry;
+        mInputSize = inputSize;
+        mIsQuantized = isQuantized;
+        mLumaX0 = new int[mInputSize];
+        mLumaX1 = new int[mInputSize];
+        mWeightX = new int[mInputSize];
+        mChromaX = new int[mInputSize];
+        mLumaY0 = new int[mInputSize];
+        mLumaY1 = new int[mInputSize];
+        mWeightY = new int[mInputSize];
+        mChromaY = new int[mInputSize];
+        mRow = new byte[mInputSize * CHANNELS];
+        computeSamplingTable(cropLeft, cropWidth, mLumaX0, mLumaX1, mWeightX, mChromaX);
+        computeSamplingTable(cropTop, cropHeight, mLumaY0, mLumaY1, mWeightY, mChromaY);
+    }
+
+    /**
+     * Maps every output pixel along one axis to the source pixels it is interpolated from.
+     */
+    private void computeSamplingTable(final int cropStart, final int cropLength, final int[] first, final int[] second,
+                                      final int[] weight, final int[] chroma) {
+        final int cropEnd = cropStart + cropLength - 1;
+        final float scale = cropLength / (float) mInputSize;
+        for (int i = 0; i < mInputSize; i++) {
+            // Center of the output pixel, in source coordinates
+            final float center = cropStart + (i + 0.5f) * scale - 0.5f;
+            final int floor = (int) Math.floor(center);
+            first[i] = clamp(floor, cropStart, cropEnd);
+            second[i] = clamp(floor + 1, cropStart, cropEnd);
+            weight[i] = Math.round((center - floor) * WEIGHT_ONE);
+            chroma[i] = clamp(Math.round(center), cropStart, cropEnd) >> 1;
+        }
+    }
+
+    /**
+     * Gets the geometry this converter was built for.
+     *
+     * @return The geometry of the converted frames.
+     */
+    public FrameGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Gets the number of bytes of the converted input.
+     *
+     * @return The size of the input tensor in bytes.
+     */
+    public int getInputBufferCapacity() {
+        final int numBytesPerChannel = mIsQuantized ? 1 : BYTES_PER_FLOAT;
+        return mInputSize * mInputSize * CHANNELS * numBytesPerChannel;
+    }
+
+    /**
+     * Allocates a buffer that can hold the converted input.
+     *
+     * @return A new direct buffer in native byte order.
+     */
+    public ByteBuffer allocateInputBuffer() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(getInputBufferCapacity());
+        buffer.order(ByteOrder.nativeOrder());
+        return buffer;
+    }
+
+    /**
+     * Converts the crop area of an image into the detector input.
+     *
+     * @param image  The image as received from the VideoPipeline. It must be at least as large as the captured size.
+     * @param output The buffer to fill, as allocated by {@link #allocateInputBuffer()}. It is rewound when done.
+     */
+    public void convert(final Image image, final ByteBuffer output) {
+        if (image.getFormat() != ImageFormat.YUV_420_888) {
+            throw new IllegalArgumentException("Unsupported image format: " + image.getFormat());
+        }
+        if (image.getWidth() < mGeometry.getCaptureSize().getWidth()
+                || image.getHeight() < mGeometry.getCaptureSize().getHeight()) {
+            throw new IllegalArgumentException(String.format("Image of %dx%d is smaller than the capture size %s",
+                    image.getWidth(), image.getHeight(), mGeometry.getCaptureSize()));
+        }
+        final Image.Plane[] planes = image.getPlanes();
+        // The U and V planes of YUV_420_888 are guaranteed to share their row and pixel strides
+        convert(planes[0].getBuffer(), planes[0].getRowStride(), planes[0].getPixelStride(),
+                planes[U_PLANE].getBuffer(), planes[V_PLANE].getBuffer(), planes[U_PLANE].getRowStride(),
+                planes[U_PLANE].getPixelStride(), output);
+    }
+
+    /**
+     * Converts the crop area of the planes of a YUV 4:2:0 image into the detector input. The planes are read with
+     * absolute indices, so their positions are left untouched.
+     *
+     * @param luma              The Y plane.
+     * @param lumaRowStride     The distance between two rows of the Y plane, in bytes.
+     * @param lumaPixelStride   The distance between two pixels of a row of the Y plane, in bytes.
+     * @param u                 The U plane, at half the resolution of the Y plane.
+     * @param v                 The V plane, with the same layout as the U plane.
+     * @param chromaRowStride   The distance between two rows of the U and V planes, in bytes.
+     * @param chromaPixelStride The distance between two pixels of a row of the U and V planes, in bytes.
+     * @param output            The buffer to fill, as allocated by {@link #allocateInputBuffer()}. It is rewound when
+     *                          done.
+     */
+    void convert(final ByteBuffer luma, final int lumaRowStride, final int lumaPixelStride, final ByteBuffer u,
+                 final ByteBuffer v, final int chromaRowStride, final int chromaPixelStride, final ByteBuffer output) {
+        output.rewind();
+        for (int row = 0; row < mInputSize; row++) {
+            final int topOffset = mLumaY0[row] * lumaRowStride;
+            final int bottomOffset = mLumaY1[row] * lumaRowStride;
+            final int weightBottom = mWeightY[row];
+            final int weightTop = WEIGHT_ONE - weightBottom;
+            final int chromaOffset = mChromaY[row] * chromaRowStride;
+            int rowIndex = 0;
+            for (int col = 0; col < mInputSize; col++) {
+                final int left = mLumaX0[col] * lumaPixelStride;
+                final int right = mLumaX1[col] * lumaPixelStride;
+                final int weightRight = mWeightX[col];
+                final int weightLeft = WEIGHT_ONE - weightRight;
+                final int top = (luma.get(topOffset + left) & BYTE_MASK) * weightLeft
+                        + (luma.get(topOffset + right) & BYTE_MASK) * weightRight;
+                final int bottom = (luma.get(bottomOffset + left) & BYTE_MASK) * weightLeft
+                        + (luma.get(bottomOffset + right) & BYTE_MASK) * weightRight;
+                final int y = (top * weightTop + bottom * weightBottom + WEIGHT_ROUNDING) >> (2 * WEIGHT_BITS);
+                final int chromaIndex = chromaOffset + mChromaX[col] * chromaPixelStride;
+                final int d = (u.get(chromaIndex) & BYTE_MASK) - CHROMA_OFFSET;
+                final int e = (v.get(chromaIndex) & BYTE_MASK) - CHROMA_OFFSET;
+                final int c = LUMA_SCALE * (y - LUMA_OFFSET) + COEFFICIENT_ROUNDING;
+                final int red = clamp((c + V_TO_RED * e) >> COEFFICIENT_BITS, 0, MAX_CHANNEL_VALUE);
+                final int green = clamp((c - U_TO_GREEN * d - V_TO_GREEN * e) >> COEFFICIENT_BITS, 0, MAX_CHANNEL_VALUE);
+                final int blue = clamp((c + U_TO_BLUE * d) >> COEFFICIENT_BITS, 0, MAX_CHANNEL_VALUE);
+                if (mIsQuantized) {
+                    mRow[rowIndex++] = (byte) red;
+                    mRow[rowIndex++] = (byte) green;
+                    mRow[rowIndex++] = (byte) blue;
+                } else {
+                    output.putFloat((red - InputPreprocessor.IMAGE_MED) / InputPreprocessor.IMAGE_MED);
+                    output.putFloat((green - InputPreprocessor.IMAGE_MED) / InputPreprocessor.IMAGE_MED);
+                    output.putFloat((blue - InputPreprocessor.IMAGE_MED) / InputPreprocessor.IMAGE_MED);
+                }
+            }
+            if (mIsQuantized) {
+                output.put(mRow);
+            }
+        }
+        output.rewind();
+    }
+
+    private static int clamp(final int value, final int min, final int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.detector.model;
+
+/**
+ * Primitive-backed, reusable container for the detections of a single frame.
+ * <p>
+ * Boxes are stored in {@code [left, top, right, bottom]} order, relative to the detection area (0 - 1). Instances are
+ * meant to be allocated once and refilled for every frame, so that decoding the model output does not allocate.
+ * Callers read the detections in place; an instance must not be refilled while it is still being read.
+ */
+public final class DetectionResult {
+    /**
+     * Number of values stored per box.
+     */
+    public static final int BOX_STRIDE = 4;
+    private static final int LEFT = 0;
+    private static final int TOP = 1;
+    @SuppressWarnings("MagicNumber")
+    private static final int RIGHT = 2;
+    @SuppressWarnings("MagicNumber")
+    private static final int BOTTOM = 3;
+    private final float[] mBoxes;
+    private final float[] mScores;
+    private final int[] mClassIds;
+    private int mCount;
+
+    /**
+     * Constructs an empty {@code DetectionResult}.
+     *
+     * @param capacity The maximum number of detections this result can hold.
+     */
+    public DetectionResult(final int capacity) {
+        mBoxes = new float[capacity * BOX_STRIDE];
+        mScores = new float[capacity];
+        mClassIds = new int[capacity];
+    }
+
+    /**
+     * Removes all detections.
+     */
+    public void clear() {
+        mCount = 0;
+    }
+
+    /**
+     * Appends a detection.
+     *
+     * @param left    Left edge of the box.
+     * @param top     Top edge of the box.
+     * @param right   Right edge of the box.
+     * @param bottom  Bottom edge of the box.
+     * @param score   Confidence of the detection (0 - 1).
+     * @param classId Index of the detected class in the label file.
+     * @return False if the result is full and the detection was not added, true otherwise.
+     */
+    public boolean add(final float left, final float top, final float right, final float bottom,
+                       final float score, final int classId) {
+        if (mCount == mScores.length) {
+            return false;
+        }
+        final int offset = mCount * BOX_STRIDE;
+        mBoxes[offset + LEFT] = left;
+        mBoxes[offset + TOP] = top;
+        mBoxes[offset + RIGHT] = right;
+        mBoxes[offset + BOTTOM] = bottom;
+        mScores[mCount] = score;
+        mClassIds[mCount] = classId;
+        ++mCount;
+        return true;
+    }
+
+    /**
+     * Replaces the content of this result with the content of another one.
+     *
+     * @param other The result to copy. Detections beyond the capacity of this result are dropped.
+     */
+    public void copyFrom(final DetectionResult other) {
+        mCount = Math.min(other.mCount, mScores.length);
+        System.arraycopy(other.mBoxes, 0, mBoxes, 0, mCount * BOX_STRIDE);
+        System.arraycopy(other.mScores, 0, mScores, 0, mCount);
+        System.arraycopy(other.mClassIds, 0, mClassIds, 0, mCount);
+    }
+
+    /**
+     * Gets the number of detections.
+     *
+     * @return The number of detections held by this result.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Gets the maximum number of detections.
+     *
+     * @return The maximum number of detections this result can hold.
+     */
+    public int getCapacity() {
+        return mScores.length;
+    }
+
+    /**
+     * Gets the left edge of a box.
+     *
+     * @param index Index of the detection.
+     * @return The left edge of the box.
+     */
+    public float getLeft(final int index) {
+        return mBoxes[index * BOX_STRIDE + LEFT];
+    }
+
+    /**
+     * Gets the top edge of a box.
+     *
+     * @param index Index of the detection.
+     * @return The top edge of the box.
+     */
+    public float getTop(final int index) {
+        return mBoxes[index * BOX_STRIDE + TOP];
+    }
+
+    /**
+     * Gets the right edge of a box.
+     *
+     * @param index Index of the detection.
+     * @return The right edge of the box.
+     */
+    public float getRight(final int index) {
+        return mBoxes[index * BOX_STRIDE + RIGHT];
+    }
+
+    /**
+     * Gets the bottom edge of a box.
+     *
+     * @param index Index of the detection.
+     * @return The bottom edge of the box.
+     */
+    public float getBottom(final int index) {
+        return mBoxes[index * BOX_STRIDE + BOTTOM];
+    }
+
+    /**
+     * Gets the confidence of a detection.
+     *
+     * @param index Index of the detection.
+     * @return Value from 0-1 indicating the confidence.
+     */
+    public float getScore(final int index) {
+        return mScores[index];
+    }
+
+    /**
+     * Gets the class of a detection.
+     *
+     * @param index Index of the detection.
+     * @return Index of the detected class in the label file.
+     */
+    public int getClassId(final int index) {
+        return mClassIds[index];
+    }
+}
@@ -67,6 +67,19 @@ class Recognition(id: String?, label: String?, confidence: Float?, location: Rec
         return RectF(mLocation)
     }
 
+    /**
+     * Copies the bounding box specifying the detection location, without allocating a new one
+     * @param location Rectangle receiving the bounding box
+     */
+    fun copyLocationTo(location: RectF) {
+        val current = mLocation
+        if (current != null) {
+            location.set(current)
+        } else {
+            location.setEmpty()
+        }
+    }
+
     /**
      * Sets the location for a detection
      * @param location Rectangle specifying the location
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.events;
+
+/**
+ * An event indicating that a configuration of the detector is complete, i.e. the detector built with it has been
+ * swapped in. Whether the detector was initialized with the requested acceleration type is reported beforehand by an
+ * {@link OnObjectDetectorInitializedEvent} or {@link OnObjectDetectorInitializationFailedEvent}.
+ */
+public class OnDetectorConfiguredEvent extends BaseEvent {
+    private final int mConfiguration;
+
+    /**
+     * Constructs an {@code OnDetectorConfiguredEvent}.
+     *
+     * @param configuration The number of the configuration, as returned when it was requested.
+     */
+    public OnDetectorConfiguredEvent(final int configuration) {
+        mConfiguration = configuration;
+    }
+
+    /**
+     * Gets the number of the configuration. Every configuration with a lower number is complete as well.
+     *
+     * @return The number of the configuration.
+     */
+    public int getConfiguration() {
+        return mConfiguration;
+    }
+}
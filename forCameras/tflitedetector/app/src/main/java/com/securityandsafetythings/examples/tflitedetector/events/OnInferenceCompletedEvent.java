@@ -16,6 +16,10 @@
 
 package com.securityandsafetythings.examples.tflitedetector.events;
 
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+
+import java.util.List;
+
 /**
  * An event indicating that the inference has been completed.
  */
@@ -26,6 +30,10 @@ public class OnInferenceCompletedEvent extends BaseEvent {
     private final long mInferenceTime;
     // The average of the number of frames being processed per second.
     private final int mFramesProcessedPerSecond;
+    // The time the frame was published, in milliseconds since the epoch.
+    private final long mTimestamp;
+    // The rendered detections, with boxes normalized to the size of the captured frame.
+    private final List<Recognition> mDetections;
 
     /**
      * Constructs an {@code OnInferenceCompletedEvent}.
@@ -33,11 +41,16 @@ public class OnInferenceCompletedEvent extends BaseEvent {
      * @param imageAsBytes A byte array that represents the image annotated with bounding boxes.
      * @param inferenceTime The time taken by the detector to run the inference.
      * @param framesProcessedPerSecond The average of the number of frames being processed per second.
+     * @param timestamp The time the frame was published, in milliseconds since the epoch.
+     * @param detections The rendered detections, with boxes normalized to the size of the captured frame.
      */
-    public OnInferenceCompletedEvent(final byte[] imageAsBytes, final long inferenceTime, final int framesProcessedPerSecond) {
+    public OnInferenceCompletedEvent(final byte[] imageAsBytes, final long inferenceTime, final int framesProcessedPerSecond,
+                                     final long timestamp, final List<Recognition> detections) {
         mImageBytes = imageAsBytes;
         mInferenceTime = inferenceTime;
         mFramesProcessedPerSecond = framesProcessedPerSecond;
+        mTimestamp = timestamp;
+        mDetections = detections;
     }
 
     /**
@@ -66,4 +79,22 @@ public class OnInferenceCompletedEvent extends BaseEvent {
     public int getFramesProcessedPerSecond() {
         return mFramesProcessedPerSecond;
     }
+
+    /**
+     * Gets the time the frame was published.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Gets the detections that were rendered on the image.
+     *
+     * @return The detections, with boxes normalized to the size of the captured frame.
+     */
+    public List<Recognition> getDetections() {
+        return mDetections;
+    }
 }
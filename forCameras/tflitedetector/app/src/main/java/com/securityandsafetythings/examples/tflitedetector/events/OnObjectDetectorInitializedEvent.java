@@ -16,6 +16,7 @@
 
 package com.securityandsafetythings.examples.tflitedetector.events;
 
+import com.securityandsafetythings.examples.tflitedetector.detector.ThreadSplit;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
 
 /**
@@ -23,14 +24,17 @@ import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationTyp
  */
 public class OnObjectDetectorInitializedEvent extends BaseEvent {
     private final AccelerationType mAccelerationType;
+    private final ThreadSplit mThreadSplit;
 
     /**
      * Constructs an {@code OnObjectDetectorInitializedEvent}.
      *
      * @param accelerationType The {@code AccelerationType} that the current {@code ObjectDetector} is configured with.
+     * @param threadSplit      The number of CPU threads given to every model of the {@code ObjectDetector}.
      */
-    public OnObjectDetectorInitializedEvent(final AccelerationType accelerationType) {
+    public OnObjectDetectorInitializedEvent(final AccelerationType accelerationType, final ThreadSplit threadSplit) {
         mAccelerationType = accelerationType;
+        mThreadSplit = threadSplit;
     }
 
     /**
@@ -41,4 +45,13 @@ public class OnObjectDetectorInitializedEvent extends BaseEvent {
     public AccelerationType getAccelerationType() {
         return mAccelerationType;
     }
+
+    /**
+     * Gets the number of CPU threads given to every model of the current {@code ObjectDetector}.
+     *
+     * @return The thread split.
+     */
+    public ThreadSplit getThreadSplit() {
+        return mThreadSplit;
+    }
 }
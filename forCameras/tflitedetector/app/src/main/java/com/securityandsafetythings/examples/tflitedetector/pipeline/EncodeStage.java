@@ -0,0 +1,120 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.RectF;
+import android.os.SystemClock;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+import com.securityandsafetythings.examples.tflitedetector.events.OnInferenceCompletedEvent;
+import com.securityandsafetythings.examples.tflitedetector.events.OnInferenceCompletedEventBird;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
+import com.securityandsafetythings.jumpsuite.commonhelpers.BitmapUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last stage of the {@link FramePipeline}. Compresses the annotated frame and publishes the inference results.
+ */
+final class EncodeStage extends PipelineStage {
+    private static final String NAME = "encode";
+    private static final LatencyHistogram JPEG_LATENCY = LatencyHistogram.get("jpeg");
+    private long mTotalInferenceTime;
+    private long mTotalFrames;
+    // The frames the detector ran on, frames without motion reuse detections and have no inference time
+    private long mInferredFrames;
+    private long mStartTime;
+
+    /**
+     * Constructs an {@code EncodeStage}.
+     *
+     * @param queueCapacity The number of frames that can wait in front of the stage.
+     */
+    EncodeStage(final int queueCapacity) {
+        super(NAME, queueCapacity);
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Initializes the inference statistics. Must be called on the stage's thread.
+     */
+    void resetInferenceStatistics() {
+        mTotalInferenceTime = 0;
+        mTotalFrames = 0;
+        mInferredFrames = 0;
+        mStartTime = SystemClock.elapsedRealtime();
+    }
+
+    @Override
+    protected boolean process(final Frame frame) {
+        /*
+         * Compress the annotated Bitmap before displaying it in the browser. If the Bitmap is not compressed, then the
+         * browser will not be able to decipher the image and will show an error.
+         */
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        final byte[] annotatedImageBytes = BitmapUtils.compressBitmap(frame.getCaptureBitmap());
+        JPEG_LATENCY.record(SystemClock.elapsedRealtimeNanos() - startTime);
+        frame.setAnnotatedImageBytes(annotatedImageBytes);
+        // Calculate the number of frames processed per second by the detector using different acceleration types.
+        if (!frame.isDetectorSkipped()) {
+            mTotalInferenceTime += frame.getInferenceTime();
+            ++mInferredFrames;
+        }
+        ++mTotalFrames;
+        // Time taken in seconds to process the number of frames denoted by mTotalFrames
+        final long timeInSeconds = TimeUnit.MILLISECONDS.toSeconds(SystemClock.elapsedRealtime() - mStartTime);
+        int framesProcessedPerSecond = (int) mTotalFrames;
+        if (timeInSeconds > 1) {
+            framesProcessedPerSecond = (int) (mTotalFrames / timeInSeconds);
+        }
+        // Send an event to indicate that inference has been completed.
+        new OnInferenceCompletedEvent(annotatedImageBytes,
+                mInferredFrames > 0 ? mTotalInferenceTime / mInferredFrames : 0,
+                framesProcessedPerSecond,
+                System.currentTimeMillis(),
+                toCaptureCoordinates(frame.getRecognitions(), frame.getGeometry())).broadcastEvent();
+        // The bird classifier does not run on every frame, so only frames it ran on update the bird label.
+        if (frame.getBirdLabel() != null) {
+            new OnInferenceCompletedEventBird(annotatedImageBytes, frame.getBirdLabel()).broadcastEvent();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the detections of a frame, which is reused once it leaves the pipeline, with their boxes moved from the
+     * crop area to the captured frame. The boxes stay normalized, so that they apply to the image at any size.
+     */
+    private static List<Recognition> toCaptureCoordinates(final List<Recognition> detections,
+                                                          final FrameGeometry geometry) {
+        final float cropWidth = (float) geometry.getCropSize().getWidth() / geometry.getCaptureSize().getWidth();
+        final float cropHeight = (float) geometry.getCropSize().getHeight() / geometry.getCaptureSize().getHeight();
+        final float marginLeft = (float) geometry.getMarginLeft() / geometry.getCaptureSize().getWidth();
+        final float marginTop = (float) geometry.getMarginTop() / geometry.getCaptureSize().getHeight();
+        final List<Recognition> copies = new ArrayList<>(detections.size());
+        for (Recognition detection : detections) {
+            final RectF location = detection.getLocation();
+            copies.add(new Recognition(detection.getId(), detection.getLabel(), detection.getConfidence(),
+                    new RectF(location.left * cropWidth + marginLeft,
+                            location.top * cropHeight + marginTop,
+                            location.right * cropWidth + marginLeft,
+                            location.bottom * cropHeight + marginTop)));
+        }
+        return copies;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.Bitmap;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.YuvInputConverter;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A captured frame travelling through the {@link FramePipeline}, together with the results of every stage.
+ * <p>
+ * Frames are pooled by the pipeline. A frame is owned by exactly one stage at a time, so its fields are not
+ * synchronized; the hand-over between stages happens through the synchronized {@link RingBuffer}.
+ */
+public final class Frame {
+    private final List<Recognition> mRecognitions = new ArrayList<>();
+    private Bitmap mCaptureBitmap;
+    private FrameGeometry mGeometry;
+    // The time the image was captured, in milliseconds of SystemClock.elapsedRealtime()
+    private long mCaptureTime;
+    // Pooled with the frame, so that the detector inputs are not re-allocated for every capture, one per tile
+    private ByteBuffer[] mInputBuffers = new ByteBuffer[1];
+    private TileLayout mTileLayout;
+    private ByteBuffer mClassifierInputBuffer;
+    private String mBirdLabel;
+    private long mInferenceTime;
+    private byte[] mAnnotatedImageBytes;
+    // Set for the frames whose detector inputs were not converted, either between detector runs or for lack of motion
+    private boolean mIsDetectorSkipped;
+    private boolean mIsDetectorDue;
+    private boolean mHasMotion;
+
+    /**
+     * Constructs an empty {@code Frame}.
+     */
+    Frame() {
+    }
+
+    /**
+     * Assigns a new capture to this frame.
+     *
+     * @param captureBitmap The full frame as received from the VideoPipeline.
+     * @param geometry      The geometry used to crop the frame for inference.
+     * @param captureTime   The time the image was captured, in milliseconds of
+     *                      {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    void set(final Bitmap captureBitmap, final FrameGeometry geometry, final long captureTime) {
+        mCaptureBitmap = captureBitmap;
+        mGeometry = geometry;
+        mCaptureTime = captureTime;
+    }
+
+    /**
+     * Gets the time the image was captured.
+     *
+     * @return The capture time, in milliseconds of {@link android.os.SystemClock#elapsedRealtime()}.
+     */
+    public long getCaptureTime() {
+        return mCaptureTime;
+    }
+
+    /**
+     * Marks whether the detector must be skipped on this frame, and why.
+     *
+     * @param isDetectorSkipped True if the detector inputs were not converted, false otherwise.
+     * @param isDetectorDue     True if the detector was due on this frame, i.e. it was not skipped only to be run on
+     *                          every Nth frame, false otherwise.
+     * @param hasMotion         True if the motion gate saw the scene change, false otherwise.
+     */
+    void setDetectorSkipped(final boolean isDetectorSkipped, final boolean isDetectorDue, final boolean hasMotion) {
+        mIsDetectorSkipped = isDetectorSkipped;
+        mIsDetectorDue = isDetectorDue;
+        mHasMotion = hasMotion;
+    }
+
+    /**
+     * Gets whether the detector must be skipped on this frame. The detector inputs of such a frame hold stale data,
+     * and the tracked detections of the last frame the detector ran on apply to it.
+     *
+     * @return True if the detector must be skipped, false otherwise.
+     */
+    public boolean isDetectorSkipped() {
+        return mIsDetectorSkipped;
+    }
+
+    /**
+     * Gets whether the detector was due on this frame. A frame the detector was due on but skipped on has no motion.
+     *
+     * @return True if the detector was due, false if it was skipped only to be run on every Nth frame.
+     */
+    public boolean isDetectorDue() {
+        return mIsDetectorDue;
+    }
+
+    /**
+     * Gets whether the motion gate saw the scene change since the background was last updated.
+     *
+     * @return True if the frame has motion, false otherwise.
+     */
+    public boolean hasMotion() {
+        return mHasMotion;
+    }
+
+    /**
+     * Clears the frame, so that it can be reused for another capture.
+     */
+    void reset() {
+        mRecognitions.clear();
+        mCaptureBitmap = null;
+        mGeometry = null;
+        mCaptureTime = 0;
+        mTileLayout = null;
+        mBirdLabel = null;
+        mInferenceTime = 0;
+        mAnnotatedImageBytes = null;
+        mIsDetectorSkipped = false;
+        mIsDetectorDue = false;
+        mHasMotion = false;
+    }
+
+    /**
+     * Gets the full frame as received from the VideoPipeline. Detections are rendered onto this {@code Bitmap}.
+     *
+     * @return The captured {@code Bitmap}.
+     */
+    public Bitmap getCaptureBitmap() {
+        return mCaptureBitmap;
+    }
+
+    /**
+     * Gets the geometry used to crop the frame for inference.
+     *
+     * @return The geometry of the frame.
+     */
+    public FrameGeometry getGeometry() {
+        return mGeometry;
+    }
+
+    /**
+     * Gets the detector input buffer of a tile of this frame, re-allocating it only if it does not fit the converter's
+     * output.
+     *
+     * @param tile      The index of the tile.
+     * @param converter The converter that will fill the buffer.
+     * @return The input buffer.
+     */
+    ByteBuffer obtainInputBuffer(final int tile, final YuvInputConverter converter) {
+        if (tile >= mInputBuffers.length) {
+            mInputBuffers = Arrays.copyOf(mInputBuffers, tile + 1);
+        }
+        if (mInputBuffers[tile] == null || mInputBuffers[tile].capacity() != converter.getInputBufferCapacity()) {
+            mInputBuffers[tile] = converter.allocateInputBuffer();
+        }
+        return mInputBuffers[tile];
+    }
+
+    /**
+     * Sets the tiles the detector inputs of this frame were converted from.
+     *
+     * @param tileLayout The tiles, one of the layouts of the frame geometry.
+     */
+    void setTileLayout(final TileLayout tileLayout) {
+        mTileLayout = tileLayout;
+    }
+
+    /**
+     * Gets the tiles the detector inputs of this frame were converted from.
+     *
+     * @return The tiles, or null if the detector inputs were not converted.
+     */
+    public TileLayout getTileLayout() {
+        return mTileLayout;
+    }
+
+    /**
+     * Gets the bird classifier input buffer of this frame, re-allocating it only if it does not fit the converter's
+     * output.
+     *
+     * @param converter The converter that will fill the buffer.
+     * @return The classifier input buffer.
+     */
+    ByteBuffer obtainClassifierInputBuffer(final YuvInputConverter converter) {
+        if (mClassifierInputBuffer == null || mClassifierInputBuffer.capacity() != converter.getInputBufferCapacity()) {
+            mClassifierInputBuffer = converter.allocateInputBuffer();
+        }
+        return mClassifierInputBuffer;
+    }
+
+    /**
+     * Gets the first tile of the frame, cropped, scaled and converted to the detector input format. Without tiling,
+     * this is the whole crop area.
+     *
+     * @return The input buffer, shared by the detection models.
+     */
+    public ByteBuffer getInputBuffer() {
+        return mInputBuffers[0];
+    }
+
+    /**
+     * Gets the tiles of the frame, cropped, scaled and converted to the detector input format.
+     *
+     * @return The input buffers, in the order of the tile layout. Only the first {@code getTileLayout().size()} are
+     * valid.
+     */
+    public ByteBuffer[] getInputBuffers() {
+        return mInputBuffers;
+    }
+
+    /**
+     * Gets the cropped frame, scaled and converted to the bird classifier input format.
+     *
+     * @return The classifier input buffer.
+     */
+    public ByteBuffer getClassifierInputBuffer() {
+        return mClassifierInputBuffer;
+    }
+
+    /**
+     * Gets the mutable list of objects detected in the frame.
+     *
+     * @return The detected objects.
+     */
+    public List<Recognition> getRecognitions() {
+        return mRecognitions;
+    }
+
+    /**
+     * Gets the label of the bird classified in the frame.
+     *
+     * @return The bird label, or null if no classification was run.
+     */
+    public String getBirdLabel() {
+        return mBirdLabel;
+    }
+
+    /**
+     * Sets the label of the bird classified in the frame.
+     *
+     * @param birdLabel The bird label.
+     */
+    public void setBirdLabel(final String birdLabel) {
+        mBirdLabel = birdLabel;
+    }
+
+    /**
+     * Gets the time the detector took to run on the frame.
+     *
+     * @return The inference time, in milliseconds.
+     */
+    public long getInferenceTime() {
+        return mInferenceTime;
+    }
+
+    /**
+     * Sets the time the detector took to run on the frame.
+     *
+     * @param inferenceTime The inference time, in milliseconds.
+     */
+    public void setInferenceTime(final long inferenceTime) {
+        mInferenceTime = inferenceTime;
+    }
+
+    /**
+     * Gets the compressed frame, annotated with the detections.
+     *
+     * @return The compressed frame, or null if the frame was not encoded yet.
+     */
+    public byte[] getAnnotatedImageBytes() {
+        return mAnnotatedImageBytes;
+    }
+
+    /**
+     * Sets the compressed frame, annotated with the detections.
+     *
+     * @param annotatedImageBytes The compressed frame.
+     */
+    public void setAnnotatedImageBytes(final byte[] annotatedImageBytes) {
+        mAnnotatedImageBytes = annotatedImageBytes;
+    }
+}
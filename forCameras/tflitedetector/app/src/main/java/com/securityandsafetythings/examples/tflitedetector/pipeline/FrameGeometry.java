@@ -0,0 +1,152 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.Rect;
+import android.util.Size;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable description of how a captured frame is cropped and scaled to the detector input, and of the input format.
+ * <p>
+ * The crop area is the detection area: the detections of a frame are reported relative to it. In tiled mode it covers
+ * the whole captured image, and the frame is split into one of the {@link TileLayout}s before it is passed to the
+ * detector. Otherwise the only layout is a single tile covering the crop area.
+ * <p>
+ * A new instance is published whenever the detector is re-configured, so frames that are already in flight keep
+ * using the geometry they were cropped with.
+ */
+public final class FrameGeometry {
+    private final Size mCaptureSize;
+    private final Size mCropSize;
+    private final int mMarginLeft;
+    private final int mMarginTop;
+    private final Size mInputSize;
+    private final Size mClassifierInputSize;
+    private final boolean mIsQuantized;
+    private final List<TileLayout> mTileLayouts;
+
+    /**
+     * Constructs a {@code FrameGeometry}.
+     *
+     * @param captureSize         The size of the image as requested from the VideoPipeline.
+     * @param cropSize            The size of the region used for inference.
+     * @param marginLeft          The left boundary of the crop area.
+     * @param marginTop           The top boundary of the crop area.
+     * @param inputSize           The size of the image as required by the detector.
+     * @param classifierInputSize The size of the image as required by the bird classifier.
+     * @param isQuantized         Whether the detector expects quantized bytes or normalized floats as input.
+     * @param tileLayouts         The layouts a frame can be split into, in ascending number of tiles.
+     */
+    public FrameGeometry(final Size captureSize, final Size cropSize, final int marginLeft, final int marginTop,
+                         final Size inputSize, final Size classifierInputSize, final boolean isQuantized,
+                         final List<TileLayout> tileLayouts) {
+        mCaptureSize = captureSize;
+        mCropSize = cropSize;
+        mMarginLeft = marginLeft;
+        mMarginTop = marginTop;
+        mInputSize = inputSize;
+        mClassifierInputSize = classifierInputSize;
+        mIsQuantized = isQuantized;
+        mTileLayouts = Collections.unmodifiableList(tileLayouts);
+    }
+
+    /**
+     * Gets the size of the image as requested from the VideoPipeline.
+     *
+     * @return The capture size.
+     */
+    public Size getCaptureSize() {
+        return mCaptureSize;
+    }
+
+    /**
+     * Gets the size of the region used for inference, which the detections are relative to.
+     *
+     * @return The crop size.
+     */
+    public Size getCropSize() {
+        return mCropSize;
+    }
+
+    /**
+     * Gets the left boundary of the crop area.
+     *
+     * @return The left margin, in pixels.
+     */
+    public int getMarginLeft() {
+        return mMarginLeft;
+    }
+
+    /**
+     * Gets the top boundary of the crop area.
+     *
+     * @return The top margin, in pixels.
+     */
+    public int getMarginTop() {
+        return mMarginTop;
+    }
+
+    /**
+     * Gets the region used for inference within the captured image.
+     *
+     * @return A new {@code Rect} of the crop area, in pixels.
+     */
+    public Rect getCropArea() {
+        return new Rect(mMarginLeft, mMarginTop, mMarginLeft + mCropSize.getWidth(), mMarginTop + mCropSize.getHeight());
+    }
+
+    /**
+     * Gets the size of the image as required by the detector.
+     *
+     * @return The detector input size.
+     */
+    public Size getInputSize() {
+        return mInputSize;
+    }
+
+    /**
+     * Gets the size of the image as required by the bird classifier. The classifier sees the same crop area as the
+     * detector, scaled to a different size.
+     *
+     * @return The classifier input size.
+     */
+    public Size getClassifierInputSize() {
+        return mClassifierInputSize;
+    }
+
+    /**
+     * Gets whether the detector expects quantized bytes or normalized floats as input.
+     *
+     * @return True if the input is quantized, false otherwise.
+     */
+    public boolean isQuantized() {
+        return mIsQuantized;
+    }
+
+    /**
+     * Gets the layouts a frame can be split into before it is passed to the detector. The first layout is the center
+     * crop the bird classifier sees, too.
+     *
+     * @return An unmodifiable list of the layouts, in ascending number of tiles.
+     */
+    public List<TileLayout> getTileLayouts() {
+        return mTileLayouts;
+    }
+}
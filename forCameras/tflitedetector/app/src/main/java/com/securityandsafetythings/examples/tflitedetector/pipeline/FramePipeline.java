@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.media.Image;
+import android.os.SystemClock;
+import android.util.Size;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.InferenceStage;
+import com.securityandsafetythings.examples.tflitedetector.detector.ModelStatistics;
+import com.securityandsafetythings.examples.tflitedetector.detector.MotionDetector;
+import com.securityandsafetythings.examples.tflitedetector.detector.YuvInputConverter;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
+import com.securityandsafetythings.jumpsuite.commonhelpers.BitmapUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Processes the frames from the VideoPipeline in three stages, each running on its own thread:
+ * <ol>
+ *   <li> inference - runs the detector on the frame. </li>
+ *   <li> render - renders the detections onto the frame. </li>
+ *   <li> encode - compresses the frame and publishes the results. </li>
+ * </ol>
+ * While the detector runs on one frame, the previous frame is rendered and encoded, so the detector is not idle
+ * while the results are published.
+ * <p>
+ * The planes of an {@link Image} are only valid until it is closed, so the detector input is converted from the image
+ * on the submitting thread, see {@link YuvInputConverter}. The detector only runs on every
+ * {@value #DETECTOR_FRAME_INTERVAL}th frame, and at least every {@value #MAX_TRACKING_MILLIS} ms; the inference stage
+ * tracks the detected objects and extrapolates their boxes to the frames in between. Before converting, a
+ * {@link MotionDetector} compares the luma of the image with the background: when the scene did not change, the
+ * detector inputs are not converted either, and the tracked detections of the last frame the detector ran on are
+ * reused, for at most {@value #MAX_DETECTION_REUSE_MILLIS} ms.
+ * <p>
+ * In tiled mode, the whole image is split into overlapping tiles, which are converted into one detector input each.
+ * A {@link TileScheduler} chooses how many tiles, so that the detector takes at most
+ * {@value #TILE_LATENCY_BUDGET_MILLIS} ms per frame.
+ * <p>
+ * A fixed number of {@link Frame}s is in flight at any time. {@link #hasCapacity()} must be checked before a frame is
+ * converted, so that frames are never queued faster than the slowest stage can process them. Beyond that, the
+ * {@link FrameRateGovernor} paces the images that are converted at all, to a target rate and a CPU budget.
+ */
+public class FramePipeline {
+    // Number of frames that can be in flight, i.e. one per stage plus one waiting in front of the slowest stage
+    @SuppressWarnings("MagicNumber")
+    private static final int FRAME_POOL_SIZE = 4;
+    private static final int QUEUE_CAPACITY = 1;
+    /*
+     * Share of the CPU cores the conversion and the stages may keep busy on average, leaving the rest to the
+     * VideoPipeline and the web server. The latency of a stage is used as its CPU time, which underestimates the
+     * interpreter when it runs on several threads.
+     */
+    @SuppressWarnings("MagicNumber")
+    private static final double CPU_BUDGET_SHARE = 0.5;
+    /*
+     * Latencies of converting the image on the submitting thread. Cropping, scaling and normalizing the detector and
+     * classifier inputs are done in a single pass by the YuvInputConverter, so they are measured together.
+     */
+    private static final LatencyHistogram DETECTOR_INPUT_LATENCY = LatencyHistogram.get("convert-detector-input");
+    private static final LatencyHistogram CLASSIFIER_INPUT_LATENCY = LatencyHistogram.get("convert-classifier-input");
+    private static final LatencyHistogram BITMAP_LATENCY = LatencyHistogram.get("convert-bitmap");
+    private static final LatencyHistogram MOTION_LATENCY = LatencyHistogram.get("motion");
+    // The detector runs on every Nth frame, the tracker extrapolates the detections to the frames in between
+    @SuppressWarnings("MagicNumber")
+    private static final int DETECTOR_FRAME_INTERVAL = 3;
+    // Extrapolated boxes drift from the objects, so the detector runs at least this often at low frame rates
+    @SuppressWarnings("MagicNumber")
+    private static final long MAX_TRACKING_MILLIS = 500;
+    // The detections of a static scene are reused for at most this long, so that slow changes are picked up too
+    @SuppressWarnings("MagicNumber")
+    private static final long MAX_DETECTION_REUSE_MILLIS = 2000;
+    @SuppressWarnings("MagicNumber")
+    private static final long TILE_LATENCY_BUDGET_MILLIS = 250;
+    private final ConcurrentLinkedQueue<Frame> mFreeFrames = new ConcurrentLinkedQueue<>();
+    private final InferenceStage mInferenceStage;
+    private final RenderStage mRenderStage;
+    private final EncodeStage mEncodeStage;
+    private final List<PipelineStage> mStages;
+    private final FrameRateGovernor mGovernor;
+    private final MotionStatistics mMotionStatistics = new MotionStatistics();
+    private final TileScheduler mTileScheduler = new TileScheduler(TILE_LATENCY_BUDGET_MILLIS);
+    /*
+     * The time and geometry the detector inputs were last converted with, and the number of frames submitted since.
+     * Only used by the submitting thread.
+     */
+    private long mLastDetectorTime = -1;
+    private FrameGeometry mLastDetectorGeometry;
+    private int mFramesSinceDetector;
+    // Converters for the current detector configuration; only used by the submitting thread
+    private volatile InputConverters mConverters;
+
+    /**
+     * The converters for the detector input of every tile of every layout and for the bird classifier input, and the
+     * motion detector of the crop area, published together.
+     */
+    private static final class InputConverters {
+        private final FrameGeometry mGeometry;
+        private final YuvInputConverter[][] mTiles;
+        private final YuvInputConverter mClassifier;
+        private final MotionDetector mMotion;
+
+        InputConverters(final FrameGeometry geometry) {
+            mGeometry = geometry;
+            final List<TileLayout> layouts = geometry.getTileLayouts();
+            mTiles = new YuvInputConverter[layouts.size()][];
+            for (int i = 0; i < mTiles.length; i++) {
+                final TileLayout layout = layouts.get(i);
+                mTiles[i] = new YuvInputConverter[layout.size()];
+                for (int tile = 0; tile < layout.size(); tile++) {
+                    mTiles[i][tile] = new YuvInputConverter(geometry, layout.getTile(tile), geometry.getInputSize());
+                }
+            }
+            // The classifier sees the center crop, which is the first layout
+            mClassifier = new YuvInputConverter(geometry, layouts.get(0).getTile(0),
+                    geometry.getClassifierInputSize());
+            mMotion = new MotionDetector(geometry);
+        }
+    }
+
+    /**
+     * Constructs and starts a {@code FramePipeline}.
+     *
+     * @param captureSize The size of the image as requested from the VideoPipeline.
+     */
+    public FramePipeline(final Size captureSize) {
+        for (int i = 0; i < FRAME_POOL_SIZE; i++) {
+            mFreeFrames.add(new Frame());
+        }
+        mInferenceStage = new InferenceStage(QUEUE_CAPACITY, captureSize, mMotionStatistics, mTileScheduler,
+                this::onDetectorConfigured);
+        mRenderStage = new RenderStage(QUEUE_CAPACITY);
+        mEncodeStage = new EncodeStage(QUEUE_CAPACITY);
+        mStages = Collections.unmodifiableList(Arrays.asList(mInferenceStage, mRenderStage, mEncodeStage));
+        mGovernor = new FrameRateGovernor(mStages, CPU_BUDGET_SHARE * Runtime.getRuntime().availableProcessors());
+        for (int i = 0; i < mStages.size(); i++) {
+            final PipelineStage stage = mStages.get(i);
+            stage.setNext(i + 1 < mStages.size() ? mStages.get(i + 1) : null);
+            stage.setRecycler(this::recycle);
+            stage.start();
+        }
+    }
+
+    /**
+     * Configures the detector with the most recently chosen preferences.
+     *
+     * @return The number of the configuration, see {@link InferenceStage#configureDetector()}.
+     */
+    public int configureDetector() {
+        return mInferenceStage.configureDetector();
+    }
+
+    /**
+     * Checks whether a new frame can be submitted. Must be called for every image from the VideoPipeline, before the
+     * image is converted, so that the {@link FrameRateGovernor} can skip the images that are not due.
+     *
+     * @return True if the detector is configured, a free frame is available and the governor admits the image, false
+     *         otherwise.
+     */
+    public boolean hasCapacity() {
+        return mConverters != null && !mFreeFrames.isEmpty() && mGovernor.shouldAdmit(SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Checks whether a detector is serving frames. A detector that fails to initialize does not replace the one that is
+     * serving frames.
+     *
+     * @return True once a detector was swapped in, until the pipeline quits.
+     */
+    public boolean hasDetector() {
+        return mConverters != null;
+    }
+
+    /**
+     * Gets the counters of the motion gate, which skips the detector on frames without motion.
+     *
+     * @return The motion statistics.
+     */
+    public MotionStatistics getMotionStatistics() {
+        return mMotionStatistics;
+    }
+
+    /**
+     * Gets the scheduler that chooses how many tiles the frames are split into in tiled mode.
+     *
+     * @return The tile scheduler.
+     */
+    public TileScheduler getTileScheduler() {
+        return mTileScheduler;
+    }
+
+    /**
+     * Gets the governor that decides which images enter the pipeline.
+     *
+     * @return The governor.
+     */
+    public FrameRateGovernor getGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * Submits a frame to the pipeline. The detector input and the {@code Bitmap} the detections are rendered onto are
+     * both taken from the image before this method returns, so the image can be closed afterwards.
+     *
+     * @param image The image as received from the VideoPipeline.
+     * @return True if the frame was accepted, false if the pipeline is at capacity.
+     */
+    public boolean submit(final Image image) {
+        final InputConverters converters = mConverters;
+        if (converters == null) {
+            return false;
+        }
+        final Frame frame = mFreeFrames.poll();
+        if (frame == null) {
+            return false;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        // The motion gate reads the luma plane before anything is converted, the Bitmap is needed in any case
+        final boolean hasMotion = converters.mMotion.detect(image);
+        final long motionTime = SystemClock.elapsedRealtimeNanos();
+        MOTION_LATENCY.record(motionTime - startTime);
+        ++mFramesSinceDetector;
+        // Tracks cannot be carried over to another geometry, so the detector runs right after a reconfiguration
+        final boolean isReconfigured = converters.mGeometry != mLastDetectorGeometry;
+        final boolean isDetectorDue = isReconfigured || mFramesSinceDetector >= DETECTOR_FRAME_INTERVAL
+                || now - mLastDetectorTime >= MAX_TRACKING_MILLIS;
+        final boolean isDetectorSkipped = !isDetectorDue
+                || !isReconfigured && !hasMotion && now - mLastDetectorTime < MAX_DETECTION_REUSE_MILLIS;
+        long inputsTime = motionTime;
+        if (isDetectorSkipped) {
+            // Only the frames the detector was due on are counted by the motion gate
+            if (isDetectorDue) {
+                mMotionStatistics.onConversionSkipped();
+            }
+        } else {
+            final int layout = mTileScheduler.select(converters.mGeometry);
+            final YuvInputConverter[] tiles = converters.mTiles[layout];
+            for (int tile = 0; tile < tiles.length; tile++) {
+                tiles[tile].convert(image, frame.obtainInputBuffer(tile, tiles[tile]));
+            }
+            frame.setTileLayout(converters.mGeometry.getTileLayouts().get(layout));
+            final long detectorInputTime = SystemClock.elapsedRealtimeNanos();
+            converters.mClassifier.convert(image, frame.obtainClassifierInputBuffer(converters.mClassifier));
+            inputsTime = SystemClock.elapsedRealtimeNanos();
+            DETECTOR_INPUT_LATENCY.record(detectorInputTime - motionTime);
+            CLASSIFIER_INPUT_LATENCY.record(inputsTime - detectorInputTime);
+            mMotionStatistics.onConverted(inputsTime - motionTime);
+            mLastDetectorTime = now;
+            mLastDetectorGeometry = converters.mGeometry;
+            mFramesSinceDetector = 0;
+        }
+        frame.set(BitmapUtils.imageToBitmap(image), converters.mGeometry, now);
+        frame.setDetectorSkipped(isDetectorSkipped, isDetectorDue, hasMotion);
+        final long endTime = SystemClock.elapsedRealtimeNanos();
+        BITMAP_LATENCY.record(endTime - inputsTime);
+        mGovernor.onAdmitted(now, endTime - startTime);
+        // The stage methods of InferenceStage are not visible through its own type outside of its package
+        final PipelineStage firstStage = mInferenceStage;
+        firstStage.offer(frame);
+        return true;
+    }
+
+    /**
+     * Gets the stages of the pipeline, in processing order.
+     *
+     * @return An unmodifiable list of the stages.
+     */
+    public List<PipelineStage> getStages() {
+        return mStages;
+    }
+
+    /**
+     * Gets the run and skip counters of every model of the detector.
+     *
+     * @return An unmodifiable list of the statistics.
+     */
+    public List<ModelStatistics> getModelStatistics() {
+        return mInferenceStage.getModelStatistics();
+    }
+
+    /**
+     * Stops all the stages after the pending frames are processed, and destroys the detector.
+     */
+    public void quit() {
+        mConverters = null;
+        mInferenceStage.destroyDetector();
+        for (PipelineStage stage : mStages) {
+            stage.quit();
+        }
+    }
+
+    private void onDetectorConfigured(final FrameGeometry geometry) {
+        mConverters = new InputConverters(geometry);
+        // After configuring a detector, initialize the inference statistics
+        mEncodeStage.post(mEncodeStage::resetInferenceStatistics);
+    }
+
+    private void recycle(final Frame frame) {
+        frame.reset();
+        mFreeFrames.add(frame);
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which images from the VideoPipeline enter the {@link FramePipeline}, so that no CPU is spent converting
+ * images that would be dropped in front of a stage anyway.
+ * <p>
+ * Every {@value #UPDATE_INTERVAL_MILLIS} ms, the governor reads the average latency of every stage and of the
+ * conversion, and admits frames at the lowest of three rates:
+ * <ol>
+ *   <li> {@link #LIMIT_TARGET} - the target rate, e.g. the rate requested from the VideoPipeline. </li>
+ *   <li> {@link #LIMIT_PIPELINE} - the rate of the slowest stage, beyond which frames queue up and are dropped. </li>
+ *   <li> {@link #LIMIT_CPU} - the rate at which the time spent on a frame by all the stages fits the CPU budget. </li>
+ * </ol>
+ * Frames are admitted on a fixed schedule rather than a fixed gap after the previous frame, so that the admitted rate
+ * matches the decision even when it is not a divisor of the camera rate.
+ * <p>
+ * {@link #shouldAdmit(long)} and {@link #onAdmitted(long, long)} must be called from the thread submitting the frames,
+ * the decisions may be read from any thread.
+ */
+public final class FrameRateGovernor {
+    /**
+     * The rate is limited by the target rate.
+     */
+    public static final String LIMIT_TARGET = "target";
+    /**
+     * The rate is limited by the slowest stage of the pipeline.
+     */
+    public static final String LIMIT_PIPELINE = "pipeline";
+    /**
+     * The rate is limited by the CPU budget.
+     */
+    public static final String LIMIT_CPU = "cpu";
+    @SuppressWarnings("MagicNumber")
+    private static final long UPDATE_INTERVAL_MILLIS = 500;
+    // Weight of the newest sample in the exponentially weighted average conversion latency
+    @SuppressWarnings("MagicNumber")
+    private static final double AVERAGE_WEIGHT = 0.1;
+    @SuppressWarnings("MagicNumber")
+    private static final double MILLIS_PER_SECOND = 1_000.0;
+    private final List<PipelineStage> mStages;
+    private final double mCpuBudget;
+    private final AtomicLong mAdmittedFrames = new AtomicLong();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+    private volatile int mTargetFramesPerSecond;
+    private volatile double mFrameIntervalMillis;
+    private volatile double mFrameCostMillis;
+    private volatile String mLimitedBy = LIMIT_TARGET;
+    private double mConversionMillis;
+    // Only -1 before the first frame, so that the first frame is always admitted
+    private long mNextAdmitTime = -1;
+    private long mLastUpdateTime = -1;
+
+    /**
+     * Constructs a {@code FrameRateGovernor}.
+     *
+     * @param stages    The stages of the pipeline.
+     * @param cpuBudget The number of cores the conversion and the stages may keep busy on average.
+     */
+    FrameRateGovernor(final List<PipelineStage> stages, final double cpuBudget) {
+        mStages = stages;
+        mCpuBudget = cpuBudget;
+    }
+
+    /**
+     * Sets the target rate.
+     *
+     * @param targetFramesPerSecond The number of frames to admit per second, or 0 to only limit by the pipeline and the
+     *                              CPU budget.
+     */
+    public void setTargetFramesPerSecond(final int targetFramesPerSecond) {
+        mTargetFramesPerSecond = targetFramesPerSecond;
+    }
+
+    /**
+     * Checks whether an image that arrived now is due to be admitted. Skipped images are counted.
+     *
+     * @param now The current time, as returned by {@code SystemClock#elapsedRealtime()}.
+     * @return True if the image must be converted and submitted, false if it must be skipped.
+     */
+    boolean shouldAdmit(final long now) {
+        if (mLastUpdateTime < 0 || now - mLastUpdateTime >= UPDATE_INTERVAL_MILLIS) {
+            update();
+            mLastUpdateTime = now;
+        }
+        if (mNextAdmitTime >= 0 && now < mNextAdmitTime) {
+            mSkippedFrames.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Records that an image was admitted.
+     *
+     * @param now                   The time the image was checked with {@link #shouldAdmit(long)}.
+     * @param conversionLatencyNanos The time it took to convert the image.
+     */
+    void onAdmitted(final long now, final long conversionLatencyNanos) {
+        mAdmittedFrames.incrementAndGet();
+        final double conversionMillis = conversionLatencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        mConversionMillis = mAdmittedFrames.get() == 1 ? conversionMillis
+                : mConversionMillis + (conversionMillis - mConversionMillis) * AVERAGE_WEIGHT;
+        // Admitting late does not earn credit for more than one frame, so a stall is not followed by a burst
+        final long interval = (long) mFrameIntervalMillis;
+        mNextAdmitTime = mNextAdmitTime < 0 || now - mNextAdmitTime >= interval ? now + interval
+                : mNextAdmitTime + interval;
+    }
+
+    private void update() {
+        double slowestStageMillis = 0;
+        double frameCostMillis = mConversionMillis;
+        for (PipelineStage stage : mStages) {
+            final double stageMillis = stage.getStatistics().getAverageLatencyMillis();
+            slowestStageMillis = Math.max(slowestStageMillis, stageMillis);
+            frameCostMillis += stageMillis;
+        }
+        final int targetFramesPerSecond = mTargetFramesPerSecond;
+        double intervalMillis = targetFramesPerSecond > 0 ? MILLIS_PER_SECOND / targetFramesPerSecond : 0;
+        String limitedBy = LIMIT_TARGET;
+        if (slowestStageMillis > intervalMillis) {
+            intervalMillis = slowestStageMillis;
+            limitedBy = LIMIT_PIPELINE;
+        }
+        if (frameCostMillis / mCpuBudget > intervalMillis) {
+            intervalMillis = frameCostMillis / mCpuBudget;
+            limitedBy = LIMIT_CPU;
+        }
+        mFrameCostMillis = frameCostMillis;
+        mFrameIntervalMillis = intervalMillis;
+        mLimitedBy = limitedBy;
+    }
+
+    /**
+     * Gets the target rate.
+     *
+     * @return The target number of frames per second, or 0 if there is none.
+     */
+    public int getTargetFramesPerSecond() {
+        return mTargetFramesPerSecond;
+    }
+
+    /**
+     * Gets the CPU budget.
+     *
+     * @return The number of cores the conversion and the stages may keep busy on average.
+     */
+    public double getCpuBudget() {
+        return mCpuBudget;
+    }
+
+    /**
+     * Gets the rate frames are currently admitted at.
+     *
+     * @return The number of frames admitted per second, or 0 if the rate is not limited yet.
+     */
+    public double getAdmittedFramesPerSecond() {
+        final double intervalMillis = mFrameIntervalMillis;
+        return intervalMillis > 0 ? MILLIS_PER_SECOND / intervalMillis : 0;
+    }
+
+    /**
+     * Gets what limits the current rate.
+     *
+     * @return Either {@link #LIMIT_TARGET}, {@link #LIMIT_PIPELINE} or {@link #LIMIT_CPU}.
+     */
+    public String getLimitedBy() {
+        return mLimitedBy;
+    }
+
+    /**
+     * Gets the time the conversion and all the stages spend on a frame.
+     *
+     * @return The average cost of a frame, in milliseconds.
+     */
+    public double getFrameCostMillis() {
+        return mFrameCostMillis;
+    }
+
+    /**
+     * Gets the number of images that were admitted.
+     *
+     * @return The number of admitted images.
+     */
+    public long getAdmittedFrames() {
+        return mAdmittedFrames.get();
+    }
+
+    /**
+     * Gets the number of images that were skipped without being converted.
+     *
+     * @return The number of skipped images.
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the motion gate of the {@link FramePipeline}, which skips the detector on frames without motion.
+ * <p>
+ * The compute saved by a skipped frame is estimated from the average time the skipped work took on the frames it did
+ * run on. Counters are written from the submitting thread and the inference stage, but may be read from any thread.
+ */
+public final class MotionStatistics {
+    // Weight of the newest sample in the exponentially weighted average latencies
+    @SuppressWarnings("MagicNumber")
+    private static final double AVERAGE_WEIGHT = 0.1;
+    @SuppressWarnings("MagicNumber")
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final AtomicLong mAnalyzedFrames = new AtomicLong();
+    private final AtomicLong mSkippedFrames = new AtomicLong();
+    private final AtomicLong mSavedNanos = new AtomicLong();
+    // Only written by the submitting thread
+    private double mAverageConversionNanos;
+    // Only written by the inference stage
+    private double mAverageInferenceNanos;
+
+    /**
+     * Constructs a {@code MotionStatistics}.
+     */
+    MotionStatistics() {
+    }
+
+    /**
+     * Records that the detector inputs of a frame with motion were converted. Must be called from the submitting
+     * thread.
+     *
+     * @param latencyNanos The time the conversion took.
+     */
+    void onConverted(final long latencyNanos) {
+        mAnalyzedFrames.incrementAndGet();
+        mAverageConversionNanos = average(mAverageConversionNanos, latencyNanos);
+    }
+
+    /**
+     * Records that the conversion of the detector inputs was skipped, because the frame has no motion. Must be called
+     * from the submitting thread.
+     */
+    void onConversionSkipped() {
+        mAnalyzedFrames.incrementAndGet();
+        mSkippedFrames.incrementAndGet();
+        mSavedNanos.addAndGet((long) mAverageConversionNanos);
+    }
+
+    /**
+     * Records that the models ran on a frame. Must be called from the inference stage.
+     *
+     * @param latencyNanos The time the models took.
+     */
+    public void onInferred(final long latencyNanos) {
+        mAverageInferenceNanos = average(mAverageInferenceNanos, latencyNanos);
+    }
+
+    /**
+     * Records that the detections of an earlier frame were reused instead of running the models. Must be called from
+     * the inference stage.
+     */
+    public void onInferenceSkipped() {
+        mSavedNanos.addAndGet((long) mAverageInferenceNanos);
+    }
+
+    private static double average(final double average, final long sample) {
+        return average == 0 ? sample : average + (sample - average) * AVERAGE_WEIGHT;
+    }
+
+    /**
+     * Gets the number of frames the motion gate analyzed, i.e. the frames the detector was due on.
+     *
+     * @return The number of analyzed frames.
+     */
+    public long getAnalyzedFrames() {
+        return mAnalyzedFrames.get();
+    }
+
+    /**
+     * Gets the number of frames the detector was skipped on.
+     *
+     * @return The number of skipped frames.
+     */
+    public long getSkippedFrames() {
+        return mSkippedFrames.get();
+    }
+
+    /**
+     * Gets the share of the analyzed frames the detector was skipped on.
+     *
+     * @return The skip ratio, from 0 to 1.
+     */
+    public double getSkipRatio() {
+        final long analyzedFrames = mAnalyzedFrames.get();
+        return analyzedFrames > 0 ? (double) mSkippedFrames.get() / analyzedFrames : 0;
+    }
+
+    /**
+     * Gets the estimated time saved by skipping the conversion and the models on frames without motion.
+     *
+     * @return The saved time, in milliseconds.
+     */
+    public double getSavedMillis() {
+        return mSavedNanos.get() / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A single stage of the {@link FramePipeline}.
+ * <p>
+ * Every stage runs on its own thread and receives frames through a bounded {@link RingBuffer}. When a stage falls
+ * behind, the oldest queued frame is dropped, so that stages never block each other. After a frame was processed
+ * successfully, it is handed to the next stage. Frames that are dropped, discarded or leave the last stage are given
+ * back to the recycler.
+ * <p>
+ * A stage can be moved to the thread of another {@link Looper}, see {@link #setLooper(Looper)}, for example to run a
+ * model whose delegate is bound to the thread that created it.
+ */
+public abstract class PipelineStage {
+    private final String mLogTag;
+    private final RingBuffer<Frame> mQueue;
+    private final StageStatistics mStatistics;
+    private final LatencyHistogram mLatency;
+    private final AtomicBoolean mIsDrainScheduled = new AtomicBoolean();
+    private final Runnable mDrain = this::drain;
+    private HandlerThread mThread;
+    // The handler of the stage's own thread, and the handler of the thread the stage currently runs on
+    private Handler mOwnHandler;
+    private volatile Handler mHandler;
+    private PipelineStage mNext;
+    private Consumer<Frame> mRecycler;
+
+    /**
+     * Constructs a {@code PipelineStage}.
+     *
+     * @param name          The name of the stage, used for its thread and statistics.
+     * @param queueCapacity The number of frames that can wait in front of the stage.
+     */
+    protected PipelineStage(final String name, final int queueCapacity) {
+        mLogTag = name;
+        mQueue = new RingBuffer<>(queueCapacity);
+        mStatistics = new StageStatistics(name);
+        mLatency = LatencyHistogram.get("stage-" + name);
+    }
+
+    /**
+     * Processes a frame on the stage's thread.
+     *
+     * @param frame The frame to process.
+     * @return True if the frame must be passed to the next stage, false if it must be discarded.
+     */
+    protected abstract boolean process(Frame frame);
+
+    /**
+     * Starts the stage's thread.
+     */
+    void start() {
+        mThread = new HandlerThread(mLogTag);
+        mThread.start();
+        mOwnHandler = new Handler(mThread.getLooper());
+        mHandler = mOwnHandler;
+    }
+
+    /**
+     * Moves the stage to another thread. Frames and tasks that are already queued on the current thread are processed
+     * on the new one. Must be called on the stage's thread, between two frames.
+     *
+     * @param looper The looper of the thread the stage runs on from now on, or null for the stage's own thread.
+     */
+    protected void setLooper(final Looper looper) {
+        mHandler = looper != null ? new Handler(looper) : mOwnHandler;
+    }
+
+    /**
+     * Stops the stage's thread after all the pending work is processed.
+     */
+    void quit() {
+        if (mThread != null) {
+            mThread.quitSafely();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Sets the stage that receives the frames processed by this stage.
+     *
+     * @param next The next stage, or null if this is the last stage.
+     */
+    void setNext(final PipelineStage next) {
+        mNext = next;
+    }
+
+    /**
+     * Sets the callback receiving the frames that leave the pipeline at this stage.
+     *
+     * @param recycler The callback that recycles frames.
+     */
+    void setRecycler(final Consumer<Frame> recycler) {
+        mRecycler = recycler;
+    }
+
+    /**
+     * Queues a frame for processing. If the queue is full, the oldest queued frame is dropped.
+     *
+     * @param frame The frame to process.
+     */
+    void offer(final Frame frame) {
+        final Frame dropped = mQueue.offer(frame);
+        if (dropped != null) {
+            mStatistics.onDropped();
+            recycle(dropped);
+        }
+        if (mIsDrainScheduled.compareAndSet(false, true)) {
+            mHandler.post(mDrain);
+        }
+    }
+
+    /**
+     * Runs a task on the stage's thread, after the frames that are currently being processed.
+     *
+     * @param task The task to run.
+     */
+    public void post(final Runnable task) {
+        mHandler.post(() -> runOnStageThread(task));
+    }
+
+    /**
+     * Gets the number of frames waiting in front of the stage.
+     *
+     * @return The queue depth.
+     */
+    public int getQueueDepth() {
+        return mQueue.size();
+    }
+
+    /**
+     * Gets the number of frames that can wait in front of the stage.
+     *
+     * @return The queue capacity.
+     */
+    public int getQueueCapacity() {
+        return mQueue.capacity();
+    }
+
+    /**
+     * Gets the statistics of the stage.
+     *
+     * @return The statistics of the stage.
+     */
+    public StageStatistics getStatistics() {
+        return mStatistics;
+    }
+
+    /**
+     * Runs a task, or posts it again if the stage was moved to another thread since it was posted.
+     */
+    private void runOnStageThread(final Runnable task) {
+        final Handler handler = mHandler;
+        if (handler.getLooper() != Looper.myLooper()) {
+            handler.post(() -> runOnStageThread(task));
+            return;
+        }
+        task.run();
+    }
+
+    private void drain() {
+        final Handler handler = mHandler;
+        if (handler.getLooper() != Looper.myLooper()) {
+            // The stage was moved to another thread since the drain was scheduled
+            handler.post(mDrain);
+            return;
+        }
+        mIsDrainScheduled.set(false);
+        Frame frame;
+        while ((frame = mQueue.poll()) != null) {
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            boolean isProcessed;
+            try {
+                isProcessed = process(frame);
+            } catch (RuntimeException e) {
+                Log.e(mLogTag, "Failed to process frame", e);
+                isProcessed = false;
+            }
+            final long latency = SystemClock.elapsedRealtimeNanos() - startTime;
+            mStatistics.onProcessed(latency);
+            mLatency.record(latency);
+            if (isProcessed && mNext != null) {
+                mNext.offer(frame);
+            } else {
+                recycle(frame);
+            }
+        }
+    }
+
+    private void recycle(final Frame frame) {
+        if (mRecycler != null) {
+            mRecycler.accept(frame);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.Canvas;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+import com.securityandsafetythings.examples.tflitedetector.utilities.EasySharedPreference;
+import com.securityandsafetythings.examples.tflitedetector.utilities.Renderer;
+
+import java.util.List;
+
+/**
+ * Stage that renders the detections of a frame onto the captured {@code Bitmap}.
+ */
+final class RenderStage extends PipelineStage {
+    private static final String NAME = "render";
+    private Renderer mRenderer;
+    private FrameGeometry mRendererGeometry;
+    // Pointed at the Bitmap of every frame in turn, rather than allocating a Canvas per frame
+    private final Canvas mCanvas = new Canvas();
+
+    /**
+     * Constructs a {@code RenderStage}.
+     *
+     * @param queueCapacity The number of frames that can wait in front of the stage.
+     */
+    RenderStage(final int queueCapacity) {
+        super(NAME, queueCapacity);
+    }
+
+    @Override
+    protected boolean process(final Frame frame) {
+        final FrameGeometry geometry = frame.getGeometry();
+        // Initializes a new Renderer whenever the detector was re-configured with new image manipulation parameters.
+        if (geometry != mRendererGeometry) {
+            mRenderer = new Renderer(geometry.getCaptureSize(), geometry.getCropArea());
+            mRendererGeometry = geometry;
+        }
+        /*
+         * Drop detections that do not meet the specified minimum confidence threshold from the frame, so that the
+         * following stages publish exactly the detections that are rendered.
+         */
+        final float minConfidence = EasySharedPreference.getInstance().getMinConfidenceLevel();
+        final List<Recognition> detections = frame.getRecognitions();
+        for (int i = detections.size() - 1; i >= 0; --i) {
+            if (detections.get(i).getConfidence() < minConfidence) {
+                detections.remove(i);
+            }
+        }
+        // Render the filtered detections on the original bitmap (not the one that was cropped for running inference).
+        mCanvas.setBitmap(frame.getCaptureBitmap());
+        mRenderer.render(mCanvas, detections);
+        // The Bitmap leaves the stage with the frame, so the Canvas must not keep it
+        mCanvas.setBitmap(null);
+        return true;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+/**
+ * Bounded FIFO queue backed by a fixed-size array.
+ * <p>
+ * When the buffer is full, offering a new element evicts the oldest one, so that a slow consumer always works on the
+ * most recent elements. The buffer is thread-safe.
+ *
+ * @param <T> The type of the elements held in the buffer.
+ */
+final class RingBuffer<T> {
+    private final Object[] mElements;
+    private int mHead;
+    private int mSize;
+
+    /**
+     * Constructs an empty {@code RingBuffer}.
+     *
+     * @param capacity The maximum number of elements the buffer can hold.
+     */
+    RingBuffer(final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mElements = new Object[capacity];
+    }
+
+    /**
+     * Appends an element, evicting the oldest element if the buffer is full.
+     *
+     * @param element The element to append.
+     * @return The evicted element, or null if the buffer was not full.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized T offer(final T element) {
+        T evicted = null;
+        if (mSize == mElements.length) {
+            evicted = (T) mElements[mHead];
+            mElements[mHead] = null;
+            mHead = (mHead + 1) % mElements.length;
+            --mSize;
+        }
+        mElements[(mHead + mSize) % mElements.length] = element;
+        ++mSize;
+        return evicted;
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return The oldest element, or null if the buffer is empty.
+     */
+    @SuppressWarnings("unchecked")
+    synchronized T poll() {
+        if (mSize == 0) {
+            return null;
+        }
+        final T element = (T) mElements[mHead];
+        mElements[mHead] = null;
+        mHead = (mHead + 1) % mElements.length;
+        --mSize;
+        return element;
+    }
+
+    /**
+     * Gets the number of elements currently held.
+     *
+     * @return The number of elements in the buffer.
+     */
+    synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Gets the maximum number of elements.
+     *
+     * @return The capacity of the buffer.
+     */
+    int capacity() {
+        return mElements.length;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency and throughput counters of a single {@link PipelineStage}.
+ * <p>
+ * Latencies are only written from the stage's own thread, but may be read from any thread.
+ */
+public final class StageStatistics {
+    // Weight of the newest sample in the exponentially weighted average latency
+    @SuppressWarnings("MagicNumber")
+    private static final double AVERAGE_WEIGHT = 0.1;
+    @SuppressWarnings("MagicNumber")
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+    private final String mName;
+    private final AtomicLong mProcessedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private volatile long mLastLatencyNanos;
+    private volatile double mAverageLatencyNanos;
+
+    /**
+     * Constructs a {@code StageStatistics}.
+     *
+     * @param name The name of the stage.
+     */
+    StageStatistics(final String name) {
+        mName = name;
+    }
+
+    /**
+     * Records that a frame was processed.
+     *
+     * @param latencyNanos The time the stage spent on the frame.
+     */
+    void onProcessed(final long latencyNanos) {
+        mLastLatencyNanos = latencyNanos;
+        if (mProcessedFrames.getAndIncrement() == 0) {
+            mAverageLatencyNanos = latencyNanos;
+        } else {
+            mAverageLatencyNanos += (latencyNanos - mAverageLatencyNanos) * AVERAGE_WEIGHT;
+        }
+    }
+
+    /**
+     * Records that a frame was dropped because the stage could not keep up.
+     */
+    void onDropped() {
+        mDroppedFrames.incrementAndGet();
+    }
+
+    /**
+     * Gets the name of the stage.
+     *
+     * @return The name of the stage.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the number of frames processed by the stage.
+     *
+     * @return The number of processed frames.
+     */
+    public long getProcessedFrames() {
+        return mProcessedFrames.get();
+    }
+
+    /**
+     * Gets the number of frames dropped in front of the stage.
+     *
+     * @return The number of dropped frames.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    /**
+     * Gets the time the stage spent on the last frame.
+     *
+     * @return The latency of the last frame, in milliseconds.
+     */
+    public double getLastLatencyMillis() {
+        return mLastLatencyNanos / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Gets the exponentially weighted average time the stage spends on a frame.
+     *
+     * @return The average latency, in milliseconds.
+     */
+    public double getAverageLatencyMillis() {
+        return mAverageLatencyNanos / NANOS_PER_MILLI;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable set of tiles a frame is split into before it is passed to the detector. Every tile is converted into a
+ * separate detector input, and the detections of all tiles are merged into the detection area of the frame.
+ * <p>
+ * A single tile covering the detection area is the plain center crop. Grids of overlapping tiles let the detector see
+ * the whole frame at a higher resolution, so that small objects are not lost when the frame is scaled down to the
+ * detector input. Objects on the border between two tiles are seen whole by at least one of them as long as they are
+ * not larger than the overlap.
+ */
+public final class TileLayout {
+    private final Rect[] mTiles;
+    private final RectF[] mNormalizedTiles;
+
+    /**
+     * Constructs a {@code TileLayout}.
+     *
+     * @param tiles         The tiles, in pixels of the captured image.
+     * @param detectionArea The area of the captured image the detections are reported in.
+     */
+    public TileLayout(final List<Rect> tiles, final Rect detectionArea) {
+        mTiles = new Rect[tiles.size()];
+        mNormalizedTiles = new RectF[tiles.size()];
+        final float width = detectionArea.width();
+        final float height = detectionArea.height();
+        for (int i = 0; i < mTiles.length; i++) {
+            final Rect tile = tiles.get(i);
+            mTiles[i] = new Rect(tile);
+            mNormalizedTiles[i] = new RectF((tile.left - detectionArea.left) / width,
+                    (tile.top - detectionArea.top) / height,
+                    (tile.right - detectionArea.left) / width,
+                    (tile.bottom - detectionArea.top) / height);
+        }
+    }
+
+    /**
+     * Computes the positions of square tiles along one axis, spread evenly so that the first tile starts at 0 and the
+     * last one ends at {@code length}. A single tile is centered.
+     *
+     * @param length   The length of the axis, in pixels.
+     * @param tileSize The side of a tile, in pixels.
+     * @param count    The number of tiles along the axis.
+     * @return The start of every tile.
+     */
+    private static int[] spread(final int length, final int tileSize, final int count) {
+        final int[] starts = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = count == 1 ? (length - tileSize) >> 1 : Math.round(i * (length - tileSize) / (count - 1f));
+        }
+        return starts;
+    }
+
+    /**
+     * Gets the number of tiles.
+     *
+     * @return The number of tiles.
+     */
+    public int size() {
+        return mTiles.length;
+    }
+
+    /**
+     * Gets the position of a tile within the captured image.
+     *
+     * @param index The index of the tile.
+     * @return A copy of the tile, in pixels.
+     */
+    public Rect getTile(final int index) {
+        return new Rect(mTiles[index]);
+    }
+
+    /**
+     * Gets the position of a tile within the detection area, which maps the detections of the tile into the frame.
+     *
+     * @param index The index of the tile.
+     * @return A copy of the tile, relative to the detection area (0 - 1).
+     */
+    public RectF getNormalizedTile(final int index) {
+        return new RectF(mNormalizedTiles[index]);
+    }
+
+    /**
+     * Gets whether this layout is a single tile covering the whole detection area, whose detections need no mapping.
+     *
+     * @return True if the layout is the detection area itself, false otherwise.
+     */
+    public boolean isDetectionArea() {
+        return mTiles.length == 1 && mNormalizedTiles[0].equals(0f, 0f, 1f, 1f);
+    }
+
+    /**
+     * Creates a grid of square, overlapping tiles covering a whole image.
+     * <p>
+     * The side of the tiles is chosen so that {@code rows} tiles, overlapping by at least {@code minOverlap}, cover the
+     * short side of the image. As many tiles as needed for the same overlap then cover the long side.
+     *
+     * @param imageSize  The size of the image to cover.
+     * @param rows       The number of tiles along the short side of the image.
+     * @param minOverlap The minimum share of a tile that overlaps its neighbour (0 - 1).
+     * @return The tiles, row by row.
+     */
+    public static List<Rect> createGrid(final Size imageSize, final int rows, final float minOverlap) {
+        final int longSide = Math.max(imageSize.getWidth(), imageSize.getHeight());
+        final int tileSize = getGridTileSize(imageSize, rows, minOverlap);
+        final int columns = Math.max(1,
+                (int) Math.ceil((longSide / (float) tileSize - minOverlap) / (1f - minOverlap)));
+        final boolean isLandscape = imageSize.getWidth() >= imageSize.getHeight();
+        final int[] xs = spread(imageSize.getWidth(), tileSize, isLandscape ? columns : rows);
+        final int[] ys = spread(imageSize.getHeight(), tileSize, isLandscape ? rows : columns);
+        final List<Rect> tiles = new ArrayList<>(xs.length * ys.length);
+        for (int y : ys) {
+            for (int x : xs) {
+                tiles.add(new Rect(x, y, x + tileSize, y + tileSize));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Gets the side of the tiles of a grid created by {@link #createGrid(Size, int, float)}, without creating it.
+     *
+     * @param imageSize  The size of the image to cover.
+     * @param rows       The number of tiles along the short side of the image.
+     * @param minOverlap The minimum share of a tile that overlaps its neighbour (0 - 1).
+     * @return The side of a tile, in pixels.
+     */
+    public static int getGridTileSize(final Size imageSize, final int rows, final float minOverlap) {
+        final int shortSide = Math.min(imageSize.getWidth(), imageSize.getHeight());
+        return (int) Math.ceil(shortSide / (rows - (rows - 1) * minOverlap));
+    }
+}
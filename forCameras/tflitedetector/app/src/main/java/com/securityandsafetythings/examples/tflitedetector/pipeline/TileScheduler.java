@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the {@link TileLayout} new frames are split into, so that the detector stays within a latency budget.
+ * <p>
+ * The latency of the detector is averaged per layout. Once a layout has run on {@value #MIN_SAMPLES} frames, the
+ * scheduler steps down to the next smaller layout if its average exceeds the budget, and steps up to the next larger
+ * layout if the latency per tile, extrapolated to the tiles of the larger layout, leaves a margin to the budget. A
+ * layout that exceeded the budget is not tried again for {@value #BACKOFF_MILLIS} ms, so that the scheduler does not
+ * flip between two layouts when the extrapolation is too optimistic.
+ * <p>
+ * The layout is chosen on the thread submitting the frames, and the latencies are recorded by the inference stage.
+ */
+public final class TileScheduler {
+    // Weight of the newest sample in the exponentially weighted average latencies
+    @SuppressWarnings("MagicNumber")
+    private static final double AVERAGE_WEIGHT = 0.2;
+    @SuppressWarnings("MagicNumber")
+    private static final int MIN_SAMPLES = 5;
+    // A larger layout must be estimated to use at most this share of the budget
+    @SuppressWarnings("MagicNumber")
+    private static final double STEP_UP_MARGIN = 0.75;
+    @SuppressWarnings("MagicNumber")
+    private static final long BACKOFF_MILLIS = 30_000;
+    private final long mBudgetNanos;
+    // The geometry the state below belongs to, all guarded by this
+    private FrameGeometry mGeometry;
+    private double[] mAverageNanos;
+    private int mLayout;
+    private int mSamples;
+    private long mBackoffEndTime;
+
+    /**
+     * Constructs a {@code TileScheduler}.
+     *
+     * @param budgetMillis The time the detector may take on a frame.
+     */
+    TileScheduler(final long budgetMillis) {
+        mBudgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    /**
+     * Chooses the layout of a new frame. Starts over with the smallest layout whenever the geometry changed.
+     *
+     * @param geometry The geometry of the frame.
+     * @return The index of the layout in {@link FrameGeometry#getTileLayouts()}.
+     */
+    synchronized int select(final FrameGeometry geometry) {
+        if (geometry != mGeometry) {
+            mGeometry = geometry;
+            mAverageNanos = new double[geometry.getTileLayouts().size()];
+            mLayout = 0;
+            mSamples = 0;
+            mBackoffEndTime = 0;
+        }
+        return mLayout;
+    }
+
+    /**
+     * Records the time the detector took on a frame, and adapts the layout of the following frames. Must be called
+     * from the inference stage.
+     *
+     * @param geometry     The geometry of the frame.
+     * @param layout       The tiles of the frame.
+     * @param latencyNanos The time the detector took on all the tiles.
+     * @param now          The current time, in milliseconds of {@code SystemClock.elapsedRealtime()}.
+     */
+    public synchronized void onDetected(final FrameGeometry geometry, final TileLayout layout, final long latencyNanos,
+                                        final long now) {
+        // Frames converted before the last change carry an outdated layout and do not count
+        if (geometry != mGeometry || geometry.getTileLayouts().get(mLayout) != layout) {
+            return;
+        }
+        mAverageNanos[mLayout] = mSamples == 0 ? latencyNanos
+                : mAverageNanos[mLayout] + AVERAGE_WEIGHT * (latencyNanos - mAverageNanos[mLayout]);
+        if (++mSamples < MIN_SAMPLES) {
+            return;
+        }
+        final List<TileLayout> layouts = geometry.getTileLayouts();
+        if (mAverageNanos[mLayout] > mBudgetNanos && mLayout > 0) {
+            --mLayout;
+            mSamples = 0;
+            mBackoffEndTime = now + BACKOFF_MILLIS;
+        } else if (mLayout + 1 < layouts.size() && now >= mBackoffEndTime) {
+            final double estimateNanos = mAverageNanos[mLayout] / layout.size() * layouts.get(mLayout + 1).size();
+            if (estimateNanos < mBudgetNanos * STEP_UP_MARGIN) {
+                ++mLayout;
+                mSamples = 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of tiles new frames are split into.
+     *
+     * @return The number of tiles, or 0 if no frame was submitted yet.
+     */
+    public synchronized int getTileCount() {
+        return mGeometry == null ? 0 : mGeometry.getTileLayouts().get(mLayout).size();
+    }
+
+    /**
+     * Gets the time the detector may take on a frame.
+     *
+     * @return The latency budget, in milliseconds.
+     */
+    public long getBudgetMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mBudgetNanos);
+    }
+}
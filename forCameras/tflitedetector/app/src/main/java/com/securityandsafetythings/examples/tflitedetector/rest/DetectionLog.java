@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest;
+
+import android.graphics.RectF;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionRecordDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionsDTO;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Bounded history of the latest detections, read with a cursor.
+ * <p>
+ * Every detection gets the next sequence number, and the detection with sequence number {@code n} is stored in slot
+ * {@code n % capacity}, so the records after a cursor are found without searching. Once the history is full, every new
+ * detection evicts the oldest one, and a reader whose cursor fell behind is told how many it missed. The history is
+ * thread-safe.
+ */
+final class DetectionLog {
+    private final DetectionRecordDTO[] mRecords;
+    private final int mMaxPageSize;
+    // The sequence number of the next detection, sequence numbers start at 1
+    private long mNextSequenceNumber = 1;
+
+    /**
+     * Constructs an empty {@code DetectionLog}.
+     *
+     * @param capacity    The maximum number of detections kept.
+     * @param maxPageSize The maximum number of detections returned by {@link #since(long)}.
+     */
+    DetectionLog(final int capacity, final int maxPageSize) {
+        if (capacity <= 0 || maxPageSize <= 0) {
+            throw new IllegalArgumentException("Capacity and page size must be positive: " + capacity + ", "
+                    + maxPageSize);
+        }
+        mRecords = new DetectionRecordDTO[capacity];
+        mMaxPageSize = maxPageSize;
+    }
+
+    /**
+     * Appends the detections of a frame.
+     *
+     * @param timestamp  The time the frame was published, in milliseconds since the epoch.
+     * @param model      The name of the model that made the detections.
+     * @param detections The tracked detections, with boxes normalized to the size of the captured frame and the track
+     *                   ids as their ids.
+     * @return The appended records, in the order of the detections.
+     */
+    List<DetectionRecordDTO> append(final long timestamp, final String model, final List<Recognition> detections) {
+        if (detections.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<DetectionRecordDTO> records = new ArrayList<>(detections.size());
+        synchronized (this) {
+            for (Recognition detection : detections) {
+                final RectF location = detection.getLocation();
+                final DetectionRecordDTO record = new DetectionRecordDTO(mNextSequenceNumber, timestamp, model,
+                        Long.parseLong(detection.getId()), detection.getLabel(), detection.getConfidence(),
+                        new DetectionRecordDTO.BoxDTO(location.left, location.top, location.right, location.bottom));
+                mRecords[(int) (mNextSequenceNumber % mRecords.length)] = record;
+                ++mNextSequenceNumber;
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Gets the detections after a cursor, oldest first, at most {@code maxPageSize} of them.
+     *
+     * @param sequenceNumber The cursor, i.e. the sequence number of the last detection that was read, or 0 to read
+     *                       the whole history. A cursor ahead of the history, e.g. from before the app was restarted,
+     *                       also reads the whole history.
+     * @return The page of detections, with the cursor to read the following one.
+     */
+    synchronized DetectionsDTO since(final long sequenceNumber) {
+        final long oldest = Math.max(1, mNextSequenceNumber - mRecords.length);
+        long first = sequenceNumber >= mNextSequenceNumber ? 1 : sequenceNumber + 1;
+        long missed = 0;
+        if (first < oldest) {
+            // Readers of the whole history did not miss anything
+            missed = first > 1 ? oldest - first : 0;
+            first = oldest;
+        }
+        final int count = (int) Math.min(mNextSequenceNumber - first, mMaxPageSize);
+        final List<DetectionRecordDTO> records = new ArrayList<>(count);
+        for (long i = first; i < first + count; ++i) {
+            records.add(mRecords[(int) (i % mRecords.length)]);
+        }
+        return new DetectionsDTO(records, first + count - 1, missed);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest;
+
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InferenceDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InfoImageDTO;
+import com.securityandsafetythings.web_components.webserver.utilities.TaggedEntity;
+
+/**
+ * An immutable snapshot of the most recently published frame: its compressed image, the inference statistics and the
+ * label of the classifier, together with the sequence number that tags them.
+ * <p>
+ * Every update creates a new snapshot, so that a reader that gets one never sees the image of one frame with the
+ * statistics of another.
+ */
+final class FrameSnapshot {
+    /**
+     * The snapshot before the first frame is published.
+     */
+    static final FrameSnapshot EMPTY = new FrameSnapshot(0, null, null, null);
+    private final long mSequenceNumber;
+    private final TaggedEntity<byte[]> mImage;
+    private final TaggedEntity<InferenceDTO> mInferenceDTO;
+    private final InfoImageDTO mInfoImageDTO;
+
+    private FrameSnapshot(final long sequenceNumber, final TaggedEntity<byte[]> image,
+                          final TaggedEntity<InferenceDTO> inferenceDTO, final InfoImageDTO infoImageDTO) {
+        mSequenceNumber = sequenceNumber;
+        mImage = image;
+        mInferenceDTO = inferenceDTO;
+        mInfoImageDTO = infoImageDTO;
+    }
+
+    /**
+     * Creates the snapshot of a new frame with its inference statistics. The label of the classifier is kept.
+     *
+     * @param compressedImageBytes The compressed image of the frame.
+     * @param inferenceDTO         The inference statistics, or null if inference was not run on the frame.
+     * @return The new snapshot.
+     */
+    FrameSnapshot withImageAndStatistics(final byte[] compressedImageBytes, final InferenceDTO inferenceDTO) {
+        final long sequenceNumber = mSequenceNumber + 1;
+        return new FrameSnapshot(sequenceNumber, TaggedEntity.forSequenceNumber(sequenceNumber, compressedImageBytes),
+                inferenceDTO != null ? TaggedEntity.forSequenceNumber(sequenceNumber, inferenceDTO) : null,
+                mInfoImageDTO);
+    }
+
+    /**
+     * Creates the snapshot of a new frame the classifier ran on. The inference statistics are kept.
+     *
+     * @param compressedImageBytes The compressed image of the frame.
+     * @param infoImageDTO         The label of the classifier, or null if it did not run.
+     * @return The new snapshot.
+     */
+    FrameSnapshot withInfoForImage(final byte[] compressedImageBytes, final InfoImageDTO infoImageDTO) {
+        final long sequenceNumber = mSequenceNumber + 1;
+        return new FrameSnapshot(sequenceNumber, TaggedEntity.forSequenceNumber(sequenceNumber, compressedImageBytes),
+                mInferenceDTO, infoImageDTO);
+    }
+
+    /**
+     * Gets the sequence number of the frame.
+     *
+     * @return The sequence number, 0 before the first frame.
+     */
+    long getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    /**
+     * Gets the compressed image of the frame.
+     *
+     * @return The image tagged with its sequence number, or null before the first frame.
+     */
+    TaggedEntity<byte[]> getImage() {
+        return mImage;
+    }
+
+    /**
+     * Gets the inference statistics.
+     *
+     * @return The statistics tagged with the sequence number of their frame, or null if there are none.
+     */
+    TaggedEntity<InferenceDTO> getInferenceDTO() {
+        return mInferenceDTO;
+    }
+
+    /**
+     * Gets the label of the classifier.
+     *
+     * @return The label, or null if there is none.
+     */
+    InfoImageDTO getInfoImageDTO() {
+        return mInfoImageDTO;
+    }
+}
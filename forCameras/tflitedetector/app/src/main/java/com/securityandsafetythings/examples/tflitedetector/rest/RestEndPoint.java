@@ -21,16 +21,25 @@ import android.media.Image;
 import android.util.Log;
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
-import com.securityandsafetythings.examples.tflitedetector.R;
-import com.securityandsafetythings.examples.tflitedetector.TfLiteDetectorApplication;
+import com.securityandsafetythings.examples.tflitedetector.detector.ThreadSplit;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionRecordDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionsDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InferenceDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InfoImageDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.LatencyHistogramDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.ModelStatisticsDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesJobDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesStatusDTO;
 import com.securityandsafetythings.examples.tflitedetector.utilities.EasySharedPreference;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
 import com.securityandsafetythings.web_components.webserver.utilities.ProducesHeader;
+import com.securityandsafetythings.web_components.webserver.utilities.TaggedEntity;
 
 import javax.ws.rs.Consumes;
 
@@ -38,9 +47,13 @@ import javax.ws.rs.GET;
 import javax.ws.rs.NotFoundException;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class responsible to receive API calls from the front end, process it, and return the result.
@@ -50,21 +63,37 @@ import java.util.concurrent.CountDownLatch;
 @Produces(MediaType.APPLICATION_JSON)
 public class RestEndPoint {
     private static final String LOGTAG = RestEndPoint.class.getSimpleName();
-    private byte[] mBitmapBytes;
-    private InferenceDTO mInferenceDTO;
-    private InfoImageDTO mInfoImageDTO;
-    private UserPreferencesStatusDTO mUserPreferencesStatusDTO;
-    private CountDownLatch mDetectorInitializationSignal;
+    // About a minute of detections at a few objects per frame
+    @SuppressWarnings("MagicNumber")
+    private static final int DETECTION_HISTORY_CAPACITY = 4096;
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_DETECTIONS_PER_PAGE = 512;
+    /*
+     * The latest image, statistics and label are published together as one immutable snapshot, so that readers never
+     * block the publisher and never see parts of different frames. They are tagged with the sequence number of their
+     * frame, so that a client polling faster than frames are processed receives 304 Not Modified instead of the same
+     * content again.
+     */
+    private final AtomicReference<FrameSnapshot> mFrameSnapshot = new AtomicReference<>(FrameSnapshot.EMPTY);
+    // Every detection is kept here until it is evicted, so that clients polling slower than the frame rate miss none
+    private final DetectionLog mDetectionLog = new DetectionLog(DETECTION_HISTORY_CAPACITY, MAX_DETECTIONS_PER_PAGE);
+    private volatile List<ModelStatisticsDTO> mModelStatistics;
+    private volatile UserPreferencesStatusDTO mUserPreferencesStatusDTO;
+    private final UserPreferencesJobs mUserPreferencesJobs = new UserPreferencesJobs();
+    // The acceleration types with the thread split of the initialized one, rebuilt and published whenever the detector
+    // is configured
+    private volatile JsonArray mAccelerationTypes;
 
     /**
      * Gets the statistics from running inference on a frame.
      *
-     * @return An instance of {@code InferenceDTO}.
+     * @return An instance of {@code InferenceDTO}, tagged with the sequence number of its frame.
      */
     @GET
     @Path("inference-statistics")
-    public InferenceDTO getInferenceDTO() {
-        return mInferenceDTO;
+    @ProducesHeader("Cache-Control: no-cache")
+    public TaggedEntity<InferenceDTO> getInferenceDTO() {
+        return mFrameSnapshot.get().getInferenceDTO();
     }
 
     /**
@@ -76,9 +105,8 @@ public class RestEndPoint {
      * @param inferenceDTO         The {@code InferenceDTO} object containing the statistics from running inference
      *                             on the given {@code Bitmap}.
      */
-    public synchronized void setImageAndStatistics(final byte[] compressedImageBytes, final InferenceDTO inferenceDTO) {
-        mBitmapBytes = compressedImageBytes;
-        mInferenceDTO = inferenceDTO;
+    public void setImageAndStatistics(final byte[] compressedImageBytes, final InferenceDTO inferenceDTO) {
+        mFrameSnapshot.updateAndGet(snapshot -> snapshot.withImageAndStatistics(compressedImageBytes, inferenceDTO));
     }
 
 
@@ -90,7 +118,7 @@ public class RestEndPoint {
     @GET
     @Path("scanning-image")
     public InfoImageDTO getScanImage() {
-        return mInfoImageDTO;
+        return mFrameSnapshot.get().getInfoImageDTO();
     }
 
     /**
@@ -102,27 +130,100 @@ public class RestEndPoint {
      * @param infoImageDTO         The {@code infoImageDTO} object containing the statistics from running inference
      *                             on the given {@code Bitmap}.
      */
-    public synchronized void setInfoForImage(final byte[] compressedImageBytes, final InfoImageDTO infoImageDTO) {
-        mBitmapBytes = compressedImageBytes;
-        mInfoImageDTO = infoImageDTO;
+    public void setInfoForImage(final byte[] compressedImageBytes, final InfoImageDTO infoImageDTO) {
+        mFrameSnapshot.updateAndGet(snapshot -> snapshot.withInfoForImage(compressedImageBytes, infoImageDTO));
     }
 
 
     /**
-     * Gets the most recent {@link Image} annotated with bounding boxes from running inference as a byte[].
+     * Gets the most recent {@link Image} annotated with bounding boxes from running inference as a byte[]. The live view
+     * of the front end receives the frames over a WebSocket instead, this is kept for clients that cannot use one.
+     * Clients must revalidate the image, which only costs a 304 Not Modified response until the next frame.
      *
-     * @return A {@code byte[]} representing the {@link Bitmap}.
+     * @return A {@code byte[]} representing the {@link Bitmap}, tagged with the sequence number of its frame.
      */
-    @SuppressWarnings("MagicNumber")
     @GET
     @Path("live")
     @Produces("image/jpeg")
-    @ProducesHeader("Cache-Control: max-age=5")
-    public synchronized byte[] getImage() {
-        if (mBitmapBytes == null) {
+    @ProducesHeader("Cache-Control: no-cache")
+    public TaggedEntity<byte[]> getImage() {
+        final TaggedEntity<byte[]> image = mFrameSnapshot.get().getImage();
+        if (image == null) {
             throw new NotFoundException();
         }
-        return mBitmapBytes;
+        return image;
+    }
+
+    /**
+     * Gets the detections made after a cursor, oldest first. Clients read every detection by passing the cursor of
+     * the previous page, and can tell from the number of missed detections whether they fell behind the history.
+     *
+     * @param since The sequence number of the last detection that was read, or none to read the whole history.
+     * @return A {@code DetectionsDTO} with the detections and the cursor of the following page.
+     */
+    @GET
+    @Path("detections")
+    @ProducesHeader("Cache-Control: no-cache")
+    public DetectionsDTO getDetections(@QueryParam("since") final Long since) {
+        return mDetectionLog.since(since != null ? since : 0);
+    }
+
+    /**
+     * Appends the detections of a frame to the detection history.
+     *
+     * @param timestamp  The time the frame was published, in milliseconds since the epoch.
+     * @param model      The name of the model that made the detections.
+     * @param detections The tracked detections, with boxes normalized to the size of the captured frame and the track
+     *                   ids as their ids.
+     * @return The records that were appended, to be pushed to the clients that are connected.
+     */
+    public List<DetectionRecordDTO> addDetections(final long timestamp, final String model,
+                                                  final List<Recognition> detections) {
+        return mDetectionLog.append(timestamp, model, detections);
+    }
+
+    /**
+     * Gets the run and skip counters and latencies of every model of the detector.
+     *
+     * @return A list of {@code ModelStatisticsDTO}, one per model.
+     */
+    @GET
+    @Path("model-statistics")
+    public List<ModelStatisticsDTO> getModelStatistics() {
+        return mModelStatistics;
+    }
+
+    /**
+     * Sets the run and skip counters and latencies of every model of the detector.
+     *
+     * @param modelStatistics A list of {@code ModelStatisticsDTO}, one per model.
+     */
+    public void setModelStatistics(final List<ModelStatisticsDTO> modelStatistics) {
+        mModelStatistics = modelStatistics;
+    }
+
+    /**
+     * Gets the latency percentiles of every step of the frame processing, from converting the image to publishing the
+     * results, over the last minute. They are computed on request, so recording them costs the frames almost nothing.
+     *
+     * @return A list of {@code LatencyHistogramDTO}, one per step.
+     */
+    @GET
+    @Path("latency-histograms")
+    public List<LatencyHistogramDTO> getLatencyHistograms() {
+        final List<LatencyHistogramDTO> histograms = new ArrayList<>();
+        for (LatencyHistogram histogram : LatencyHistogram.getAll()) {
+            final LatencyHistogram.Summary summary = histogram.summarize();
+            histograms.add(new LatencyHistogramDTO(summary.getName(),
+                    LatencyHistogram.getWindowSeconds(),
+                    summary.getCount(),
+                    summary.getMeanMillis(),
+                    summary.getP50Millis(),
+                    summary.getP95Millis(),
+                    summary.getP99Millis(),
+                    summary.getMaxMillis()));
+        }
+        return histograms;
     }
 
     /**
@@ -137,47 +238,69 @@ public class RestEndPoint {
     }
 
     /**
-     * Updates the backend with the most recently selected user preferences.
-     * Waits for {@link #setUserPreferencesStatusDTO(UserPreferencesStatusDTO)}
-     * to return the status that gets set.
+     * Updates the backend with the most recently selected user preferences. The detector is re-configured
+     * asynchronously, so this returns right away; the progress of the update can be polled with
+     * {@link #getUserPreferencesJob(long)}, and is also pushed over the WebSocket once it is done.
      *
      * @param userPreferencesDTO A DTO that contains the preferences selected by the user.
-     * @return The {@code UserPreferencesStatusDTO} containing the result of the attempted update.
+     * @return The {@code UserPreferencesJobDTO} of the pending update.
      */
     @POST
     @Path("user-preferences")
-    public UserPreferencesStatusDTO updateUserPreferences(final UserPreferencesDTO userPreferencesDTO) {
-        mDetectorInitializationSignal = new CountDownLatch(1);
+    public UserPreferencesJobDTO updateUserPreferences(final UserPreferencesDTO userPreferencesDTO) {
+        // Submitted before the preferences are stored, so that it is assigned to the configuration they trigger
+        final UserPreferencesJobDTO job = mUserPreferencesJobs.submit();
         // Change settings.
         EasySharedPreference.getInstance().storeUserPreferences(userPreferencesDTO);
-        try {
-            Log.i(LOGTAG, String.format("Await called in updateUserPreferences for acceleration type %s",
-                    userPreferencesDTO.getAccelerationType()));
-            // Wait until latch has counted down to 0.
-            mDetectorInitializationSignal.await();
-            Log.i(LOGTAG, String.format( "Await unblocked for acceleration type %s",
-                    userPreferencesDTO.getAccelerationType()));
-        } catch (InterruptedException e) {
-            Log.e(LOGTAG, "Interrupted exception");
-            mUserPreferencesStatusDTO = new UserPreferencesStatusDTO(
-                    TfLiteDetectorApplication.getAppContext().getString(R.string.object_detector_initialization_thread_interruption), false);
+        Log.i(LOGTAG, String.format("Submitted update %d for acceleration type %s", job.getId(),
+                userPreferencesDTO.getAccelerationType()));
+        return job;
+    }
+
+    /**
+     * Gets the progress of a user preferences update.
+     *
+     * @param id The id of the update, as returned by {@link #updateUserPreferences(UserPreferencesDTO)}.
+     * @return The {@code UserPreferencesJobDTO} of the update.
+     */
+    @GET
+    @Path("user-preferences-jobs/{id}")
+    public UserPreferencesJobDTO getUserPreferencesJob(@PathParam("id") final long id) {
+        final UserPreferencesJobDTO job = mUserPreferencesJobs.get(id);
+        if (job == null) {
+            throw new NotFoundException();
         }
-        Log.i(LOGTAG, String.format("Return value is %s for acceleration type %s",
-                mUserPreferencesStatusDTO.getMessage(), userPreferencesDTO.getAccelerationType()));
-        return mUserPreferencesStatusDTO;
+        return job;
     }
 
     /**
-     * Sets the {@code UserPreferencesStatusDTO} containing the status of the last user preferences update.
+     * Sets the {@code UserPreferencesStatusDTO} containing the status of the last detector initialization.
      *
-     * @param userPreferencesStatusDTO A DTO that contains the status of the last user preferences update.
+     * @param userPreferencesStatusDTO A DTO that contains the status of the last detector initialization.
      */
     public void setUserPreferencesStatusDTO(final UserPreferencesStatusDTO userPreferencesStatusDTO) {
         mUserPreferencesStatusDTO = userPreferencesStatusDTO;
-        if (mDetectorInitializationSignal != null) {
-            // Countdown will cause count to become 0, which will unblock the updateUserPreferences method waiting on this signal.
-            mDetectorInitializationSignal.countDown();
-        }
+    }
+
+    /**
+     * Assigns the pending user preferences updates to the detector configuration that was requested after their
+     * preferences were stored.
+     *
+     * @param configuration The number of the configuration.
+     */
+    public void setDetectorConfigurationRequested(final int configuration) {
+        mUserPreferencesJobs.onConfigurationRequested(configuration);
+    }
+
+    /**
+     * Completes the user preferences updates that are applied by a detector configuration, with the status of the last
+     * detector initialization.
+     *
+     * @param configuration The number of the configuration that is complete.
+     * @return The updates that were completed.
+     */
+    public List<UserPreferencesJobDTO> setDetectorConfigured(final int configuration) {
+        return mUserPreferencesJobs.onConfigured(configuration, mUserPreferencesStatusDTO);
     }
 
     /**
@@ -192,14 +315,55 @@ public class RestEndPoint {
     }
 
     /**
-     * Gets a {@code JsonArray} of the supported acceleration types along with their metadata.
+     * Gets a {@code JsonArray} of the supported acceleration types along with their metadata. The acceleration type the
+     * detector is initialized with additionally contains the number of threads given to every model.
      *
      * @return A {@code JsonArray} containing the supported acceleration types along with their metadata.
      */
     @GET
     @Path("acceleration-types")
     public JsonArray getAccelerationTypes() {
-        return AccelerationType.getValuesAsJSON();
+        final JsonArray accelerationTypes = mAccelerationTypes;
+        return accelerationTypes != null ? accelerationTypes : AccelerationType.getValuesAsJSON();
+    }
+
+    /**
+     * Sets the number of threads given to every model of the detector, as reported by {@link #getAccelerationTypes()}.
+     *
+     * @param accelerationType The {@code AccelerationType} the detector is initialized with, or null if it is not
+     *                         initialized.
+     * @param threadSplit      The thread split of the detector, or null if it is not initialized.
+     */
+    public void setThreadSplit(final AccelerationType accelerationType, final ThreadSplit threadSplit) {
+        if (accelerationType == null || threadSplit == null) {
+            mAccelerationTypes = null;
+            return;
+        }
+        final JsonObject threadSplitJSON = new JsonObject();
+        threadSplitJSON.addProperty("threadBudget", threadSplit.getThreadBudget());
+        threadSplitJSON.addProperty("isBenchmarked", threadSplit.isBenchmarked());
+        final JsonArray models = new JsonArray();
+        for (int i = 0; i < threadSplit.getModelNames().size(); i++) {
+            final JsonObject model = new JsonObject();
+            model.addProperty("name", threadSplit.getModelNames().get(i));
+            model.addProperty("group", threadSplit.getGroup(i));
+            model.addProperty("threads", threadSplit.getThreads(i));
+            // A split restored from an earlier start, or a model alone in its group, has no measured latency
+            if (!Double.isNaN(threadSplit.getLatencyMillis(i))) {
+                model.addProperty("latency", threadSplit.getLatencyMillis(i));
+            }
+            models.add(model);
+        }
+        threadSplitJSON.add("models", models);
+        // The shared array of AccelerationType must not be modified, so the thread split is added to a copy
+        final JsonArray accelerationTypes = AccelerationType.getValuesAsJSON().deepCopy();
+        for (JsonElement element : accelerationTypes) {
+            final JsonObject jsonObject = element.getAsJsonObject();
+            if (accelerationType.toString().equals(jsonObject.get("name").getAsString())) {
+                jsonObject.add("threadSplit", threadSplitJSON);
+            }
+        }
+        mAccelerationTypes = accelerationTypes;
     }
 
 }
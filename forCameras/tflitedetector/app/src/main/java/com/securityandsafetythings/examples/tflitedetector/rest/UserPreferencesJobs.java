@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest;
+
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesJobDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesStatusDTO;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the user preferences updates until the detector configuration that applies them is complete.
+ * <p>
+ * An update is submitted before its preferences are stored, and assigned to a configuration once the detector is
+ * re-configured because of it. The pipeline merges configuration requests while one is pending, so concurrent updates
+ * are assigned the same configuration, and complete together.
+ */
+final class UserPreferencesJobs {
+    // Completed updates are kept for a while, so that clients can still poll their result
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_JOBS = 32;
+    // Updates by id, in submission order, guarded by this
+    private final Map<Long, UserPreferencesJobDTO> mJobs = new LinkedHashMap<Long, UserPreferencesJobDTO>() {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, UserPreferencesJobDTO> eldest) {
+            return size() > MAX_JOBS && UserPreferencesJobDTO.STATE_DONE.equals(eldest.getValue().getState());
+        }
+    };
+    private long mNextId = 1;
+
+    /**
+     * Submits an update.
+     *
+     * @return The pending update.
+     */
+    synchronized UserPreferencesJobDTO submit() {
+        final UserPreferencesJobDTO job = new UserPreferencesJobDTO(mNextId++, 0, UserPreferencesJobDTO.STATE_PENDING,
+                null);
+        mJobs.put(job.getId(), job);
+        return job;
+    }
+
+    /**
+     * Gets an update.
+     *
+     * @param id The id of the update.
+     * @return The update, or null if it is unknown.
+     */
+    synchronized UserPreferencesJobDTO get(final long id) {
+        return mJobs.get(id);
+    }
+
+    /**
+     * Assigns all updates that have no configuration yet to a configuration.
+     *
+     * @param configuration The number of the configuration that was requested after their preferences were stored.
+     */
+    synchronized void onConfigurationRequested(final int configuration) {
+        for (Map.Entry<Long, UserPreferencesJobDTO> entry : mJobs.entrySet()) {
+            final UserPreferencesJobDTO job = entry.getValue();
+            if (job.getConfiguration() == 0) {
+                entry.setValue(new UserPreferencesJobDTO(job.getId(), configuration, job.getState(), null));
+            }
+        }
+    }
+
+    /**
+     * Completes all updates that are applied by a configuration.
+     *
+     * @param configuration The number of the configuration that is complete.
+     * @param status        The result of the configuration.
+     * @return The updates that were completed.
+     */
+    synchronized List<UserPreferencesJobDTO> onConfigured(final int configuration,
+                                                          final UserPreferencesStatusDTO status) {
+        final List<UserPreferencesJobDTO> completedJobs = new ArrayList<>();
+        for (Map.Entry<Long, UserPreferencesJobDTO> entry : mJobs.entrySet()) {
+            final UserPreferencesJobDTO job = entry.getValue();
+            if (UserPreferencesJobDTO.STATE_PENDING.equals(job.getState()) && job.getConfiguration() != 0
+                    && job.getConfiguration() <= configuration) {
+                final UserPreferencesJobDTO completedJob = new UserPreferencesJobDTO(job.getId(),
+                        job.getConfiguration(), UserPreferencesJobDTO.STATE_DONE, status);
+                entry.setValue(completedJob);
+                completedJobs.add(completedJob);
+            }
+        }
+        trim();
+        return completedJobs;
+    }
+
+    // Drops the oldest completed updates beyond MAX_JOBS, which removeEldestEntry could not drop while they were pending
+    private void trim() {
+        final Iterator<UserPreferencesJobDTO> iterator = mJobs.values().iterator();
+        while (mJobs.size() > MAX_JOBS && iterator.hasNext()) {
+            if (UserPreferencesJobDTO.STATE_DONE.equals(iterator.next().getState())) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents a single object detected on a frame.
+ * seq: The sequence number of the detection, which increases by one for every detection.
+ * timestamp: The time the frame was published, in milliseconds since the epoch.
+ * model: The name of the model that made the detection.
+ * trackId: The id of the tracked object, which stays the same on every frame the object is seen on.
+ * label: The class of the detected object.
+ * score: The confidence of the detection, from 0 to 1.
+ * box: The bounding box of the object, normalized to the size of the captured frame.
+ */
+public class DetectionRecordDTO {
+    @SerializedName("seq")
+    private final long mSequenceNumber;
+    @SerializedName("timestamp")
+    private final long mTimestamp;
+    @SerializedName("model")
+    private final String mModel;
+    @SerializedName("trackId")
+    private final long mTrackId;
+    @SerializedName("label")
+    private final String mLabel;
+    @SerializedName("score")
+    private final float mScore;
+    @SerializedName("box")
+    private final BoxDTO mBox;
+
+    /**
+     * A bounding box, with coordinates from 0 to 1 relative to the width and height of the captured frame.
+     */
+    public static class BoxDTO {
+        @SerializedName("left")
+        private final float mLeft;
+        @SerializedName("top")
+        private final float mTop;
+        @SerializedName("right")
+        private final float mRight;
+        @SerializedName("bottom")
+        private final float mBottom;
+
+        /**
+         * Constructs a {@code BoxDTO}.
+         *
+         * @param left   The left edge of the box.
+         * @param top    The top edge of the box.
+         * @param right  The right edge of the box.
+         * @param bottom The bottom edge of the box.
+         */
+        public BoxDTO(final float left, final float top, final float right, final float bottom) {
+            mLeft = left;
+            mTop = top;
+            mRight = right;
+            mBottom = bottom;
+        }
+
+        /**
+         * Gets the left edge of the box.
+         *
+         * @return The left edge, from 0 to 1.
+         */
+        public float getLeft() {
+            return mLeft;
+        }
+
+        /**
+         * Gets the top edge of the box.
+         *
+         * @return The top edge, from 0 to 1.
+         */
+        public float getTop() {
+            return mTop;
+        }
+
+        /**
+         * Gets the right edge of the box.
+         *
+         * @return The right edge, from 0 to 1.
+         */
+        public float getRight() {
+            return mRight;
+        }
+
+        /**
+         * Gets the bottom edge of the box.
+         *
+         * @return The bottom edge, from 0 to 1.
+         */
+        public float getBottom() {
+            return mBottom;
+        }
+    }
+
+    /**
+     * Constructs a {@code DetectionRecordDTO}.
+     *
+     * @param sequenceNumber The sequence number of the detection.
+     * @param timestamp      The time the frame was published, in milliseconds since the epoch.
+     * @param model          The name of the model that made the detection.
+     * @param trackId        The id of the tracked object.
+     * @param label          The class of the detected object.
+     * @param score          The confidence of the detection.
+     * @param box            The bounding box of the object.
+     */
+    public DetectionRecordDTO(final long sequenceNumber, final long timestamp, final String model, final long trackId,
+                              final String label, final float score, final BoxDTO box) {
+        mSequenceNumber = sequenceNumber;
+        mTimestamp = timestamp;
+        mModel = model;
+        mTrackId = trackId;
+        mLabel = label;
+        mScore = score;
+        mBox = box;
+    }
+
+    /**
+     * Gets the sequence number of the detection.
+     *
+     * @return The sequence number, starting at 1.
+     */
+    public long getSequenceNumber() {
+        return mSequenceNumber;
+    }
+
+    /**
+     * Gets the time the frame was published.
+     *
+     * @return The time in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Gets the name of the model that made the detection.
+     *
+     * @return The name of the model.
+     */
+    public String getModel() {
+        return mModel;
+    }
+
+    /**
+     * Gets the id of the tracked object.
+     *
+     * @return The track id, starting at 1.
+     */
+    public long getTrackId() {
+        return mTrackId;
+    }
+
+    /**
+     * Gets the class of the detected object.
+     *
+     * @return The label.
+     */
+    public String getLabel() {
+        return mLabel;
+    }
+
+    /**
+     * Gets the confidence of the detection.
+     *
+     * @return The score, from 0 to 1.
+     */
+    public float getScore() {
+        return mScore;
+    }
+
+    /**
+     * Gets the bounding box of the object.
+     *
+     * @return The box, normalized to the size of the captured frame.
+     */
+    public BoxDTO getBox() {
+        return mBox;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+import java.util.List;
+
+/**
+ * A DTO that represents a page of the detection history.
+ * detections: The detections after the requested sequence number, oldest first.
+ * next: The sequence number to request the following page with.
+ * missed: The number of detections after the requested sequence number that were evicted from the history before
+ * they could be read.
+ */
+public class DetectionsDTO {
+    @SerializedName("detections")
+    private final List<DetectionRecordDTO> mDetections;
+    @SerializedName("next")
+    private final long mNext;
+    @SerializedName("missed")
+    private final long mMissed;
+
+    /**
+     * Constructs a {@code DetectionsDTO}.
+     *
+     * @param detections The detections after the requested sequence number, oldest first.
+     * @param next       The sequence number to request the following page with.
+     * @param missed     The number of detections that were evicted before they could be read.
+     */
+    public DetectionsDTO(final List<DetectionRecordDTO> detections, final long next, final long missed) {
+        mDetections = detections;
+        mNext = next;
+        mMissed = missed;
+    }
+
+    /**
+     * Gets the detections after the requested sequence number.
+     *
+     * @return The detections, oldest first.
+     */
+    public List<DetectionRecordDTO> getDetections() {
+        return mDetections;
+    }
+
+    /**
+     * Gets the sequence number to request the following page with.
+     *
+     * @return The sequence number of the last detection of this page.
+     */
+    public long getNext() {
+        return mNext;
+    }
+
+    /**
+     * Gets the number of detections that were evicted from the history before they could be read.
+     *
+     * @return The number of missed detections.
+     */
+    public long getMissed() {
+        return mMissed;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the decisions of the governor that paces the frames entering the frame pipeline.
+ * targetFramesPerSecond: The rate the governor aims for, or 0 if there is none.
+ * cpuBudget: The number of CPU cores the pipeline may keep busy on average.
+ * admittedFramesPerSecond: The rate frames are currently admitted at, or 0 if it is not limited.
+ * limitedBy: What limits the rate: target, pipeline (the slowest stage) or cpu (the CPU budget).
+ * frameCost: The time in milliseconds the conversion and all the stages spend on a frame.
+ * admittedFrames: The number of images that were admitted.
+ * skippedFrames: The number of images that were skipped without being converted.
+ */
+public class FrameRateGovernorDTO {
+    @SerializedName("targetFramesPerSecond")
+    private final int mTargetFramesPerSecond;
+    @SerializedName("cpuBudget")
+    private final double mCpuBudget;
+    @SerializedName("admittedFramesPerSecond")
+    private final double mAdmittedFramesPerSecond;
+    @SerializedName("limitedBy")
+    private final String mLimitedBy;
+    @SerializedName("frameCost")
+    private final double mFrameCost;
+    @SerializedName("admittedFrames")
+    private final long mAdmittedFrames;
+    @SerializedName("skippedFrames")
+    private final long mSkippedFrames;
+
+    /**
+     * Constructs a {@code FrameRateGovernorDTO}.
+     *
+     * @param targetFramesPerSecond The rate the governor aims for, or 0 if there is none.
+     * @param cpuBudget The number of CPU cores the pipeline may keep busy on average.
+     * @param admittedFramesPerSecond The rate frames are currently admitted at.
+     * @param limitedBy What limits the rate.
+     * @param frameCost The time in ms the conversion and all the stages spend on a frame.
+     * @param admittedFrames The number of images that were admitted.
+     * @param skippedFrames The number of images that were skipped.
+     */
+    public FrameRateGovernorDTO(final int targetFramesPerSecond,
+        final double cpuBudget,
+        final double admittedFramesPerSecond,
+        final String limitedBy,
+        final double frameCost,
+        final long admittedFrames,
+        final long skippedFrames) {
+        mTargetFramesPerSecond = targetFramesPerSecond;
+        mCpuBudget = cpuBudget;
+        mAdmittedFramesPerSecond = admittedFramesPerSecond;
+        mLimitedBy = limitedBy;
+        mFrameCost = frameCost;
+        mAdmittedFrames = admittedFrames;
+        mSkippedFrames = skippedFrames;
+    }
+}
@@ -19,6 +19,8 @@ package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
 import com.google.gson.annotations.SerializedName;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
 
+import java.util.List;
+
 /**
  * A DTO that represents inference statistics.
  * inferenceTime: The time it took in milliseconds to run inference on an image.
@@ -27,6 +29,10 @@ import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationTyp
  * accelerationType: The {@link AccelerationType} that was used for the inference. For example, if the user requested
  *                   {@link AccelerationType#AUTO} and if the inference was run using {@link AccelerationType#GPU}, then
  *                   this will be formatted as "Auto (GPU)". See {@link AccelerationType#toString()}.
+ * stages: The statistics of every stage of the frame pipeline, in processing order.
+ * governor: The decisions of the governor that paces the frames entering the pipeline.
+ * motion: The counters of the motion gate, which skips the detector on frames without motion.
+ * tiles: The number of tiles the frames are split into, 1 unless tiled detection is enabled.
  */
 public class InferenceDTO {
     @SerializedName("inferenceTime")
@@ -37,6 +43,14 @@ public class InferenceDTO {
     private final int mRequestedFramesPerSecond;
     @SerializedName("accelerationType")
     private final String mAccelerationType;
+    @SerializedName("stages")
+    private final List<StageStatisticsDTO> mStages;
+    @SerializedName("governor")
+    private final FrameRateGovernorDTO mGovernor;
+    @SerializedName("motion")
+    private final MotionDTO mMotion;
+    @SerializedName("tiles")
+    private final int mTiles;
 
     /**
      * Creates an {@code InferenceDTO} with results from inference.
@@ -47,14 +61,26 @@ public class InferenceDTO {
      * @param accelerationType The {@link AccelerationType} that was used for the inference. For example, if the user requested
      *                         {@link AccelerationType#AUTO}, and if the inference was run using {@link AccelerationType#GPU},
      *                         then this will be formatted as "Auto (GPU)". See {@link AccelerationType#toString()}.
+     * @param stages The statistics of every stage of the frame pipeline, in processing order.
+     * @param governor The decisions of the governor that paces the frames entering the pipeline.
+     * @param motion The counters of the motion gate, which skips the detector on frames without motion.
+     * @param tiles The number of tiles the frames are split into.
      */
     public InferenceDTO(final long inferenceTime,
         final int framesProcessedPerSecond,
         final int requestedFramesPerSecond,
-        final String accelerationType) {
+        final String accelerationType,
+        final List<StageStatisticsDTO> stages,
+        final FrameRateGovernorDTO governor,
+        final MotionDTO motion,
+        final int tiles) {
         mInferenceTime = inferenceTime;
         mFramesProcessedPerSecond = framesProcessedPerSecond;
         mRequestedFramesPerSecond = requestedFramesPerSecond;
         mAccelerationType = accelerationType;
+        mStages = stages;
+        mGovernor = governor;
+        mMotion = motion;
+        mTiles = tiles;
     }
 }
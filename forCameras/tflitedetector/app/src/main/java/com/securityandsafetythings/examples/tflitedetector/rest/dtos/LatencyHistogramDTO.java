@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the latency percentiles of a single step of the frame processing over a sliding window.
+ * name: The name of the step.
+ * window: The length of the window in seconds.
+ * count: The number of latencies in the window.
+ * mean: The mean latency in milliseconds.
+ * p50, p95, p99: The latency percentiles in milliseconds.
+ * max: The highest latency in milliseconds.
+ */
+public class LatencyHistogramDTO {
+    @SerializedName("name")
+    private final String mName;
+    @SerializedName("window")
+    private final int mWindow;
+    @SerializedName("count")
+    private final long mCount;
+    @SerializedName("mean")
+    private final double mMean;
+    @SerializedName("p50")
+    private final double mP50;
+    @SerializedName("p95")
+    private final double mP95;
+    @SerializedName("p99")
+    private final double mP99;
+    @SerializedName("max")
+    private final double mMax;
+
+    /**
+     * Constructs a {@code LatencyHistogramDTO}.
+     *
+     * @param name The name of the step.
+     * @param window The length of the window in seconds.
+     * @param count The number of latencies in the window.
+     * @param mean The mean latency in ms.
+     * @param p50 The median latency in ms.
+     * @param p95 The p95 latency in ms.
+     * @param p99 The p99 latency in ms.
+     * @param max The highest latency in ms.
+     */
+    public LatencyHistogramDTO(final String name,
+        final int window,
+        final long count,
+        final double mean,
+        final double p50,
+        final double p95,
+        final double p99,
+        final double max) {
+        mName = name;
+        mWindow = window;
+        mCount = count;
+        mMean = mean;
+        mP50 = p50;
+        mP95 = p95;
+        mP99 = p99;
+        mMax = max;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the statistics of a single model of the detector.
+ * name: The name of the model.
+ * averageLatency: The exponentially weighted average time in milliseconds the model takes on a frame.
+ * lastLatency: The time in milliseconds the model took on the last frame it ran on.
+ * runs: The number of frames the model ran on.
+ * skips: The number of frames the model was skipped for because of its schedule.
+ * failures: The number of frames the model failed on.
+ */
+public class ModelStatisticsDTO {
+    @SerializedName("name")
+    private final String mName;
+    @SerializedName("averageLatency")
+    private final double mAverageLatency;
+    @SerializedName("lastLatency")
+    private final double mLastLatency;
+    @SerializedName("runs")
+    private final long mRuns;
+    @SerializedName("skips")
+    private final long mSkips;
+    @SerializedName("failures")
+    private final long mFailures;
+
+    /**
+     * Constructs a {@code ModelStatisticsDTO}.
+     *
+     * @param name The name of the model.
+     * @param averageLatency The average time in ms the model takes on a frame.
+     * @param lastLatency The time in ms the model took on the last frame it ran on.
+     * @param runs The number of frames the model ran on.
+     * @param skips The number of frames the model was skipped for.
+     * @param failures The number of frames the model failed on.
+     */
+    public ModelStatisticsDTO(final String name,
+        final double averageLatency,
+        final double lastLatency,
+        final long runs,
+        final long skips,
+        final long failures) {
+        mName = name;
+        mAverageLatency = averageLatency;
+        mLastLatency = lastLatency;
+        mRuns = runs;
+        mSkips = skips;
+        mFailures = failures;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the counters of the motion gate, which skips the detector on frames without motion.
+ * analyzedFrames: The number of frames the motion gate looked at, i.e. the frames the detector was due on.
+ * skippedFrames: The number of frames the detector was skipped on, which reused the last detections.
+ * skipRatio: The share of the analyzed frames the detector was skipped on, between 0 and 1.
+ * savedComputeMillis: An estimate of the time in milliseconds not spent on converting and inferring skipped frames.
+ */
+public class MotionDTO {
+    @SerializedName("analyzedFrames")
+    private final long mAnalyzedFrames;
+    @SerializedName("skippedFrames")
+    private final long mSkippedFrames;
+    @SerializedName("skipRatio")
+    private final double mSkipRatio;
+    @SerializedName("savedComputeMillis")
+    private final double mSavedComputeMillis;
+
+    /**
+     * Constructs a {@code MotionDTO}.
+     *
+     * @param analyzedFrames The number of frames the motion gate looked at, i.e. the frames the detector was due on.
+     * @param skippedFrames The number of frames the detector was skipped on.
+     * @param skipRatio The share of the analyzed frames the detector was skipped on.
+     * @param savedComputeMillis An estimate of the time in ms saved on skipped frames.
+     */
+    public MotionDTO(final long analyzedFrames,
+        final long skippedFrames,
+        final double skipRatio,
+        final double savedComputeMillis) {
+        mAnalyzedFrames = analyzedFrames;
+        mSkippedFrames = skippedFrames;
+        mSkipRatio = skipRatio;
+        mSavedComputeMillis = savedComputeMillis;
+    }
+}
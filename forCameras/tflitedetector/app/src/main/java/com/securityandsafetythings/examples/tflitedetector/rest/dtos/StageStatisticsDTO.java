@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the statistics of a single stage of the frame pipeline.
+ * name: The name of the stage.
+ * averageLatency: The exponentially weighted average time in milliseconds the stage spends on a frame.
+ * lastLatency: The time in milliseconds the stage spent on the last frame.
+ * queueDepth: The number of frames waiting in front of the stage.
+ * processedFrames: The number of frames processed by the stage.
+ * droppedFrames: The number of frames dropped in front of the stage because it could not keep up.
+ */
+public class StageStatisticsDTO {
+    @SerializedName("name")
+    private final String mName;
+    @SerializedName("averageLatency")
+    private final double mAverageLatency;
+    @SerializedName("lastLatency")
+    private final double mLastLatency;
+    @SerializedName("queueDepth")
+    private final int mQueueDepth;
+    @SerializedName("processedFrames")
+    private final long mProcessedFrames;
+    @SerializedName("droppedFrames")
+    private final long mDroppedFrames;
+
+    /**
+     * Constructs a {@code StageStatisticsDTO}.
+     *
+     * @param name The name of the stage.
+     * @param averageLatency The average time in ms the stage spends on a frame.
+     * @param lastLatency The time in ms the stage spent on the last frame.
+     * @param queueDepth The number of frames waiting in front of the stage.
+     * @param processedFrames The number of frames processed by the stage.
+     * @param droppedFrames The number of frames dropped in front of the stage.
+     */
+    public StageStatisticsDTO(final String name,
+        final double averageLatency,
+        final double lastLatency,
+        final int queueDepth,
+        final long processedFrames,
+        final long droppedFrames) {
+        mName = name;
+        mAverageLatency = averageLatency;
+        mLastLatency = lastLatency;
+        mQueueDepth = queueDepth;
+        mProcessedFrames = processedFrames;
+        mDroppedFrames = droppedFrames;
+    }
+}
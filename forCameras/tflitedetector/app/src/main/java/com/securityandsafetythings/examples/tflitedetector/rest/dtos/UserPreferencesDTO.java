@@ -27,16 +27,20 @@ public class UserPreferencesDTO {
     private final float mConfidence;
     @SerializedName("accelerationType")
     private final String mAccelerationType;
+    @SerializedName("tiled")
+    private final boolean mIsTiled;
 
     /**
      * Constructs a {@code UserPreferencesDTO}.
      *
      * @param confidence The minimum confidence level that detections must meet so as to be rendered.
      * @param accelerationType The {@link AccelerationType} to be used for inference. See {@link AccelerationType#toString()}.
+     * @param isTiled Whether the detector covers the whole image in overlapping tiles, rather than only the center crop.
      */
-    public UserPreferencesDTO(final float confidence, final String accelerationType) {
+    public UserPreferencesDTO(final float confidence, final String accelerationType, final boolean isTiled) {
         mConfidence = confidence;
         mAccelerationType = accelerationType;
+        mIsTiled = isTiled;
     }
 
     /**
@@ -56,4 +60,13 @@ public class UserPreferencesDTO {
     public String getAccelerationType() {
         return mAccelerationType;
     }
+
+    /**
+     * Gets whether the detector covers the whole image in overlapping tiles, rather than only the center crop.
+     *
+     * @return True if tiled detection is requested, false otherwise. False if the field was not sent.
+     */
+    public boolean isTiled() {
+        return mIsTiled;
+    }
 }
\ No newline at end of file
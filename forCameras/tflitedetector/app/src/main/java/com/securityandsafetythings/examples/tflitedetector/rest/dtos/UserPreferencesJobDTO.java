@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents the progress of a user preferences update, which is applied asynchronously.
+ */
+public class UserPreferencesJobDTO {
+    /**
+     * The update is waiting for the detector to be re-configured.
+     */
+    public static final String STATE_PENDING = "pending";
+    /**
+     * The detector has been re-configured, see the status.
+     */
+    public static final String STATE_DONE = "done";
+    @SerializedName("id")
+    private final long mId;
+    @SerializedName("configuration")
+    private final int mConfiguration;
+    @SerializedName("state")
+    private final String mState;
+    @SerializedName("status")
+    private final UserPreferencesStatusDTO mStatus;
+
+    /**
+     * Constructs a {@code UserPreferencesJobDTO}.
+     *
+     * @param id            The id of the update.
+     * @param configuration The number of the detector configuration that applies the update, or 0 if it has not been
+     *                      requested yet. Updates that are merged into one configuration share it.
+     * @param state         Either {@link #STATE_PENDING} or {@link #STATE_DONE}.
+     * @param status        The result of the update, or null while it is pending.
+     */
+    public UserPreferencesJobDTO(final long id, final int configuration, final String state,
+                                 final UserPreferencesStatusDTO status) {
+        mId = id;
+        mConfiguration = configuration;
+        mState = state;
+        mStatus = status;
+    }
+
+    /**
+     * Gets the id of the update.
+     *
+     * @return The id of the update.
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * Gets the number of the detector configuration that applies the update.
+     *
+     * @return The number of the configuration, or 0 if it has not been requested yet.
+     */
+    public int getConfiguration() {
+        return mConfiguration;
+    }
+
+    /**
+     * Gets the state of the update.
+     *
+     * @return Either {@link #STATE_PENDING} or {@link #STATE_DONE}.
+     */
+    public String getState() {
+        return mState;
+    }
+
+    /**
+     * Gets the result of the update.
+     *
+     * @return The result of the update, or null while it is pending.
+     */
+    public UserPreferencesStatusDTO getStatus() {
+        return mStatus;
+    }
+}
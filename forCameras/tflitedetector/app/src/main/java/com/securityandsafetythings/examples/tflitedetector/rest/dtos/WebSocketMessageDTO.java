@@ -0,0 +1,61 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest.dtos;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * A DTO that represents a text message pushed to the front end over the WebSocket, next to the frames of the live view.
+ *
+ * @param <T> The type of the payload.
+ */
+public class WebSocketMessageDTO<T> {
+    @SerializedName("type")
+    private final String mType;
+    @SerializedName("payload")
+    private final T mPayload;
+
+    /**
+     * Constructs a {@code WebSocketMessageDTO}.
+     *
+     * @param type    The type of the message, which tells the front end how to read the payload.
+     * @param payload The payload.
+     */
+    public WebSocketMessageDTO(final String type, final T payload) {
+        mType = type;
+        mPayload = payload;
+    }
+
+    /**
+     * Gets the type of the message.
+     *
+     * @return The type of the message.
+     */
+    public String getType() {
+        return mType;
+    }
+
+    /**
+     * Gets the payload.
+     *
+     * @return The payload.
+     */
+    public T getPayload() {
+        return mPayload;
+    }
+}
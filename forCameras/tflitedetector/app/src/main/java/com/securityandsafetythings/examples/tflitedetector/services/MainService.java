@@ -16,10 +16,9 @@
 
 package com.securityandsafetythings.examples.tflitedetector.services;
 
-import android.graphics.Bitmap;
 import android.media.Image;
 import android.media.ImageReader;
-import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 
@@ -27,25 +26,42 @@ import com.securityandsafetythings.Build;
 import com.securityandsafetythings.app.VideoService;
 import com.securityandsafetythings.examples.tflitedetector.BuildConfig;
 import com.securityandsafetythings.examples.tflitedetector.R;
-import com.securityandsafetythings.examples.tflitedetector.detector.InferenceHandler;
 import com.securityandsafetythings.examples.tflitedetector.enums.AccelerationType;
+import com.securityandsafetythings.examples.tflitedetector.detector.ModelStatistics;
+import com.securityandsafetythings.examples.tflitedetector.detector.ObjectDetector;
 import com.securityandsafetythings.examples.tflitedetector.events.*;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.FramePipeline;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.FrameRateGovernor;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.MotionStatistics;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.PipelineStage;
+import com.securityandsafetythings.examples.tflitedetector.pipeline.StageStatistics;
 import com.securityandsafetythings.examples.tflitedetector.rest.RestEndPoint;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionRecordDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.FrameRateGovernorDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InferenceDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.MotionDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InfoImageDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.ModelStatisticsDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.StageStatisticsDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesJobDTO;
 import com.securityandsafetythings.examples.tflitedetector.rest.dtos.UserPreferencesStatusDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.WebSocketMessageDTO;
 import com.securityandsafetythings.examples.tflitedetector.utilities.EasySharedPreference;
+import com.securityandsafetythings.examples.tflitedetector.utilities.LatencyHistogram;
 import com.securityandsafetythings.jumpsuite.commonhelpers.BitmapUtils;
 import com.securityandsafetythings.video.RefreshRate;
 import com.securityandsafetythings.video.VideoCapture;
 import com.securityandsafetythings.video.VideoManager;
 import com.securityandsafetythings.video.VideoSession;
 import com.securityandsafetythings.web_components.webserver.RestHandler;
+import com.securityandsafetythings.web_components.webserver.WebSocketManager;
 import com.securityandsafetythings.web_components.webserver.WebServerConnector;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -62,14 +78,18 @@ import java.util.Objects;
 public class MainService extends VideoService {
 
     private static final String LOGTAG = MainService.class.getSimpleName();
-    private static final String INFERENCE_THREAD_NAME = String.format("%s%s",
-            MainService.class.getSimpleName(), "InferenceThread");
+    // Type of the WebSocket messages that carry a completed user preferences update
+    private static final String USER_PREFERENCES_JOB_MESSAGE = "user-preferences-job";
+    // Type of the WebSocket messages that carry the detections of a frame
+    private static final String DETECTIONS_MESSAGE = "detections";
+    // Latency of publishing the results of a frame to the RestEndPoint and the WebSocket clients
+    private static final LatencyHistogram PUBLISH_LATENCY = LatencyHistogram.get("publish");
     private WebServerConnector mWebServerConnector;
     private RestEndPoint mRestEndPoint;
+    private WebSocketManager mWebSocketManager;
     private VideoCapture mCapture;
     private Size mCaptureSize;
-    private InferenceHandler mInferenceHandler;
-    private HandlerThread mInferenceHandlerThread;
+    private FramePipeline mPipeline;
     private AccelerationType mInitializedAccelerationType;
 
     /**
@@ -84,13 +104,17 @@ public class MainService extends VideoService {
      * <p>
      * The {@link RestHandler} acts as a wrapper class for our {@link RestEndPoint}. The Handler registers our
      * {@link RestEndPoint}, and connects it to the WebServer.
+     * <p>
+     * The {@link WebSocketManager} pushes every annotated frame to the live view of the front end, see
+     * {@link #onEvent(OnInferenceCompletedEvent)}.
      */
     @Override
     public void onCreate() {
         super.onCreate();
         mInitializedAccelerationType = null;
-        // Creates a RestHandler with a base path of 'app/getPackageName()'.
-        final RestHandler restHandler = new RestHandler(this, BuildConfig.WEBSITE_ASSET_PATH);
+        // Creates a RestHandler with a base path of 'app/getPackageName()', which upgrades WebSocket requests to the live view.
+        mWebSocketManager = new WebSocketManager();
+        final RestHandler restHandler = new RestHandler(this, BuildConfig.WEBSITE_ASSET_PATH, mWebSocketManager);
         /*
          * Registers the RestEndPoint with the server via the RestHandler class. The RestHandler
          * is just a wrapper for the RestEndPoint's JaxRs annotated functions.
@@ -134,6 +158,7 @@ public class MainService extends VideoService {
      */
     @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
     public void onEvent(final OnInferenceCompletedEvent onInferenceCompletedEvent) {
+        final long startTime = SystemClock.elapsedRealtimeNanos();
         final AccelerationType requestedAccelerationType = EasySharedPreference.getInstance().getRequestedAccelerationType();
         // If the user requested Auto and if the inference was run using GPU, then this will be formatted as "Auto (GPU)".
         final String displayAccelerationType;
@@ -146,14 +171,32 @@ public class MainService extends VideoService {
         final InferenceDTO inferenceDTO = new InferenceDTO(onInferenceCompletedEvent.getInferenceTime(),
                 onInferenceCompletedEvent.getFramesProcessedPerSecond(),
                 mCapture.getFramerate(),
-                displayAccelerationType);
+                displayAccelerationType,
+                getStageStatistics(),
+                getFrameRateGovernorDecisions(),
+                getMotionStatistics(),
+                mPipeline.getTileScheduler().getTileCount());
 
         /*
-         * Store the image on which inference was run (containing bounding boxes, if any were detected) in the RestEndPoint class,
-         * so that the frontend can retrieve it via a GET call to rest/example/live.
-         * Also, store the InferenceDTO, which contains statistics from the inference operation.
+         * Push the image on which inference was run (containing bounding boxes, if any were detected) to every connected
+         * live view. The same compressed bytes are sent to all of them, and a slow viewer skips frames instead of
+         * delaying the others.
+         * Also store it in the RestEndPoint class, so that the frontend can still retrieve it via a GET call to
+         * rest/example/live, and store the InferenceDTO, which contains statistics from the inference operation.
          */
+        mWebSocketManager.sendByteMessage(onInferenceCompletedEvent.getImageAsBytes());
         mRestEndPoint.setImageAndStatistics(onInferenceCompletedEvent.getImageAsBytes(), inferenceDTO);
+        mRestEndPoint.setModelStatistics(getModelStatistics());
+        /*
+         * Record the detections in the history of the RestEndPoint, which serves them via rest/example/detections, and
+         * push them to the connected clients, so that every detection can be consumed without fetching images.
+         */
+        final List<DetectionRecordDTO> detections = mRestEndPoint.addDetections(onInferenceCompletedEvent.getTimestamp(),
+                ObjectDetector.MODEL_DETECT, onInferenceCompletedEvent.getDetections());
+        if (!detections.isEmpty() && mWebSocketManager.getSessionCount() > 0) {
+            mWebSocketManager.sendStringMessage(RestHandler.toJson(new WebSocketMessageDTO<>(DETECTIONS_MESSAGE, detections)));
+        }
+        PUBLISH_LATENCY.record(SystemClock.elapsedRealtimeNanos() - startTime);
     }
 
     @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
@@ -180,6 +223,7 @@ public class MainService extends VideoService {
          * is requested, this value equals the optimal {@code AccelerationType} that the ObjectDetector was initialized with.
          */
         mInitializedAccelerationType = onObjectDetectorInitializedEvent.getAccelerationType();
+        mRestEndPoint.setThreadSplit(mInitializedAccelerationType, onObjectDetectorInitializedEvent.getThreadSplit());
         mRestEndPoint.setUserPreferencesStatusDTO(
                 new UserPreferencesStatusDTO(getString(R.string.object_detector_initialization_success,
                         onObjectDetectorInitializedEvent.getAccelerationType().toString()), true)
@@ -193,7 +237,7 @@ public class MainService extends VideoService {
      */
     @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
     public void onEvent(final OnObjectDetectorInitializationFailedEvent onObjectDetectorInitializationFailedEvent) {
-        mInitializedAccelerationType = null;
+        // The detector that is serving frames, if any, keeps doing so, along with its acceleration type and threads
         mRestEndPoint.setUserPreferencesStatusDTO(
                 new UserPreferencesStatusDTO(getString(R.string.object_detector_initialization_error,
                         onObjectDetectorInitializationFailedEvent.getAccelerationType().toString(),
@@ -201,16 +245,96 @@ public class MainService extends VideoService {
         );
     }
 
+    /**
+     * Subscribe to OnDetectorConfiguredEvent to complete the user preferences updates applied by the configuration, and
+     * push their result to the front end.
+     *
+     * @param onDetectorConfiguredEvent {@code OnDetectorConfiguredEvent} object
+     */
+    @Subscribe(threadMode = ThreadMode.MAIN_ORDERED)
+    public void onEvent(final OnDetectorConfiguredEvent onDetectorConfiguredEvent) {
+        // The initialization events of this configuration were posted before, so the status is already set.
+        for (UserPreferencesJobDTO job : mRestEndPoint.setDetectorConfigured(onDetectorConfiguredEvent.getConfiguration())) {
+            mWebSocketManager.sendStringMessage(RestHandler.toJson(new WebSocketMessageDTO<>(USER_PREFERENCES_JOB_MESSAGE, job)));
+        }
+    }
+
     /**
      * Configures the TFLite detector with the most recently chosen preferences.
      */
     private void configureDetector() {
-        /* Send a message to the InferenceThread to configure the detector.
-         * It is redundant to send multiple messages to configure the detector.
-         */
-        if (!mInferenceHandler.hasMessages(InferenceHandler.Message.CONFIGURE_DETECTOR.ordinal())) {
-            mInferenceHandler.obtainMessage(InferenceHandler.Message.CONFIGURE_DETECTOR.ordinal()).sendToTarget();
+        if (mPipeline == null) {
+            // Pending user preferences updates are applied by the configuration requested when the pipeline starts.
+            return;
+        }
+        // The pipeline merges redundant requests to configure the detector.
+        mRestEndPoint.setDetectorConfigurationRequested(mPipeline.configureDetector());
+    }
+
+    /**
+     * Collects the latency and queue depth of every stage of the frame pipeline.
+     *
+     * @return The statistics of every stage, in processing order.
+     */
+    private List<StageStatisticsDTO> getStageStatistics() {
+        final List<StageStatisticsDTO> stages = new ArrayList<>();
+        for (PipelineStage stage : mPipeline.getStages()) {
+            final StageStatistics statistics = stage.getStatistics();
+            stages.add(new StageStatisticsDTO(statistics.getName(),
+                    statistics.getAverageLatencyMillis(),
+                    statistics.getLastLatencyMillis(),
+                    stage.getQueueDepth(),
+                    statistics.getProcessedFrames(),
+                    statistics.getDroppedFrames()));
+        }
+        return stages;
+    }
+
+    /**
+     * Collects the decisions of the governor that paces the frames entering the pipeline.
+     *
+     * @return The decisions of the governor.
+     */
+    private FrameRateGovernorDTO getFrameRateGovernorDecisions() {
+        final FrameRateGovernor governor = mPipeline.getGovernor();
+        return new FrameRateGovernorDTO(governor.getTargetFramesPerSecond(),
+                governor.getCpuBudget(),
+                governor.getAdmittedFramesPerSecond(),
+                governor.getLimitedBy(),
+                governor.getFrameCostMillis(),
+                governor.getAdmittedFrames(),
+                governor.getSkippedFrames());
+    }
+
+    /**
+     * Collects the counters of the motion gate, which skips the detector on frames without motion.
+     *
+     * @return The motion statistics.
+     */
+    private MotionDTO getMotionStatistics() {
+        final MotionStatistics statistics = mPipeline.getMotionStatistics();
+        return new MotionDTO(statistics.getAnalyzedFrames(),
+                statistics.getSkippedFrames(),
+                statistics.getSkipRatio(),
+                statistics.getSavedMillis());
+    }
+
+    /**
+     * Collects the run and skip counters and latencies of every model of the detector.
+     *
+     * @return The statistics of every model, in registration order.
+     */
+    private List<ModelStatisticsDTO> getModelStatistics() {
+        final List<ModelStatisticsDTO> models = new ArrayList<>();
+        for (ModelStatistics statistics : mPipeline.getModelStatistics()) {
+            models.add(new ModelStatisticsDTO(statistics.getName(),
+                    statistics.getAverageLatencyMillis(),
+                    statistics.getLastLatencyMillis(),
+                    statistics.getRuns(),
+                    statistics.getSkips(),
+                    statistics.getFailures()));
         }
+        return models;
     }
 
     /**
@@ -230,8 +354,8 @@ public class MainService extends VideoService {
          * With lower resolutions, image manipulations and rendering will be much more performant than dealing with UHD images.
          */
         mCaptureSize = new Size(mCapture.getWidth() / 2, mCapture.getHeight() / 2);
-        // Starts the InferenceThread
-        startInferenceThread();
+        // Starts the frame pipeline
+        startPipeline();
         // Configures the detector
         configureDetector(); // It is not necessary for other model right now ****
         // Send an event to start the video session.
@@ -239,23 +363,22 @@ public class MainService extends VideoService {
     }
 
     /**
-     * Starts the InferenceThread and assigns a handler to the thread.
-     * This thread is primarily responsible for configuring the detector and running inference on the images from the VideoPipeline.
+     * Starts the frame pipeline. Its stages crop the images from the VideoPipeline, run inference on them, render the
+     * detections and compress the results in parallel, each on its own thread.
      */
-    private void startInferenceThread() {
-        mInferenceHandlerThread = new HandlerThread(INFERENCE_THREAD_NAME);
-        mInferenceHandlerThread.start();
-        mInferenceHandler = new InferenceHandler(mInferenceHandlerThread.getLooper(), mCaptureSize);
+    private void startPipeline() {
+        mPipeline = new FramePipeline(mCaptureSize);
+        // Processing every requested frame is the goal, the governor lowers the rate if the pipeline or the CPU cannot
+        mPipeline.getGovernor().setTargetFramesPerSecond(mCapture.getFramerate());
     }
 
     /**
-     * Stops (waits until all the pending messages are processed) the InferenceThread.
+     * Stops (waits until all the pending frames are processed) the frame pipeline.
      */
-    private void stopInferenceThread() {
-        mInferenceHandler = null;
-        if (mInferenceHandlerThread != null) {
-            mInferenceHandlerThread.quitSafely();
-            mInferenceHandlerThread = null;
+    private void stopPipeline() {
+        if (mPipeline != null) {
+            mPipeline.quit();
+            mPipeline = null;
         }
     }
 
@@ -275,26 +398,28 @@ public class MainService extends VideoService {
                 Log.e("onImageAvailable()", "ImageReader returned null image.");
                 return;
             }
-            if (mInitializedAccelerationType == null) {
+            if (mPipeline == null || !mPipeline.hasDetector()) {
                 /*
-                 * Since the detector was not initialized, inference can't be run.
-                 * Store the image (without running inference) in the RestEndPoint class,
-                 * so that the frontend can retrieve it via a GET call to rest/example/live.
+                 * Since no detector was initialized yet, inference can't be run.
+                 * Push the image (without running inference) to the live view and store it in the RestEndPoint class,
+                 * so that the frontend can also retrieve it via a GET call to rest/example/live.
                  * Also, send null for the InferenceDTO since inference was not run on the image.
                  */
-                mRestEndPoint.setImageAndStatistics(BitmapUtils.compressBitmap(BitmapUtils.imageToBitmap(image)), null);
-                mRestEndPoint.setInfoForImage(BitmapUtils.compressBitmap(BitmapUtils.imageToBitmap(image)), null);
+                final byte[] imageBytes = BitmapUtils.compressBitmap(BitmapUtils.imageToBitmap(image));
+                mWebSocketManager.sendByteMessage(imageBytes);
+                mRestEndPoint.setImageAndStatistics(imageBytes, null);
+                mRestEndPoint.setInfoForImage(imageBytes, null);
                 return;
             }
             /*
-             * Without this check, the queue will be filled with Bitmaps at a rate that will be much higher
-             * than the rate in which the queue will be emptied (as inference takes longer to complete). This ultimately will lead to OOM.
-             * That's why it is important to insert frames into the queue, only when the queue does not contain any other frames.
+             * Without this check, the pipeline will be filled with Bitmaps at a rate that will be much higher
+             * than the rate in which the pipeline will be emptied (as inference takes longer to complete). This ultimately will lead to OOM.
+             * That's why it is important to convert and submit frames only when the pipeline has a free frame.
+             * The check also skips the images the governor does not admit, before any time is spent converting them.
              */
-            if (!mInferenceHandler.hasMessages(InferenceHandler.Message.RUN_INFERENCE.ordinal())) {
-                final Bitmap imageBmp = BitmapUtils.imageToBitmap(image);
-                // Sends message to InferenceThread for running inference
-                mInferenceHandler.obtainMessage(InferenceHandler.Message.RUN_INFERENCE.ordinal(), imageBmp).sendToTarget();
+            if (mPipeline.hasCapacity()) {
+                // Submits the frame to the pipeline for running inference
+                mPipeline.submit(image);
             }
         }
     }
@@ -339,8 +464,9 @@ public class MainService extends VideoService {
     @Override
     public void onDestroy() {
         EventBus.getDefault().unregister(this);
-        stopInferenceThread();
+        stopPipeline();
         mWebServerConnector.disconnect();
+        mWebSocketManager.disconnect();
         super.onDestroy();
     }
 }
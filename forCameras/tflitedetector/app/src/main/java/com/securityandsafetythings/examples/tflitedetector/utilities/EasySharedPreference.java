@@ -35,6 +35,15 @@ public final class EasySharedPreference {
     // String key for accessing confidence in EasySharedPreference
     private static final String PREF_KEY_MIN_CONFIDENCE = "pref_key_min_confidence";
     private static final String PREF_KEY_ACCELERATIONTYPE = "pref_key_accelerationtype";
+    private static final String PREF_KEY_TILED_DETECTION = "pref_key_tiled_detection";
+    // String keys for accessing the result of the last AUTO acceleration probe
+    private static final String PREF_KEY_PROBE_KEY = "pref_key_probe_key";
+    private static final String PREF_KEY_PROBE_ACCELERATIONTYPE = "pref_key_probe_accelerationtype";
+    private static final String PREF_KEY_PROBE_THREADS = "pref_key_probe_threads";
+    // String keys for accessing the last thread split benchmarked for a CPU configuration outside AUTO mode
+    private static final String PREF_KEY_SPLIT_KEY = "pref_key_split_key";
+    private static final String PREF_KEY_SPLIT_THREADS = "pref_key_split_threads";
+    private static final String THREADS_SEPARATOR = ",";
 
     // Default value for AccelerationType
     private static final AccelerationType DEFAULT = AccelerationType.AUTO;
@@ -74,7 +83,8 @@ public final class EasySharedPreference {
      * @return A {@code UserPreferencesDTO} object containing the currently active user preferences.
      */
     public UserPreferencesDTO getUserPreferences() {
-        return new UserPreferencesDTO(getMinConfidenceLevel(), getRequestedAccelerationType().toString());
+        return new UserPreferencesDTO(getMinConfidenceLevel(), getRequestedAccelerationType().toString(),
+                isTiledDetection());
     }
 
     /**
@@ -85,6 +95,7 @@ public final class EasySharedPreference {
     public void storeUserPreferences(final UserPreferencesDTO userPreferencesDto) {
         setMinConfidenceLevel(userPreferencesDto.getConfidence());
         setRequestedAccelerationType(AccelerationType.fromString(userPreferencesDto.getAccelerationType()).ordinal());
+        setTiledDetection(userPreferencesDto.isTiled());
         new OnPreferencesStoreUpdatedEvent().broadcastEvent();
     }
 
@@ -123,4 +134,120 @@ public final class EasySharedPreference {
     private void setRequestedAccelerationType(final int accelerationTypeOrdinal) {
         mSharedPrefs.edit().putInt(PREF_KEY_ACCELERATIONTYPE, accelerationTypeOrdinal).apply();
     }
+
+    /**
+     * Gets whether the detector covers the whole image in overlapping tiles, rather than only the center crop.
+     *
+     * @return True if tiled detection was requested, false otherwise.
+     */
+    public boolean isTiledDetection() {
+        return mSharedPrefs.getBoolean(PREF_KEY_TILED_DETECTION, false);
+    }
+
+    /**
+     * Stores whether the detector covers the whole image in overlapping tiles, rather than only the center crop.
+     *
+     * @param isTiled True to request tiled detection, false otherwise.
+     */
+    private void setTiledDetection(final boolean isTiled) {
+        mSharedPrefs.edit().putBoolean(PREF_KEY_TILED_DETECTION, isTiled).apply();
+    }
+
+    /**
+     * Gets the {@code AccelerationType} chosen by the last {@link AccelerationType#AUTO} probe.
+     *
+     * @param probeKey The key identifying the models and the device the probe must have run with.
+     * @return The probed {@code AccelerationType}, or null if no probe ran with the given key.
+     */
+    public AccelerationType getProbedAccelerationType(final String probeKey) {
+        if (!probeKey.equals(mSharedPrefs.getString(PREF_KEY_PROBE_KEY, null))) {
+            return null;
+        }
+        return AccelerationType.fromOrdinal(mSharedPrefs.getInt(PREF_KEY_PROBE_ACCELERATIONTYPE,
+                AccelerationType.NONE.ordinal()));
+    }
+
+    /**
+     * Gets the number of threads of every model chosen by the last {@link AccelerationType#AUTO} probe.
+     *
+     * @param probeKey The key identifying the models and the device the probe must have run with.
+     * @return The number of threads of every model, or null if no probe ran with the given key or no threads were
+     * stored.
+     */
+    public int[] getProbedThreads(final String probeKey) {
+        final String threads = mSharedPrefs.getString(PREF_KEY_PROBE_THREADS, null);
+        if (threads == null || !probeKey.equals(mSharedPrefs.getString(PREF_KEY_PROBE_KEY, null))) {
+            return null;
+        }
+        return parseThreads(threads);
+    }
+
+    /**
+     * Gets the number of threads of every model benchmarked for a CPU configuration outside
+     * {@link AccelerationType#AUTO} mode.
+     *
+     * @param splitKey The key identifying the models, the device and the thread budget the split was benchmarked with.
+     * @return The number of threads of every model, or null if no split was stored with the given key.
+     */
+    public int[] getThreadSplit(final String splitKey) {
+        final String threads = mSharedPrefs.getString(PREF_KEY_SPLIT_THREADS, null);
+        if (threads == null || !splitKey.equals(mSharedPrefs.getString(PREF_KEY_SPLIT_KEY, null))) {
+            return null;
+        }
+        return parseThreads(threads);
+    }
+
+    /**
+     * Stores the thread split benchmarked for a CPU configuration outside {@link AccelerationType#AUTO} mode, replacing
+     * the previous one.
+     *
+     * @param splitKey The key identifying the models, the device and the thread budget the split was benchmarked with.
+     * @param threads  The number of threads of every model.
+     */
+    public void storeThreadSplit(final String splitKey, final int[] threads) {
+        mSharedPrefs.edit()
+                .putString(PREF_KEY_SPLIT_KEY, splitKey)
+                .putString(PREF_KEY_SPLIT_THREADS, formatThreads(threads))
+                .apply();
+    }
+
+    /**
+     * Stores the result of an {@link AccelerationType#AUTO} probe, replacing the previous one.
+     *
+     * @param probeKey         The key identifying the models and the device the probe ran with.
+     * @param accelerationType The {@code AccelerationType} with the lowest latency.
+     * @param threads          The number of threads of every model, or null if the split was not benchmarked.
+     */
+    public void storeProbeResult(final String probeKey, final AccelerationType accelerationType, final int[] threads) {
+        final SharedPreferences.Editor editor = mSharedPrefs.edit()
+                .putString(PREF_KEY_PROBE_KEY, probeKey)
+                .putInt(PREF_KEY_PROBE_ACCELERATIONTYPE, accelerationType.ordinal());
+        if (threads != null) {
+            editor.putString(PREF_KEY_PROBE_THREADS, formatThreads(threads));
+        } else {
+            editor.remove(PREF_KEY_PROBE_THREADS);
+        }
+        editor.apply();
+    }
+
+    private static String formatThreads(final int[] threads) {
+        final StringBuilder value = new StringBuilder();
+        for (int i = 0; i < threads.length; i++) {
+            value.append(i > 0 ? THREADS_SEPARATOR : "").append(threads[i]);
+        }
+        return value.toString();
+    }
+
+    private static int[] parseThreads(final String threads) {
+        final String[] values = threads.split(THREADS_SEPARATOR);
+        final int[] result = new int[values.length];
+        try {
+            for (int i = 0; i < values.length; i++) {
+                result[i] = Integer.parseInt(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return result;
+    }
 }
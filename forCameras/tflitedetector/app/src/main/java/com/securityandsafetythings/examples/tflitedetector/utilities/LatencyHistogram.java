@@ -0,0 +1,316 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.utilities;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram over a sliding window, in the style of HdrHistogram.
+ * <p>
+ * Latencies are counted in microseconds, in buckets whose width grows with the value: every power of two is split into
+ * {@value #SUB_BUCKETS_PER_POWER_OF_TWO} buckets, so any percentile is reported within about 6% of its true value,
+ * from 1 microsecond up to about a minute. Recording a latency is a bucket lookup and two atomic increments, without
+ * locks or allocation, so it can be done on every frame from any thread.
+ * <p>
+ * The window is made of {@value #WINDOW_SLOTS} slots of {@value #SLOT_SECONDS} seconds. Latencies are recorded in the
+ * slot of the current time, which is cleared when it is reused, and {@link #summarize()} merges the slots that are
+ * still in the window. A latency recorded while its slot is cleared may be lost, which is acceptable for statistics.
+ * <p>
+ * Histograms are registered by name, see {@link #get(String)}, so that every part of the app records into the same
+ * histogram for the same step, and all of them can be listed with {@link #getAll()}.
+ */
+public final class LatencyHistogram {
+    @SuppressWarnings("MagicNumber")
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS_PER_POWER_OF_TWO = 1 << (SUB_BUCKET_BITS - 1);
+    // Latencies above 2^26 microseconds (about 67 seconds) are counted in the last bucket
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_VALUE_BITS = 26;
+    static final int BUCKET_COUNT = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 2) * SUB_BUCKETS_PER_POWER_OF_TWO;
+    @SuppressWarnings("MagicNumber")
+    private static final int WINDOW_SLOTS = 6;
+    @SuppressWarnings("MagicNumber")
+    private static final int SLOT_SECONDS = 10;
+    private static final long SLOT_MILLIS = TimeUnit.SECONDS.toMillis(SLOT_SECONDS);
+    @SuppressWarnings("MagicNumber")
+    private static final double MICROS_PER_MILLI = 1_000.0;
+    @SuppressWarnings("MagicNumber")
+    private static final double P50 = 0.5;
+    @SuppressWarnings("MagicNumber")
+    private static final double P95 = 0.95;
+    @SuppressWarnings("MagicNumber")
+    private static final double P99 = 0.99;
+    // Histograms by name, in the order they were first requested
+    private static final Map<String, LatencyHistogram> sHistograms = new LinkedHashMap<>();
+    private final String mName;
+    private final Slot[] mSlots = new Slot[WINDOW_SLOTS];
+
+    /**
+     * The latencies recorded during one period of {@link #SLOT_MILLIS}.
+     */
+    private static final class Slot {
+        private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong mTotalMicros = new AtomicLong();
+        // The period the counts belong to, i.e. the time divided by SLOT_MILLIS
+        private volatile long mPeriod = -1;
+    }
+
+    /**
+     * Percentiles of the latencies in the window of a histogram. Instances are immutable.
+     */
+    public static final class Summary {
+        private final String mName;
+        private final long mCount;
+        private final double mMeanMillis;
+        private final double mP50Millis;
+        private final double mP95Millis;
+        private final double mP99Millis;
+        private final double mMaxMillis;
+
+        private Summary(final String name, final long count, final double meanMillis, final double p50Millis,
+                        final double p95Millis, final double p99Millis, final double maxMillis) {
+            mName = name;
+            mCount = count;
+            mMeanMillis = meanMillis;
+            mP50Millis = p50Millis;
+            mP95Millis = p95Millis;
+            mP99Millis = p99Millis;
+            mMaxMillis = maxMillis;
+        }
+
+        /**
+         * Gets the name of the histogram.
+         *
+         * @return The name of the histogram.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * Gets the number of latencies in the window.
+         *
+         * @return The number of latencies.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Gets the mean latency in the window.
+         *
+         * @return The mean latency in milliseconds, or 0 if the window is empty.
+         */
+        public double getMeanMillis() {
+            return mMeanMillis;
+        }
+
+        /**
+         * Gets the median latency in the window.
+         *
+         * @return The latency in milliseconds, or 0 if the window is empty.
+         */
+        public double getP50Millis() {
+            return mP50Millis;
+        }
+
+        /**
+         * Gets the p95 latency in the window.
+         *
+         * @return The latency in milliseconds, or 0 if the window is empty.
+         */
+        public double getP95Millis() {
+            return mP95Millis;
+        }
+
+        /**
+         * Gets the p99 latency in the window.
+         *
+         * @return The latency in milliseconds, or 0 if the window is empty.
+         */
+        public double getP99Millis() {
+            return mP99Millis;
+        }
+
+        /**
+         * Gets the highest latency in the window.
+         *
+         * @return The latency in milliseconds, or 0 if the window is empty.
+         */
+        public double getMaxMillis() {
+            return mMaxMillis;
+        }
+    }
+
+    private LatencyHistogram(final String name) {
+        mName = name;
+        for (int i = 0; i < mSlots.length; i++) {
+            mSlots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Gets the histogram of a step, creating it on first use. Callers should keep the histogram instead of looking it
+     * up for every latency.
+     *
+     * @param name The name of the step.
+     * @return The histogram.
+     */
+    public static LatencyHistogram get(final String name) {
+        synchronized (sHistograms) {
+            LatencyHistogram histogram = sHistograms.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram(name);
+                sHistograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Gets all the histograms.
+     *
+     * @return The histograms, in the order they were created.
+     */
+    public static List<LatencyHistogram> getAll() {
+        synchronized (sHistograms) {
+            return new ArrayList<>(sHistograms.values());
+        }
+    }
+
+    /**
+     * Gets the name of the step the histogram records.
+     *
+     * @return The name of the step.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Gets the length of the window the latencies are summarized over.
+     *
+     * @return The length of the window, in seconds.
+     */
+    public static int getWindowSeconds() {
+        return WINDOW_SLOTS * SLOT_SECONDS;
+    }
+
+    /**
+     * Records the latency of a step.
+     *
+     * @param latencyNanos The time the step took, as measured with {@link SystemClock#elapsedRealtimeNanos()}.
+     */
+    public void record(final long latencyNanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+        final long period = SystemClock.elapsedRealtime() / SLOT_MILLIS;
+        final Slot slot = mSlots[(int) (period % mSlots.length)];
+        if (slot.mPeriod != period) {
+            synchronized (slot) {
+                // The first writer of a new period clears the counts of the period that left the window
+                if (slot.mPeriod != period) {
+                    for (int i = 0; i < BUCKET_COUNT; i++) {
+                        slot.mCounts.set(i, 0);
+                    }
+                    slot.mTotalMicros.set(0);
+                    slot.mPeriod = period;
+                }
+            }
+        }
+        slot.mCounts.incrementAndGet(getBucket(micros));
+        slot.mTotalMicros.addAndGet(micros);
+    }
+
+    /**
+     * Computes the percentiles of the latencies in the window.
+     *
+     * @return The summary of the window.
+     */
+    public Summary summarize() {
+        final long period = SystemClock.elapsedRealtime() / SLOT_MILLIS;
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        long totalMicros = 0;
+        for (Slot slot : mSlots) {
+            final long slotPeriod = slot.mPeriod;
+            if (slotPeriod <= period - mSlots.length || slotPeriod > period) {
+                continue;
+            }
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                final long bucketCount = slot.mCounts.get(i);
+                counts[i] += bucketCount;
+                count += bucketCount;
+            }
+            totalMicros += slot.mTotalMicros.get();
+        }
+        if (count == 0) {
+            return new Summary(mName, 0, 0, 0, 0, 0, 0);
+        }
+        return new Summary(mName, count, totalMicros / MICROS_PER_MILLI / count,
+                getPercentileMillis(counts, count, P50), getPercentileMillis(counts, count, P95),
+                getPercentileMillis(counts, count, P99), getPercentileMillis(counts, count, 1));
+    }
+
+    /**
+     * Gets a percentile with the nearest-rank method, as the highest latency of the bucket it falls in.
+     */
+    private static double getPercentileMillis(final long[] counts, final long count, final double percentile) {
+        final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return getBucketUpperBound(i) / MICROS_PER_MILLI;
+            }
+        }
+        return getBucketUpperBound(counts.length - 1) / MICROS_PER_MILLI;
+    }
+
+    /**
+     * Gets the bucket of a latency. Latencies below 2^{@link #SUB_BUCKET_BITS} have a bucket each, higher ones are
+     * shifted right until they have {@link #SUB_BUCKET_BITS} bits, and the shift selects the group of buckets.
+     */
+    static int getBucket(final long micros) {
+        if (micros < 1 << SUB_BUCKET_BITS) {
+            return (int) micros;
+        }
+        final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(micros)) - (SUB_BUCKET_BITS - 1);
+        final int bucket = shift * SUB_BUCKETS_PER_POWER_OF_TWO + (int) (micros >> shift);
+        return Math.min(bucket, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * Gets the highest latency counted in a bucket, except for the last bucket, which also counts all higher ones.
+     */
+    static long getBucketUpperBound(final int bucket) {
+        if (bucket < 1 << SUB_BUCKET_BITS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS_PER_POWER_OF_TWO - 1;
+        final long subBucket = bucket - (long) shift * SUB_BUCKETS_PER_POWER_OF_TWO;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -18,48 +18,75 @@ package com.securityandsafetythings.examples.tflitedetector.utilities;
 
 import android.graphics.Canvas;
 import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.Rect;
 import android.graphics.RectF;
 import android.util.Size;
 
-import com.securityandsafetythings.examples.tflitedetector.detector.model.Mobile;
 import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Utility class to aid in rendering {@link Recognition} data
+ * <p>
+ * Everything that does not change between frames is prepared once: the margins around the detection area are built
+ * into a single path when the Renderer is constructed, and the text of a label is formatted and measured once per
+ * label and confidence step of 0.1%. The objects of a frame are copied into primitive arrays, which are only
+ * re-allocated when a frame has more objects than any frame before, and drawn from there, so rendering a frame does not
+ * allocate. The caches are shared by all Renderers, which must therefore only be used from a single thread.
  */
 @SuppressWarnings("MagicNumber")
 public final class Renderer {
     private static final Paint NON_DETECTED_AREA_PAINT = getNonDetectedAreaPaint();
-    private static final Paint BACKGROUND_PAINT = getBackgroundPaint();
     private static final HashMap<String, Paint> LABEL_PAINT_CACHE = new HashMap<>();
+    private static final HashMap<String, LabelTexts> LABEL_TEXT_CACHE = new HashMap<>();
     private static final Paint TEXT_PAINT = getTextPaint();
     private static final Paint TEXT_BG_PAINT = getTextBackgroundPaint();
     private static final int TEXT_MARGIN = 1;
     private static final float TEXT_SIZE = 12.0f;
+    // The label text shows the confidence in steps of 0.1%
+    private static final int CONFIDENCE_STEPS = 1000;
     private static final int COLOR_MASK = 0xffffff;
     private static final int ALPHA_MASK = 0xff000000;
     private static final int COLOR_BLACK = 0xff000000;
     private static final int COLOR_WHITE = 0xffffffff;
     private static final int COLOR_NON_DETECTION_AREA = 0x66000000;
+    // Every box is stored as left, top, right and bottom
+    private static final int BOX_SIZE = 4;
 
-    private final Size mInputSize;
-    private final Size mMargin;
-    private final Size mCropArea;
+    private final Rect mDetectionArea;
+    // The margins around the detection area, or null if the detection area covers the whole image
+    private final Path mNonDetectedArea;
+    // The objects of the frame being rendered, with their boxes in pixels of the whole image
+    private String[] mLabels = new String[0];
+    private float[] mConfidences = new float[0];
+    private float[] mBoxes = new float[0];
+    private final RectF mLocation = new RectF();
+
+    /**
+     * The formatted texts of a single label, and their widths, per confidence step. They are filled in as the
+     * confidences are encountered.
+     */
+    private static final class LabelTexts {
+        private final String[] mTexts = new String[CONFIDENCE_STEPS + 1];
+        private final float[] mWidths = new float[CONFIDENCE_STEPS + 1];
+    }
 
     /**
      * Constructs a Renderer object.
      * @param inputSize The size of the original image on which the bounding boxes must be drawn.
-     * @param cropArea The area, the detector uses for running inference.
-     * @param margin The area that was not used by the detector so that it is grayed.
+     * @param detectionArea The area of the image the detections are relative to. The rest of the image was not used
+     *                      by the detector, so it is grayed. In tiled mode, this is the whole image.
      */
-    public Renderer(final Size inputSize, final Size cropArea, final Size margin) {
-        mInputSize = inputSize;
-        mCropArea = cropArea;
-        mMargin = margin;
+    public Renderer(final Size inputSize, final Rect detectionArea) {
+        mDetectionArea = new Rect(detectionArea);
+        mNonDetectedArea = buildNonDetectedArea(inputSize, mDetectionArea);
     }
 
     /**
@@ -73,18 +100,6 @@ public final class Renderer {
         return res;
     }
 
-    /**
-     * Gets a base paint that is clear
-     *
-     * @return Paint for use on the background
-     */
-    private static Paint getBackgroundPaint() {
-        final Paint res = new Paint();
-        res.setStyle(Paint.Style.FILL);
-        res.setColor(0);
-        return res;
-    }
-
     /**
      * Gets a base paint that is white
      *
@@ -117,87 +132,126 @@ public final class Renderer {
      * @param objects The objects whose bounding boxes must be rendered.
      */
     public void render(final Canvas canvas, final List<Recognition> objects) {
-        canvas.drawPaint(BACKGROUND_PAINT);
-        // Shade the areas that were not used in detection
-        canvas.drawRect(0, 0, mInputSize.getWidth(), mMargin.getHeight(), NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(0, mCropArea.getHeight() + mMargin.getHeight(),
-            mInputSize.getWidth(), mInputSize.getHeight(),
-            NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(0, mMargin.getHeight(), mMargin.getWidth(), mCropArea.getHeight() + mMargin.getHeight(), NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(mMargin.getWidth() + mCropArea.getWidth(),
-            mMargin.getHeight(), mInputSize.getWidth(),
-            mCropArea.getHeight() + mMargin.getHeight(),
-            NON_DETECTED_AREA_PAINT);
+        render(canvas, objects, Recognition::getLabel, Recognition::getConfidence, Recognition::copyLocationTo);
+    }
+
+    /**
+     * Copies the objects into the primitive arrays, then renders them.
+     *
+     * @param canvas The canvas to use for drawing
+     * @param objects The objects whose bounding boxes must be rendered.
+     * @param label Gets the class of an object.
+     * @param confidence Gets the confidence of an object, from 0 to 1.
+     * @param location Copies the bounding box of an object, relative to the detection area.
+     */
+    private <T> void render(final Canvas canvas, final List<T> objects, final Function<T, String> label,
+                            final ToDoubleFunction<T> confidence, final BiConsumer<T, RectF> location) {
+        final int count = objects.size();
+        if (mLabels.length < count) {
+            mLabels = new String[count];
+            mConfidences = new float[count];
+            mBoxes = new float[count * BOX_SIZE];
+        }
+        for (int i = 0; i < count; ++i) {
+            final T obj = objects.get(i);
+            mLabels[i] = label.apply(obj);
+            mConfidences[i] = (float) confidence.applyAsDouble(obj);
+            location.accept(obj, mLocation);
+            translate(mLocation, mBoxes, i * BOX_SIZE);
+        }
+        shadeNonDetectedArea(canvas);
         // Render each object on the canvas
-        for (Recognition obj : objects) {
-            final RectF box = translate(obj.getLocation());
+        for (int i = 0; i < count; ++i) {
+            final int offset = i * BOX_SIZE;
+            final float left = mBoxes[offset];
+            final float top = mBoxes[offset + 1];
             // Draw the translated bounding box
-            canvas.drawRect(box, getPaint(obj.getLabel()));
+            canvas.drawRect(left, top, mBoxes[offset + 2], mBoxes[offset + 3], getPaint(mLabels[i]));
             // Draw the label and confidence inside a black rectangle for readability
-            final String label = String.format(Locale.US, "%s: %.1f%%", obj.getLabel(), obj.getConfidence() * 100);
-            final float textW = TEXT_PAINT.measureText(label);
-            canvas.drawRect(box.left,
-                box.top + TEXT_MARGIN,
-                box.left + textW + (TEXT_MARGIN << 1),
-                box.top + TEXT_SIZE + (TEXT_MARGIN << 1),
+            final LabelTexts texts = getLabelTexts(mLabels[i]);
+            final int step = Math.max(0, Math.min(CONFIDENCE_STEPS, Math.round(mConfidences[i] * CONFIDENCE_STEPS)));
+            if (texts.mTexts[step] == null) {
+                texts.mTexts[step] = String.format(Locale.US, "%s: %.1f%%", mLabels[i],
+                        step * 100f / CONFIDENCE_STEPS);
+                texts.mWidths[step] = TEXT_PAINT.measureText(texts.mTexts[step]);
+            }
+            canvas.drawRect(left,
+                top + TEXT_MARGIN,
+                left + texts.mWidths[step] + (TEXT_MARGIN << 1),
+                top + TEXT_SIZE + (TEXT_MARGIN << 1),
                 TEXT_BG_PAINT);
-            canvas.drawText(label,
-                box.left + TEXT_MARGIN,
-                box.top + TEXT_SIZE,
+            canvas.drawText(texts.mTexts[step],
+                left + TEXT_MARGIN,
+                top + TEXT_SIZE,
                 TEXT_PAINT);
+            mLabels[i] = null;
         }
     }
 
     /**
-     * Renders bounding boxes (for all the detected objects) on a canvas.
+     * Builds the areas around the detection area, which were not used in detection, into a single path.
+     *
+     * @param inputSize The size of the image.
+     * @param detectionArea The area of the image the detections are relative to.
+     * @return The path, or null if the detection area covers the whole image.
+     */
+    private static Path buildNonDetectedArea(final Size inputSize, final Rect detectionArea) {
+        final int width = inputSize.getWidth();
+        final int height = inputSize.getHeight();
+        final Path path = new Path();
+        if (detectionArea.top > 0) {
+            path.addRect(0, 0, width, detectionArea.top, Path.Direction.CW);
+        }
+        if (detectionArea.bottom < height) {
+            path.addRect(0, detectionArea.bottom, width, height, Path.Direction.CW);
+        }
+        if (detectionArea.left > 0) {
+            path.addRect(0, detectionArea.top, detectionArea.left, detectionArea.bottom, Path.Direction.CW);
+        }
+        if (detectionArea.right < width) {
+            path.addRect(detectionArea.right, detectionArea.top, width, detectionArea.bottom, Path.Direction.CW);
+        }
+        return path.isEmpty() ? null : path;
+    }
+
+    /**
+     * Shades the areas around the detection area, which were not used in detection. Nothing is shaded if the detection
+     * area covers the whole image.
      *
      * @param canvas The canvas to use for drawing
-     * @param objects The objects whose bounding boxes must be rendered.
      */
-    public void renderMobile(final Canvas canvas, final List<Mobile> objects) {
-        canvas.drawPaint(BACKGROUND_PAINT);
-        // Shade the areas that were not used in detection
-        canvas.drawRect(0, 0, mInputSize.getWidth(), mMargin.getHeight(), NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(0, mCropArea.getHeight() + mMargin.getHeight(),
-                mInputSize.getWidth(), mInputSize.getHeight(),
-                NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(0, mMargin.getHeight(), mMargin.getWidth(), mCropArea.getHeight() + mMargin.getHeight(), NON_DETECTED_AREA_PAINT);
-        canvas.drawRect(mMargin.getWidth() + mCropArea.getWidth(),
-                mMargin.getHeight(), mInputSize.getWidth(),
-                mCropArea.getHeight() + mMargin.getHeight(),
-                NON_DETECTED_AREA_PAINT);
-        // Render each object on the canvas
-        for (Mobile obj : objects) {
-            final RectF box = translate(obj.getLocation());
-            // Draw the translated bounding box
-            canvas.drawRect(box, getPaint(obj.getLabel()));
-            // Draw the label and confidence inside a black rectangle for readability
-            final String label = String.format(Locale.US, "%s: %.1f%%", obj.getLabel(), obj.getConfidence() * 100);
-            final float textW = TEXT_PAINT.measureText(label);
-            canvas.drawRect(box.left,
-                    box.top + TEXT_MARGIN,
-                    box.left + textW + (TEXT_MARGIN << 1),
-                    box.top + TEXT_SIZE + (TEXT_MARGIN << 1),
-                    TEXT_BG_PAINT);
-            canvas.drawText(label,
-                    box.left + TEXT_MARGIN,
-                    box.top + TEXT_SIZE,
-                    TEXT_PAINT);
+    private void shadeNonDetectedArea(final Canvas canvas) {
+        if (mNonDetectedArea != null) {
+            canvas.drawPath(mNonDetectedArea, NON_DETECTED_AREA_PAINT);
         }
     }
 
     /**
      * Helper function maps from relative bounding box to rendering coordinates
      *
-     * @param location The relative bounding box
-     * @return Scaled bounding box ready to render on the Canvas with crop area (region sent to detection) defined by
-     * sMarginX, sMarginY, sCropAreaH, and sCropAreaW
+     * @param location The bounding box, relative to the detection area
+     * @param boxes Receives the scaled bounding box ready to render on the Canvas, in pixels of the whole image
+     * @param offset The index in {@code boxes} the bounding box is written at
+     */
+    private void translate(final RectF location, final float[] boxes, final int offset) {
+        boxes[offset] = mDetectionArea.left + location.left * mDetectionArea.width();
+        boxes[offset + 1] = mDetectionArea.top + location.top * mDetectionArea.height();
+        boxes[offset + 2] = mDetectionArea.left + location.right * mDetectionArea.width();
+        boxes[offset + 3] = mDetectionArea.top + location.bottom * mDetectionArea.height();
+    }
+
+    /**
+     * Gets the formatted texts of a specific class of object, which are cached like its paint.
+     * @param label The object class
+     * @return The texts of that class
      */
-    private RectF translate(final RectF location) {
-        return new RectF((location.left * mCropArea.getWidth()) + mMargin.getWidth(),
-            (location.top * mCropArea.getHeight()) + mMargin.getHeight(),
-            (location.right * mCropArea.getWidth()) + mMargin.getWidth(),
-            (location.bottom * mCropArea.getHeight()) + mMargin.getHeight());
+    private static LabelTexts getLabelTexts(final String label) {
+        LabelTexts texts = LABEL_TEXT_CACHE.get(label);
+        if (texts == null) {
+            texts = new LabelTexts();
+            LABEL_TEXT_CACHE.put(label, texts);
+        }
+        return texts;
     }
 
     /**
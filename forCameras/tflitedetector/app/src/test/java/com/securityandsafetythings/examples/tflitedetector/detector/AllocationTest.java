@@ -0,0 +1,208 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the per-frame detection paths do not allocate once they are warmed up. The detection model is replaced
+ * by a stand-in, so that running and decoding it is measured without TensorFlow Lite.
+ */
+public class AllocationTest {
+    private static final int CANDIDATES = 1917;
+    private static final int DETECTIONS = 10;
+    private static final int WARM_UP_FRAMES = 100;
+    private static final int FRAMES = 1000;
+    private static final int ROUNDS = 5;
+    private static final long FRAME_MILLIS = 33;
+    private static final int INPUT_SIZE = 300;
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void postProcessorDoesNotAllocate() {
+        final PostProcessor postProcessor = new PostProcessor(CANDIDATES, DETECTIONS);
+        postProcessor.setScoreThreshold(0.3f);
+        final DetectionResult result = new DetectionResult(DETECTIONS);
+        final float[] candidates = createCandidates(new Random(1));
+        assertEquals(0, allocatedBytesPerRound(() -> postProcess(postProcessor, candidates, result)));
+    }
+
+    @Test
+    public void ssdOutputsDoNotAllocate() {
+        final ObjectDetector.SsdOutputs outputs = new ObjectDetector.SsdOutputs(1, DETECTIONS);
+        final FakeSsdModel model = new FakeSsdModel();
+        final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * ObjectDetector.CHANNELS);
+        final PostProcessor postProcessor = new PostProcessor(DETECTIONS, DETECTIONS);
+        final DetectionResult result = new DetectionResult(DETECTIONS);
+        assertEquals(0, allocatedBytesPerRound(() -> decode(outputs, model, input, postProcessor, result)));
+        assertEquals(DETECTIONS, result.getCount());
+    }
+
+    @Test
+    public void detectDoesNotAllocate() {
+        final List<String> labels = new ArrayList<>();
+        for (int i = 0; i < DETECTIONS; ++i) {
+            labels.add("label " + i);
+        }
+        final ObjectDetector detector = new ObjectDetector(new FakeSsdModel(), labels, DETECTIONS, INPUT_SIZE, true);
+        final ByteBuffer input = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * ObjectDetector.CHANNELS);
+        final DetectionResult result = new DetectionResult(DETECTIONS);
+        assertEquals(0, allocatedBytesPerRound(() -> detector.detect(input, result)));
+        assertEquals(DETECTIONS, result.getCount());
+    }
+
+    @Test
+    public void trackerDoesNotAllocate() {
+        final ObjectTracker tracker = new ObjectTracker(DETECTIONS * 2);
+        final DetectionResult detections = new DetectionResult(DETECTIONS);
+        final DetectionResult tracked = new DetectionResult(DETECTIONS * 2);
+        final long[] trackIds = new long[DETECTIONS * 2];
+        final long[] time = new long[1];
+        assertEquals(0, allocatedBytesPerRound(() -> {
+            time[0] += FRAME_MILLIS;
+            track(tracker, detections, tracked, trackIds, time[0]);
+        }));
+        assertEquals(DETECTIONS, tracked.getCount());
+    }
+
+    /**
+     * Warms a frame up, then returns the fewest bytes allocated by a round of {@link #FRAMES} frames. A frame that
+     * allocates does so in every round, while the JIT compiler recompiling a method may disturb a single round.
+     */
+    private long allocatedBytesPerRound(final Runnable frame) {
+        for (int i = 0; i < WARM_UP_FRAMES; ++i) {
+            frame.run();
+        }
+        long fewestBytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS && fewestBytes > 0; ++round) {
+            final long before = allocatedBytes();
+            for (int i = 0; i < FRAMES; ++i) {
+                frame.run();
+            }
+            fewestBytes = Math.min(fewestBytes, allocatedBytes() - before);
+        }
+        return fewestBytes;
+    }
+
+    private long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Creates random candidate boxes, as left, top, right, bottom and score.
+     */
+    private static float[] createCandidates(final Random random) {
+        final float[] candidates = new float[CANDIDATES * 5];
+        for (int i = 0; i < candidates.length; i += 5) {
+            final float left = random.nextFloat() * 0.8f;
+            final float top = random.nextFloat() * 0.8f;
+            candidates[i] = left;
+            candidates[i + 1] = top;
+            candidates[i + 2] = left + 0.05f + random.nextFloat() * 0.15f;
+            candidates[i + 3] = top + 0.05f + random.nextFloat() * 0.15f;
+            candidates[i + 4] = random.nextFloat();
+        }
+        return candidates;
+    }
+
+    private static void postProcess(final PostProcessor postProcessor, final float[] candidates,
+                                    final DetectionResult result) {
+        postProcessor.clear();
+        for (int i = 0; i < candidates.length; i += 5) {
+            postProcessor.add(candidates[i], candidates[i + 1], candidates[i + 2], candidates[i + 3],
+                    candidates[i + 4], i % 3);
+        }
+        postProcessor.process(result);
+    }
+
+    private static void decode(final ObjectDetector.SsdOutputs outputs, final FakeSsdModel model,
+                               final ByteBuffer input, final PostProcessor postProcessor,
+                               final DetectionResult result) {
+        outputs.run(model, input);
+        postProcessor.clear();
+        outputs.decodeInto(0, postProcessor);
+        postProcessor.process(result);
+    }
+
+    /**
+     * Runs the tracker on a frame of objects moving right at a constant speed.
+     */
+    private static void track(final ObjectTracker tracker, final DetectionResult detections,
+                              final DetectionResult tracked, final long[] trackIds, final long time) {
+        detections.clear();
+        final float offset = time / 1_000_000f;
+        for (int i = 0; i < DETECTIONS; ++i) {
+            final float left = offset + i * 0.08f;
+            detections.add(left, 0.4f, left + 0.05f, 0.5f, 0.9f, i % 2);
+        }
+        tracker.update(detections, time);
+        tracker.report(time, tracked, trackIds);
+    }
+
+    /**
+     * Stands in for a detection model with a post-processing operator, by copying the same preallocated detections
+     * into the output tensors on every run.
+     */
+    private static final class FakeSsdModel implements ObjectDetector.ModelRunner {
+        private final float[][] mLocations = new float[DETECTIONS][];
+        private final float[] mClasses = new float[DETECTIONS];
+        private final float[] mScores = new float[DETECTIONS];
+
+        FakeSsdModel() {
+            for (int i = 0; i < DETECTIONS; ++i) {
+                // Side by side boxes in [top, left, bottom, right] order, so that none of them is suppressed
+                final float left = i / (float) DETECTIONS;
+                mLocations[i] = new float[]{0.2f, left, 0.6f, left + 0.08f};
+                mClasses[i] = i % 3;
+                mScores[i] = 0.5f + i / (float) (DETECTIONS * 2);
+            }
+        }
+
+        @Override
+        public void run(final Object[] inputs, final Map<Integer, Object> outputs) {
+            final float[][] locations = ((float[][][]) outputs.get(0))[0];
+            for (int i = 0; i < DETECTIONS; ++i) {
+                System.arraycopy(mLocations[i], 0, locations[i], 0, mLocations[i].length);
+            }
+            System.arraycopy(mClasses, 0, ((float[][]) outputs.get(1))[0], 0, DETECTIONS);
+            System.arraycopy(mScores, 0, ((float[][]) outputs.get(2))[0], 0, DETECTIONS);
+            ((float[]) outputs.get(3))[0] = DETECTIONS;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AnchorDecoderTest {
+    private static final float TOLERANCE = 1e-5f;
+    private static final int INPUT_SIZE = 300;
+    private static final int ANCHOR_STRIDE = 4;
+    // Anchors of the 19x19 feature map, three per cell
+    private static final int FIRST_LAYER_ANCHORS = 19 * 19 * 3;
+    private static final int NUM_CLASSES = 3;
+
+    /**
+     * The first cell of the lowest layer, as generated by create_ssd_anchors of the TensorFlow Object Detection API
+     * with reduce_boxes_in_lowest_layer: (0.1, 1.0), (0.2, 2.0) and (0.2, 0.5).
+     */
+    @Test
+    public void lowestLayerMatchesTensorFlow() {
+        final float[] anchors = AnchorDecoder.createSsdAnchors(INPUT_SIZE);
+        final float center = 0.5f / 19;
+        assertAnchor(anchors, 0, center, center, 0.1f, 0.1f);
+        assertAnchor(anchors, 1, center, center, 0.14142136f, 0.28284271f);
+        assertAnchor(anchors, 2, center, center, 0.28284271f, 0.14142136f);
+    }
+
+    /**
+     * The first cell of the second layer, with scale 0.35: the five aspect ratios and the square box interpolated with
+     * the scale 0.5 of the next layer.
+     */
+    @Test
+    public void secondLayerMatchesTensorFlow() {
+        final float[] anchors = AnchorDecoder.createSsdAnchors(INPUT_SIZE);
+        final int first = FIRST_LAYER_ANCHORS;
+        final float center = 0.05f;
+        assertAnchor(anchors, first, center, center, 0.35f, 0.35f);
+        assertAnchor(anchors, first + 1, center, center, 0.24748737f, 0.49497475f);
+        assertAnchor(anchors, first + 2, center, center, 0.49497475f, 0.24748737f);
+        assertAnchor(anchors, first + 3, center, center, 0.20207259f, 0.60621778f);
+        assertAnchor(anchors, first + 4, center, center, 0.60621778f, 0.20207259f);
+        assertAnchor(anchors, first + 5, center, center, 0.41833001f, 0.41833001f);
+        // Anchors are ordered by row, then column, then box
+        assertAnchor(anchors, first + 6, center, 0.15f, 0.35f, 0.35f);
+    }
+
+    /**
+     * The last layer is a single cell with scale 0.95, whose interpolated box uses a next scale of 1.0.
+     */
+    @Test
+    public void lastLayerMatchesTensorFlow() {
+        final float[] anchors = AnchorDecoder.createSsdAnchors(INPUT_SIZE);
+        final int count = anchors.length / ANCHOR_STRIDE;
+        assertEquals(1917, count);
+        assertAnchor(anchors, count - 6, 0.5f, 0.5f, 0.95f, 0.95f);
+        assertAnchor(anchors, count - 1, 0.5f, 0.5f, 0.97467943f, 0.97467943f);
+    }
+
+    @Test
+    public void decodesTheBestClassOfAnAnchor() {
+        final float[] anchors = {0.5f, 0.5f, 0.2f, 0.4f};
+        final AnchorDecoder decoder = new AnchorDecoder(anchors, NUM_CLASSES, 0.0f, 0, 0.0f, 0);
+        final ByteBuffer boxes = decoder.getBoxEncodings();
+        // Move the center down by half the anchor height and double the width
+        boxes.putFloat(0, 5.0f);
+        boxes.putFloat(4, 0.0f);
+        boxes.putFloat(8, 0.0f);
+        boxes.putFloat(12, (float) (5.0 * Math.log(2.0)));
+        final ByteBuffer logits = decoder.getClassLogits();
+        logits.putFloat(0, 10.0f);
+        logits.putFloat(4, 0.0f);
+        logits.putFloat(8, 2.0f);
+        final PostProcessor postProcessor = new PostProcessor(1, 1);
+        postProcessor.setScoreThreshold(0.5f);
+        decoder.decodeInto(postProcessor);
+        final DetectionResult result = new DetectionResult(1);
+        postProcessor.process(result);
+        assertEquals(1, result.getCount());
+        // The background column is skipped and not counted in the class id
+        assertEquals(1, result.getClassId(0));
+        assertEquals(1.0f / (1.0f + (float) Math.exp(-2.0)), result.getScore(0), 1e-4f);
+        assertEquals(0.1f, result.getLeft(0), 1e-4f);
+        assertEquals(0.5f, result.getTop(0), 1e-4f);
+        assertEquals(0.9f, result.getRight(0), 1e-4f);
+        assertEquals(0.7f, result.getBottom(0), 1e-4f);
+    }
+
+    @Test
+    public void skipsAnchorsBelowTheThresholdInTheQuantizedDomain() {
+        final float[] anchors = {0.5f, 0.5f, 0.2f, 0.2f, 0.5f, 0.5f, 0.2f, 0.2f};
+        // Logits from -12.8 to 12.7 in steps of 0.1
+        final AnchorDecoder decoder = new AnchorDecoder(anchors, NUM_CLASSES, 0.1f, 128, 0.1f, 128);
+        final ByteBuffer boxes = decoder.getBoxEncodings();
+        for (int i = 0; i < boxes.capacity(); ++i) {
+            boxes.put(i, (byte) 128);
+        }
+        final ByteBuffer logits = decoder.getClassLogits();
+        // A logit of 1.0 (score 0.73) passes a threshold of 0.6, a logit of 0.3 (score 0.57) does not
+        logits.put(1, (byte) 138);
+        logits.put(NUM_CLASSES + 2, (byte) 131);
+        final PostProcessor postProcessor = new PostProcessor(2, 2);
+        postProcessor.setScoreThreshold(0.6f);
+        decoder.decodeInto(postProcessor);
+        final DetectionResult result = new DetectionResult(2);
+        postProcessor.process(result);
+        assertEquals(1, result.getCount());
+        assertEquals(0, result.getClassId(0));
+        assertArrayEquals(new float[]{0.4f, 0.4f, 0.6f, 0.6f},
+                new float[]{result.getLeft(0), result.getTop(0), result.getRight(0), result.getBottom(0)}, 1e-4f);
+    }
+
+    private static void assertAnchor(final float[] anchors, final int index, final float yCenter, final float xCenter,
+                                     final float height, final float width) {
+        final int offset = index * ANCHOR_STRIDE;
+        assertArrayEquals("Anchor " + index, new float[]{yCenter, xCenter, height, width},
+                new float[]{anchors[offset], anchors[offset + 1], anchors[offset + 2], anchors[offset + 3]},
+                TOLERANCE);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the throughput of {@link ObjectDetector#detectBatch} for batch sizes 1, 2, 4 and 8, on the host CPU, and
+ * checks that every frame of a batch gets the detections it gets on its own. Batch sizes the model does not support
+ * fall back to running the frames one by one, so they are measured all the same.
+ */
+public class BatchThroughputBenchmark {
+    private static final int[] BATCH_SIZES = {1, 2, 4, 8};
+    private static final int WARM_UP_BATCHES = 2;
+    private static final int FRAMES = 32;
+    private static final int THREADS = 4;
+    // Batched and single runs may use different kernels, whose results differ by rounding
+    private static final float TOLERANCE = 1e-3f;
+
+    @Test
+    public void batchThroughput() throws IOException {
+        for (int batchSize : BATCH_SIZES) {
+            final ObjectDetector detector = HostModels.createDetector(THREADS, false, batchSize);
+            try {
+                final ByteBuffer[] inputs = new ByteBuffer[batchSize];
+                final DetectionResult[] results = new DetectionResult[batchSize];
+                for (int i = 0; i < batchSize; ++i) {
+                    inputs[i] = createFrame(i);
+                    results[i] = new DetectionResult(HostModels.MAX_DETECTIONS);
+                }
+                for (int i = 0; i < WARM_UP_BATCHES; ++i) {
+                    assertTrue(detector.detectBatch(inputs, batchSize, results));
+                }
+                final long startTime = System.nanoTime();
+                for (int frames = 0; frames < FRAMES; frames += batchSize) {
+                    assertTrue(detector.detectBatch(inputs, batchSize, results));
+                }
+                final double seconds = (System.nanoTime() - startTime) / 1e9;
+                final double framesPerSecond = FRAMES / seconds;
+                assertTrue(framesPerSecond > 0);
+                System.out.printf(Locale.ROOT, "Batch size %d: %.1f frames/s%n", batchSize, framesPerSecond);
+                final DetectionResult single = new DetectionResult(HostModels.MAX_DETECTIONS);
+                for (int i = 0; i < batchSize; ++i) {
+                    assertTrue(detector.detect(inputs[i], single));
+                    assertSameDetections("Batch size " + batchSize + ", frame " + i, single, results[i]);
+                }
+            } finally {
+                detector.destroy();
+            }
+        }
+    }
+
+    /**
+     * Creates a synthetic frame that differs from the frames with other indices, so that a batch mixing up its frames
+     * is noticed.
+     */
+    private static ByteBuffer createFrame(final int index) {
+        final ByteBuffer frame = AccelerationProbe.createSyntheticFrame(HostModels.INPUT_SIZE, true);
+        for (int i = 0; i < frame.capacity(); ++i) {
+            frame.put(i, (byte) (frame.get(i) + index * 37));
+        }
+        return frame;
+    }
+
+    private static void assertSameDetections(final String message, final DetectionResult expected,
+                                             final DetectionResult actual) {
+        assertEquals(message, expected.getCount(), actual.getCount());
+        for (int i = 0; i < expected.getCount(); ++i) {
+            assertEquals(message, expected.getClassId(i), actual.getClassId(i));
+            assertEquals(message, expected.getScore(i), actual.getScore(i), TOLERANCE);
+            assertEquals(message, expected.getLeft(i), actual.getLeft(i), TOLERANCE);
+            assertEquals(message, expected.getTop(i), actual.getTop(i), TOLERANCE);
+            assertEquals(message, expected.getRight(i), actual.getRight(i), TOLERANCE);
+            assertEquals(message, expected.getBottom(i), actual.getBottom(i), TOLERANCE);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DetectorLeaseTest {
+    private static final int FRAME_THREADS = 4;
+    private static final int SWAPS = 2000;
+
+    /**
+     * Stands in for an {@link ObjectDetector}, counting how often it is destroyed.
+     */
+    private static final class FakeDetector {
+        private final AtomicInteger mDestroyCount = new AtomicInteger();
+    }
+
+    private static DetectorLease<FakeDetector> lease(final FakeDetector detector) {
+        return new DetectorLease<>(detector, d -> d.mDestroyCount.incrementAndGet());
+    }
+
+    @Test
+    public void destroysTheDetectorWhenTheLastReferenceIsReleased() {
+        final FakeDetector detector = new FakeDetector();
+        final DetectorLease<FakeDetector> lease = lease(detector);
+        assertTrue(lease.acquire());
+        lease.release();
+        assertEquals(0, detector.mDestroyCount.get());
+        lease.release();
+        assertEquals(1, detector.mDestroyCount.get());
+        assertFalse(lease.acquire());
+    }
+
+    @Test
+    public void acquireReturnsNullWithoutAPublishedLease() {
+        assertNull(DetectorLease.acquire(new AtomicReference<DetectorLease<FakeDetector>>()));
+    }
+
+    /**
+     * Frames keep acquiring the published detector while detectors are swapped in as fast as possible. Once the first
+     * detector is published, every frame must get a detector that is not destroyed while the frame runs on it, and
+     * every swapped out detector must be destroyed exactly once.
+     */
+    @Test
+    public void framesNeverMissADetectorWhileSwapping() throws InterruptedException {
+        final AtomicReference<DetectorLease<FakeDetector>> published = new AtomicReference<>();
+        final List<FakeDetector> detectors = new ArrayList<>();
+        final FakeDetector first = new FakeDetector();
+        detectors.add(first);
+        published.set(lease(first));
+        final AtomicBoolean isSwapping = new AtomicBoolean(true);
+        final AtomicInteger gaps = new AtomicInteger();
+        final AtomicInteger destroyedWhileRunning = new AtomicInteger();
+        final AtomicInteger frames = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(FRAME_THREADS);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < FRAME_THREADS; ++i) {
+            final Thread thread = new Thread(() -> {
+                started.countDown();
+                while (isSwapping.get()) {
+                    final DetectorLease<FakeDetector> lease = DetectorLease.acquire(published);
+                    if (lease == null) {
+                        gaps.incrementAndGet();
+                        continue;
+                    }
+                    try {
+                        if (lease.getDetector().mDestroyCount.get() != 0) {
+                            destroyedWhileRunning.incrementAndGet();
+                        }
+                        frames.incrementAndGet();
+                    } finally {
+                        lease.release();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        started.await();
+        for (int i = 0; i < SWAPS; ++i) {
+            final FakeDetector detector = new FakeDetector();
+            detectors.add(detector);
+            published.getAndSet(lease(detector)).release();
+        }
+        isSwapping.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        final DetectorLease<FakeDetector> last = published.getAndSet(null);
+        assertNotNull(last);
+        last.release();
+        assertEquals(0, gaps.get());
+        assertEquals(0, destroyedWhileRunning.get());
+        assertTrue(frames.get() > 0);
+        for (FakeDetector detector : detectors) {
+            assertEquals(1, detector.mDestroyCount.get());
+        }
+    }
+}
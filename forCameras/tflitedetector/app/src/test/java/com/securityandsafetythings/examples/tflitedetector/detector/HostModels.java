@@ -0,0 +1,128 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.junit.Assume;
+import org.tensorflow.lite.TensorFlowLite;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Loads the models of the app on the JVM, for the benchmarks that run them with the CPU-only TensorFlow Lite runtime.
+ * <p>
+ * The tests that use it are skipped unless a host build of the TensorFlow Lite JNI library can be loaded, for example
+ * by passing its directory with {@code -Djava.library.path}.
+ */
+final class HostModels {
+    private static final String ASSETS_DIRECTORY = "src/main/assets/";
+    private static final String LABELS_DIRECTORY = "src/main/res/raw/";
+    // The sizes the app builds the detector with, see InferenceStage
+    static final int MAX_DETECTIONS = 10;
+    static final int INPUT_SIZE = 300;
+    static final int CLASSIFIER_INPUT_SIZE = 224;
+
+    private HostModels() {
+    }
+
+    /**
+     * Maps a model file of the app's assets.
+     *
+     * @param fileName The name of the model file, for example "detect.tflite".
+     * @return The model, mapped read-only.
+     */
+    static MappedByteBuffer load(final String fileName) throws IOException {
+        return load(new File(ASSETS_DIRECTORY, fileName));
+    }
+
+    /**
+     * Maps a model file.
+     *
+     * @param modelFile The model file.
+     * @return The model, mapped read-only.
+     */
+    static MappedByteBuffer load(final File modelFile) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(modelFile, "r");
+             FileChannel channel = file.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Reads a label file of the app's raw resources, one label per line.
+     *
+     * @param fileName The name of the label file, for example "labelmap.txt".
+     * @return The labels.
+     */
+    static List<String> loadLabels(final String fileName) throws IOException {
+        return Files.readAllLines(new File(LABELS_DIRECTORY, fileName).toPath(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a detector of the app's quantized detection model and bird classifier, the way the app does without the
+     * mobile model, or skips the test if the runtime cannot be loaded.
+     *
+     * @param threads    The number of threads of every model.
+     * @param useXnnpack Whether the models run with the XNNPACK kernels.
+     * @param batchSize  The number of frames processed by {@link ObjectDetector#detectBatch} in one inference.
+     * @return The detector, which must be destroyed.
+     */
+    static ObjectDetector createDetector(final int threads, final boolean useXnnpack, final int batchSize)
+            throws IOException {
+        return createDetector(load("detect.tflite"), load("bird.tflite"), true, threads, useXnnpack, batchSize);
+    }
+
+    /**
+     * Builds a detector of a detection model and a bird classifier with the app's labels, or skips the test if the
+     * runtime cannot be loaded.
+     *
+     * @param model       The detection model.
+     * @param modelBird   The bird classifier.
+     * @param isQuantized Whether the models expect quantized bytes rather than normalized floats.
+     * @param threads     The number of threads of every model.
+     * @param useXnnpack  Whether the models run with the XNNPACK kernels.
+     * @param batchSize   The number of frames processed by {@link ObjectDetector#detectBatch} in one inference.
+     * @return The detector, which must be destroyed.
+     */
+    static ObjectDetector createDetector(final ByteBuffer model, final ByteBuffer modelBird,
+                                         final boolean isQuantized, final int threads, final boolean useXnnpack,
+                                         final int batchSize) throws IOException {
+        assumeRuntime();
+        return new ObjectDetector(model, null, modelBird, loadLabels("labelmap.txt"),
+                loadLabels("labels_mobile.txt"), loadLabels("labelsbirds.txt"), MAX_DETECTIONS, INPUT_SIZE,
+                CLASSIFIER_INPUT_SIZE, threads, isQuantized, useXnnpack, batchSize);
+    }
+
+    /**
+     * Skips the test if the TensorFlow Lite runtime cannot be loaded on this host.
+     */
+    static void assumeRuntime() {
+        try {
+            TensorFlowLite.init();
+        } catch (UnsatisfiedLinkError | ExceptionInInitializerError | NoClassDefFoundError e) {
+            Assume.assumeNoException("No host TensorFlow Lite runtime", e);
+        }
+    }
+}
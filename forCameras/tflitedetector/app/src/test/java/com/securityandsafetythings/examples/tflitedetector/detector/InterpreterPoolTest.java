@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InterpreterPoolTest {
+    private static final int GROUP_DETECTION = 0;
+    private static final int GROUP_TRIGGERED = 1;
+    private static final int THREAD_BUDGET = 4;
+
+    @Test
+    public void chooseSplitGivesTheSlowerModelMoreThreads() {
+        // Latencies with 1, 2 and 3 threads
+        final long[][] latencies = {
+                {90, 50, 35},
+                {30, 20, 15},
+        };
+        assertArrayEquals(new int[]{3, 1}, InterpreterPool.chooseSplit(latencies, THREAD_BUDGET));
+    }
+
+    @Test
+    public void chooseSplitPrefersFewerThreadsForEarlierModels() {
+        // The second model is as fast with one thread as with more, so both splits finish after 20
+        final long[][] latencies = {
+                {40, 20, 20},
+                {20, 20, 20},
+        };
+        assertArrayEquals(new int[]{2, 1}, InterpreterPool.chooseSplit(latencies, THREAD_BUDGET));
+    }
+
+    @Test
+    public void chooseSplitLeavesOneThreadPerModel() {
+        // Latencies with 1 and 2 threads, the most a model can get while the others keep one each
+        final long[][] latencies = {
+                {300, 100},
+                {10, 10},
+                {10, 10},
+        };
+        assertArrayEquals(new int[]{2, 1, 1}, InterpreterPool.chooseSplit(latencies, THREAD_BUDGET));
+    }
+
+    /**
+     * Runs the split benchmark on the models of the app with the CPU-only runtime of the host.
+     */
+    @Test
+    public void splitsTheBudgetOnlyWithinAConcurrencyGroup() throws IOException {
+        HostModels.assumeRuntime();
+        final int budget = Math.min(THREAD_BUDGET, Runtime.getRuntime().availableProcessors());
+        Assume.assumeTrue("Needs a core per concurrent model", budget >= 2);
+        final InterpreterPool pool = new InterpreterPool(null, budget);
+        final ThreadSplit split;
+        try {
+            pool.add(ObjectDetector.MODEL_DETECT, HostModels.load("detect.tflite"), GROUP_DETECTION);
+            pool.add(ObjectDetector.MODEL_MOBILE, HostModels.load("mobile.tflite"), GROUP_DETECTION);
+            pool.add(ObjectDetector.MODEL_BIRD, HostModels.load("bird.tflite"), GROUP_TRIGGERED);
+            split = pool.start(null);
+        } finally {
+            pool.close();
+        }
+        assertTrue(split.isBenchmarked());
+        assertTrue(split.getThreads(0) + split.getThreads(1) <= budget);
+        assertFalse(Double.isNaN(split.getLatencyMillis(0)));
+        assertFalse(Double.isNaN(split.getLatencyMillis(1)));
+        // The bird classifier never runs with the other models, so it gets the whole budget without a benchmark
+        assertEquals(budget, split.getThreads(2));
+        assertTrue(Double.isNaN(split.getLatencyMillis(2)));
+    }
+
+    @Test
+    public void modelsAloneInTheirGroupGetTheWholeBudget() throws IOException {
+        HostModels.assumeRuntime();
+        final int budget = Math.min(THREAD_BUDGET, Runtime.getRuntime().availableProcessors());
+        final InterpreterPool pool = new InterpreterPool(null, budget);
+        final ThreadSplit split;
+        try {
+            pool.add(ObjectDetector.MODEL_DETECT, HostModels.load("detect.tflite"), GROUP_DETECTION);
+            pool.add(ObjectDetector.MODEL_BIRD, HostModels.load("bird.tflite"), GROUP_TRIGGERED);
+            split = pool.start(null);
+        } finally {
+            pool.close();
+        }
+        assertFalse(split.isBenchmarked());
+        assertArrayEquals(new int[]{budget, budget}, split.getThreads());
+    }
+
+    @Test
+    public void reusesAKnownSplit() throws IOException {
+        HostModels.assumeRuntime();
+        final int budget = Math.min(THREAD_BUDGET, Runtime.getRuntime().availableProcessors());
+        Assume.assumeTrue("Needs a core per concurrent model", budget >= 2);
+        final InterpreterPool pool = new InterpreterPool(null, budget);
+        final ThreadSplit split;
+        try {
+            pool.add(ObjectDetector.MODEL_DETECT, HostModels.load("detect.tflite"), GROUP_DETECTION);
+            pool.add(ObjectDetector.MODEL_MOBILE, HostModels.load("mobile.tflite"), GROUP_DETECTION);
+            pool.add(ObjectDetector.MODEL_BIRD, HostModels.load("bird.tflite"), GROUP_TRIGGERED);
+            split = pool.start(new int[]{budget - 1, 1, budget});
+        } finally {
+            pool.close();
+        }
+        assertTrue(split.isBenchmarked());
+        assertArrayEquals(new int[]{budget - 1, 1, budget}, split.getThreads());
+        // Nothing was measured on this start
+        assertTrue(Double.isNaN(split.getLatencyMillis(0)));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.google.gson.GsonBuilder;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Bird;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the latency percentiles and throughput of the detection model and the bird classifier, run through
+ * {@link ObjectDetector} on the host CPU, so that regressions are caught before building for the camera.
+ * <p>
+ * Every combination of the plain CPU kernels (NONE) and XNNPACK, 1, 2, 4... threads up to the number of cores, and
+ * quantized and float models is measured. The app only ships quantized models, so the float models are read from the
+ * directory passed with {@code -DmodelBenchmark.floatModels}, which must hold a float detect.tflite and bird.tflite;
+ * without it the float combinations are reported as skipped. The results are printed and written as JSON to
+ * {@code build/reports/model-benchmark.json}.
+ */
+public class ModelBenchmark {
+    private static final String FLOAT_MODELS_PROPERTY = "modelBenchmark.floatModels";
+    private static final File REPORT = new File("build/reports/model-benchmark.json");
+    private static final int WARM_UP_RUNS = 5;
+    private static final int MEASURED_RUNS = 50;
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    @Test
+    public void benchmarkModels() throws IOException {
+        HostModels.assumeRuntime();
+        final Report report = new Report();
+        report.cores = Runtime.getRuntime().availableProcessors();
+        report.host = System.getProperty("os.name") + " " + System.getProperty("os.arch");
+        final String floatModels = System.getProperty(FLOAT_MODELS_PROPERTY);
+        for (boolean isQuantized : new boolean[]{true, false}) {
+            if (!isQuantized && floatModels == null) {
+                report.skipped.add("float: no float models, set -D" + FLOAT_MODELS_PROPERTY);
+                continue;
+            }
+            final ByteBuffer model = isQuantized ? HostModels.load("detect.tflite")
+                    : HostModels.load(new File(floatModels, "detect.tflite"));
+            final ByteBuffer modelBird = isQuantized ? HostModels.load("bird.tflite")
+                    : HostModels.load(new File(floatModels, "bird.tflite"));
+            for (boolean useXnnpack : new boolean[]{false, true}) {
+                for (int threads : getThreadCounts(report.cores)) {
+                    measure(model, modelBird, isQuantized, useXnnpack, threads, report.results);
+                }
+            }
+        }
+        for (Result result : report.results) {
+            assertTrue(result.toString(), result.p50 > 0);
+            assertTrue(result.toString(), result.p50 <= result.p90 && result.p90 <= result.p99);
+            assertTrue(result.toString(), result.throughput > 0);
+            System.out.println(result);
+        }
+        REPORT.getParentFile().mkdirs();
+        try (Writer writer = Files.newBufferedWriter(REPORT.toPath(), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+        }
+    }
+
+    /**
+     * Gets the thread counts to benchmark: the powers of two below the number of cores, and the number of cores.
+     */
+    private static int[] getThreadCounts(final int cores) {
+        final List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < cores; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(Math.max(1, cores));
+        return threadCounts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void measure(final ByteBuffer model, final ByteBuffer modelBird, final boolean isQuantized,
+                                final boolean useXnnpack, final int threads, final List<Result> results)
+            throws IOException {
+        final ObjectDetector detector =
+                HostModels.createDetector(model, modelBird, isQuantized, threads, useXnnpack, 1);
+        try {
+            final ByteBuffer input = AccelerationProbe.createSyntheticFrame(HostModels.INPUT_SIZE, isQuantized);
+            final ByteBuffer classifierInput =
+                    AccelerationProbe.createSyntheticFrame(HostModels.CLASSIFIER_INPUT_SIZE, isQuantized);
+            final DetectionResult detections = new DetectionResult(HostModels.MAX_DETECTIONS);
+            final long[] runs = new long[MEASURED_RUNS];
+            for (int i = 0; i < WARM_UP_RUNS; ++i) {
+                assertTrue(detector.detect(input, detections));
+            }
+            for (int i = 0; i < runs.length; ++i) {
+                final long startTime = System.nanoTime();
+                detector.detect(input, detections);
+                runs[i] = System.nanoTime() - startTime;
+            }
+            results.add(new Result(ObjectDetector.MODEL_DETECT, isQuantized, useXnnpack, threads, runs));
+            for (int i = 0; i < WARM_UP_RUNS; ++i) {
+                // A failed run is reported as a bird without an id and with the error as label, instead of throwing
+                final Bird bird = detector.recognizeImageBird(classifierInput);
+                assertFalse(bird.getLabel(), bird.getId().isEmpty());
+            }
+            for (int i = 0; i < runs.length; ++i) {
+                final long startTime = System.nanoTime();
+                detector.recognizeImageBird(classifierInput);
+                runs[i] = System.nanoTime() - startTime;
+            }
+            results.add(new Result(ObjectDetector.MODEL_BIRD, isQuantized, useXnnpack, threads, runs));
+        } finally {
+            detector.destroy();
+        }
+    }
+
+    /**
+     * The JSON report of a benchmark run.
+     */
+    private static final class Report {
+        private String host;
+        private int cores;
+        private final List<Result> results = new ArrayList<>();
+        private final List<String> skipped = new ArrayList<>();
+    }
+
+    /**
+     * The latency percentiles, in milliseconds, and the throughput, in inferences per second, of a model in one
+     * configuration.
+     */
+    private static final class Result {
+        private final String model;
+        private final String input;
+        private final String backend;
+        private final int threads;
+        private final int runs;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double mean;
+        private final double throughput;
+
+        Result(final String model, final boolean isQuantized, final boolean useXnnpack, final int threads,
+               final long[] runNanos) {
+            final long[] sorted = Arrays.copyOf(runNanos, runNanos.length);
+            Arrays.sort(sorted);
+            final double totalMillis = Arrays.stream(sorted).sum() / NANOS_PER_MILLI;
+            this.model = model;
+            this.input = isQuantized ? "uint8" : "float32";
+            this.backend = useXnnpack ? "XNNPACK" : "NONE";
+            this.threads = threads;
+            this.runs = sorted.length;
+            this.p50 = percentile(sorted, 0.5);
+            this.p90 = percentile(sorted, 0.9);
+            this.p99 = percentile(sorted, 0.99);
+            this.mean = totalMillis / sorted.length;
+            this.throughput = sorted.length * 1000 / totalMillis;
+        }
+
+        /**
+         * Gets a percentile of sorted latencies with the nearest-rank method, in milliseconds.
+         */
+        private static double percentile(final long[] sortedNanos, final double percentile) {
+            return sortedNanos[Math.max(0, (int) Math.ceil(percentile * sortedNanos.length) - 1)] / NANOS_PER_MILLI;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%s (%s) %s x%d: p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, %.1f/s", model,
+                    input, backend, threads, p50, p90, p99, throughput);
+        }
+    }
+}
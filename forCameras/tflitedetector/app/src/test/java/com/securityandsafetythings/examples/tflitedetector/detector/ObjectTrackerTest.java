@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectTrackerTest {
+    private static final float TOLERANCE = 1e-4f;
+    private static final int CAPACITY = 4;
+    private static final int PERSON = 0;
+    private static final int BIRD = 15;
+    private static final long FRAME_MILLIS = 100;
+    private ObjectTracker mTracker;
+    private DetectionResult mDetections;
+    private DetectionResult mTracked;
+    private long[] mTrackIds;
+
+    @Before
+    public void setUp() {
+        mTracker = new ObjectTracker(CAPACITY);
+        mDetections = new DetectionResult(CAPACITY + 1);
+        mTracked = new DetectionResult(CAPACITY);
+        mTrackIds = new long[CAPACITY];
+    }
+
+    @Test
+    public void newDetectionsStartTracks() {
+        mDetections.add(0.1f, 0.1f, 0.2f, 0.2f, 0.9f, PERSON);
+        mDetections.add(0.5f, 0.5f, 0.7f, 0.8f, 0.6f, BIRD);
+        update(0);
+        assertEquals(2, mTracked.getCount());
+        assertEquals(1, mTrackIds[0]);
+        assertEquals(2, mTrackIds[1]);
+        assertBox(0, 0.1f, 0.1f, 0.2f, 0.2f);
+        assertBox(1, 0.5f, 0.5f, 0.7f, 0.8f);
+        assertEquals(0.9f, mTracked.getScore(0), TOLERANCE);
+        assertEquals(BIRD, mTracked.getClassId(1));
+    }
+
+    @Test
+    public void idsStayWithTheirObjects() {
+        for (int frame = 0; frame < 10; ++frame) {
+            final float offset = frame * 0.01f;
+            // The detections come in a different order on every other frame
+            if (frame % 2 == 0) {
+                mDetections.add(0.1f + offset, 0.1f, 0.3f + offset, 0.3f, 0.9f, PERSON);
+                mDetections.add(0.6f, 0.6f - offset, 0.8f, 0.8f - offset, 0.8f, PERSON);
+            } else {
+                mDetections.add(0.6f, 0.6f - offset, 0.8f, 0.8f - offset, 0.8f, PERSON);
+                mDetections.add(0.1f + offset, 0.1f, 0.3f + offset, 0.3f, 0.9f, PERSON);
+            }
+            update(frame * FRAME_MILLIS);
+            assertEquals(2, mTracked.getCount());
+            for (int i = 0; i < 2; ++i) {
+                assertEquals(mTracked.getLeft(i) < 0.5f ? 1 : 2, mTrackIds[i]);
+            }
+        }
+    }
+
+    @Test
+    public void stationaryObjectsStayInPlace() {
+        mDetections.add(0.2f, 0.3f, 0.4f, 0.6f, 0.9f, PERSON);
+        update(0);
+        mDetections.add(0.2f, 0.3f, 0.4f, 0.6f, 0.7f, PERSON);
+        update(FRAME_MILLIS);
+        mTracker.report(10 * FRAME_MILLIS, mTracked, mTrackIds);
+        assertEquals(1, mTracked.getCount());
+        assertBox(0, 0.2f, 0.3f, 0.4f, 0.6f);
+        // The score is that of the latest detection
+        assertEquals(0.7f, mTracked.getScore(0), TOLERANCE);
+    }
+
+    @Test
+    public void movingObjectsAreExtrapolated() {
+        // The object moves right by 0.01 every frame
+        long time = 0;
+        for (int frame = 0; frame < 20; ++frame) {
+            time = frame * FRAME_MILLIS;
+            final float left = 0.1f + frame * 0.01f;
+            mDetections.add(left, 0.4f, left + 0.2f, 0.6f, 0.9f, PERSON);
+            update(time);
+        }
+        final float lastLeft = mTracked.getLeft(0);
+        mTracker.report(time + FRAME_MILLIS / 2, mTracked, mTrackIds);
+        assertEquals(1, mTracked.getCount());
+        assertTrue(mTracked.getLeft(0) > lastLeft);
+        assertEquals(0.1f + 19.5f * 0.01f, mTracked.getLeft(0), 0.002f);
+        assertEquals(0.2f, mTracked.getRight(0) - mTracked.getLeft(0), 0.002f);
+        assertEquals(0.4f, mTracked.getTop(0), 0.002f);
+    }
+
+    @Test
+    public void shrinkingBoxesDoNotTurnInsideOut() {
+        for (int frame = 0; frame < 5; ++frame) {
+            final float size = 0.4f - frame * 0.05f;
+            mDetections.add(0.5f - size / 2, 0.5f - size / 2, 0.5f + size / 2, 0.5f + size / 2, 0.9f, PERSON);
+            update(frame * FRAME_MILLIS);
+        }
+        mTracker.report(1000 * FRAME_MILLIS, mTracked, mTrackIds);
+        assertEquals(1, mTracked.getCount());
+        assertEquals(mTracked.getLeft(0), mTracked.getRight(0), TOLERANCE);
+        assertEquals(mTracked.getTop(0), mTracked.getBottom(0), TOLERANCE);
+    }
+
+    @Test
+    public void missedTracksAreKeptForOneFrame() {
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(0);
+        // Not reported while it is missed, but still known
+        update(FRAME_MILLIS);
+        assertEquals(0, mTracked.getCount());
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(2 * FRAME_MILLIS);
+        assertEquals(1, mTracked.getCount());
+        assertEquals(1, mTrackIds[0]);
+        // Dropped after two consecutive misses
+        update(3 * FRAME_MILLIS);
+        update(4 * FRAME_MILLIS);
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(5 * FRAME_MILLIS);
+        assertEquals(1, mTracked.getCount());
+        assertEquals(2, mTrackIds[0]);
+    }
+
+    @Test
+    public void tracksOnlyMatchDetectionsOfTheirClass() {
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(0);
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, BIRD);
+        update(FRAME_MILLIS);
+        assertEquals(1, mTracked.getCount());
+        assertEquals(2, mTrackIds[0]);
+        assertEquals(BIRD, mTracked.getClassId(0));
+    }
+
+    @Test
+    public void tracksOnlyMatchOverlappingDetections() {
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(0);
+        // An IoU of 0.6 matches, while one of about 0.1 starts a new track
+        mDetections.add(0.15f, 0.1f, 0.35f, 0.3f, 0.9f, PERSON);
+        update(FRAME_MILLIS);
+        assertEquals(1, mTrackIds[0]);
+        mDetections.add(0.3f, 0.1f, 0.5f, 0.3f, 0.9f, PERSON);
+        update(2 * FRAME_MILLIS);
+        assertEquals(1, mTracked.getCount());
+        assertNotEquals(1, mTrackIds[0]);
+    }
+
+    @Test
+    public void bestOverlapWins() {
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(0);
+        // Both detections overlap the track, the closer one keeps its id
+        mDetections.add(0.16f, 0.1f, 0.36f, 0.3f, 0.9f, PERSON);
+        mDetections.add(0.12f, 0.1f, 0.32f, 0.3f, 0.8f, PERSON);
+        update(FRAME_MILLIS);
+        assertEquals(2, mTracked.getCount());
+        for (int i = 0; i < 2; ++i) {
+            assertEquals(mTracked.getScore(i) < 0.85f ? 1 : 2, mTrackIds[i]);
+        }
+    }
+
+    @Test
+    public void detectionsBeyondTheCapacityAreNotTracked() {
+        for (int i = 0; i <= CAPACITY; ++i) {
+            mDetections.add(i * 0.2f, 0.1f, i * 0.2f + 0.1f, 0.2f, 0.9f, PERSON);
+        }
+        update(0);
+        assertEquals(CAPACITY, mTracked.getCount());
+        final DetectionResult small = new DetectionResult(2);
+        mTracker.report(0, small, mTrackIds);
+        assertEquals(2, small.getCount());
+    }
+
+    @Test
+    public void clearDropsAllTracks() {
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(0);
+        mTracker.clear();
+        mTracker.report(0, mTracked, mTrackIds);
+        assertEquals(0, mTracked.getCount());
+        mDetections.add(0.1f, 0.1f, 0.3f, 0.3f, 0.9f, PERSON);
+        update(FRAME_MILLIS);
+        // Ids are never reused
+        assertEquals(2, mTrackIds[0]);
+    }
+
+    /**
+     * Updates the tracker with the detections, reports the tracks at the same time and clears the detections.
+     */
+    private void update(final long time) {
+        mTracker.update(mDetections, time);
+        mTracker.report(time, mTracked, mTrackIds);
+        mDetections.clear();
+    }
+
+    private void assertBox(final int index, final float left, final float top, final float right, final float bottom) {
+        assertEquals(left, mTracked.getLeft(index), TOLERANCE);
+        assertEquals(top, mTracked.getTop(index), TOLERANCE);
+        assertEquals(right, mTracked.getRight(index), TOLERANCE);
+        assertEquals(bottom, mTracked.getBottom(index), TOLERANCE);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import android.graphics.RectF;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time the {@link AnchorDecoder} and the {@link PostProcessor} take to turn the outputs of an SSD model
+ * with 300x300 inputs into detections, on the host JVM. Both are pure Java, so no model is needed.
+ * <p>
+ * For the outputs of a model with a post-processing operator, the {@code PostProcessor} is compared with the path it
+ * replaced, which created a {@link Recognition} for every output slot and dropped those below the minimum confidence
+ * afterwards, when the frame was annotated.
+ */
+public class PostProcessingBenchmark {
+    private static final int INPUT_SIZE = 300;
+    // The 90 COCO classes and the background
+    private static final int NUM_CLASSES = 91;
+    private static final int MAX_DETECTIONS = 10;
+    private static final float MIN_CONFIDENCE = 0.5f;
+    private static final float QUANTIZATION_SCALE = 0.1f;
+    private static final int ZERO_POINT = 128;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int FRAMES = 1000;
+
+    @Test
+    public void decodeAndSuppress() {
+        final float[] anchors = AnchorDecoder.createSsdAnchors(INPUT_SIZE);
+        final AnchorDecoder decoder = new AnchorDecoder(anchors, NUM_CLASSES, QUANTIZATION_SCALE, ZERO_POINT,
+                QUANTIZATION_SCALE, ZERO_POINT);
+        fillOutputs(decoder, new Random(1));
+        final PostProcessor postProcessor = new PostProcessor(decoder.getNumAnchors(), MAX_DETECTIONS);
+        postProcessor.setScoreThreshold(0.5f);
+        final DetectionResult result = new DetectionResult(MAX_DETECTIONS);
+        for (int i = 0; i < WARM_UP_FRAMES; ++i) {
+            run(decoder, postProcessor, result);
+        }
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            run(decoder, postProcessor, result);
+        }
+        final double micros = (System.nanoTime() - startTime) / 1e3 / FRAMES;
+        System.out.printf("Decoded %d anchors into %d detections in %.1f us per frame%n", decoder.getNumAnchors(),
+                result.getCount(), micros);
+        assertTrue(result.getCount() > 0);
+    }
+
+    @Test
+    public void postProcessedOutputsAgainstRecognitionPerSlot() {
+        final Random random = new Random(1);
+        final float[][] locations = new float[MAX_DETECTIONS][4];
+        final float[] classes = new float[MAX_DETECTIONS];
+        final float[] scores = new float[MAX_DETECTIONS];
+        for (int i = 0; i < MAX_DETECTIONS; ++i) {
+            // Side by side boxes in [top, left, bottom, right] order, so that none of them is suppressed
+            final float left = i / (float) MAX_DETECTIONS;
+            locations[i] = new float[]{0.2f, left, 0.6f, left + 0.08f};
+            classes[i] = random.nextInt(NUM_CLASSES);
+            scores[i] = random.nextFloat();
+        }
+        final List<String> labels = new ArrayList<>();
+        for (int i = 0; i < NUM_CLASSES; ++i) {
+            labels.add("label " + i);
+        }
+        final PostProcessor postProcessor = new PostProcessor(MAX_DETECTIONS, MAX_DETECTIONS);
+        postProcessor.setScoreThreshold(MIN_CONFIDENCE);
+        final DetectionResult result = new DetectionResult(MAX_DETECTIONS);
+        int baselineCount = 0;
+        for (int i = 0; i < WARM_UP_FRAMES; ++i) {
+            baselineCount = runBaseline(locations, classes, scores, labels).size();
+            runPostProcessor(locations, classes, scores, postProcessor, result);
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            baselineCount = runBaseline(locations, classes, scores, labels).size();
+        }
+        final double baselineMicros = (System.nanoTime() - startTime) / 1e3 / FRAMES;
+        startTime = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            runPostProcessor(locations, classes, scores, postProcessor, result);
+        }
+        final double postProcessorMicros = (System.nanoTime() - startTime) / 1e3 / FRAMES;
+        System.out.printf("%d slots into %d detections: Recognition per slot %.2f us, PostProcessor %.2f us per "
+                + "frame%n", MAX_DETECTIONS, result.getCount(), baselineMicros, postProcessorMicros);
+        assertEquals(baselineCount, result.getCount());
+    }
+
+    /**
+     * Creates a {@code Recognition} for every slot, like {@code ObjectDetector.recognizeImage} did, then keeps those
+     * above the minimum confidence, like the annotation of the frame did.
+     */
+    private static List<Recognition> runBaseline(final float[][] locations, final float[] classes,
+                                                 final float[] scores, final List<String> labels) {
+        final List<Recognition> recognitions = new ArrayList<>(MAX_DETECTIONS);
+        for (int i = 0; i < MAX_DETECTIONS; ++i) {
+            recognitions.add(new Recognition(String.valueOf(i), labels.get((int) classes[i]), scores[i],
+                    new RectF(locations[i][1], locations[i][0], locations[i][3], locations[i][2])));
+        }
+        final List<Recognition> shown = new ArrayList<>();
+        for (Recognition recognition : recognitions) {
+            if (recognition.getConfidence() >= MIN_CONFIDENCE) {
+                shown.add(recognition);
+            }
+        }
+        return shown;
+    }
+
+    /**
+     * Adds every slot to the {@code PostProcessor}, like {@code ObjectDetector.detect} does for a model with a
+     * post-processing operator.
+     */
+    private static void runPostProcessor(final float[][] locations, final float[] classes, final float[] scores,
+                                         final PostProcessor postProcessor, final DetectionResult result) {
+        postProcessor.clear();
+        for (int i = 0; i < MAX_DETECTIONS; ++i) {
+            postProcessor.add(locations[i][1], locations[i][0], locations[i][3], locations[i][2], scores[i],
+                    (int) classes[i]);
+        }
+        postProcessor.process(result);
+    }
+
+    private static void run(final AnchorDecoder decoder, final PostProcessor postProcessor,
+                            final DetectionResult result) {
+        postProcessor.clear();
+        decoder.decodeInto(postProcessor);
+        postProcessor.process(result);
+    }
+
+    /**
+     * Fills the outputs like a frame with a few objects: small box offsets, and about one anchor in a hundred with a
+     * class above the threshold.
+     */
+    private static void fillOutputs(final AnchorDecoder decoder, final Random random) {
+        final ByteBuffer boxes = decoder.getBoxEncodings();
+        for (int i = 0; i < boxes.capacity(); ++i) {
+            boxes.put(i, (byte) (ZERO_POINT - 5 + random.nextInt(11)));
+        }
+        final ByteBuffer logits = decoder.getClassLogits();
+        for (int i = 0; i < logits.capacity(); ++i) {
+            // Logits from -5.0 to -1.0
+            logits.put(i, (byte) (ZERO_POINT - 50 + random.nextInt(41)));
+        }
+        for (int anchor = 0; anchor < decoder.getNumAnchors(); anchor += 100) {
+            // A logit of 2.0
+            logits.put(anchor * NUM_CLASSES + 1 + random.nextInt(NUM_CLASSES - 1), (byte) (ZERO_POINT + 20));
+        }
+    }
+}
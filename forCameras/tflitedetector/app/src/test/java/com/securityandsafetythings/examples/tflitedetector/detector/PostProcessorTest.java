@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.DetectionResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PostProcessorTest {
+    private static final float TOLERANCE = 1e-4f;
+    private static final int MAX_CANDIDATES = 8;
+    private static final int MAX_DETECTIONS = 4;
+    private PostProcessor mPostProcessor;
+    private DetectionResult mResult;
+
+    @Before
+    public void setUp() {
+        mPostProcessor = new PostProcessor(MAX_CANDIDATES, MAX_DETECTIONS);
+        mPostProcessor.setScoreThreshold(0.5f);
+        mResult = new DetectionResult(MAX_DETECTIONS);
+    }
+
+    @Test
+    public void rejectsCandidatesBelowTheThreshold() {
+        assertFalse(mPostProcessor.add(0.0f, 0.0f, 0.1f, 0.1f, 0.49f, 0));
+        assertTrue(mPostProcessor.add(0.0f, 0.0f, 0.1f, 0.1f, 0.5f, 0));
+        mPostProcessor.process(mResult);
+        assertEquals(1, mResult.getCount());
+        assertEquals(0.5f, mResult.getScore(0), TOLERANCE);
+    }
+
+    @Test
+    public void rejectsCandidatesBeyondTheCapacity() {
+        for (int i = 0; i < MAX_CANDIDATES; ++i) {
+            assertTrue(mPostProcessor.add(i * 0.1f, 0.0f, i * 0.1f + 0.05f, 0.05f, 0.9f, 0));
+        }
+        assertFalse(mPostProcessor.add(0.9f, 0.0f, 0.95f, 0.05f, 0.9f, 0));
+    }
+
+    @Test
+    public void ordersDetectionsByDescendingScore() {
+        mPostProcessor.add(0.0f, 0.0f, 0.1f, 0.1f, 0.6f, 0);
+        mPostProcessor.add(0.2f, 0.0f, 0.3f, 0.1f, 0.9f, 0);
+        mPostProcessor.add(0.4f, 0.0f, 0.5f, 0.1f, 0.7f, 0);
+        mPostProcessor.process(mResult);
+        assertEquals(3, mResult.getCount());
+        assertEquals(0.9f, mResult.getScore(0), TOLERANCE);
+        assertEquals(0.7f, mResult.getScore(1), TOLERANCE);
+        assertEquals(0.6f, mResult.getScore(2), TOLERANCE);
+        assertEquals(0.2f, mResult.getLeft(0), TOLERANCE);
+        assertEquals(0.3f, mResult.getRight(0), TOLERANCE);
+    }
+
+    @Test
+    public void suppressesOverlappingBoxesOfTheSameClass() {
+        // IoU of 0.6 / 1.0 = 0.6 with the higher scoring box
+        mPostProcessor.add(0.0f, 0.0f, 0.8f, 1.0f, 0.9f, 0);
+        mPostProcessor.add(0.2f, 0.0f, 1.0f, 1.0f, 0.8f, 0);
+        mPostProcessor.process(mResult);
+        assertEquals(1, mResult.getCount());
+        assertEquals(0.9f, mResult.getScore(0), TOLERANCE);
+    }
+
+    @Test
+    public void keepsOverlappingBoxesOfOtherClasses() {
+        mPostProcessor.add(0.0f, 0.0f, 0.8f, 1.0f, 0.9f, 0);
+        mPostProcessor.add(0.2f, 0.0f, 1.0f, 1.0f, 0.8f, 1);
+        mPostProcessor.process(mResult);
+        assertEquals(2, mResult.getCount());
+        assertEquals(1, mResult.getClassId(1));
+    }
+
+    @Test
+    public void keepsBoxesBelowTheIouThreshold() {
+        mPostProcessor.setIouThreshold(0.7f);
+        mPostProcessor.add(0.0f, 0.0f, 0.8f, 1.0f, 0.9f, 0);
+        mPostProcessor.add(0.2f, 0.0f, 1.0f, 1.0f, 0.8f, 0);
+        mPostProcessor.process(mResult);
+        assertEquals(2, mResult.getCount());
+    }
+
+    @Test
+    public void overlapOfSmallerSuppressesCutOffBoxes() {
+        // A box cut off by a tile border, lying inside the whole box: IoU 0.25, but fully covered
+        mPostProcessor.add(0.0f, 0.0f, 1.0f, 1.0f, 0.9f, 0);
+        mPostProcessor.add(0.0f, 0.0f, 0.25f, 1.0f, 0.8f, 0);
+        mPostProcessor.process(mResult);
+        assertEquals(2, mResult.getCount());
+        mPostProcessor.setOverlapOfSmaller(true);
+        mPostProcessor.process(mResult);
+        assertEquals(1, mResult.getCount());
+    }
+
+    @Test
+    public void keepsAtMostMaxDetections() {
+        for (int i = 0; i < MAX_CANDIDATES; ++i) {
+            mPostProcessor.add(i * 0.1f, 0.0f, i * 0.1f + 0.05f, 0.05f, 0.5f + i * 0.05f, 0);
+        }
+        mPostProcessor.process(mResult);
+        assertEquals(MAX_DETECTIONS, mResult.getCount());
+        // The highest scores win
+        assertEquals(0.85f, mResult.getScore(0), TOLERANCE);
+        assertEquals(0.7f, mResult.getScore(MAX_DETECTIONS - 1), TOLERANCE);
+    }
+
+    @Test
+    public void clearDropsTheCandidatesOfThePreviousFrame() {
+        mPostProcessor.add(0.0f, 0.0f, 0.1f, 0.1f, 0.9f, 0);
+        mPostProcessor.clear();
+        mPostProcessor.process(mResult);
+        assertEquals(0, mResult.getCount());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Measures the time the {@link InputPreprocessor} takes to fill the input of the three detector models from a frame,
+ * on the host JVM, with 224x224 and 300x300 inputs. The shared pass fills the input once and hands the same buffer to
+ * every model. The per-model passes are the path it replaced, where every model read the pixels of the frame again,
+ * as {@code Bitmap.getPixels} did, and ran its own pass over them.
+ */
+public class PreprocessingBenchmark {
+    private static final int MODELS = 3;
+    private static final int WARM_UP_FRAMES = 200;
+    private static final int FRAMES = 1000;
+
+    @Test
+    public void sharedPreprocessing224() {
+        measure(224);
+    }
+
+    @Test
+    public void sharedPreprocessing300() {
+        measure(300);
+    }
+
+    private static void measure(final int inputSize) {
+        final int[] frame = createFrame(inputSize, new Random(1));
+        final int[] pixels = new int[frame.length];
+        final InputPreprocessor preprocessor = new InputPreprocessor(inputSize, true);
+        for (int i = 0; i < WARM_UP_FRAMES; ++i) {
+            runShared(preprocessor, frame, pixels);
+            runPerModel(preprocessor, frame, pixels);
+        }
+        long startTime = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            runShared(preprocessor, frame, pixels);
+        }
+        final double sharedMicros = (System.nanoTime() - startTime) / 1e3 / FRAMES;
+        startTime = System.nanoTime();
+        for (int i = 0; i < FRAMES; ++i) {
+            runPerModel(preprocessor, frame, pixels);
+        }
+        final double perModelMicros = (System.nanoTime() - startTime) / 1e3 / FRAMES;
+        System.out.printf(Locale.ROOT, "%dx%d: shared %.1f us, per model %.1f us per frame, saving %.1f us%n",
+                inputSize, inputSize, sharedMicros, perModelMicros, perModelMicros - sharedMicros);
+        assertTrue(sharedMicros < perModelMicros);
+        // Both paths leave the same input for the models
+        final ByteBuffer shared = runShared(preprocessor, frame, pixels);
+        final byte[] expected = new byte[shared.capacity()];
+        shared.get(expected);
+        final ByteBuffer perModel = runPerModel(preprocessor, frame, pixels);
+        for (byte value : expected) {
+            assertEquals(value, perModel.get());
+        }
+    }
+
+    /**
+     * Reads the pixels of the frame and fills the input once, then hands it to every model.
+     */
+    private static ByteBuffer runShared(final InputPreprocessor preprocessor, final int[] frame, final int[] pixels) {
+        System.arraycopy(frame, 0, pixels, 0, frame.length);
+        final ByteBuffer input = preprocessor.process(pixels);
+        for (int model = 1; model < MODELS; ++model) {
+            input.rewind();
+        }
+        return input;
+    }
+
+    /**
+     * Reads the pixels of the frame and fills the input again for every model.
+     */
+    private static ByteBuffer runPerModel(final InputPreprocessor preprocessor, final int[] frame,
+                                          final int[] pixels) {
+        ByteBuffer input = null;
+        for (int model = 0; model < MODELS; ++model) {
+            System.arraycopy(frame, 0, pixels, 0, frame.length);
+            input = preprocessor.process(pixels);
+        }
+        return input;
+    }
+
+    private static int[] createFrame(final int inputSize, final Random random) {
+        final int[] frame = new int[inputSize * inputSize];
+        for (int i = 0; i < frame.length; ++i) {
+            frame[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return frame;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+
+package com.securityandsafetythings.examples.tflitedetector.detector;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the fused conversion of the {@link YuvInputConverter} with a pure-Java reference of the path it replaced:
+ * converting the whole frame to ARGB, cropping the center square, scaling it with bilinear filtering like
+ * {@code Bitmap.createScaledBitmap} and filling the input with the {@link InputPreprocessor}.
+ * <p>
+ * The two paths round at different steps, as the converter interpolates luma before converting to RGB and samples
+ * chroma at the nearest position. On a smooth frame every channel must therefore stay within
+ * {@link #MAX_DIFFERENCE} of the reference, and within {@link #MAX_MEAN_DIFFERENCE} on average, in 0 - 255 units.
+ */
+public class YuvInputConverterTest {
+    private static final int MAX_DIFFERENCE = 4;
+    private static final double MAX_MEAN_DIFFERENCE = 0.5;
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    // Padding at the end of every row, so that the row strides differ from the width
+    private static final int ROW_PADDING = 16;
+    // The center square crop of the frame, as computed by the InferenceStage
+    private static final int CROP_SIZE = Math.min(WIDTH, HEIGHT);
+    private static final int CROP_LEFT = (WIDTH - CROP_SIZE) / 2;
+    private static final int CROP_TOP = (HEIGHT - CROP_SIZE) / 2;
+    private static final int LUMA_ROW_STRIDE = WIDTH + ROW_PADDING;
+    // The chroma planes are interleaved, U first, with the pixel stride most cameras deliver
+    private static final int CHROMA_ROW_STRIDE = WIDTH + ROW_PADDING;
+    private static final int CHROMA_PIXEL_STRIDE = 2;
+    private final ByteBuffer mLuma = createLuma();
+    private final ByteBuffer mChroma = createChroma();
+
+    @Test
+    public void quantizedDetectorInputMatchesReference() {
+        assertMatchesReference(300, true);
+    }
+
+    @Test
+    public void floatDetectorInputMatchesReference() {
+        assertMatchesReference(300, false);
+    }
+
+    @Test
+    public void quantizedClassifierInputMatchesReference() {
+        assertMatchesReference(224, true);
+    }
+
+    @Test
+    public void floatClassifierInputMatchesReference() {
+        assertMatchesReference(224, false);
+    }
+
+    private void assertMatchesReference(final int inputSize, final boolean isQuantized) {
+        final YuvInputConverter converter =
+                new YuvInputConverter(null, CROP_LEFT, CROP_TOP, CROP_SIZE, CROP_SIZE, inputSize, isQuantized);
+        final ByteBuffer output = converter.allocateInputBuffer();
+        final ByteBuffer v = mChroma.duplicate();
+        v.position(1);
+        converter.convert(mLuma, LUMA_ROW_STRIDE, 1, mChroma, v.slice(), CHROMA_ROW_STRIDE, CHROMA_PIXEL_STRIDE,
+                output);
+        final ByteBuffer reference = new InputPreprocessor(inputSize, isQuantized).process(
+                scale(crop(toArgb()), inputSize));
+        final int values = inputSize * inputSize * ObjectDetector.CHANNELS;
+        double maxDifference = 0;
+        double totalDifference = 0;
+        for (int i = 0; i < values; ++i) {
+            final double difference = isQuantized
+                    ? Math.abs((output.get() & 0xff) - (reference.get() & 0xff))
+                    : Math.abs(output.getFloat() - reference.getFloat()) * InputPreprocessor.IMAGE_MED;
+            maxDifference = Math.max(maxDifference, difference);
+            totalDifference += difference;
+        }
+        final String message = String.format("%dx%d %s: max difference %.2f, mean difference %.3f", inputSize,
+                inputSize, isQuantized ? "uint8" : "float32", maxDifference, totalDifference / values);
+        assertTrue(message, maxDifference <= MAX_DIFFERENCE);
+        assertTrue(message, totalDifference / values <= MAX_MEAN_DIFFERENCE);
+    }
+
+    /**
+     * Creates a luma plane of smooth gradients and waves, within the BT.601 video range.
+     */
+    private static ByteBuffer createLuma() {
+        final ByteBuffer luma = ByteBuffer.allocateDirect(LUMA_ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final double value = 40 + 150.0 * x / WIDTH + 25 * Math.sin(x / 23.0) * Math.cos(y / 31.0);
+                luma.put(y * LUMA_ROW_STRIDE + x, (byte) Math.round(value));
+            }
+        }
+        return luma;
+    }
+
+    /**
+     * Creates interleaved U and V planes of smooth waves at half the resolution of the luma plane.
+     */
+    private static ByteBuffer createChroma() {
+        final ByteBuffer chroma = ByteBuffer.allocateDirect(CHROMA_ROW_STRIDE * HEIGHT / 2);
+        for (int y = 0; y < HEIGHT / 2; ++y) {
+            for (int x = 0; x < WIDTH / 2; ++x) {
+                final int index = y * CHROMA_ROW_STRIDE + x * CHROMA_PIXEL_STRIDE;
+                chroma.put(index, (byte) Math.round(128 + 40 * Math.sin(x / 47.0 + y / 53.0)));
+                chroma.put(index + 1, (byte) Math.round(128 + 40 * Math.cos(x / 41.0 - y / 37.0)));
+            }
+        }
+        return chroma;
+    }
+
+    /**
+     * Converts the whole frame to ARGB with the floating point BT.601 equations, every pixel taking the chroma of the
+     * 2x2 block it belongs to.
+     */
+    private int[] toArgb() {
+        final int[] pixels = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                final double luma = 1.164 * ((mLuma.get(y * LUMA_ROW_STRIDE + x) & 0xff) - 16);
+                final int chromaIndex = (y >> 1) * CHROMA_ROW_STRIDE + (x >> 1) * CHROMA_PIXEL_STRIDE;
+                final int u = (mChroma.get(chromaIndex) & 0xff) - 128;
+                final int v = (mChroma.get(chromaIndex + 1) & 0xff) - 128;
+                pixels[y * WIDTH + x] = argb(luma + 1.596 * v, luma - 0.391 * u - 0.813 * v, luma + 2.018 * u);
+            }
+        }
+        return pixels;
+    }
+
+    private static int[] crop(final int[] pixels) {
+        final int[] cropped = new int[CROP_SIZE * CROP_SIZE];
+        for (int y = 0; y < CROP_SIZE; ++y) {
+            System.arraycopy(pixels, (CROP_TOP + y) * WIDTH + CROP_LEFT, cropped, y * CROP_SIZE, CROP_SIZE);
+        }
+        return cropped;
+    }
+
+    /**
+     * Scales a square image with bilinear filtering, sampling the source at the center of every output pixel.
+     */
+    private static int[] scale(final int[] pixels, final int size) {
+        final int[] scaled = new int[size * size];
+        final double ratio = CROP_SIZE / (double) size;
+        for (int y = 0; y < size; ++y) {
+            final double sourceY = Math.max(0, (y + 0.5) * ratio - 0.5);
+            final int y0 = Math.min((int) sourceY, CROP_SIZE - 1);
+            final int y1 = Math.min(y0 + 1, CROP_SIZE - 1);
+            final double weightY = sourceY - y0;
+            for (int x = 0; x < size; ++x) {
+                final double sourceX = Math.max(0, (x + 0.5) * ratio - 0.5);
+                final int x0 = Math.min((int) sourceX, CROP_SIZE - 1);
+                final int x1 = Math.min(x0 + 1, CROP_SIZE - 1);
+                final double weightX = sourceX - x0;
+                final double[] channels = new double[3];
+                for (int c = 0; c < channels.length; ++c) {
+                    final int shift = 16 - 8 * c;
+                    final double top = channel(pixels[y0 * CROP_SIZE + x0], shift) * (1 - weightX)
+                            + channel(pixels[y0 * CROP_SIZE + x1], shift) * weightX;
+                    final double bottom = channel(pixels[y1 * CROP_SIZE + x0], shift) * (1 - weightX)
+                            + channel(pixels[y1 * CROP_SIZE + x1], shift) * weightX;
+                    channels[c] = top * (1 - weightY) + bottom * weightY;
+                }
+                scaled[y * size + x] = argb(channels[0], channels[1], channels[2]);
+            }
+        }
+        return scaled;
+    }
+
+    private static int channel(final int pixel, final int shift) {
+        return (pixel >> shift) & 0xff;
+    }
+
+    private static int argb(final double red, final double green, final double blue) {
+        return 0xff000000 | clamp(red) << 16 | clamp(green) << 8 | clamp(blue);
+    }
+
+    private static int clamp(final double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.pipeline;
+
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TileSchedulerTest {
+    private static final long BUDGET_MILLIS = 100;
+    private static final long BACKOFF_MILLIS = 30_000;
+    private static final int MIN_SAMPLES = 5;
+    private TileScheduler mScheduler;
+    // Layouts of 1, 4 and 9 tiles
+    private FrameGeometry mGeometry;
+
+    @Before
+    public void setUp() {
+        mScheduler = new TileScheduler(BUDGET_MILLIS);
+        mGeometry = createGeometry(1, 4, 9);
+    }
+
+    @Test
+    public void noLayoutBeforeTheFirstFrame() {
+        assertEquals(0, mScheduler.getTileCount());
+        assertEquals(BUDGET_MILLIS, mScheduler.getBudgetMillis());
+    }
+
+    @Test
+    public void startsWithTheSmallestLayout() {
+        assertEquals(0, mScheduler.select(mGeometry));
+        assertEquals(1, mScheduler.getTileCount());
+    }
+
+    @Test
+    public void stepsUpOnceEnoughFramesWereMeasured() {
+        mScheduler.select(mGeometry);
+        // 10 ms per tile is estimated at 40 ms for 4 tiles, within 75% of the budget
+        detect(MIN_SAMPLES - 1, 10, 0);
+        assertEquals(0, mScheduler.select(mGeometry));
+        detect(1, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+        assertEquals(4, mScheduler.getTileCount());
+        // 10 ms per tile is estimated at 90 ms for 9 tiles, above 75% of the budget
+        detect(MIN_SAMPLES * 2, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void doesNotStepUpWithoutMargin() {
+        mScheduler.select(mGeometry);
+        // Estimated at 80 ms for 4 tiles, above 75% of the budget
+        detect(MIN_SAMPLES * 2, 20, 0);
+        assertEquals(0, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void stepsDownAndBacksOffWhenOverBudget() {
+        mScheduler.select(mGeometry);
+        detect(MIN_SAMPLES, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+        detect(MIN_SAMPLES, 150, 1_000);
+        assertEquals(0, mScheduler.select(mGeometry));
+        // The larger layout is not tried again before the back-off ends, however fast the smaller one is
+        detect(MIN_SAMPLES * 2, 10, 1_000 + BACKOFF_MILLIS - 1);
+        assertEquals(0, mScheduler.select(mGeometry));
+        detect(1, 10, 1_000 + BACKOFF_MILLIS);
+        assertEquals(1, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void neverStepsBelowTheSmallestLayout() {
+        mScheduler.select(mGeometry);
+        detect(MIN_SAMPLES * 2, 500, 0);
+        assertEquals(0, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void singleSlowFrameDoesNotStepDown() {
+        mScheduler.select(mGeometry);
+        detect(MIN_SAMPLES, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+        final TileLayout layout = mGeometry.getTileLayouts().get(1);
+        for (int i = 0; i < MIN_SAMPLES - 1; ++i) {
+            mScheduler.onDetected(mGeometry, layout, TimeUnit.MILLISECONDS.toNanos(50), 0);
+        }
+        // The average moves a fifth of the way to the slow frame: 50 + (200 - 50) / 5 = 80 ms
+        mScheduler.onDetected(mGeometry, layout, TimeUnit.MILLISECONDS.toNanos(200), 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void framesOfOutdatedLayoutsAreIgnored() {
+        mScheduler.select(mGeometry);
+        final TileLayout smallest = mGeometry.getTileLayouts().get(0);
+        detect(MIN_SAMPLES, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+        // Frames split before the step up would step down again if they counted
+        for (int i = 0; i < MIN_SAMPLES; ++i) {
+            mScheduler.onDetected(mGeometry, smallest, TimeUnit.MILLISECONDS.toNanos(500), 0);
+        }
+        final FrameGeometry other = createGeometry(1, 4);
+        for (int i = 0; i < MIN_SAMPLES; ++i) {
+            mScheduler.onDetected(other, other.getTileLayouts().get(0), TimeUnit.MILLISECONDS.toNanos(500), 0);
+        }
+        assertEquals(1, mScheduler.select(mGeometry));
+    }
+
+    @Test
+    public void newGeometryStartsOver() {
+        mScheduler.select(mGeometry);
+        detect(MIN_SAMPLES, 10, 0);
+        assertEquals(1, mScheduler.select(mGeometry));
+        final FrameGeometry other = createGeometry(1, 2);
+        assertEquals(0, mScheduler.select(other));
+        assertEquals(1, mScheduler.getTileCount());
+    }
+
+    /**
+     * Records frames of the current layout that took the given time per tile.
+     */
+    private void detect(final int frames, final long millisPerTile, final long now) {
+        final TileLayout layout = mGeometry.getTileLayouts().get(mScheduler.select(mGeometry));
+        final long latencyNanos = TimeUnit.MILLISECONDS.toNanos(millisPerTile * layout.size());
+        for (int i = 0; i < frames; ++i) {
+            mScheduler.onDetected(mGeometry, layout, latencyNanos, now);
+        }
+    }
+
+    private static FrameGeometry createGeometry(final int... tileCounts) {
+        final List<TileLayout> layouts = new ArrayList<>(tileCounts.length);
+        for (int tileCount : tileCounts) {
+            layouts.add(new TileLayout(Collections.nCopies(tileCount, new Rect(0, 0, 1, 1)), new Rect(0, 0, 1, 1)));
+        }
+        return new FrameGeometry(null, null, 0, 0, null, null, true, layouts);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest;
+
+import android.graphics.RectF;
+
+import com.securityandsafetythings.examples.tflitedetector.detector.model.Recognition;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionRecordDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.DetectionsDTO;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DetectionLogTest {
+    private static final String MODEL = "detector";
+    private static final long TIMESTAMP = 1_600_000_000_000L;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new DetectionLog(0, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPages() {
+        new DetectionLog(1, 0);
+    }
+
+    @Test
+    public void emptyHistoryReadsNothing() {
+        final DetectionLog log = new DetectionLog(4, 4);
+        assertPage(log.since(0), 0, 0);
+        assertTrue(log.append(TIMESTAMP, MODEL, Collections.emptyList()).isEmpty());
+        assertPage(log.since(0), 0, 0);
+    }
+
+    @Test
+    public void appendNumbersDetectionsInOrder() {
+        final DetectionLog log = new DetectionLog(8, 8);
+        final List<DetectionRecordDTO> first = log.append(TIMESTAMP, MODEL, createDetections(2));
+        final List<DetectionRecordDTO> second = log.append(TIMESTAMP + 1, MODEL, createDetections(1));
+        assertEquals(2, first.size());
+        assertEquals(1, first.get(0).getSequenceNumber());
+        assertEquals(2, first.get(1).getSequenceNumber());
+        assertEquals(3, second.get(0).getSequenceNumber());
+        final DetectionRecordDTO record = first.get(1);
+        assertEquals(TIMESTAMP, record.getTimestamp());
+        assertEquals(MODEL, record.getModel());
+        assertEquals(1, record.getTrackId());
+        assertEquals("label 1", record.getLabel());
+        assertEquals(0.5f, record.getScore(), 0);
+        assertEquals(TIMESTAMP + 1, second.get(0).getTimestamp());
+    }
+
+    @Test
+    public void cursorReadsOnlyLaterDetections() {
+        final DetectionLog log = new DetectionLog(8, 8);
+        log.append(TIMESTAMP, MODEL, createDetections(3));
+        assertPage(log.since(0), 3, 0, 1, 2, 3);
+        assertPage(log.since(3), 3, 0);
+        log.append(TIMESTAMP, MODEL, createDetections(2));
+        assertPage(log.since(3), 5, 0, 4, 5);
+        assertPage(log.since(4), 5, 0, 5);
+    }
+
+    @Test
+    public void pagesAreLimited() {
+        final DetectionLog log = new DetectionLog(10, 4);
+        log.append(TIMESTAMP, MODEL, createDetections(7));
+        final DetectionsDTO first = log.since(0);
+        assertPage(first, 4, 0, 1, 2, 3, 4);
+        assertPage(log.since(first.getNext()), 7, 0, 5, 6, 7);
+    }
+
+    @Test
+    public void evictionReplacesOldestDetections() {
+        final DetectionLog log = new DetectionLog(4, 4);
+        for (int i = 0; i < 3; ++i) {
+            log.append(TIMESTAMP, MODEL, createDetections(2));
+        }
+        assertPage(log.since(0), 6, 0, 3, 4, 5, 6);
+        assertPage(log.since(2), 6, 0, 3, 4, 5, 6);
+        assertPage(log.since(4), 6, 0, 5, 6);
+        assertPage(log.since(6), 6, 0);
+    }
+
+    @Test
+    public void readerBehindHistoryIsToldWhatItMissed() {
+        final DetectionLog log = new DetectionLog(4, 2);
+        log.append(TIMESTAMP, MODEL, createDetections(10));
+        assertPage(log.since(1), 8, 5, 7, 8);
+        assertPage(log.since(8), 10, 0, 9, 10);
+        // The whole history is read without missing anything
+        assertPage(log.since(0), 8, 0, 7, 8);
+    }
+
+    @Test
+    public void cursorAheadOfHistoryReadsWholeHistory() {
+        final DetectionLog log = new DetectionLog(4, 4);
+        log.append(TIMESTAMP, MODEL, createDetections(2));
+        assertPage(log.since(3), 2, 0, 1, 2);
+        log.append(TIMESTAMP, MODEL, createDetections(4));
+        assertPage(log.since(100), 6, 0, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void slotsWrapAroundCapacity() {
+        final DetectionLog log = new DetectionLog(3, 3);
+        long cursor = 0;
+        for (int frame = 0; frame < 10; ++frame) {
+            log.append(TIMESTAMP + frame, MODEL, createDetections(2));
+            final DetectionsDTO page = log.since(cursor);
+            assertEquals(0, page.getMissed());
+            for (DetectionRecordDTO record : page.getDetections()) {
+                assertEquals(++cursor, record.getSequenceNumber());
+                assertEquals(TIMESTAMP + (record.getSequenceNumber() - 1) / 2, record.getTimestamp());
+            }
+            assertEquals(cursor, page.getNext());
+        }
+        assertEquals(20, cursor);
+    }
+
+    private static void assertPage(final DetectionsDTO page, final long next, final long missed,
+                                   final long... sequenceNumbers) {
+        assertEquals(sequenceNumbers.length, page.getDetections().size());
+        for (int i = 0; i < sequenceNumbers.length; ++i) {
+            assertEquals(sequenceNumbers[i], page.getDetections().get(i).getSequenceNumber());
+        }
+        assertEquals(next, page.getNext());
+        assertEquals(missed, page.getMissed());
+    }
+
+    private static List<Recognition> createDetections(final int count) {
+        final List<Recognition> detections = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            detections.add(new Recognition(Integer.toString(i), "label " + i, 0.5f, new RectF()));
+        }
+        return detections;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.rest;
+
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InferenceDTO;
+import com.securityandsafetythings.examples.tflitedetector.rest.dtos.InfoImageDTO;
+import com.securityandsafetythings.web_components.webserver.utilities.TaggedEntity;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameSnapshotTest {
+    private static final int UPDATES_PER_PUBLISHER = 20_000;
+    private static final int READERS = 2;
+
+    @Test
+    public void emptyHasNoFrame() {
+        assertEquals(0, FrameSnapshot.EMPTY.getSequenceNumber());
+        assertNull(FrameSnapshot.EMPTY.getImage());
+        assertNull(FrameSnapshot.EMPTY.getInferenceDTO());
+        assertNull(FrameSnapshot.EMPTY.getInfoImageDTO());
+    }
+
+    @Test
+    public void imageAndStatisticsAreTaggedWithTheirFrame() {
+        final byte[] image = new byte[1];
+        final InferenceDTO inferenceDTO = createInferenceDTO(1);
+        final FrameSnapshot snapshot = FrameSnapshot.EMPTY.withImageAndStatistics(image, inferenceDTO);
+        assertEquals(1, snapshot.getSequenceNumber());
+        assertSame(image, snapshot.getImage().getEntity());
+        assertSame(inferenceDTO, snapshot.getInferenceDTO().getEntity());
+        assertEquals(TaggedEntity.forSequenceNumber(1, image).getEntityTag(), snapshot.getImage().getEntityTag());
+        assertEquals(snapshot.getImage().getEntityTag(), snapshot.getInferenceDTO().getEntityTag());
+    }
+
+    @Test
+    public void missingStatisticsAreNotTagged() {
+        final FrameSnapshot snapshot = FrameSnapshot.EMPTY.withImageAndStatistics(new byte[1], null);
+        assertEquals(1, snapshot.getSequenceNumber());
+        assertNull(snapshot.getInferenceDTO());
+    }
+
+    @Test
+    public void labelKeepsStatisticsAndStatisticsKeepLabel() {
+        final InferenceDTO inferenceDTO = createInferenceDTO(1);
+        final InfoImageDTO label = new InfoImageDTO("bird");
+        final FrameSnapshot first = FrameSnapshot.EMPTY.withImageAndStatistics(new byte[1], inferenceDTO);
+        final FrameSnapshot second = first.withInfoForImage(new byte[1], label);
+        assertEquals(2, second.getSequenceNumber());
+        assertSame(first.getInferenceDTO(), second.getInferenceDTO());
+        assertSame(label, second.getInfoImageDTO());
+        final FrameSnapshot third = second.withImageAndStatistics(new byte[1], createInferenceDTO(3));
+        assertEquals(3, third.getSequenceNumber());
+        assertSame(label, third.getInfoImageDTO());
+        assertEquals(third.getImage().getEntityTag(), third.getInferenceDTO().getEntityTag());
+    }
+
+    /**
+     * Publishes from two threads into one reference, like the detector and the classifier do, while other threads
+     * read it. Every snapshot a reader gets must hold the image and the statistics or the label of the same update,
+     * and the sequence numbers must never go back or skip an update.
+     */
+    @Test
+    public void readersNeverSeeMixedFrames() throws Exception {
+        final byte[][] statisticsImages = new byte[UPDATES_PER_PUBLISHER][];
+        final InferenceDTO[] statistics = new InferenceDTO[UPDATES_PER_PUBLISHER];
+        final byte[][] labelImages = new byte[UPDATES_PER_PUBLISHER][];
+        final InfoImageDTO[] labels = new InfoImageDTO[UPDATES_PER_PUBLISHER];
+        for (int i = 0; i < UPDATES_PER_PUBLISHER; ++i) {
+            statisticsImages[i] = createImage(0, i);
+            statistics[i] = createInferenceDTO(i);
+            labelImages[i] = createImage(1, i);
+            labels[i] = new InfoImageDTO("label " + i);
+        }
+        final AtomicReference<FrameSnapshot> reference = new AtomicReference<>(FrameSnapshot.EMPTY);
+        final AtomicBoolean isPublishing = new AtomicBoolean(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(READERS + 2);
+        try {
+            final List<Future<Integer>> readers = new ArrayList<>();
+            for (int i = 0; i < READERS; ++i) {
+                readers.add(executor.submit(() -> read(reference, isPublishing, statisticsImages, statistics,
+                        labelImages, labels)));
+            }
+            final Future<?> statisticsPublisher = executor.submit(() -> {
+                for (int i = 0; i < UPDATES_PER_PUBLISHER; ++i) {
+                    final int index = i;
+                    reference.updateAndGet(snapshot -> snapshot.withImageAndStatistics(statisticsImages[index],
+                            statistics[index]));
+                }
+            });
+            final Future<?> labelPublisher = executor.submit(() -> {
+                for (int i = 0; i < UPDATES_PER_PUBLISHER; ++i) {
+                    final int index = i;
+                    reference.updateAndGet(snapshot -> snapshot.withInfoForImage(labelImages[index], labels[index]));
+                }
+            });
+            statisticsPublisher.get();
+            labelPublisher.get();
+            isPublishing.set(false);
+            for (Future<Integer> reader : readers) {
+                assertTrue(reader.get() > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final FrameSnapshot last = reference.get();
+        assertEquals(2 * UPDATES_PER_PUBLISHER, last.getSequenceNumber());
+        check(last, statisticsImages, statistics, labelImages, labels);
+    }
+
+    /**
+     * Reads the reference until the publishers are done.
+     *
+     * @return The number of snapshots that were checked.
+     */
+    private static int read(final AtomicReference<FrameSnapshot> reference, final AtomicBoolean isPublishing,
+                            final byte[][] statisticsImages, final InferenceDTO[] statistics,
+                            final byte[][] labelImages, final InfoImageDTO[] labels) {
+        long lastSequenceNumber = 0;
+        int reads = 0;
+        do {
+            final FrameSnapshot snapshot = reference.get();
+            assertTrue(snapshot.getSequenceNumber() >= lastSequenceNumber);
+            lastSequenceNumber = snapshot.getSequenceNumber();
+            check(snapshot, statisticsImages, statistics, labelImages, labels);
+            ++reads;
+        } while (isPublishing.get());
+        return reads;
+    }
+
+    private static void check(final FrameSnapshot snapshot, final byte[][] statisticsImages,
+                              final InferenceDTO[] statistics, final byte[][] labelImages,
+                              final InfoImageDTO[] labels) {
+        if (snapshot.getSequenceNumber() == 0) {
+            assertNull(snapshot.getImage());
+            return;
+        }
+        final TaggedEntity<byte[]> image = snapshot.getImage();
+        assertEquals(TaggedEntity.forSequenceNumber(snapshot.getSequenceNumber(), null).getEntityTag(),
+                image.getEntityTag());
+        final TaggedEntity<InferenceDTO> inferenceDTO = snapshot.getInferenceDTO();
+        if (image.getEntity()[0] == 0) {
+            // Published with statistics: they belong to the same update as the image
+            final int index = getIndex(image.getEntity());
+            assertSame(statisticsImages[index], image.getEntity());
+            assertSame(statistics[index], inferenceDTO.getEntity());
+            assertEquals(image.getEntityTag(), inferenceDTO.getEntityTag());
+        } else {
+            final int index = getIndex(image.getEntity());
+            assertSame(labelImages[index], image.getEntity());
+            assertSame(labels[index], snapshot.getInfoImageDTO());
+        }
+    }
+
+    /**
+     * Creates an image that records the publisher and the update it belongs to.
+     */
+    private static byte[] createImage(final int publisher, final int index) {
+        return new byte[]{(byte) publisher, (byte) (index >> 16), (byte) (index >> 8), (byte) index};
+    }
+
+    private static int getIndex(final byte[] image) {
+        return (image[1] & 0xff) << 16 | (image[2] & 0xff) << 8 | image[3] & 0xff;
+    }
+
+    private static InferenceDTO createInferenceDTO(final long inferenceTime) {
+        return new InferenceDTO(inferenceTime, 0, 0, "None", Collections.emptyList(), null, null, 1);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.examples.tflitedetector.utilities;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    // Every power of two is split into 16 buckets, so a bucket is at most 1/16 of its lowest latency wide
+    private static final double MAX_RELATIVE_ERROR = 1.0 / 16;
+    private static final long MAX_VALUE = 1L << 26;
+
+    @Test
+    public void smallLatenciesHaveABucketEach() {
+        for (int micros = 0; micros < 32; ++micros) {
+            assertEquals(micros, LatencyHistogram.getBucket(micros));
+            assertEquals(micros, LatencyHistogram.getBucketUpperBound(micros));
+        }
+    }
+
+    @Test
+    public void bucketsAreContiguous() {
+        long lowerBound = 0;
+        for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; ++bucket) {
+            final long upperBound = LatencyHistogram.getBucketUpperBound(bucket);
+            assertTrue("Bucket " + bucket, upperBound >= lowerBound);
+            assertEquals(bucket, LatencyHistogram.getBucket(lowerBound));
+            assertEquals(bucket, LatencyHistogram.getBucket(upperBound));
+            lowerBound = upperBound + 1;
+        }
+        assertEquals(MAX_VALUE, lowerBound);
+    }
+
+    @Test
+    public void bucketsAreNarrowerThanTheErrorBound() {
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKET_COUNT; ++bucket) {
+            final long lowerBound = LatencyHistogram.getBucketUpperBound(bucket - 1) + 1;
+            final long upperBound = LatencyHistogram.getBucketUpperBound(bucket);
+            assertTrue("Bucket " + bucket, upperBound - lowerBound <= lowerBound * MAX_RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void highLatenciesAreCountedInTheLastBucket() {
+        final int last = LatencyHistogram.BUCKET_COUNT - 1;
+        assertEquals(MAX_VALUE - 1, LatencyHistogram.getBucketUpperBound(last));
+        assertEquals(last, LatencyHistogram.getBucket(MAX_VALUE));
+        assertEquals(last, LatencyHistogram.getBucket(TimeUnit.HOURS.toMicros(1)));
+        assertEquals(last, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void histogramsAreRegisteredByName() {
+        final LatencyHistogram histogram = LatencyHistogram.get("registered");
+        assertSame(histogram, LatencyHistogram.get("registered"));
+        assertEquals("registered", histogram.getName());
+        assertTrue(LatencyHistogram.getAll().contains(histogram));
+    }
+
+    @Test
+    public void emptyWindowIsSummarizedAsZero() {
+        final LatencyHistogram.Summary summary = LatencyHistogram.get("empty").summarize();
+        assertEquals("empty", summary.getName());
+        assertEquals(0, summary.getCount());
+        assertEquals(0, summary.getMeanMillis(), 0);
+        assertEquals(0, summary.getP50Millis(), 0);
+        assertEquals(0, summary.getMaxMillis(), 0);
+    }
+
+    /**
+     * Records 1 to 100 ms. The clock stays at 0 in host unit tests, so every latency is in the window.
+     */
+    @Test
+    public void percentilesAreWithinTheErrorBound() {
+        final LatencyHistogram histogram = LatencyHistogram.get("percentiles");
+        for (int millis = 1; millis <= 100; ++millis) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        // Negative latencies, e.g. from a clock that went back, count as 0
+        histogram.record(-1);
+        final LatencyHistogram.Summary summary = histogram.summarize();
+        assertEquals(101, summary.getCount());
+        assertEquals(5050 / 101.0, summary.getMeanMillis(), 1e-9);
+        assertWithinErrorBound(50, summary.getP50Millis());
+        assertWithinErrorBound(95, summary.getP95Millis());
+        assertWithinErrorBound(99, summary.getP99Millis());
+        assertWithinErrorBound(100, summary.getMaxMillis());
+    }
+
+    private static void assertWithinErrorBound(final double expectedMillis, final double actualMillis) {
+        // The upper bound of the bucket is reported, so a percentile is never below the latency it stands for
+        assertTrue(actualMillis + " < " + expectedMillis, actualMillis >= expectedMillis);
+        assertTrue(actualMillis + " > " + expectedMillis,
+                actualMillis <= expectedMillis * (1 + MAX_RELATIVE_ERROR));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.web_components.webserver.utilities;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Measures the time {@link RestPath} takes to resolve a request path with 10 to 500 registered routes, on the host
+ * JVM. Half of the routes have a path parameter, so both the lookup of static routes and the walk of the trie are
+ * measured. Every resolved route is checked before it is timed.
+ */
+public class RestPathBenchmark {
+    private static final int[] ROUTE_COUNTS = {10, 50, 100, 500};
+    private static final int WARM_UP_LOOKUPS = 200_000;
+    private static final int LOOKUPS = 1_000_000;
+    private static final String MISSING_PATH = "example/resource-0/missing";
+
+    @Test
+    public void resolveRoutes() {
+        for (final int routeCount : ROUTE_COUNTS) {
+            final RestPath<String> restPath = new RestPath<>("GET");
+            final String[] requests = new String[routeCount];
+            final String[] methods = new String[routeCount];
+            for (int i = 0; i < routeCount; ++i) {
+                final String route = i % 2 == 0
+                    ? "example/resource-" + i + "/items"
+                    : "example/resource-" + i + "/{id}/detail";
+                methods[i] = "method " + i;
+                restPath.addMethod("/" + route, methods[i]);
+                requests[i] = route.replace("{id}", Integer.toString(i * 7));
+            }
+            for (int i = 0; i < routeCount; ++i) {
+                assertSame(requests[i], methods[i], restPath.find(requests[i]));
+            }
+            assertNull(restPath.find(MISSING_PATH));
+            resolve(restPath, requests, WARM_UP_LOOKUPS);
+            final long startTime = System.nanoTime();
+            final int found = resolve(restPath, requests, LOOKUPS);
+            final double nanos = (double) (System.nanoTime() - startTime) / LOOKUPS;
+            System.out.printf("Resolved a path among %d routes in %.0f ns%n", routeCount, nanos);
+            assertEquals(LOOKUPS, found);
+        }
+    }
+
+    private static int resolve(final RestPath<String> restPath, final String[] requests, final int lookups) {
+        int found = 0;
+        for (int i = 0; i < lookups; ++i) {
+            if (restPath.find(requests[i % requests.length]) != null) {
+                ++found;
+            }
+        }
+        return found;
+    }
+}
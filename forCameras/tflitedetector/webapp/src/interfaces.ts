@@ -33,6 +33,7 @@ export interface exampleInterface {
 export interface UserPreferencesDTO {
   confidence: number;
   accelerationType: string;
+  tiled: boolean;
 }
 
 /**
@@ -43,6 +44,59 @@ export interface InferenceDTO {
   framesProcessedPerSecond: number;
   requestedFramesPerSecond: number;
   accelerationType: string;
+  stages: StageStatisticsDTO[];
+  governor: FrameRateGovernorDTO;
+  motion: MotionDTO;
+  tiles: number;
+}
+
+/**
+ * Defines the counters of the motion gate, which skips the detector on frames without motion.
+ */
+export interface MotionDTO {
+  analyzedFrames: number;
+  skippedFrames: number;
+  skipRatio: number;
+  savedComputeMillis: number;
+}
+
+/**
+ * Defines the decisions of the governor that paces the frames entering the frame pipeline.
+ */
+export interface FrameRateGovernorDTO {
+  targetFramesPerSecond: number;
+  cpuBudget: number;
+  admittedFramesPerSecond: number;
+  limitedBy: "target" | "pipeline" | "cpu";
+  frameCost: number;
+  admittedFrames: number;
+  skippedFrames: number;
+}
+
+/**
+ * Defines the statistics of a single stage of the frame pipeline.
+ */
+export interface StageStatisticsDTO {
+  name: string;
+  averageLatency: number;
+  lastLatency: number;
+  queueDepth: number;
+  processedFrames: number;
+  droppedFrames: number;
+}
+
+/**
+ * Defines the latency percentiles of a single step of the frame processing, over a sliding window of seconds.
+ */
+export interface LatencyHistogramDTO {
+  name: string;
+  window: number;
+  count: number;
+  mean: number;
+  p50: number;
+  p95: number;
+  p99: number;
+  max: number;
 }
 
 /**
@@ -53,6 +107,51 @@ export interface UserPreferencesStatusDTO {
   isSuccessful: boolean;
 }
 
+/**
+ * Defines the progress of a user preferences update, which is applied asynchronously.
+ */
+export interface UserPreferencesJobDTO {
+  id: number;
+  configuration: number;
+  state: "pending" | "done";
+  status: UserPreferencesStatusDTO | null;
+}
+
+/**
+ * Defines a text message pushed over the live stream WebSocket.
+ */
+export interface WebSocketMessageDTO<T> {
+  type: string;
+  payload: T;
+}
+
+/**
+ * Defines a single detection, with its box normalized to the captured frame.
+ */
+export interface DetectionRecordDTO {
+  seq: number;
+  timestamp: number;
+  model: string;
+  trackId: number;
+  label: string;
+  score: number;
+  box: {
+    left: number;
+    top: number;
+    right: number;
+    bottom: number;
+  };
+}
+
+/**
+ * Defines a page of the detection history, read with the cursor of the previous page.
+ */
+export interface DetectionsDTO {
+  detections: DetectionRecordDTO[];
+  next: number;
+  missed: number;
+}
+
 /**
  * Defines the status of the selected user preferences.
  */
@@ -67,6 +166,21 @@ export interface AccelerationType {
   name: string;
   description: string;
   isModernAPI: boolean;
+  threadSplit?: ThreadSplit;
+}
+
+/**
+ * Defines the number of CPU threads given to every model, only set for the acceleration type in use.
+ */
+export interface ThreadSplit {
+  threadBudget: number;
+  isBenchmarked: boolean;
+  models: {
+    name: string;
+    group: number;
+    threads: number;
+    latency?: number;
+  }[];
 }
 
 /**
@@ -76,3 +190,15 @@ export interface AccelerationTypesResult {
   message?: string;
   isSuccessful: boolean;
 }
+
+/**
+ * Defines the statistics of a single model of the detector.
+ */
+export interface ModelStatisticsDTO {
+  name: string;
+  averageLatency: number;
+  lastLatency: number;
+  runs: number;
+  skips: number;
+  failures: number;
+}
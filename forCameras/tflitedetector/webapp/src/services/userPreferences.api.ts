@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-import { AccelerationType, UserPreferencesDTO, UserPreferencesStatusDTO } from "@/interfaces";
+import { AccelerationType, UserPreferencesDTO, UserPreferencesJobDTO } from "@/interfaces";
 import { AxiosRequestConfig, AxiosResponse } from "axios";
 import httpClient from "./httpClient";
 
@@ -23,16 +23,15 @@ const getUserPreferences = (): Promise<AxiosResponse<UserPreferencesDTO>> =>
 const postUserPreferences = (
   userPreferences: UserPreferencesDTO,
   config?: AxiosRequestConfig
-): Promise<AxiosResponse<UserPreferencesStatusDTO>> =>
-  httpClient.post<UserPreferencesStatusDTO>("user-preferences", userPreferences, {
-    ...config,
-    timeout: 30000,
-    /*
-     * This endpoint needs a timeout value longer than the usual (1000) as initializing the detector with certain acceleration types
-     * (e.g. GPU) can take longer than one second.
-     */
-  });
+): Promise<AxiosResponse<UserPreferencesJobDTO>> =>
+  httpClient.post<UserPreferencesJobDTO>("user-preferences", userPreferences, config);
+/*
+ * The update returns right away, while the detector is re-configured in the background. Initializing the detector with
+ * certain acceleration types (e.g. GPU) can take longer than one second, so its progress is polled with this endpoint.
+ */
+const getUserPreferencesJob = (id: number): Promise<AxiosResponse<UserPreferencesJobDTO>> =>
+  httpClient.get<UserPreferencesJobDTO>("user-preferences-jobs/" + id);
 const getAccelerationTypes = (): Promise<AxiosResponse<AccelerationType[]>> =>
   httpClient.get<AccelerationType[]>("acceleration-types");
 
-export { getUserPreferences, postUserPreferences, getAccelerationTypes };
+export { getUserPreferences, postUserPreferences, getUserPreferencesJob, getAccelerationTypes };
@@ -25,6 +25,9 @@ import android.webkit.MimeTypeMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.securityandsafetythings.web_components.webserver.utilities.InstantSerializer;
 import com.securityandsafetythings.web_components.webserver.utilities.RestMethodWrapper;
 import com.securityandsafetythings.web_components.webserver.utilities.RestPath;
@@ -43,6 +46,7 @@ import javax.ws.rs.Path;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.time.Instant;
@@ -79,10 +83,10 @@ public class RestHandler implements WebServerRequestHandler {
     private static final String JAVASCRIPT_EXT = "js";
     private static final List<String> FONTS_EXT = Arrays.asList("woff", "woff2", "ttf", "otf");
 
-    private final RestPath mGetRoutes = new RestPath("GET");
-    private final RestPath mPutRoutes = new RestPath("PUT");
-    private final RestPath mPostRoutes = new RestPath("POST");
-    private final RestPath mDeleteRoutes = new RestPath("DELETE");
+    private final RestPath<RestMethodWrapper> mGetRoutes = new RestPath<>("GET");
+    private final RestPath<RestMethodWrapper> mPutRoutes = new RestPath<>("PUT");
+    private final RestPath<RestMethodWrapper> mPostRoutes = new RestPath<>("POST");
+    private final RestPath<RestMethodWrapper> mDeleteRoutes = new RestPath<>("DELETE");
     private final Map<String, Pair<String, WebServerResponse.ResponseStatus>> mRedirections = new HashMap<>();
     private final Set<Object> mRestServices = new HashSet<>();
     private final SharedMemoryFactory mSharedMemoryFactory = new SharedMemoryFactory();
@@ -137,6 +141,34 @@ public class RestHandler implements WebServerRequestHandler {
         return GSON.toJson(object);
     }
 
+    /**
+     * Gets the Gson adapter of a type, so that it can be looked up once instead of for every conversion.
+     *
+     * @param type the type to convert.
+     * @return the adapter.
+     */
+    @SuppressWarnings("unchecked")
+    public static TypeAdapter<Object> getJsonAdapter(final Type type) {
+        return (TypeAdapter<Object>)GSON.getAdapter(TypeToken.get(type));
+    }
+
+    /**
+     * Convert from an object to Json format and write it to a writer, without building a String first.
+     *
+     * @param object  the object to convert.
+     * @param adapter the adapter of the object's type, see {@link #getJsonAdapter(Type)}.
+     * @param writer  the writer to write the Json to.
+     * @throws IOException if writing fails.
+     */
+    public static void toJson(final Object object, final TypeAdapter<Object> adapter, final Writer writer)
+        throws IOException {
+        final JsonWriter jsonWriter = GSON.newJsonWriter(writer);
+        // Same as toJson(Object), which also writes values such as NaN
+        jsonWriter.setLenient(true);
+        adapter.write(jsonWriter, object);
+        jsonWriter.flush();
+    }
+
     /**
      * Register a new object to handle requests. See RestEndPoint for an example of
      * a suitable object.
@@ -338,12 +370,11 @@ public class RestHandler implements WebServerRequestHandler {
         return invokeMethod(mDeleteRoutes, route, webServerRequest);
     }
 
-    private WebServerResponse invokeMethod(final RestPath restPath, final String route, final WebServerRequest webServerRequest) {
+    private WebServerResponse invokeMethod(final RestPath<RestMethodWrapper> restPath, final String route, final WebServerRequest webServerRequest) {
         Log.d(LOGTAG, String.format("%s %s", restPath.getPathNode(), route));
         final String normalizedRoute = route.startsWith(SLASH) ? route.substring(1) : route;
-        return restPath.resolve(normalizedRoute)
-            .map(restMethodWrapper1 -> restMethodWrapper1.invoke(webServerRequest, normalizedRoute))
-            .orElse(null);
+        final RestMethodWrapper restMethodWrapper = restPath.find(normalizedRoute);
+        return restMethodWrapper != null ? restMethodWrapper.invoke(webServerRequest, normalizedRoute) : null;
     }
 
     private String getPath(final WebServerRequest webServerRequest) {
@@ -17,25 +17,119 @@
 package com.securityandsafetythings.web_components.webserver;
 
 import android.support.annotation.NonNull;
+import android.util.Log;
 
 import com.securityandsafetythings.webserver.WebSocketSession;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Class that will handle websocket functionalities
+ * <p>
+ * Messages are fanned out to every session without blocking the caller: each session has its own mailbox, which is
+ * sent by at most one sender thread at a time. Byte messages (e.g. live view frames) only keep the latest one per
+ * session, so a slow client skips frames instead of holding up the others or the caller. String messages are queued
+ * per session, up to {@link #MAX_QUEUED_STRING_MESSAGES}.
  */
 public class WebSocketManager implements WebSocketSession.WebSocketListener {
-    private List<WebSocketSession> mSessions = new ArrayList<>();
+    private static final String LOGTAG = WebSocketManager.class.getSimpleName();
+    // Beyond this number, the oldest string messages of a slow session are dropped
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_QUEUED_STRING_MESSAGES = 64;
+    // Sessions are added and removed rarely, but iterated for every message
+    private final List<Mailbox> mSessions = new CopyOnWriteArrayList<>();
+    private final AtomicLong mDroppedMessages = new AtomicLong();
+    // Every session with pending messages borrows one thread, so a blocked session cannot starve the others
+    private final ExecutorService mSenders;
+
+    /**
+     * The pending messages of a single session.
+     */
+    private final class Mailbox implements Runnable {
+        private final WebSocketSession mSession;
+        private final AtomicReference<byte[]> mLatestBytes = new AtomicReference<>();
+        private final Queue<String> mStrings = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger mStringCount = new AtomicInteger();
+        private final AtomicBoolean mIsSendScheduled = new AtomicBoolean();
+
+        Mailbox(final WebSocketSession session) {
+            mSession = session;
+        }
+
+        void offer(final byte[] message) {
+            if (mLatestBytes.getAndSet(message) != null) {
+                mDroppedMessages.incrementAndGet();
+            }
+            scheduleSend();
+        }
+
+        void offer(final String message) {
+            mStrings.add(message);
+            if (mStringCount.incrementAndGet() > MAX_QUEUED_STRING_MESSAGES && mStrings.poll() != null) {
+                mStringCount.decrementAndGet();
+                mDroppedMessages.incrementAndGet();
+            }
+            scheduleSend();
+        }
+
+        private void scheduleSend() {
+            if (mIsSendScheduled.compareAndSet(false, true)) {
+                try {
+                    mSenders.execute(this);
+                } catch (RuntimeException e) {
+                    // The manager was disconnected
+                    mIsSendScheduled.set(false);
+                }
+            }
+        }
+
+        private boolean hasPending() {
+            return mLatestBytes.get() != null || !mStrings.isEmpty();
+        }
+
+        @Override
+        public void run() {
+            do {
+                try {
+                    String string;
+                    while ((string = mStrings.poll()) != null) {
+                        mStringCount.decrementAndGet();
+                        mSession.send(string);
+                    }
+                    final byte[] bytes = mLatestBytes.getAndSet(null);
+                    if (bytes != null) {
+                        mSession.send(bytes);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(LOGTAG, "Could not send message", e);
+                }
+                mIsSendScheduled.set(false);
+                // A message offered after the mailbox was emptied, but before the flag was cleared, is sent here
+            } while (hasPending() && mIsSendScheduled.compareAndSet(false, true));
+        }
+    }
 
     /**
      * Class constructor
      */
-    public WebSocketManager() { }
+    public WebSocketManager() {
+        final AtomicInteger threadCount = new AtomicInteger();
+        mSenders = Executors.newCachedThreadPool(
+            runnable -> new Thread(runnable, LOGTAG + "-" + threadCount.incrementAndGet()));
+    }
 
     /**
-     * Sends a message as byte[] to whoever is listening
+     * Sends a message as byte[] to whoever is listening. Only the latest byte[] message is kept for a session that is
+     * still busy sending the previous one.
      *
      * @param message byte[] with message content to be sent
      */
@@ -47,12 +141,13 @@ public class WebSocketManager implements WebSocketSession.WebSocketListener {
      * Close all connections and clear session list before destroying this manager
      */
     public void disconnect() {
-        for (WebSocketSession session : mSessions) {
-            session.close();
+        mSenders.shutdownNow();
+        for (Mailbox mailbox : mSessions) {
+            mailbox.mSession.close();
         }
         mSessions.clear();
     }
-    
+
     /**
      * Sends a message as String to whoever is listening
      *
@@ -62,13 +157,31 @@ public class WebSocketManager implements WebSocketSession.WebSocketListener {
         broadcastMessage(message);
     }
 
+    /**
+     * Gets the number of connected sessions
+     *
+     * @return the number of sessions
+     */
+    public int getSessionCount() {
+        return mSessions.size();
+    }
+
+    /**
+     * Gets the number of messages that were replaced or dropped before a slow session could send them
+     *
+     * @return the number of dropped messages
+     */
+    public long getDroppedMessageCount() {
+        return mDroppedMessages.get();
+    }
+
     /**
      * Receives a string message and broadcast it to whoever is registered in the session
      * @param message String containing message to be sent
      */
     private void broadcastMessage(final String message) {
-        for (WebSocketSession s : mSessions) {
-            s.send(message);
+        for (Mailbox mailbox : mSessions) {
+            mailbox.offer(message);
         }
     }
 
@@ -77,8 +190,8 @@ public class WebSocketManager implements WebSocketSession.WebSocketListener {
      * @param message byte[] containing the message to be sent
      */
     private void broadcastMessage(final byte[] message) {
-        for (WebSocketSession s : mSessions) {
-            s.send(message);
+        for (Mailbox mailbox : mSessions) {
+            mailbox.offer(message);
         }
     }
 
@@ -88,7 +201,7 @@ public class WebSocketManager implements WebSocketSession.WebSocketListener {
      */
     @Override
     public void onOpen(@NonNull final WebSocketSession session) {
-        mSessions.add(session);
+        mSessions.add(new Mailbox(session));
     }
 
     /**
@@ -99,6 +212,10 @@ public class WebSocketManager implements WebSocketSession.WebSocketListener {
      */
     @Override
     public void onClose(@NonNull final WebSocketSession session, final int code, final String reason) {
-        mSessions.remove(session);
+        for (Mailbox mailbox : mSessions) {
+            if (mailbox.mSession == session) {
+                mSessions.remove(mailbox);
+            }
+        }
     }
 }
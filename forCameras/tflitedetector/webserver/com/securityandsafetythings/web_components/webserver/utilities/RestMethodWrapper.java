@@ -16,8 +16,10 @@
 
 package com.securityandsafetythings.web_components.webserver.utilities;
 
+import android.os.SharedMemory;
 import android.util.Log;
 import com.google.common.io.Files;
+import com.google.gson.TypeAdapter;
 import com.securityandsafetythings.web_components.webserver.RestHandler;
 import com.securityandsafetythings.webserver.FormDataPart;
 import com.securityandsafetythings.webserver.InvalidCharsetException;
@@ -43,8 +45,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -52,6 +58,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -63,15 +70,32 @@ import java.util.stream.Collectors;
 
 /**
  * Wrapper class for rest methods
+ * <p>
+ * Everything that only depends on the method is computed when it is registered: how each parameter is read from the
+ * request, and a {@link MethodHandle} to invoke it, so that invoking it does not go through reflection.
  */
 public final class RestMethodWrapper implements HasPathNode {
     private static final String LOGTAG = RestMethodWrapper.class.getSimpleName();
     private static final String SLASH = "/";
+    private static final char SLASH_CHAR = '/';
     private static final String TEXT = "text/";
+    private static final String IMAGE = "image/";
+    private static final String IF_NONE_MATCH = "If-None-Match";
+    @SuppressWarnings("MagicNumber")
+    private static final int HTTP_NOT_MODIFIED = 304;
+    // Null if the web server does not support 304, in which case tagged entities are always sent
+    private static final WebServerResponse.ResponseStatus NOT_MODIFIED_STATUS = Arrays.stream(
+        WebServerResponse.ResponseStatus.values())
+        .filter(s -> s.getRequestStatus() == HTTP_NOT_MODIFIED)
+        .findAny()
+        .orElse(null);
     private static final String REQUEST_BODY_CONTENT_KEY = "content";
     private static final String REQUEST_POST_DATA_KEY = "post_data";
     private final Object mRestService;
     private final Method mMethod;
+    // The declared return type, or the type of the entity if the method returns a TaggedEntity
+    private final Type mEntityType;
+    private final Class<?> mEntityClass;
     private final List<Parameter> mParameters;
     private final Map<Parameter, String> mQueryParameterNameMap;
     private final Map<Parameter, Integer> mPathParameterIndexMap;
@@ -83,6 +107,13 @@ public final class RestMethodWrapper implements HasPathNode {
     private final Map<String, String> mHeaders;
     private final File mCacheDir;
     private final SharedMemoryFactory mSharedMemoryFactory;
+    // One reader per parameter of the method, compiled when the method is registered
+    private final ParameterReader[] mParameterReaders;
+    private final MethodHandle mInvoker;
+    // Gson adapter of the declared return type, or null if the method does not produce JSON
+    private final TypeAdapter<Object> mJsonAdapter;
+    // Size of the previous JSON response, so that the buffer the next one is encoded into rarely has to grow
+    private volatile int mJsonSizeHint;
 
     /**
      * Builds a {@link RestMethodWrapper}
@@ -124,10 +155,66 @@ public final class RestMethodWrapper implements HasPathNode {
             .count() > 1) {
             throw new UnsupportedOperationException("Only one not annotated parameter is allowed.");
         }
+        mEntityType = computeEntityType();
+        mEntityClass = toClass(mEntityType);
         mConsumeMediaType = computeConsumeMediaType();
         mProduceMediaType = computeProduceMediaType();
         mHeaders = computeHeaders();
         mCacheDir = cache;
+        mParameterReaders = mParameters.stream()
+            .map(this::createParameterReader)
+            .toArray(ParameterReader[]::new);
+        mInvoker = createInvoker();
+        mJsonAdapter = mProduceMediaType.equals(MediaType.APPLICATION_JSON)
+            ? RestHandler.getJsonAdapter(mEntityType) : null;
+    }
+
+    /**
+     * Reads the value of a parameter from a request
+     */
+    private interface ParameterReader {
+        /**
+         * Reads the value of the parameter
+         *
+         * @param webServerRequest the request
+         * @param currentRestPath  the request path
+         * @return the value of the parameter
+         * @throws InvalidCharsetException if the body of the request cannot be decoded
+         */
+        Object read(WebServerRequest webServerRequest, String currentRestPath) throws InvalidCharsetException;
+    }
+
+    private MethodHandle createInvoker() {
+        try {
+            MethodHandle invoker = MethodHandles.publicLookup().unreflect(mMethod);
+            if (!Modifier.isStatic(mMethod.getModifiers())) {
+                invoker = invoker.bindTo(mRestService);
+            }
+            return invoker.asSpreader(Object[].class, mParameterReaders.length)
+                .asType(MethodType.methodType(Object.class, Object[].class));
+        } catch (IllegalAccessException e) {
+            throw new UnsupportedOperationException("Rest methods must be public members of a public class.", e);
+        }
+    }
+
+    private Type computeEntityType() {
+        final Type returnType = mMethod.getGenericReturnType();
+        if (!TaggedEntity.class.equals(mMethod.getReturnType())) {
+            return returnType;
+        }
+        if (!(returnType instanceof ParameterizedType)) {
+            throw new UnsupportedOperationException("The type of a TaggedEntity must be declared.");
+        }
+        return ((ParameterizedType)returnType).getActualTypeArguments()[0];
+    }
+
+    private static Class<?> toClass(final Type type) {
+        if (type instanceof Class) {
+            return (Class<?>)type;
+        } else if (type instanceof ParameterizedType) {
+            return toClass(((ParameterizedType)type).getRawType());
+        }
+        return Object.class;
     }
 
     private String computeConsumeMediaType() {
@@ -176,13 +263,12 @@ public final class RestMethodWrapper implements HasPathNode {
         }
         final String mediaType = values[0];
         final String appOctetStream = "application/octet-stream";
-        final String image = "image/";
-        if (!mediaType.equals(MediaType.APPLICATION_JSON) && !mediaType.startsWith(image)
+        if (!mediaType.equals(MediaType.APPLICATION_JSON) && !mediaType.startsWith(IMAGE)
             && !appOctetStream.equals(mediaType)) {
             throw new UnsupportedOperationException(
                 "Currently, only text, JSON, image types and octet stream are supported as produced media type.");
         }
-        if (mediaType.startsWith(image) || appOctetStream.equals(mediaType)) {
+        if (mediaType.startsWith(IMAGE) || appOctetStream.equals(mediaType)) {
             checkRawByteMethod();
         } else if (mediaType.startsWith(TEXT)) {
             checkProducesPlainTextMethod();
@@ -258,13 +344,13 @@ public final class RestMethodWrapper implements HasPathNode {
     }
 
     private void checkRawByteMethod() {
-        if (!byte[].class.isAssignableFrom(mMethod.getReturnType())) {
+        if (!byte[].class.isAssignableFrom(mEntityClass)) {
             throw new UnsupportedOperationException("Raw methods must return a byte array.");
         }
     }
 
     private void checkProducesPlainTextMethod() {
-        if (!String.class.isAssignableFrom(mMethod.getReturnType())) {
+        if (!String.class.isAssignableFrom(mEntityClass)) {
             throw new UnsupportedOperationException("Plain text methods must return a String.");
         }
     }
@@ -286,48 +372,66 @@ public final class RestMethodWrapper implements HasPathNode {
      * @return {@link WebServerResponse}
      */
     public WebServerResponse invoke(final WebServerRequest webServerRequest, final String currentRestPath) {
-        final String[] currentRestPathElements = currentRestPath.split(SLASH);
-        final Object[] realParameters;
+        final Object[] realParameters = new Object[mParameterReaders.length];
         try {
-            realParameters = mParameters.stream()
-                .map(p -> {
-                    try {
-                        return getRequestParameters(p, webServerRequest, currentRestPathElements);
-                    } catch (InvalidCharsetException e) {
-                        e.printStackTrace();
-                        return webApplicationExceptionToResponse(e);
-                    }
-                })
-                .toArray();
+            for (int i = 0; i < realParameters.length; ++i) {
+                realParameters[i] = mParameterReaders[i].read(webServerRequest, currentRestPath);
+            }
         } catch (final Exception e) {
             return webApplicationExceptionToResponse(e);
         }
+        final Object result;
+        try {
+            result = mInvoker.invoke(realParameters);
+        } catch (final Error e) {
+            throw e;
+        } catch (final Throwable e) {
+            // Unlike Method.invoke(), the exception thrown by the method is not wrapped
+            return webApplicationExceptionToResponse(e);
+        }
+        if (result instanceof TaggedEntity) {
+            final TaggedEntity<?> taggedEntity = (TaggedEntity<?>)result;
+            final Map<String, String> headers = taggedEntity.getHeaders(mHeaders);
+            // The client already has this version, so neither the entity is serialized nor shared memory used
+            if (NOT_MODIFIED_STATUS != null && webServerRequest.getMethod() == WebServerMethod.GET
+                && taggedEntity.matches(getHeader(webServerRequest, IF_NONE_MATCH))) {
+                return WebServerResponse.createStringResponse("", NOT_MODIFIED_STATUS, MediaType.TEXT_PLAIN, headers);
+            }
+            return createResponse(taggedEntity.getEntity(), headers);
+        }
+        return createResponse(result, mHeaders);
+    }
+
+    private WebServerResponse createResponse(final Object result, final Map<String, String> headers) {
         try {
-            final Object result = mMethod.invoke(mRestService, realParameters);
             if (result == null) {
                 return WebServerResponse.createStringResponse("",
                     WebServerResponse.ResponseStatus.NO_CONTENT,
                     MediaType.TEXT_PLAIN,
-                    mHeaders);
+                    headers);
             }
             if (mProduceMediaType.equals(MediaType.APPLICATION_JSON)) {
+                final TypeAdapter<Object> adapter = getJsonAdapter(result);
+                final SharedMemory sharedMemory = mSharedMemoryFactory.createSharedMemoryForJson(
+                    writer -> RestHandler.toJson(result, adapter, writer), mJsonSizeHint);
+                mJsonSizeHint = sharedMemory.getSize();
                 return WebServerResponse
-                    .createSharedMemoryResponse(mSharedMemoryFactory.createSharedMemoryForString(RestHandler.toJson(result)),
+                    .createSharedMemoryResponse(sharedMemory,
                         WebServerResponse.ResponseStatus.OK,
                         MediaType.APPLICATION_JSON + "; charset=UTF-8",
-                        mHeaders);
+                        headers);
             } else if (mProduceMediaType.startsWith(TEXT)) {
                 return WebServerResponse
                     .createSharedMemoryResponse(mSharedMemoryFactory.createSharedMemoryForString((String)result),
                         WebServerResponse.ResponseStatus.OK,
                         mProduceMediaType,
-                        mHeaders);
+                        headers);
             } else {
                 return WebServerResponse
                     .createSharedMemoryResponse(mSharedMemoryFactory.createSharedMemoryForBytes((byte[])result),
                         WebServerResponse.ResponseStatus.OK,
                         mProduceMediaType,
-                        mHeaders);
+                        headers);
             }
         } catch (final Exception e) {
             final Throwable cause = e.getCause();
@@ -335,6 +439,21 @@ public final class RestMethodWrapper implements HasPathNode {
         }
     }
 
+    /**
+     * Gets the Gson adapter of a result. The adapter of the declared return type is used unless the result is of a
+     * subclass that it would not serialize completely, e.g. if the method is declared to return Object.
+     *
+     * @param result the result of the method
+     * @return the adapter
+     */
+    private TypeAdapter<Object> getJsonAdapter(final Object result) {
+        if (result.getClass() == mEntityClass || Collection.class.isAssignableFrom(mEntityClass)
+            || Map.class.isAssignableFrom(mEntityClass)) {
+            return mJsonAdapter;
+        }
+        return RestHandler.getJsonAdapter(result.getClass());
+    }
+
     private WebServerResponse webApplicationExceptionToResponse(final Throwable ex) {
         if (ex instanceof WebApplicationException) {
             final WebApplicationException e = (WebApplicationException)ex;
@@ -352,47 +471,69 @@ public final class RestMethodWrapper implements HasPathNode {
         }
     }
 
-    private Object getRequestParameters(
-        final Parameter parameter,
-        final WebServerRequest webServerRequest,
-        final String[] currentRestPathElements) throws InvalidCharsetException {
-
+    private ParameterReader createParameterReader(final Parameter parameter) {
+        final Type type = parameter.getParameterizedType();
         if (mQueryParameterNameMap.containsKey(parameter)) {
-            final List<String> strings = webServerRequest.getParameters()
-                .get(mQueryParameterNameMap.get(parameter));
-            if (strings == null) {
-                return null;
-            }
+            final String name = mQueryParameterNameMap.get(parameter);
             if (parameter.getType()
                 .isAssignableFrom(List.class)) {
-                final Type elementType = (((ParameterizedType)parameter.getParameterizedType()).getActualTypeArguments())[0];
-                return strings.stream()
-                    .map(v -> toRequestParameter(v, elementType))
-                    .collect(Collectors.toList());
+                final Type elementType = (((ParameterizedType)type).getActualTypeArguments())[0];
+                return (webServerRequest, currentRestPath) -> {
+                    final List<String> strings = webServerRequest.getParameters()
+                        .get(name);
+                    return strings == null ? null : strings.stream()
+                        .map(v -> toRequestParameter(v, elementType))
+                        .collect(Collectors.toList());
+                };
             }
-            return toRequestParameter(strings.get(0), parameter.getParameterizedType());
+            return (webServerRequest, currentRestPath) -> {
+                final List<String> strings = webServerRequest.getParameters()
+                    .get(name);
+                return strings == null ? null : toRequestParameter(strings.get(0), type);
+            };
         } else if (mPathParameterIndexMap.containsKey(parameter)) {
-            final Integer index = mPathParameterIndexMap.get(parameter);
-            return index != null
-                ? toRequestParameter(currentRestPathElements[index], parameter.getParameterizedType()) : null;
+            final int index = mPathParameterIndexMap.get(parameter);
+            return (webServerRequest, currentRestPath) ->
+                toRequestParameter(getPathElement(currentRestPath, index), type);
         } else if (parameter.equals(mRequestParameter)) {
             if (mConsumeMediaType.equals(MediaType.MULTIPART_FORM_DATA)) {
-                final List<FormDataPart> dataParts = webServerRequest.getFileParts();
                 if (parameter.getType()
                     .isAssignableFrom(List.class)) {
-                    return dataParts.stream()
+                    return (webServerRequest, currentRestPath) -> webServerRequest.getFileParts()
+                        .stream()
                         .map(this::formDataPartToFile)
                         .collect(Collectors.toList());
-                } else {
-                    return dataParts.isEmpty() ? null : formDataPartToFile(dataParts.get(0));
                 }
+                return (webServerRequest, currentRestPath) -> {
+                    final List<FormDataPart> dataParts = webServerRequest.getFileParts();
+                    return dataParts.isEmpty() ? null : formDataPartToFile(dataParts.get(0));
+                };
             } else if (mConsumeMediaType.startsWith(TEXT)) {
-                return getBodyJson(webServerRequest);
+                return (webServerRequest, currentRestPath) -> getBodyJson(webServerRequest);
             } else {
-                return toRequestParameter(getBodyJson(webServerRequest), mRequestParameter.getParameterizedType());
+                return (webServerRequest, currentRestPath) -> toRequestParameter(getBodyJson(webServerRequest), type);
             }
         }
-        throw new RuntimeException("Unexpected parameter " + parameter.getName());
+        throw new UnsupportedOperationException("Unexpected parameter " + parameter.getName());
+    }
+
+    /**
+     * Gets an element of a path, without splitting the whole path
+     *
+     * @param path  the path, without a leading slash
+     * @param index the index of the element
+     * @return the element
+     */
+    private static String getPathElement(final String path, final int index) {
+        int start = 0;
+        for (int i = 0; i < index; ++i) {
+            start = path.indexOf(SLASH_CHAR, start) + 1;
+            if (start == 0) {
+                throw new IllegalArgumentException("Path " + path + " has no element " + index);
+            }
+        }
+        final int end = path.indexOf(SLASH_CHAR, start);
+        return path.substring(start, end < 0 ? path.length() : end);
     }
 
     @SuppressWarnings("MagicNumber")
@@ -486,6 +627,20 @@ public final class RestMethodWrapper implements HasPathNode {
         return bodyMap;
     }
 
+    private static String getHeader(final WebServerRequest webServerRequest, final String name) {
+        final Map<String, String> headers = webServerRequest.getHeaders();
+        final String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
     private Charset getBodyCharset(final WebServerRequest webServerRequest) {
         final String contentType = webServerRequest.getHeaders()
             .get("Content-Type");
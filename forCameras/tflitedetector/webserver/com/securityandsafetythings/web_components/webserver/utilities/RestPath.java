@@ -16,20 +16,80 @@
 
 package com.securityandsafetythings.web_components.webserver.utilities;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
 /**
  * {@link RestPath} class
+ * <p>
+ * The routes are compiled when they are added, so that resolving a path allocates nothing: routes without path
+ * parameters are looked up by their full path, all other routes are found by walking a trie whose children are kept
+ * sorted, comparing each node to its region of the path in place instead of splitting it.
+ *
+ * @param <M> the type of the methods hosted at the routes
  */
-public class RestPath implements HasPathNode {
+public class RestPath<M> implements HasPathNode {
     private static final String SLASH = "/";
+    private static final char SLASH_CHAR = '/';
     private final String mPathNode;
-    private final Map<String, RestPath> mNormalChildren = new HashMap<>();
-    private final Map<String, RestMethodWrapper> mNormalLeaves = new HashMap<>();
-    private RestPath mParametrizedChild;
-    private RestMethodWrapper mParametrizedLeaf;
+    // Routes without path parameters by their full path, without the leading slash
+    private final Map<String, M> mStaticRoutes = new HashMap<>();
+    private final Node<M> mRoot = new Node<>();
+
+    /**
+     * One element of a route. Children named by a literal are preferred over the parametrized child.
+     */
+    private static final class Node<M> {
+        private String[] mNames = new String[0];
+        @SuppressWarnings("unchecked")
+        private Node<M>[] mChildren = new Node[0];
+        private Node<M> mParametrizedChild;
+        private M mMethod;
+
+        Node<M> getOrAddChild(final String name) {
+            final int index = Arrays.binarySearch(mNames, name);
+            if (index >= 0) {
+                return mChildren[index];
+            }
+            final int insertionPoint = -index - 1;
+            final Node<M> child = new Node<>();
+            mNames = insert(mNames, new String[mNames.length + 1], insertionPoint, name);
+            @SuppressWarnings("unchecked")
+            final Node<M>[] children = new Node[mChildren.length + 1];
+            mChildren = insert(mChildren, children, insertionPoint, child);
+            return child;
+        }
+
+        Node<M> findChild(final String path, final int start, final int end) {
+            int low = 0;
+            int high = mNames.length - 1;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                final int comparison = compare(mNames[middle], path, start, end);
+                if (comparison < 0) {
+                    low = middle + 1;
+                } else if (comparison > 0) {
+                    high = middle - 1;
+                } else {
+                    return mChildren[middle];
+                }
+            }
+            return null;
+        }
+
+        boolean hasChildren() {
+            return mNames.length > 0 || mParametrizedChild != null;
+        }
+
+        private static <T> T[] insert(final T[] from, final T[] to, final int index, final T value) {
+            System.arraycopy(from, 0, to, 0, index);
+            to[index] = value;
+            System.arraycopy(from, index, to, index + 1, from.length - index);
+            return to;
+        }
+    }
 
     /**
      * Constructs a {@link RestPath}
@@ -49,60 +109,77 @@ public class RestPath implements HasPathNode {
      * Resolves a path.
      *
      * @param path the path to resolve.
-     * @return {@link Optional <RestMethodWrapper>}
+     * @return {@link Optional} of the method hosted at the path
      */
-    public Optional<RestMethodWrapper> resolve(final String path) {
-        final String normalized = path.startsWith(SLASH) ? path.substring(1) : path;
-        final String[] pathElements = normalized.split(SLASH);
-        switch (pathElements.length) {
-        case 0:
-            return Optional.empty();
-        case 1:
-            return findNode(pathElements[0], mNormalLeaves, mParametrizedLeaf);
-        default:
-            final String nodeName = pathElements[0];
-            final Optional<RestPath> child = findNode(nodeName, mNormalChildren, mParametrizedChild);
-            return child.flatMap(c -> c.resolve(getChildPath(pathElements)));
+    public Optional<M> resolve(final String path) {
+        return Optional.ofNullable(find(path));
+    }
+
+    /**
+     * Resolves a path without allocating.
+     *
+     * @param path the path to resolve, ideally without a leading slash.
+     * @return the method hosted at the path, or null if there is none.
+     */
+    public M find(final String path) {
+        int start = path.startsWith(SLASH) ? 1 : 0;
+        int end = path.length();
+        while (end > start && path.charAt(end - 1) == SLASH_CHAR) {
+            --end;
+        }
+        final M staticRoute = mStaticRoutes.get(
+            start == 0 && end == path.length() ? path : path.substring(start, end));
+        if (staticRoute != null) {
+            return staticRoute;
+        }
+        Node<M> node = mRoot;
+        while (node != null) {
+            int elementEnd = path.indexOf(SLASH_CHAR, start);
+            if (elementEnd < 0 || elementEnd > end) {
+                elementEnd = end;
+            }
+            final Node<M> child = node.findChild(path, start, elementEnd);
+            if (elementEnd == end) {
+                return child != null && child.mMethod != null ? child.mMethod
+                    : node.mParametrizedChild != null ? node.mParametrizedChild.mMethod : null;
+            }
+            node = child != null && child.hasChildren() ? child : node.mParametrizedChild;
+            start = elementEnd + 1;
         }
+        return null;
     }
 
     /**
      * Adds a rest method
      *
-     * @param path              where the method will be hosted.
-     * @param restMethodWrapper the method to host
+     * @param path   where the method will be hosted.
+     * @param method the method to host
      */
-    public void addMethod(final String path, final RestMethodWrapper restMethodWrapper) {
+    public void addMethod(final String path, final M method) {
         final String normalized = path.startsWith(SLASH) ? path.substring(1) : path;
         final String[] pathElements = normalized.split(SLASH);
-        final String nodeName;
-        switch (pathElements.length) {
-        case 0:
+        if (pathElements.length == 0) {
             throw new UnsupportedOperationException("Cannot add method at root path");
-        case 1:
-            nodeName = pathElements[0];
-            if (findNode(nodeName, mNormalLeaves, mParametrizedLeaf).isPresent()) {
-                throw new IllegalArgumentException("Trying to add path which already exists: "
-                    + restMethodWrapper.getRestPath());
-            }
+        }
+        boolean isStatic = true;
+        Node<M> node = mRoot;
+        for (String nodeName : pathElements) {
             if (isPathParameter(nodeName)) {
-                mParametrizedLeaf = restMethodWrapper;
-            } else {
-                mNormalLeaves.put(nodeName, restMethodWrapper);
-            }
-            break;
-        default:
-            nodeName = pathElements[0];
-            RestPath child = findNode(nodeName, mNormalChildren, mParametrizedChild).orElse(null);
-            if (child == null) {
-                child = new RestPath(nodeName);
-                if (isPathParameter(nodeName)) {
-                    mParametrizedChild = child;
-                } else {
-                    mNormalChildren.put(nodeName, child);
+                isStatic = false;
+                if (node.mParametrizedChild == null) {
+                    node.mParametrizedChild = new Node<>();
                 }
+                node = node.mParametrizedChild;
+            } else {
+                node = node.getOrAddChild(nodeName);
             }
-            child.addMethod(getChildPath(pathElements), restMethodWrapper);
+        }
+        if (node.mMethod != null) {
+            throw new IllegalArgumentException("Trying to add path which already exists: " + normalized);
+        }
+        node.mMethod = method;
+        if (isStatic) {
+            mStaticRoutes.put(String.join(SLASH, pathElements), method);
         }
     }
 
@@ -110,23 +187,15 @@ public class RestPath implements HasPathNode {
         return nodeName.startsWith("{") && nodeName.endsWith("}");
     }
 
-    private <T extends HasPathNode> Optional<T> findNode(final String nodeName, final Map<String, T> normalNodes,
-        final T parametrizedNode) {
-
-        final T node = normalNodes.get(nodeName);
-        if (node != null) {
-            return Optional.of(node);
-        }
-        return Optional.ofNullable(parametrizedNode);
-    }
-
-    @SuppressWarnings("MagicNumber")
-    private String getChildPath(final String[] pathElements) {
-        final StringBuilder sb = new StringBuilder(pathElements[1]);
-        for (int i = 2; i < pathElements.length; ++i) {
-            sb.append(SLASH)
-                .append(pathElements[i]);
+    private static int compare(final String name, final String path, final int start, final int end) {
+        final int length = end - start;
+        final int commonLength = Math.min(name.length(), length);
+        for (int i = 0; i < commonLength; ++i) {
+            final int comparison = name.charAt(i) - path.charAt(start + i);
+            if (comparison != 0) {
+                return comparison;
+            }
         }
-        return sb.toString();
+        return name.length() - length;
     }
 }
@@ -19,13 +19,141 @@ package com.securityandsafetythings.web_components.webserver.utilities;
 import android.os.SharedMemory;
 import android.system.ErrnoException;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * {@link SharedMemory} factory class
+ * <p>
+ * Every response gets a region of exactly its size. The web server does not report when it is done reading a
+ * response, so a region that was handed out is never written again.
+ * <p>
+ * JSON responses are encoded as UTF-8 into a buffer that is reused by the calling thread, instead of going through a
+ * String and a byte[], and then copied into their region.
  */
 public class SharedMemoryFactory {
+    private static final String REGION_NAME = "response";
+    @SuppressWarnings("MagicNumber")
+    private static final int MIN_BUFFER_SIZE = 1 << 12;
+    // Buffers that grew larger than this for a rare large document are not kept for the next one
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1 << 20;
+    // A character pair needs 4 bytes, as does an unpaired surrogate replaced before a character of 3 bytes
+    @SuppressWarnings("MagicNumber")
+    private static final int MAX_BYTES_PER_CHAR = 4;
+    private static final char REPLACEMENT_CHARACTER = '?';
+    private final ThreadLocal<Utf8Writer> mJsonWriters = new ThreadLocal<>();
+    private final AtomicLong mAllocations = new AtomicLong();
+
+    /**
+     * Writes a JSON document
+     */
+    interface JsonSource {
+        /**
+         * Writes the JSON document
+         *
+         * @param writer the writer to write to
+         * @throws IOException if the document could not be written
+         */
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    /**
+     * Encodes characters as UTF-8 into a byte array, which grows whenever it is full.
+     */
+    private static final class Utf8Writer extends Writer {
+        private byte[] mBytes;
+        private int mLength;
+        // High surrogate waiting for the low surrogate of its pair, or 0
+        private char mHighSurrogate;
+
+        Utf8Writer(final int size) {
+            mBytes = new byte[size];
+        }
+
+        void reset(final int sizeHint) {
+            mLength = 0;
+            mHighSurrogate = 0;
+            if (mBytes.length < sizeHint) {
+                mBytes = new byte[sizeHint];
+            }
+        }
+
+        @Override
+        public void write(final int c) {
+            writeChar((char)c);
+        }
+
+        @Override
+        public void write(final char[] chars, final int off, final int len) {
+            for (int i = off; i < off + len; ++i) {
+                writeChar(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(final String string, final int off, final int len) {
+            for (int i = off; i < off + len; ++i) {
+                writeChar(string.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() {
+            // Everything is written straight into the array
+        }
+
+        @Override
+        public void close() {
+            if (mHighSurrogate != 0) {
+                mHighSurrogate = 0;
+                writeChar(REPLACEMENT_CHARACTER);
+            }
+        }
+
+        @SuppressWarnings("MagicNumber")
+        private void writeChar(final char c) {
+            if (mBytes.length - mLength < MAX_BYTES_PER_CHAR) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mLength + MAX_BYTES_PER_CHAR));
+            }
+            if (mHighSurrogate != 0 && !Character.isLowSurrogate(c)) {
+                // A surrogate without its pair cannot be encoded
+                mHighSurrogate = 0;
+                put(REPLACEMENT_CHARACTER);
+            }
+            if (c < 0x80) {
+                put(c);
+            } else if (c < 0x800) {
+                put(0xc0 | c >> 6);
+                put(0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c)) {
+                mHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                if (mHighSurrogate == 0) {
+                    put(REPLACEMENT_CHARACTER);
+                    return;
+                }
+                final int codePoint = Character.toCodePoint(mHighSurrogate, c);
+                mHighSurrogate = 0;
+                put(0xf0 | codePoint >> 18);
+                put(0x80 | codePoint >> 12 & 0x3f);
+                put(0x80 | codePoint >> 6 & 0x3f);
+                put(0x80 | codePoint & 0x3f);
+            } else {
+                put(0xe0 | c >> 12);
+                put(0x80 | c >> 6 & 0x3f);
+                put(0x80 | c & 0x3f);
+            }
+        }
+
+        private void put(final int b) {
+            mBytes[mLength++] = (byte)b;
+        }
+    }
 
     /**
      * Creates a {@link SharedMemory} of a String (UTF-8 encoded)
@@ -47,9 +175,52 @@ public class SharedMemoryFactory {
      * @throws ErrnoException on error
      */
     SharedMemory createSharedMemoryForBytes(final byte[] bytes) throws ErrnoException {
-        final SharedMemory sharedMemory = SharedMemory.create("response", bytes.length);
+        return createSharedMemory(bytes, bytes.length);
+    }
+
+    /**
+     * Creates a {@link SharedMemory} of a JSON document, which is encoded as UTF-8 into a buffer of the calling thread
+     * instead of going through a String and a byte[].
+     *
+     * @param json     the JSON document
+     * @param sizeHint the expected size of the document, e.g. the size of the previous one
+     * @return shared memory
+     * @throws ErrnoException on error
+     * @throws IOException    if the document could not be written
+     */
+    SharedMemory createSharedMemoryForJson(final JsonSource json, final int sizeHint)
+        throws ErrnoException, IOException {
+        Utf8Writer writer = mJsonWriters.get();
+        if (writer == null) {
+            writer = new Utf8Writer(Math.max(MIN_BUFFER_SIZE, sizeHint));
+        }
+        // The writer is not reachable from the thread while it is in use, so a nested call cannot overwrite it
+        mJsonWriters.remove();
+        writer.reset(sizeHint);
+        json.writeTo(writer);
+        writer.close();
+        final SharedMemory sharedMemory = createSharedMemory(writer.mBytes, writer.mLength);
+        if (writer.mBytes.length <= MAX_RETAINED_BUFFER_SIZE) {
+            mJsonWriters.set(writer);
+        }
+        return sharedMemory;
+    }
+
+    /**
+     * Gets the number of regions that were created
+     *
+     * @return the number of created regions
+     */
+    public long getAllocationCount() {
+        return mAllocations.get();
+    }
+
+    private SharedMemory createSharedMemory(final byte[] bytes, final int length) throws ErrnoException {
+        final SharedMemory sharedMemory = SharedMemory.create(REGION_NAME, length);
         final ByteBuffer byteBuffer = sharedMemory.mapReadWrite();
-        byteBuffer.put(bytes);
+        byteBuffer.put(bytes, 0, length);
+        SharedMemory.unmap(byteBuffer);
+        mAllocations.incrementAndGet();
         return sharedMemory;
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-2020 by Security and Safety Things GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.securityandsafetythings.web_components.webserver.utilities;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Result of a rest method that carries a strong ETag and headers of its own, in addition to the entity.
+ * <p>
+ * A rest method returning a {@code TaggedEntity<T>} is handled like one returning {@code T}, except that a GET request
+ * whose If-None-Match header matches the tag is answered with 304 Not Modified, without serializing the entity. To
+ * make that cheap, build the {@code TaggedEntity} when the entity changes and return the same instance until then.
+ *
+ * @param <T> the type of the entity
+ */
+public final class TaggedEntity<T> {
+    private static final String QUOTE = "\"";
+    private static final String WEAK_PREFIX = "W/";
+    private static final String ANY = "*";
+    private final String mEntityTag;
+    private final T mEntity;
+    private final Map<String, String> mHeaders;
+
+    /**
+     * Constructs a {@code TaggedEntity}
+     *
+     * @param tag    the tag, unique for every version of the entity, without quotes
+     * @param entity the entity
+     */
+    public TaggedEntity(final String tag, final T entity) {
+        this(tag, entity, Collections.emptyMap());
+    }
+
+    /**
+     * Constructs a {@code TaggedEntity}
+     *
+     * @param tag     the tag, unique for every version of the entity, without quotes
+     * @param entity  the entity
+     * @param headers headers that are added to, or replace, the headers of the method's {@link ProducesHeader}
+     */
+    public TaggedEntity(final String tag, final T entity, final Map<String, String> headers) {
+        mEntityTag = QUOTE + tag + QUOTE;
+        mEntity = entity;
+        mHeaders = headers;
+    }
+
+    /**
+     * Constructs a {@code TaggedEntity} for an entity that is versioned by a sequence number, e.g. that of a frame
+     *
+     * @param sequenceNumber the sequence number of the entity
+     * @param entity         the entity
+     * @param <T>            the type of the entity
+     * @return the tagged entity
+     */
+    public static <T> TaggedEntity<T> forSequenceNumber(final long sequenceNumber, final T entity) {
+        return new TaggedEntity<>(Long.toHexString(sequenceNumber), entity);
+    }
+
+    /**
+     * Gets the entity
+     *
+     * @return the entity
+     */
+    public T getEntity() {
+        return mEntity;
+    }
+
+    /**
+     * Gets the ETag
+     *
+     * @return the tag, including quotes
+     */
+    public String getEntityTag() {
+        return mEntityTag;
+    }
+
+    /**
+     * Checks whether an If-None-Match header matches the tag, using the weak comparison required for If-None-Match
+     *
+     * @param ifNoneMatch the value of the header, may be null
+     * @return true if the client already has this version of the entity
+     */
+    boolean matches(final String ifNoneMatch) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (ANY.equals(trimmed)) {
+                return true;
+            }
+            if (trimmed.startsWith(WEAK_PREFIX)) {
+                trimmed = trimmed.substring(WEAK_PREFIX.length());
+            }
+            if (mEntityTag.equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the headers of a response for this entity
+     *
+     * @param methodHeaders the headers of the method's {@link ProducesHeader}
+     * @return the headers, including the ETag
+     */
+    Map<String, String> getHeaders(final Map<String, String> methodHeaders) {
+        final Map<String, String> headers = new HashMap<>(methodHeaders);
+        headers.putAll(mHeaders);
+        headers.put("ETag", mEntityTag);
+        return headers;
+    }
+}